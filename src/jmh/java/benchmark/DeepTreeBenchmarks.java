@@ -0,0 +1,64 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import test.inline.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static test.inline.TI.*;
+
+/**
+ * Benchmarks for the stack-safe operations on a degenerated tree, one million nodes deep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class DeepTreeBenchmarks {
+
+    @Param({"1000000"})
+    public int depth;
+
+    private TIExpr expr;
+    private TIExpr exprCopy;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        TIExpr e = IntLiteral(0);
+        for (int i = 0; i < depth; i++) {
+            e = BinaryExpr(e, Plus(), IntLiteral(i));
+        }
+        expr = e;
+        exprCopy = (TIExpr) e.copyIterative();
+    }
+
+    @Benchmark
+    public TIElement copyIterative() {
+        return expr.copyIterative();
+    }
+
+    @Benchmark
+    public boolean structuralEqualsIterative() {
+        return expr.structuralEqualsIterative(exprCopy);
+    }
+
+    @Benchmark
+    public int preOrder() {
+        int count = 0;
+        for (TIElement e : expr.preOrder()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int postOrder() {
+        int count = 0;
+        for (TIElement e : expr.postOrder()) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,65 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import test.frozen.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static test.frozen.TZ.*;
+
+/**
+ * Benchmarks for changed versions of trees generated from test-frozen.parseq, with and without frozen elements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrozenBenchmarks {
+
+    /** number of statements in the program */
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private TZProgram program;
+    private TZProgramFrozen frozen;
+
+    static TZProgram createProgram(int size) {
+        TZFunctionDef f = FunctionDef("f",
+                ParameterList(Parameter(SimpleType("int"), "x")),
+                SimpleType("int"),
+                StatementList(ReturnStatement(VarRef("x"))));
+        TZStatementList init = StatementList();
+        for (int i = 0; i < size; i++) {
+            init.add(VarDecl(SimpleType("int"), "v" + i,
+                    BinaryExpr(VarRef("x"), Plus(), FunctionCallExpr(f, ExprList(IntLiteral(i), BoolLiteral(true))))));
+        }
+        return Program(FunctionList(f), init);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        program = createProgram(size);
+        frozen = program.freeze();
+    }
+
+    /** a variant of the program with one changed statement, by copying */
+    @Benchmark
+    public TZProgram copyVariant() {
+        TZProgram variant = program.copy();
+        variant.getInitBlock().set(size / 2, ExprStatement(IntLiteral(0)));
+        return variant;
+    }
+
+    /** a variant of the program with one changed statement, sharing the rest */
+    @Benchmark
+    public TZProgramFrozen frozenVariant() {
+        return frozen.withInitBlock(frozen.getInitBlock().with(size / 2, new TZExprStatementFrozen(new TZIntLiteralFrozen(0))));
+    }
+
+    @Benchmark
+    public TZProgramFrozen freeze() {
+        return program.freeze();
+    }
+}
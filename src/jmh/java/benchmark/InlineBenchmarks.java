@@ -0,0 +1,173 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import test.inline.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static test.inline.TI.*;
+
+/**
+ * Benchmarks for the common operations on trees generated from test-inline.parseq.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InlineBenchmarks {
+
+    /** number of statements in the program */
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private TIProgram program;
+    private TIProgram programCopy;
+    private TIStatementList statements;
+    private TIExpr expr;
+    private TIProgram constants;
+
+    private static final Rewriter FOLD = new Rewriter().onBinaryExpr(InlineBenchmarks::fold);
+
+    static TIProgram createProgram(int size) {
+        TIFunctionDef f = FunctionDef("f",
+                ParameterList(Parameter(SimpleType("int"), "x")),
+                SimpleType("int"),
+                StatementList(ReturnStatement(VarRef("x"))));
+        TIStatementList init = StatementList();
+        for (int i = 0; i < size; i++) {
+            init.add(VarDecl(SimpleType("int"), "v" + i,
+                    BinaryExpr(VarRef("x"), Plus(), FunctionCallExpr(f, ExprList(IntLiteral(i), BoolLiteral(true))))));
+        }
+        return Program(FunctionList(f), init);
+    }
+
+    /** a program, in which every 100th statement contains a sum of 8 constants nested to the left */
+    static TIProgram createConstants(int size) {
+        TIStatementList init = StatementList();
+        for (int i = 0; i < size; i++) {
+            TIExpr sum = IntLiteral(i);
+            if (i % 100 == 0) {
+                for (int j = 1; j < 8; j++) {
+                    sum = BinaryExpr(sum, Plus(), IntLiteral(j));
+                }
+            }
+            init.add(VarDecl(SimpleType("int"), "v" + i, BinaryExpr(sum, Plus(), VarRef("x"))));
+        }
+        return Program(FunctionList(), init);
+    }
+
+    private static TIExpr fold(TIBinaryExpr b) {
+        if (b.getOperator() instanceof TIPlus && b.getLeft() instanceof TIIntLiteral l && b.getRight() instanceof TIIntLiteral r) {
+            return IntLiteral(l.getIntValue() + r.getIntValue());
+        }
+        return b;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        program = createProgram(size);
+        programCopy = program.copy();
+        statements = program.getInitBlock();
+        expr = ((TIVarDecl) statements.get(size / 2)).getInitializer();
+        expr.nodeCount();
+        constants = createConstants(size);
+    }
+
+    @Benchmark
+    public TIProgram construction() {
+        return createProgram(size);
+    }
+
+    @Benchmark
+    public TIProgram copy() {
+        return program.copy();
+    }
+
+    @Benchmark
+    public TIElement copyIterative() {
+        return program.copyIterative();
+    }
+
+    @Benchmark
+    public boolean structuralEquals() {
+        return program.structuralEquals(programCopy);
+    }
+
+    @Benchmark
+    public int visitor() {
+        int[] count = {0};
+        program.accept(new TIElement.DefaultVisitor() {
+            @Override
+            public void visit(TIIntLiteral intLiteral) {
+                count[0]++;
+                super.visit(intLiteral);
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public TIStatementList listAddRemove() {
+        statements.add(ExprStatement(IntLiteral(0)));
+        statements.remove(statements.size() - 1);
+        return statements;
+    }
+
+    @Benchmark
+    public TIStatementList listInsertRemoveMiddle() {
+        statements.add(size / 2, ExprStatement(IntLiteral(0)));
+        statements.remove(size / 2);
+        return statements;
+    }
+
+    @Benchmark
+    public TIStatementList listReplace() {
+        TIStatement old = statements.get(size / 2);
+        TIStatement replacement = ExprStatement(IntLiteral(0));
+        old.replaceBy(replacement);
+        replacement.replaceBy(old);
+        return statements;
+    }
+
+    @Benchmark
+    public int cachedAttributeHit() {
+        return expr.nodeCount();
+    }
+
+    @Benchmark
+    public TIProgram clearAttributes() {
+        program.clearAttributes();
+        return program;
+    }
+
+    /** constant folding with the rewriter, which visits every element once */
+    @Benchmark
+    public TIElement rewriteConstants() {
+        return FOLD.rewrite(constants.copy());
+    }
+
+    /** constant folding with a visitor, which is repeated until nothing changes */
+    @Benchmark
+    public TIElement foldConstantsRepeated() {
+        TIProgram p = constants.copy();
+        boolean[] changed = {true};
+        while (changed[0]) {
+            changed[0] = false;
+            p.accept(new TIElement.DefaultVisitor() {
+                @Override
+                public void visit(TIBinaryExpr binaryExpr) {
+                    TIExpr folded = fold(binaryExpr);
+                    if (folded != binaryExpr) {
+                        binaryExpr.replaceBy(folded);
+                        changed[0] = true;
+                    } else {
+                        super.visit(binaryExpr);
+                    }
+                }
+            });
+        }
+        return p;
+    }
+}
@@ -0,0 +1,143 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import test.refs.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static test.refs.TR.*;
+
+/**
+ * Benchmarks for copying trees with references, generated from test-refs.parseq.
+ * The wide module has many shallow references, the deep module references declarations in deeply nested blocks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefsBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Wide {
+        /** number of functions in the module, each function calls the previous one */
+        @Param({"10", "1000", "100000"})
+        public int size;
+
+        private TRModule module;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            TRFunctionList functions = FunctionList();
+            TRFunctionDef previous = null;
+            for (int i = 0; i < size; i++) {
+                TRVarDecl local = VarDecl(SimpleType("int"), "x", IntLiteral(i));
+                TRStatementList body = StatementList(
+                        local,
+                        Assignment(local, BinaryExpr(VarAccess(local), Plus(), IntLiteral(1))),
+                        ReturnStmt(VarAccess(local)));
+                if (previous != null) {
+                    body.add(FunctionCall(previous, ExprList(VarAccess(local))));
+                }
+                TRFunctionDef f = FunctionDef("f" + i, ParameterList(), SimpleType("int"), body);
+                functions.add(f);
+                previous = f;
+            }
+            module = Module(functions, ClassDefList());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Deep {
+        /** nesting depth of the blocks, every block declares a variable and assigns the one of the enclosing block */
+        @Param({"100", "1000"})
+        public int depth;
+
+        private TRModule module;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            TRStatementList body = StatementList();
+            TRStatementList top = body;
+            TRVarDecl outer = null;
+            for (int i = 0; i < depth; i++) {
+                TRVarDecl local = VarDecl(SimpleType("int"), "x" + i, IntLiteral(i));
+                body.add(local);
+                if (outer != null) {
+                    body.add(Assignment(outer, BinaryExpr(VarAccess(outer), Plus(), VarAccess(local))));
+                }
+                TRStatementList inner = StatementList();
+                body.add(Block(inner));
+                body = inner;
+                outer = local;
+            }
+            TRFunctionDef f = FunctionDef("f", ParameterList(), SimpleType("int"), top);
+            module = Module(FunctionList(f), ClassDefList());
+        }
+    }
+
+    @Benchmark
+    public TRModule copy(Wide wide) {
+        return wide.module.copy();
+    }
+
+    @Benchmark
+    public TRModule copyWithRefs(Wide wide) {
+        return wide.module.copyWithRefs();
+    }
+
+    /** the former copyWithRefs, which finds the copy of each referenced element by its path, for comparison */
+    @Benchmark
+    public TRModule copyWithRefsBaseline(Wide wide) {
+        return copyWithRefsByPath(wide.module);
+    }
+
+    @Benchmark
+    public TRModule copyWithRefsDeep(Deep deep) {
+        return deep.module.copyWithRefs();
+    }
+
+    /** the path walk costs the depth of the target for every reference, so it is quadratic in the depth here */
+    @Benchmark
+    public TRModule copyWithRefsDeepBaseline(Deep deep) {
+        return copyWithRefsByPath(deep.module);
+    }
+
+    /**
+     * Copies the module and redirects every reference to an element inside the module to its copy,
+     * by walking up the parents of the target and following its path in the copy.
+     */
+    static TRModule copyWithRefsByPath(TRModule self) {
+        TRModule res = self.copy();
+        res.accept(new TRElement.DefaultVisitor() {
+            @Override public void visit(TRAssignment e) {
+                if (isInside(e.getTarget(), self)) {
+                    e.setTarget((TRVarDecl) res.followPath(self.pathTo(e.getTarget())));
+                }
+                super.visit(e);
+            }
+
+            @Override public void visit(TRFunctionCall e) {
+                if (isInside(e.getFunc(), self)) {
+                    e.setFunc((TRFunctionDef) res.followPath(self.pathTo(e.getFunc())));
+                }
+                super.visit(e);
+            }
+
+            @Override public void visit(TRVarAccess e) {
+                if (isInside(e.getVariable(), self)) {
+                    e.setVariable((TRVarDecl) res.followPath(self.pathTo(e.getVariable())));
+                }
+                super.visit(e);
+            }
+        });
+        return res;
+    }
+
+    private static boolean isInside(TRElement elem, TRElement root) {
+        while (elem != root && elem != null) {
+            elem = elem.getParent();
+        }
+        return elem == root;
+    }
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import test.inline.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a serialized tree with navigating it through a TreeView.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmarks {
+
+    /** number of statements in the program */
+    @Param({"1000", "100000"})
+    public int size;
+
+    private TIProgram program;
+    private byte[] bytes;
+    private TreeView view;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        program = InlineBenchmarks.createProgram(size);
+        bytes = write();
+        view = TreeView.of(ByteBuffer.wrap(bytes));
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        program.write(new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public TIProgram read() throws IOException {
+        return TIProgram.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Benchmark
+    public TreeView openView() throws IOException {
+        return TreeView.of(ByteBuffer.wrap(bytes));
+    }
+
+    /** reads one statement from an opened view */
+    @Benchmark
+    public String viewLookup() {
+        TIProgramView p = (TIProgramView) view.root();
+        return ((TIVarDeclView) p.getInitBlock().get(size / 2)).getName();
+    }
+
+    /** visits all statements of an opened view */
+    @Benchmark
+    public int viewScan() {
+        TIProgramView p = (TIProgramView) view.root();
+        int count = 0;
+        for (TIStatementView s : p.getInitBlock()) {
+            count += ((TIVarDeclView) s).getName().length();
+        }
+        return count;
+    }
+}
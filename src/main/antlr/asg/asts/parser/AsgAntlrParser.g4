@@ -19,6 +19,7 @@ spec returns [Program prog]:
 	 $prog = new Program($p.text);
 	}
 	('typeprefix:' pre=ID  { $prog.setTypePrefix($pre.text); })?
+	option[$prog]*
 	
 	'abstract syntax:'
 	element[$prog]*
@@ -27,6 +28,17 @@ spec returns [Program prog]:
 	EOF
 	;
 	
+option[Program prog]:
+	'concurrency:' c=ID { $prog.setConcurrency($c.text); }
+	| 'invalidation:' i=ID { $prog.setInvalidation($i.text); }
+	| 'storage:' s=ID { $prog.setStorage($s.text); }
+	| 'index:' x=ID { $prog.setIndex($x.text); }
+	| 'frozen:' f=ID { $prog.setFrozen($f.text); }
+	| 'journal:' j=ID { $prog.setJournal($j.text); }
+	| 'numbering:' n=ID { $prog.setNumbering($n.text); }
+	| 'hash:' h=ID { $prog.setHash($h.text); }
+	;
+
 element[Program prog]:
 	contructorDef[prog]
 	| listDef[prog]
@@ -34,9 +46,14 @@ element[Program prog]:
 	;	
 
 contructorDef[Program prog] returns [ConstructorDef c]:
+	{
+		boolean interned = false;
+	}
+	('@interned' {interned = true;})?
 	name=ID 
 	{
 		$c = new ConstructorDef($name.text);
+		$c.setInterned(interned);
 		prog.addConstructorDef($c);		
 	}
 	'(' (paramDef[$c] (',' paramDef[$c] )*)? ')'
@@ -83,6 +100,7 @@ attributeDef[Program prog]:
 	{
 		List<Parameter> parameters = null;
 		String circ = null;
+		boolean cached = false;
 	}
 	elem=ID '.' attrName=ID
 	 (
@@ -104,8 +122,10 @@ attributeDef[Program prog]:
 	 )?
 	 (doc=STRVAL)? 'returns' returnType=javaType 'implemented' 'by' implementedBy=qID
 	 ('circular' circ1=qID {circ=$circ1.s;} )?
+	 // 'cached' is matched as an ID, so that it can still be used as a name
+	 ({_input.LT(1).getText().equals("cached")}? ID {cached = true;} )?
 	{
-		prog.addAttribute(parameters, $elem.text, $attrName.text, $returnType.name, $implementedBy.s, $doc.text, circ);	
+		prog.addAttribute(parameters, $elem.text, $attrName.text, $returnType.name, $implementedBy.s, $doc.text, circ, cached);	
 	}
 	|
 	(doc=STRVAL)?
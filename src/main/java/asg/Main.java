@@ -15,6 +15,13 @@ import org.antlr.v4.runtime.CommonTokenStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Main {
 
@@ -24,10 +31,27 @@ public class Main {
 	 */
 	public static void main(String[] args) throws FileNotFoundException {
 		try {
+			if (args.length > 0 && args[0].equals("--batch")) {
+				if (args.length < 3 || args.length % 2 != 1) {
+					printUsage();
+					System.exit(2);
+					return;
+				}
+				List<String> inputFiles = new ArrayList<>();
+				List<String> outputFolders = new ArrayList<>();
+				for (int i = 1; i < args.length; i += 2) {
+					inputFiles.add(args[i]);
+					outputFolders.add(args[i + 1]);
+				}
+				List<String> failed = compileBatch(inputFiles, outputFolders);
+				if (!failed.isEmpty()) {
+					System.out.println(failed.size() + " of " + inputFiles.size() + " specifications failed.");
+					System.exit(1);
+				}
+				return;
+			}
 			if (args.length != 2) {
-				System.out.println("2 parameters required.");
-				System.out.println("parameter 1: input file");
-				System.out.println("parameter 2: output folder");
+				printUsage();
 				System.exit(2);
 				return;
 			}
@@ -40,19 +64,10 @@ public class Main {
 			
 			
 			Program prog = compileAstSpec(inputFile, outputFolder);
-			
-			File out = new File(outputFolder, prog.getPackageName().replace('.', '/') + '/');
-			
-			FileGenerator fileGenerator = new FileGenerator(out);
-			Generator gen = new Generator(fileGenerator, prog, outputFolder);
-			gen.generate();
-			
-			
-			String inputFileG = inputFile + ".g";
-			if (new File(inputFileG).exists()) {
-				compileGrammarSpec(fileGenerator, inputFileG, prog);
-			}
-			fileGenerator.removeOldFiles();
+			generate(inputFile, outputFolder, prog);
+		} catch (SyntaxErrorException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
 		} catch (Throwable t) {
 			t.printStackTrace();
 			System.out.println(t.getMessage());
@@ -60,8 +75,119 @@ public class Main {
 		}
 	}
 
+	private static void printUsage() {
+		System.out.println("2 parameters required.");
+		System.out.println("parameter 1: input file");
+		System.out.println("parameter 2: output folder");
+		System.out.println("or, to generate several specifications in one run:");
+		System.out.println("--batch inputFile1 outputFolder1 inputFile2 outputFolder2 ...");
+	}
+
+	private static void generate(String inputFile, String outputFolder, Program prog) throws IOException {
+		File out = new File(outputFolder, prog.getPackageName().replace('.', '/') + '/');
+		
+		FileGenerator fileGenerator = new FileGenerator(out);
+		String inputFileG = inputFile + ".g";
+		String specHash = FileGenerator.hashInputs(new File(inputFile), new File(inputFileG));
+		if (fileGenerator.isUpToDate(specHash)) {
+			// nothing changed since the last run
+			return;
+		}
+		fileGenerator.setSpecHash(specHash);
+
+		Generator gen = new Generator(fileGenerator, prog, outputFolder);
+		gen.generate();
+		
+		
+		if (new File(inputFileG).exists()) {
+			compileGrammarSpec(fileGenerator, inputFileG, prog);
+		}
+		fileGenerator.removeOldFiles();
+		fileGenerator.writeManifest();
+	}
+
+	/**
+	 * Parses and generates several specifications in parallel.
+	 * All parsers run in this JVM, so they share the ANTLR DFA caches.
+	 * The i-th input file is generated into the i-th output folder.
+	 * A failing specification does not stop the others, each failure is reported.
+	 * @return the input files, which could not be generated
+	 */
+	public static List<String> compileBatch(List<String> inputFiles, List<String> outputFolders)
+			throws InterruptedException {
+		ForkJoinPool pool = new ForkJoinPool();
+		List<String> failed = new ArrayList<>();
+		try {
+			List<Future<Program>> parsed = new ArrayList<>();
+			for (String inputFile : inputFiles) {
+				parsed.add(pool.submit(() -> parseAstSpec(inputFile)));
+			}
+			// specifications must not write to the same package folder:
+			Map<File, String> packageFolders = new HashMap<>();
+			List<Future<Program>> generated = new ArrayList<>();
+			List<String> generatedFiles = new ArrayList<>();
+			for (int i = 0; i < inputFiles.size(); i++) {
+				String inputFile = inputFiles.get(i);
+				String outputFolder = outputFolders.get(i);
+				Program prog = getResult(parsed.get(i), inputFile, failed);
+				if (prog == null) {
+					continue;
+				}
+				File out = new File(outputFolder, prog.getPackageName().replace('.', '/') + '/').getAbsoluteFile();
+				String other = packageFolders.put(out, inputFile);
+				if (other != null) {
+					reportFailure(inputFile, new IllegalArgumentException("Specifications " + other + " and " + inputFile
+							+ " both generate to " + out), failed);
+					continue;
+				}
+				generated.add(pool.submit(() -> {
+					generate(inputFile, outputFolder, prog);
+					return prog;
+				}));
+				generatedFiles.add(inputFile);
+			}
+			for (int i = 0; i < generated.size(); i++) {
+				getResult(generated.get(i), generatedFiles.get(i), failed);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return failed;
+	}
+
+	/**
+	 * the result of the future, or null if it failed, then the failure is reported and the input file is added to failed
+	 */
+	private static Program getResult(Future<Program> f, String inputFile, List<String> failed) throws InterruptedException {
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			reportFailure(inputFile, e.getCause(), failed);
+			return null;
+		}
+	}
+
+	private static void reportFailure(String inputFile, Throwable t, List<String> failed) {
+		failed.add(inputFile);
+		if (t instanceof SyntaxErrorException) {
+			System.out.println(t.getMessage());
+		} else {
+			t.printStackTrace();
+			System.out.println("Could not compile " + inputFile + ": " + t.getMessage());
+		}
+	}
+
 	public static Program compileAstSpec(String inputFile, String outputFolder)
 			throws IOException {
+		try {
+			return parseAstSpec(inputFile);
+		} catch (SyntaxErrorException e) {
+			System.exit(1);
+			return null;
+		}
+	}
+
+	private static Program parseAstSpec(String inputFile) throws IOException {
 		AsgAntlrParserLexer lexer = new AsgAntlrParserLexer(new ANTLRFileStream(inputFile));
 		CommonTokenStream tokens = new CommonTokenStream(lexer);
 		AsgAntlrParserParser parser = new AsgAntlrParserParser(tokens);
@@ -72,10 +198,18 @@ public class Main {
 		Program prog = parser.spec().prog;
 		
 		if (errListener.getErrCount() > 0) {
-			System.exit(1);
+			throw new SyntaxErrorException(inputFile + ": " + errListener.getErrCount() + " syntax errors");
 		}
 		return prog;
 	}
+
+	static class SyntaxErrorException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		SyntaxErrorException(String msg) {
+			super(msg);
+		}
+	}
 	
 	public static void compileGrammarSpec(FileGenerator fileGenerator, String grammarFile, Program prog)
 			throws IOException {
@@ -2,34 +2,185 @@ package asg.asts;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 public class FileGenerator {
 	public static final String PARSEQ_COMMENT = "// generated by abstract-syntax-gen";
+	/** file in the output folder, which remembers the hashes of the generated files */
+	public static final String MANIFEST_NAME = ".asg-manifest";
 	private File outputFolder;
 	private List<File> oldFiles = new LinkedList<>();
-	
+	/** spec hash and file entries from the previous run */
+	private String oldSpecHash;
+	private Map<String, ManifestEntry> oldManifest = new LinkedHashMap<>();
+	/** file entries of the current run */
+	private Map<String, ManifestEntry> manifest = new LinkedHashMap<>();
+	private String specHash;
+
+	private static class ManifestEntry {
+		final String contentHash;
+		final long size;
+		final long lastModified;
+
+		ManifestEntry(String contentHash, long size, long lastModified) {
+			this.contentHash = contentHash;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/** checks (without reading it) that the file was not changed since this entry was written */
+		boolean matches(File file) {
+			return file.length() == size && file.lastModified() == lastModified;
+		}
+	}
+
 	public FileGenerator(File outputFolder) {
 		this.outputFolder = outputFolder;
 		outputFolder.mkdirs();
 
 		oldFiles.addAll(Arrays.asList(outputFolder.listFiles()));
+		File manifestFile = new File(outputFolder, MANIFEST_NAME);
+		oldFiles.remove(manifestFile);
+		readManifest(manifestFile);
+	}
+
+	private void readManifest(File manifestFile) {
+		if (!manifestFile.exists()) {
+			return;
+		}
+		try {
+			for (String line : Files.readLines(manifestFile, Charsets.UTF_8)) {
+				String[] parts = line.split("\t");
+				if (parts.length == 2 && parts[0].equals("spec")) {
+					oldSpecHash = parts[1];
+				} else if (parts.length == 5 && parts[0].equals("file")) {
+					oldManifest.put(parts[1], new ManifestEntry(parts[2], Long.parseLong(parts[3]), Long.parseLong(parts[4])));
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// broken manifest -> ignore it and compare contents instead
+			oldSpecHash = null;
+			oldManifest.clear();
+		}
+	}
+
+	/**
+	 * Calculates a hash of the given input files and of the generator itself.
+	 * Input files which do not exist are ignored.
+	 */
+	public static String hashInputs(File... inputs) throws IOException {
+		Hasher hasher = Hashing.sha256().newHasher();
+		for (File input : inputs) {
+			if (input.exists()) {
+				hasher.putString(input.getName(), StandardCharsets.UTF_8);
+				hasher.putBytes(Files.toByteArray(input));
+			}
+		}
+		// a different version of the generator might generate different files:
+		hashGenerator(hasher);
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * Adds the classes of the generator to the hash: every class file when the generator runs from a folder of classes,
+	 * otherwise the jar containing it. The templates are separate classes, so Generator.class alone is not enough.
+	 */
+	private static void hashGenerator(Hasher hasher) throws IOException {
+		File location = null;
+		CodeSource source = Generator.class.getProtectionDomain().getCodeSource();
+		if (source != null && source.getLocation() != null && source.getLocation().getProtocol().equals("file")) {
+			try {
+				location = new File(source.getLocation().toURI());
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				location = null;
+			}
+		}
+		if (location == null) {
+			URL generatorClass = Generator.class.getResource("Generator.class");
+			if (generatorClass != null) {
+				URLConnection con = generatorClass.openConnection();
+				hasher.putString(generatorClass.toString(), StandardCharsets.UTF_8);
+				hasher.putLong(con.getLastModified());
+				hasher.putLong(con.getContentLengthLong());
+			}
+		} else if (location.isDirectory()) {
+			Path root = location.toPath();
+			List<Path> classFiles;
+			try (Stream<Path> files = java.nio.file.Files.walk(root)) {
+				classFiles = files.filter(f -> f.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+			}
+			for (Path classFile : classFiles) {
+				hashFile(hasher, root.relativize(classFile).toString(), classFile.toFile());
+			}
+		} else {
+			hashFile(hasher, location.getPath(), location);
+		}
+	}
+
+	private static void hashFile(Hasher hasher, String name, File file) {
+		hasher.putString(name, StandardCharsets.UTF_8);
+		hasher.putLong(file.lastModified());
+		hasher.putLong(file.length());
+	}
+
+	/**
+	 * Checks whether the files in the output folder were generated from inputs with the given hash
+	 * and were not modified since then.
+	 */
+	public boolean isUpToDate(String specHash) {
+		if (oldSpecHash == null || !oldSpecHash.equals(specHash)) {
+			return false;
+		}
+		for (Map.Entry<String, ManifestEntry> e : oldManifest.entrySet()) {
+			File file = new File(outputFolder, e.getKey());
+			if (!file.exists() || !e.getValue().matches(file)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** sets the hash of the inputs, which is stored in the manifest */
+	public void setSpecHash(String specHash) {
+		this.specHash = specHash;
 	}
 
 	public void createFile(String name, StringBuilder sb) {
 		String filename = name;
 		File file = new File(outputFolder, filename);
-	
+		String contentHash = Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+
 		boolean writeFile = false;
-		if (file.exists()) {
-			// file already exists -> compare contents
+		ManifestEntry old = oldManifest.get(filename);
+		if (!file.exists()) {
+			// file does not exist -> write it
+			writeFile = true;
+		} else if (old != null && old.matches(file)) {
+			// file unchanged since last run -> compare hashes
+			writeFile = !old.contentHash.equals(contentHash);
+		} else {
+			// file unknown or modified -> compare contents
 			try {
-				String content = Files.toString(file, Charsets.UTF_8);
+				String content = Files.asCharSource(file, Charsets.UTF_8).read();
 				if (!sb.toString().equals(content)) {
 					// files differ, rewrite:
 					writeFile = true;
@@ -37,27 +188,65 @@ public class FileGenerator {
 			} catch (IOException e) {
 				abort("Error: Could not read file " + filename);
 			}
-		} else {
-			// file does not exist -> write it
-			writeFile = true;
 		}
-		
-		
+
+
 		if (writeFile) {
 			try {
-				Files.write(sb, file, Charsets.UTF_8);
+				writeAtomically(file, sb);
 			} catch (IOException e) {
 				abort("Error: Could not write file " + filename);
 			}
 		}
+		manifest.put(filename, new ManifestEntry(contentHash, file.length(), file.lastModified()));
 		oldFiles.remove(file);
 	}
-	
+
+	/**
+	 * writes to a temporary file first and then renames it, so that readers never see a partially written file
+	 */
+	private void writeAtomically(File file, CharSequence content) throws IOException {
+		Path tmp = new File(outputFolder, file.getName() + ".tmp").toPath();
+		try {
+			java.nio.file.Files.writeString(tmp, content, StandardCharsets.UTF_8);
+			try {
+				java.nio.file.Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				java.nio.file.Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			java.nio.file.Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * writes the manifest with the hashes of all files created in this run
+	 */
+	public void writeManifest() {
+		StringBuilder sb = new StringBuilder();
+		if (specHash != null) {
+			sb.append("spec\t").append(specHash).append("\n");
+		}
+		for (Map.Entry<String, ManifestEntry> e : manifest.entrySet()) {
+			ManifestEntry entry = e.getValue();
+			sb.append("file\t").append(e.getKey())
+				.append("\t").append(entry.contentHash)
+				.append("\t").append(entry.size)
+				.append("\t").append(entry.lastModified)
+				.append("\n");
+		}
+		try {
+			writeAtomically(new File(outputFolder, MANIFEST_NAME), sb);
+		} catch (IOException e) {
+			abort("Error: Could not write file " + MANIFEST_NAME);
+		}
+	}
+
 	public void abort(String string) {
 		System.err.println(string);
 		System.exit(1);
 	}
-	
+
 	public void removeOldFiles() {
 		for (File old : oldFiles) {
 			try {
@@ -71,8 +260,8 @@ public class FileGenerator {
 				}
 			} catch (IOException e) {
 				throw new Error(e);
-			}			
+			}
 		}
 	}
 
-}
\ No newline at end of file
+}
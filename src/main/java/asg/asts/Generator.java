@@ -2,36 +2,43 @@ package asg.asts;
 
 import asg.asts.ast.*;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.Map.Entry;
 
 @SuppressWarnings("StringConcatenationInsideStringBufferAppend")
 public class Generator {
 
 
-    private Multimap<CaseDef, AstBaseTypeDefinition> baseTypes = HashMultimap.create();
-    private Multimap<AstEntityDefinition, AstEntityDefinition> directChildTypes = HashMultimap.create();
+    private Multimap<CaseDef, AstBaseTypeDefinition> baseTypes = LinkedHashMultimap.create();
+    private Multimap<AstEntityDefinition, AstEntityDefinition> directChildTypes = LinkedHashMultimap.create();
 
-    private Multimap<AstEntityDefinition, AstEntityDefinition> directParentType = HashMultimap.create();
-    private Multimap<AstEntityDefinition, AstEntityDefinition> directSubTypes = HashMultimap.create();
-    private Multimap<AstEntityDefinition, AstEntityDefinition> directSuperTypes = HashMultimap.create();
-    private Multimap<AstBaseTypeDefinition, CaseDef> interfaceTypes = HashMultimap.create();
+    private Multimap<AstEntityDefinition, AstEntityDefinition> directParentType = LinkedHashMultimap.create();
+    private Multimap<AstEntityDefinition, AstEntityDefinition> directSubTypes = LinkedHashMultimap.create();
+    private Multimap<AstEntityDefinition, AstEntityDefinition> directSuperTypes = LinkedHashMultimap.create();
+    private Multimap<AstBaseTypeDefinition, CaseDef> interfaceTypes = LinkedHashMultimap.create();
     private String mainName;
     private String packageName;
     private Program prog;
-    private Multimap<AstEntityDefinition, AstEntityDefinition> transientChildTypes = HashMultimap.create();
+    private Multimap<AstEntityDefinition, AstEntityDefinition> transientChildTypes = LinkedHashMultimap.create();
     private Multimap<AstEntityDefinition, AstEntityDefinition> transientSubTypes;
     private Multimap<AstEntityDefinition, AstEntityDefinition> transientSuperTypes;
+    private TypeTable typeTable;
+    /** transient sub- and supertypes, indexed by the type table */
+    private BitSet[] subTypeBits;
+    private BitSet[] superTypeBits;
 
     private Map<String, Parameter> parameters = Maps.newLinkedHashMap();
     private final FileGenerator fileGenerator;
     private String typePrefix;
     private CaseDef commonSuperType;
+    /** slots of the cached attributes, used for tracking dependencies */
+    private Map<String, Integer> attributeSlots = new LinkedHashMap<>();
 
 
     public Generator(FileGenerator fileGenerator, Program prog, String p_outputFolder) {
@@ -102,40 +109,55 @@ public class Generator {
         calculateTransientChildTypes();
     }
 
+    /**
+     * A type a (transitively) contains a type b, if there is a path from a to b using
+     * containment and subtype steps, which uses at least one containment step.
+     * Additionally, every type taking part in a containment, or connected to such a
+     * type by subtyping, contains itself and its subtypes.
+     */
     private void calculateTransientChildTypes() {
-        transientChildTypes = HashMultimap.create();
-        transientChildTypes.putAll(directChildTypes);
-        boolean changed;
+        BitSet[] direct = typeTable.toRelation(directChildTypes);
+        // paths of containment and subtype steps:
+        BitSet[] steps = TypeTable.union(direct, subTypeBits);
+        TypeTable.transitiveClosure(steps);
+        for (int i = 0; i < steps.length; i++) {
+            steps[i].set(i);
+        }
+        // paths starting with a containment step:
+        BitSet[] startingWithChild = typeTable.newRelation();
+        for (int x = 0; x < direct.length; x++) {
+            for (int y = direct[x].nextSetBit(0); y >= 0; y = direct[x].nextSetBit(y + 1)) {
+                startingWithChild[x].or(steps[y]);
+            }
+        }
+        BitSet[] result = typeTable.newRelation();
+        for (int a = 0; a < result.length; a++) {
+            for (int x = steps[a].nextSetBit(0); x >= 0; x = steps[a].nextSetBit(x + 1)) {
+                result[a].or(startingWithChild[x]);
+            }
+        }
+        // types in a containment and all types connected to them by subtyping:
+        BitSet participants = new BitSet(result.length);
+        for (int x = 0; x < direct.length; x++) {
+            if (!direct[x].isEmpty()) {
+                participants.set(x);
+                participants.or(direct[x]);
+            }
+        }
+        BitSet next = participants;
         do {
-            HashMultimap<AstEntityDefinition, AstEntityDefinition> newTransitions = HashMultimap.create();
-            for (Entry<AstEntityDefinition, AstEntityDefinition> e : transientChildTypes.entries()) {
-                AstEntityDefinition parent = e.getKey();
-                AstEntityDefinition child = e.getValue();
-
-                // reflexive:
-                newTransitions.put(parent, parent);
-                newTransitions.put(child, child);
-
-                // add transitive childs
-                for (AstEntityDefinition trChild : transientChildTypes.get(child)) {
-                    newTransitions.put(parent, trChild);
-                }
-
-                // add subtypes of child:
-                for (AstEntityDefinition sub : transientSubTypes.get(child)) {
-                    newTransitions.put(parent, sub);
-                }
-
-                // add supertypes of parent:
-                for (AstEntityDefinition sup : transientSuperTypes.get(parent)) {
-                    newTransitions.put(sup, child);
-                }
+            participants = next;
+            next = (BitSet) participants.clone();
+            for (int a = participants.nextSetBit(0); a >= 0; a = participants.nextSetBit(a + 1)) {
+                next.or(subTypeBits[a]);
+                next.or(superTypeBits[a]);
             }
-            changed = transientChildTypes.putAll(newTransitions);
-        } while (changed);
-        // must terminate because there are only finitely many possible transitions
-        // and every iteration adds at least one
-        // runtime might be quite bad however
+        } while (!next.equals(participants));
+        for (int a = participants.nextSetBit(0); a >= 0; a = participants.nextSetBit(a + 1)) {
+            result[a].set(a);
+            result[a].or(subTypeBits[a]);
+        }
+        transientChildTypes = typeTable.toMultimap(result);
     }
 
     private void addContainmentInfo(AstEntityDefinition parent, AstEntityDefinition child) {
@@ -180,8 +202,21 @@ public class Generator {
             }
         }
 
-        transientSubTypes = transientClosure(directSubTypes);
-        transientSuperTypes = transientClosure(directSuperTypes);
+        typeTable = new TypeTable();
+        for (CaseDef d : prog.caseDefs) {
+            typeTable.add(d);
+        }
+        for (ConstructorDef d : prog.constructorDefs) {
+            typeTable.add(d);
+        }
+        for (ListDef d : prog.listDefs) {
+            typeTable.add(d);
+        }
+        subTypeBits = typeTable.toRelation(directSubTypes);
+        TypeTable.transitiveClosure(subTypeBits);
+        superTypeBits = TypeTable.transpose(subTypeBits);
+        transientSubTypes = typeTable.toMultimap(subTypeBits);
+        transientSuperTypes = typeTable.toMultimap(superTypeBits);
     }
 
     private void createMatchMethods(AstBaseTypeDefinition c, StringBuilder sb) {
@@ -205,9 +240,52 @@ public class Generator {
         calculateContainments();
 
 //        generatePackageInfo(); // TODO add flag
+        checkInternedConstructors();
         generateStandardClasses();
+        if (hasInternTables()) {
+            generateInternTable();
+        }
         generateStandardList();
+        generateParallelTraversal();
+        generateIterativeTraversal();
+        if (prog.isNumberingStored()) {
+            generateTreeNumbering();
+        }
+        generateTreeListeners();
+        generateRewriter();
+        generateTreeSerializer();
+        generateTreeView();
         generateCyclicDependencyError();
+        generateAttributeMemo();
+        generateCircularEvaluation();
+        if (prog.isTypeIndexed()) {
+            generateTypeIndex();
+        }
+        if (prog.isFrozenGenerated()) {
+            generateFrozenTrees();
+        }
+        if (prog.isJournaled()) {
+            if (prog.isConcurrencySafe()) {
+                throw new Error("'journal: undo' cannot be combined with 'concurrency: safe'.");
+            }
+            generateJournal();
+        }
+        if (prog.isConcurrencySafe()) {
+            generateAttributeGuard();
+        }
+        if (prog.isStorageLazy()) {
+            if (prog.isConcurrencySafe()) {
+                throw new Error("'storage: lazy' cannot be combined with 'concurrency: safe'.");
+            }
+            generateAttributeStorage();
+        }
+        if (prog.isInvalidationTracked()) {
+            if (prog.isConcurrencySafe()) {
+                throw new Error("'invalidation: tracked' cannot be combined with 'concurrency: safe'.");
+            }
+            calculateAttributeSlots();
+            generateAttributeDependencies();
+        }
 
 
         generateInterfaceTypes();
@@ -221,6 +299,50 @@ public class Generator {
 
     }
 
+    private void checkInternedConstructors() {
+        for (ConstructorDef c : prog.constructorDefs) {
+            if (!c.isInterned()) {
+                continue;
+            }
+            for (Parameter p : c.parameters) {
+                if (prog.hasElement(p.getTyp())) {
+                    throw new Error("The interned constructor " + c.getName() + " cannot have the element " + p.name
+                            + ", only constructors without children and refs can be interned.");
+                }
+                if (!isImmutableValueType(p.getTyp())) {
+                    throw new Error("The interned constructor " + c.getName() + " cannot have the parameter " + p.name
+                            + " of type " + p.getTyp() + ", the parameters of interned constructors must be primitive values or strings.");
+                }
+            }
+        }
+    }
+
+    /**
+     * the parameters of interned constructors are the keys of the intern table, so they must not change
+     */
+    private boolean isImmutableValueType(String typ) {
+        return JavaTypes.primitiveTypes.contains(typ) || JavaTypes.otherTypes.contains(typ) || typ.equals("java.lang.String");
+    }
+
+    /**
+     * whether an interned constructor has parameters, so that it needs an InternTable
+     */
+    private boolean hasInternTables() {
+        for (ConstructorDef c : prog.constructorDefs) {
+            if (c.isInterned() && !c.parameters.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void generateInternTable() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateInternTable.writeTo(sb);
+        fileGenerator.createFile("InternTable.java", sb);
+    }
+
     private void createFakeSuperclass() {
         commonSuperType = new CaseDef("Element");
         for (CaseDef d : prog.caseDefs) {
@@ -273,11 +395,15 @@ public class Generator {
         // create constructor
         createConstructor(c, sb);
 
-        // get/set parent method:
-        createGetSetParentMethods(sb);
+        if (c.isInterned()) {
+            createInternedParentMethods(c, sb);
+        } else {
+            // get/set parent method:
+            createGetSetParentMethods(sb);
 
-        // replaceBy method:
-        createReplaceByMethod(sb);
+            // replaceBy method:
+            createReplaceByMethod(sb);
+        }
 
         // create getters and setters for parameters:
         createGetterAndSetterMethods(c, sb);
@@ -294,6 +420,8 @@ public class Generator {
 
         //copy method
         createCopyMethod(c, sb);
+        createCopyWithChildrenMethod(c, sb);
+        createBoundedCopyMethod(c, sb);
 
         // copyWithRefs method
         createCopyWithRefsMethod(c, sb);
@@ -312,9 +440,15 @@ public class Generator {
         createToString(c, sb);
 
         createStructuralEquals(c, sb);
+        createBoundedStructuralEquals(c, sb);
+        createStructuralHash(c, sb);
+        createWriteMethod(c, sb);
 
         createAttributeImpl(c, sb);
         createFieldsImpl(c, sb);
+        if (prog.isJournaled()) {
+            createUndoMethod(c, sb);
+        }
 
         sb.append("}\n");
         fileGenerator.createFile(c.getName(typePrefix) + "Impl.java", sb);
@@ -356,6 +490,145 @@ public class Generator {
         sb.append("    }\n");
     }
 
+    /**
+     * structural equality, which recurses up to a maximum depth and then adds the children to pending
+     */
+    private void createBoundedStructuralEquals(ConstructorDef c, StringBuilder sb) {
+        sb.append("    public boolean zzstructuralEquals(" + getCommonSupertypeType() + " e, int depth, IterativeTraversal.Pending pending) {\n");
+        sb.append("        if (!(e instanceof " + c.getName(typePrefix) + ")) return false;\n");
+        List<String> localChecks = new ArrayList<>();
+        List<Parameter> children = new ArrayList<>();
+        for (Parameter p : c.parameters) {
+            if (p.isIgnoreEquality()) {
+                continue;
+            }
+            if (prog.hasElement(p.getTyp())) {
+                if (p.isRef) {
+                    localChecks.add("this." + p.name + " == o.get" + toFirstUpper(p.name) + "()");
+                } else {
+                    children.add(p);
+                }
+            } else {
+                localChecks.add("java.util.Objects.equals(" + p.name + ", o.get" + toFirstUpper(p.name) + "())");
+            }
+        }
+        if (localChecks.isEmpty() && children.isEmpty()) {
+            sb.append("        return true;\n");
+            sb.append("    }\n");
+            return;
+        }
+        sb.append("        " + c.getName(typePrefix) + " o = (" + c.getName(typePrefix) + ") e;\n");
+        if (!localChecks.isEmpty()) {
+            sb.append("        if (!(" + join(localChecks, "\n                && ") + ")) return false;\n");
+        }
+        if (!children.isEmpty()) {
+            List<String> childChecks = new ArrayList<>();
+            for (Parameter p : children) {
+                childChecks.add("this." + p.name + ".zzstructuralEquals(o.get" + toFirstUpper(p.name) + "(), depth + 1, pending)");
+            }
+            sb.append("        if (depth < IterativeTraversal.MAX_RECURSION) {\n");
+            sb.append("            return " + join(childChecks, "\n                && ") + ";\n");
+            sb.append("        }\n");
+            // last child first, so that the children are compared in order
+            for (int i = children.size() - 1; i >= 0; i--) {
+                Parameter p = children.get(i);
+                sb.append("        pending.compareLater(this." + p.name + ", o.get" + toFirstUpper(p.name) + "());\n");
+            }
+        }
+        sb.append("        return true;\n");
+        sb.append("    }\n");
+    }
+
+    /**
+     * structural hash matching structuralEquals: the same parameters are left out and refs are hashed by identity.
+     * Like the bounded structural equality, it recurses up to a maximum depth and then continues with an explicit stack.
+     */
+    private void createStructuralHash(ConstructorDef c, StringBuilder sb) {
+        List<String> recursive = new ArrayList<>();
+        List<String> withChildren = new ArrayList<>();
+        int childIndex = 0;
+        for (Parameter p : c.parameters) {
+            boolean child = !p.isRef && prog.hasElement(p.getTyp());
+            if (!p.isIgnoreEquality()) {
+                if (child) {
+                    recursive.add("this." + p.name + ".zzstructuralHash(depth + 1)");
+                    withChildren.add("hashes[offset + " + childIndex + "]");
+                } else {
+                    String h = valueHash(p);
+                    recursive.add(h);
+                    withChildren.add(h);
+                }
+            }
+            if (child) {
+                childIndex++;
+            }
+        }
+        // the hash of the constructor name, so that different constructors with equal parameters get different hashes
+        int typeHash = c.getName().hashCode();
+
+        createCachedHashField(sb);
+        sb.append("    @Override public int zzstructuralHash(int depth) {\n");
+        if (prog.isHashCached()) {
+            sb.append("        if (zzhash != 0) return zzhash;\n");
+        }
+        if (childIndex > 0) {
+            sb.append("        if (depth >= IterativeTraversal.MAX_RECURSION) return IterativeTraversal.structuralHashWithStack(this);\n");
+        }
+        createHashComputation(typeHash, recursive, sb);
+        sb.append("    }\n\n");
+
+        sb.append("    @Override public int zzhashWithChildren(int[] hashes, int offset) {\n");
+        createHashComputation(typeHash, withChildren, sb);
+        sb.append("    }\n\n");
+    }
+
+    private void createHashComputation(int initialHash, List<String> parts, StringBuilder sb) {
+        sb.append("        int h = " + initialHash + ";\n");
+        for (String part : parts) {
+            sb.append("        h = 31 * h + " + part + ";\n");
+        }
+        createHashResult(sb);
+    }
+
+    private void createHashResult(StringBuilder sb) {
+        if (prog.isHashCached()) {
+            // 0 marks a hash which is not computed yet
+            sb.append("        if (h == 0) h = 1;\n");
+            sb.append("        zzhash = h;\n");
+        }
+        sb.append("        return h;\n");
+    }
+
+    /**
+     * the field storing the structural hash and the methods to read and reset it
+     */
+    private void createCachedHashField(StringBuilder sb) {
+        if (!prog.isHashCached()) {
+            return;
+        }
+        sb.append("    // the structural hash or 0, if it is not computed yet\n");
+        sb.append("    private int zzhash;\n");
+        sb.append("    @Override public int zzgetCachedHash() { return zzhash; }\n");
+        sb.append("    @Override public boolean zzclearCachedHash() {\n");
+        sb.append("        if (zzhash == 0) return false;\n");
+        sb.append("        zzhash = 0;\n");
+        sb.append("        return true;\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * the hash of a parameter, which is not a child element
+     */
+    private String valueHash(Parameter p) {
+        if (p.isRef) {
+            return "System.identityHashCode(this." + p.name + ")";
+        } else if (JavaTypes.primitiveTypes.contains(p.getTyp())) {
+            return JavaTypes.boxedType(p.getTyp()) + ".hashCode(this." + p.name + ")";
+        } else {
+            return "java.util.Objects.hashCode(this." + p.name + ")";
+        }
+    }
+
     private void createFieldsImpl(AstBaseTypeDefinition c, StringBuilder sb) {
         for (FieldDef field : prog.fieldDefs) {
             if (!hasField(c, field)) {
@@ -364,87 +637,111 @@ public class Generator {
             sb.append("    private " + field.getFieldType() + " " + field.getFieldName() + ";\n");
             sb.append("    /** " + field.getDoc() + "*/\n");
             sb.append("    public " + field.getFieldType() + " get" + toFirstUpper(field.getFieldName()) + "() {\n");
+            if (prog.isInvalidationTracked()) {
+                sb.append("        " + recordRead().trim() + "\n");
+            }
             sb.append("        return " + field.getFieldName() + ";\n");
             sb.append("    }\n");
             sb.append("    /** " + field.getDoc() + "*/\n");
             sb.append("    public void set" + toFirstUpper(field.getFieldName())
                     + "(" + field.getFieldType() + " " + field.getFieldName() + ") {\n");
+            if (prog.isJournaled()) {
+                sb.append("        if (Journal.recording) Journal.propertyChanged(this, " + fieldSlot(c, field) + ", this." + field.getFieldName() + ");\n");
+            }
+            sb.append("        " + field.getFieldType() + " zzold = this." + field.getFieldName() + ";\n");
             sb.append("        this." + field.getFieldName() + " = " + field.getFieldName() + ";\n");
+            if (prog.isInvalidationTracked()) {
+                sb.append("        " + recordChange() + "\n");
+            }
+            sb.append("        if (TreeListeners.attached != 0) TreeListeners.propertyChanged(this, \"" + field.getFieldName() + "\", zzold, " + field.getFieldName() + ");\n");
             sb.append("    }\n");
         }
     }
 
 
+    /**
+     * the slot identifying a field in the journal, after the slots of the properties
+     */
+    private int fieldSlot(AstBaseTypeDefinition c, FieldDef field) {
+        int properties = c instanceof ConstructorDef cd ? cd.parameters.size() : 0;
+        return properties + prog.fieldDefs.indexOf(field);
+    }
+
+    /**
+     * creates zzundo, which restores a property or field recorded in the journal
+     */
+    private void createUndoMethod(AstBaseTypeDefinition c, StringBuilder sb) {
+        sb.append("    public void zzundo(int slot, Object old) {\n");
+        sb.append("        switch (slot) {\n");
+        if (c instanceof ConstructorDef cd && !cd.isInterned()) {
+            for (int i = 0; i < cd.parameters.size(); i++) {
+                Parameter p = cd.parameters.get(i);
+                sb.append("            case " + i + ": set" + toFirstUpper(p.name) + "((" + JavaTypes.boxedType(printType(p.getTyp())) + ") old); break;\n");
+            }
+        }
+        for (FieldDef field : prog.fieldDefs) {
+            if (hasField(c, field)) {
+                sb.append("            case " + fieldSlot(c, field) + ": set" + toFirstUpper(field.getFieldName()) + "((" + JavaTypes.boxedType(field.getFieldType()) + ") old); break;\n");
+            }
+        }
+        if (c instanceof ListDef l && isPrimitiveList(l)) {
+            sb.append("            case APPENDED: case REPLACED: case INSERTED: case REMOVED: case CLEARED: zzundoItems(slot, old); break;\n");
+        }
+        sb.append("            default: throw new IllegalArgumentException(\"Unknown slot \" + slot);\n");
+        sb.append("        }\n");
+        sb.append("    }\n");
+    }
+
     private void createAttributeImpl(AstBaseTypeDefinition c, StringBuilder sb) {
+        Map<String, Integer> lazySlots = lazyAttributeSlots(c);
+        if (prog.isStorageLazy() && !lazySlots.isEmpty()) {
+            createLazyAttributeStorage(c, lazySlots, sb);
+        }
         for (AttributeDef attr : prog.attrDefs) {
 
             if (hasAttribute(c, attr)) {
                 if (attr.parameters == null) {
                     sb.append("// circular = ").append(attr.circular).append("\n");
-                    if (attr.circular == null) {
+                    if (prog.isConcurrencySafe()) {
+                        createConcurrentAttributeImpl(c, attr, sb);
+                    } else if (prog.isStorageLazy()) {
+                        createLazyAttributeImpl(c, attr, lazySlots.get(attr.attr), sb);
+                    } else if (attr.circular == null) {
                         // ---------- NON-CIRCULAR CACHED ATTRIBUTE ----------
                         // State: 0 = uncached, 1 = computing (cycle), 2 = cached
                         sb.append("    private byte zzattr_").append(attr.attr).append("_state = 0;\n");
                         sb.append("    private ").append(attr.returns).append(" zzattr_").append(attr.attr).append("_cache;\n");
                         sb.append("    /** ").append(attr.comment).append("*/\n");
                         sb.append("    public ").append(attr.returns).append(" ").append(attr.attr).append("() {\n");
+                        if (prog.isInvalidationTracked()) {
+                            sb.append("        AttributeDependencies.read(this, ").append(attributeSlots.get(attr.attr)).append(");\n");
+                        }
                         sb.append("        byte s = zzattr_").append(attr.attr).append("_state;\n");
                         sb.append("        if (s == 2) return zzattr_").append(attr.attr).append("_cache;\n");
                         sb.append("        if (s == 1) throw new CyclicDependencyError(this, \"").append(attr.attr).append("\");\n");
                         sb.append("        zzattr_").append(attr.attr).append("_state = 1;\n");
-                        sb.append("        zzattr_").append(attr.attr).append("_cache = ")
-                                .append(attr.implementedBy).append("((")
-                                .append(c.getName(typePrefix)).append(")this);\n");
+                        if (prog.isInvalidationTracked()) {
+                            sb.append("        AttributeDependencies.enter(this, ").append(attributeSlots.get(attr.attr)).append(");\n");
+                            sb.append("        try {\n");
+                            sb.append("            zzattr_").append(attr.attr).append("_cache = ")
+                                    .append(attr.implementedBy).append("((")
+                                    .append(c.getName(typePrefix)).append(")this);\n");
+                            sb.append("        } finally {\n");
+                            sb.append("            AttributeDependencies.exit();\n");
+                            sb.append("        }\n");
+                        } else {
+                            sb.append("        zzattr_").append(attr.attr).append("_cache = ")
+                                    .append(attr.implementedBy).append("((")
+                                    .append(c.getName(typePrefix)).append(")this);\n");
+                        }
                         sb.append("        zzattr_").append(attr.attr).append("_state = 2;\n");
                         sb.append("        return zzattr_").append(attr.attr).append("_cache;\n");
                         sb.append("    }\n");
                     } else {
-                        // ---------- CIRCULAR (FIXPOINT) CACHED ATTRIBUTE ----------
-                        // States: 0 = uninitialized, 1 = iterating, 2 = fixed, 3 = touched-during-iteration
-                        sb.append("    private byte zzattr_").append(attr.attr).append("_state = 0;\n");
-                        sb.append("    private ").append(attr.returns).append(" zzattr_").append(attr.attr).append("_cache;\n");
-                        sb.append("    /** ").append(attr.comment).append("*/\n");
-                        sb.append("    public ").append(attr.returns).append(" ").append(attr.attr).append("() {\n");
-                        sb.append("        if (zzattr_").append(attr.attr).append("_state == 2) {\n");
-                        sb.append("            return zzattr_").append(attr.attr).append("_cache;\n");
-                        sb.append("        }\n");
-                        sb.append("        if (zzattr_").append(attr.attr).append("_state == 1) {\n");
-                        sb.append("            // Mark that we were queried during iteration\n");
-                        sb.append("            zzattr_").append(attr.attr).append("_state = 3;\n");
-                        sb.append("            return zzattr_").append(attr.attr).append("_cache;\n");
-                        sb.append("        }\n");
-                        sb.append("        // Initialize and iterate to a fixpoint\n");
-                        sb.append("        zzattr_").append(attr.attr).append("_state = 1;\n");
-                        sb.append("        zzattr_").append(attr.attr).append("_cache = ").append(attr.circular).append("();\n");
-                        sb.append("        while (true) {\n");
-                        sb.append("            ").append(attr.returns).append(" r = ")
-                                .append(attr.implementedBy).append("((")
-                                .append(c.getName(typePrefix)).append(")this);\n");
-                        sb.append("            if (zzattr_").append(attr.attr).append("_state == 3) {\n");
-                        sb.append("                // Another access happened during iteration -> keep iterating until stable\n");
-                        sb.append("                if (!java.util.Objects.equals(zzattr_").append(attr.attr).append("_cache, r)) {\n");
-                        sb.append("                    zzattr_").append(attr.attr).append("_cache = r;\n");
-                        sb.append("                    // continue loop\n");
-                        sb.append("                } else {\n");
-                        sb.append("                    // Stabilized after re-entrancy\n");
-                        sb.append("                    break;\n");
-                        sb.append("                }\n");
-                        sb.append("            } else {\n");
-                        sb.append("                // Normal iteration step\n");
-                        sb.append("                if (!java.util.Objects.equals(zzattr_").append(attr.attr).append("_cache, r)) {\n");
-                        sb.append("                    zzattr_").append(attr.attr).append("_cache = r;\n");
-                        sb.append("                    // continue loop\n");
-                        sb.append("                } else {\n");
-                        sb.append("                    break;\n");
-                        sb.append("                }\n");
-                        sb.append("            }\n");
-                        sb.append("            // Reset to 'iterating' for the next step (clears the 3-marker if it was set)\n");
-                        sb.append("            zzattr_").append(attr.attr).append("_state = 1;\n");
-                        sb.append("        }\n");
-                        sb.append("        zzattr_").append(attr.attr).append("_state = 2;\n");
-                        sb.append("        return zzattr_").append(attr.attr).append("_cache;\n");
-                        sb.append("    }\n");
+                        createCircularAttributeImpl(c, attr, null, sb);
                     }
+                } else if (attr.isMemoized()) {
+                    createMemoizedAttributeImpl(c, attr, lazySlots.get(attr.attr), sb);
                 } else {
                     // ---------- PARAMETERIZED (NON-CACHED) ATTRIBUTE ----------
                     sb.append("    /** ").append(attr.comment).append("*/\n");
@@ -466,100 +763,643 @@ public class Generator {
     }
 
 
-    private String printArgs(List<Parameter> parameters2) {
-        StringBuilder result = new StringBuilder();
-        for (Parameter p : parameters2) {
-            result.append(", ").append(p.name);
-        }
-        return result.toString();
+    /**
+     * whether an element stores values of the attribute: its cached value or the memo table of an attribute with parameters
+     */
+    private boolean hasStoredValues(AttributeDef attr) {
+        return attr.parameters == null || attr.isMemoized();
     }
 
-    private String printParams(List<Parameter> parameters2) {
-        if (parameters2 == null) {
-            return "";
+    /**
+     * attribute with parameters, which remembers its results for the last few argument lists in a memo table.
+     * Memo tables are never changed, a new result creates a new table.
+     */
+    private void createMemoizedAttributeImpl(AstBaseTypeDefinition c, AttributeDef attr, Integer lazySlot, StringBuilder sb) {
+        String load;
+        String store;
+        if (prog.isStorageLazy()) {
+            load = "(Object[]) zzload(" + lazySlot + ")";
+            store = "zzstore(" + lazySlot + ", %s);";
+        } else {
+            String field = "zzmemo_" + attr.attr;
+            sb.append("    private " + (prog.isConcurrencySafe() ? "volatile " : "") + "Object[] " + field + ";\n");
+            load = field;
+            store = field + " = %s;";
+        }
+        List<String> args = new ArrayList<>();
+        for (Parameter p : attr.parameters) {
+            args.add(p.name);
+        }
+        String key = args.size() == 1 ? "AttributeMemo.key(" + args.get(0) + ")" : "java.util.Arrays.asList(" + join(args, ", ") + ")";
+        String call = attr.implementedBy + "((" + c.getName(typePrefix) + ")this" + printArgs(attr.parameters) + ")";
+        String stats = "AttributeMemo." + attr.attr;
+        sb.append("    /** ").append(attr.comment).append("*/\n");
+        sb.append("    public ").append(attr.returns).append(" ").append(attr.attr)
+                .append("(").append(printParams(attr.parameters)).append(") {\n");
+        if (prog.isInvalidationTracked()) {
+            sb.append("        AttributeDependencies.read(this, ").append(attributeSlots.get(attr.attr)).append(");\n");
+        }
+        sb.append("        Object key = ").append(key).append(";\n");
+        sb.append("        Object v = AttributeMemo.get(").append(load).append(", key);\n");
+        sb.append("        if (v != null) {\n");
+        sb.append("            ").append(stats).append(".hit();\n");
+        if (JavaTypes.primitiveTypes.contains(attr.returns)) {
+            sb.append("            return (").append(JavaTypes.boxedType(attr.returns)).append(") v;\n");
+        } else {
+            sb.append("            return v == AttributeMemo.NULL ? null : (").append(attr.returns).append(") v;\n");
         }
-        StringBuilder result = new StringBuilder();
-        boolean first = true;
-        for (Parameter p : parameters2) {
-            if (!first) {
-                result.append(", ");
-            }
-            result.append(printType(p.getTyp())).append(" ").append(p.name);
-            first = false;
+        sb.append("        }\n");
+        sb.append("        ").append(stats).append(".miss();\n");
+        if (prog.isInvalidationTracked()) {
+            sb.append("        ").append(attr.returns).append(" r;\n");
+            sb.append("        AttributeDependencies.enter(this, ").append(attributeSlots.get(attr.attr)).append(");\n");
+            sb.append("        try {\n");
+            sb.append("            r = ").append(call).append(";\n");
+            sb.append("        } finally {\n");
+            sb.append("            AttributeDependencies.exit();\n");
+            sb.append("        }\n");
+        } else {
+            sb.append("        ").append(attr.returns).append(" r = ").append(call).append(";\n");
         }
-        return result.toString();
+        // load the table again, the evaluation may have added other results
+        sb.append("        ").append(String.format(store, "AttributeMemo.put(" + load + ", key, r)")).append("\n");
+        sb.append("        return r;\n");
+        sb.append("    }\n");
     }
 
-    private void createConstructor(ConstructorDef c, StringBuilder sb) {
-        sb.append("    " + c.getName(typePrefix) + "Impl(");
-        boolean first = true;
-        for (Parameter p : c.parameters) {
-            if (!first) {
-                sb.append(", ");
+    private void generateTypeIndex() {
+        List<String> internedTypes = new ArrayList<>();
+        for (ConstructorDef c : prog.constructorDefs) {
+            if (c.isInterned()) {
+                internedTypes.add(c.getName(typePrefix));
             }
-            sb.append(printType(p.getTyp()) + " " + p.name);
-            first = false;
         }
-        sb.append(") {\n");
-        for (Parameter p : c.parameters) {
-            if (!JavaTypes.primitiveTypes.contains(p.getTyp()) && !p.isRef) {
-                // add null checks for non primitive types:
-                sb.append("        if (" + p.name + " == null)\n");
-                sb.append("            throw new IllegalArgumentException(\"Element " + p.name + " must not be null.\");\n");
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateTypeIndex.writeTo(sb, getCommonSupertypeType(), internedTypes, isRefListCondition());
+        fileGenerator.createFile("TypeIndex.java", sb);
+    }
+
+    private void generateCircularEvaluation() {
+        if (prog.attrDefs.stream().noneMatch(attr -> attr.circular != null)) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateCircularEvaluation.writeTo(sb);
+        fileGenerator.createFile("CircularEvaluation.java", sb);
+    }
+
+    /**
+     * the memo tables of attributes with parameters and their hit and miss counts
+     */
+    private void generateAttributeMemo() {
+        Set<String> attrNames = new LinkedHashSet<>();
+        for (AttributeDef attr : prog.attrDefs) {
+            if (attr.isMemoized()) {
+                if (attr.returns.equals("void")) {
+                    throw new Error("Attribute " + attr.typ + "." + attr.attr + " returns void and cannot be cached.");
+                }
+                attrNames.add(attr.attr);
             }
         }
-        for (Parameter p : c.parameters) {
-            sb.append("        this." + p.name + " = " + p.name + ";\n");
+        if (attrNames.isEmpty()) {
+            return;
         }
-        for (Parameter p : c.parameters) {
-            if (!JavaTypes.primitiveTypes.contains(p.getTyp())) {
-                if (isGeneratedTyp(p.getTyp()) && !p.isRef) {
-                    // we have a generated type.
-                    // the new element has a new parent:
-                    sb.append("        " + p.name + ".setParent(this);\n");
-                }
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateAttributeMemo.writeTo(sb, attrNames, prog.isConcurrencySafe());
+        fileGenerator.createFile("AttributeMemo.java", sb);
+    }
+
+    /**
+     * the index of each cached attribute of c in the lazily allocated attribute array,
+     * circular attributes use two entries for the state and the value
+     */
+    private Map<String, Integer> lazyAttributeSlots(AstBaseTypeDefinition c) {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        int size = 0;
+        for (AttributeDef attr : prog.attrDefs) {
+            if (hasAttribute(c, attr) && hasStoredValues(attr) && !slots.containsKey(attr.attr)) {
+                slots.put(attr.attr, size);
+                size += attr.circular == null ? 1 : 2;
             }
         }
-        sb.append("    }\n\n");
+        return slots;
     }
 
-    private String printType(String typ) {
-        if (prog.hasElement(typ)) {
-            return prog.getElement(typ).getName(typePrefix);
+    private int lazyAttributeArraySize(AstBaseTypeDefinition c) {
+        Set<String> done = new HashSet<>();
+        int size = 0;
+        for (AttributeDef attr : prog.attrDefs) {
+            if (hasAttribute(c, attr) && hasStoredValues(attr) && done.add(attr.attr)) {
+                size += attr.circular == null ? 1 : 2;
+            }
         }
-        return typ;
+        return size;
     }
 
+    private void createLazyAttributeStorage(AstBaseTypeDefinition c, Map<String, Integer> slots, StringBuilder sb) {
+        sb.append("    // values of the cached attributes, allocated when the first attribute is evaluated\n");
+        sb.append("    private Object[] zzattrs;\n");
+        sb.append("    private Object zzload(int i) {\n");
+        sb.append("        Object[] a = zzattrs;\n");
+        sb.append("        return a == null ? null : a[i];\n");
+        sb.append("    }\n");
+        sb.append("    private void zzstore(int i, Object value) {\n");
+        sb.append("        if (zzattrs == null) zzattrs = new Object[").append(lazyAttributeArraySize(c)).append("];\n");
+        sb.append("        zzattrs[i] = value;\n");
+        sb.append("    }\n");
+    }
 
-    private boolean isGeneratedTyp(String typ) {
-        for (CaseDef c : prog.caseDefs) {
-            if (c.getName().equals(typ)) {
-                return true;
+    /**
+     * cached attribute, which stores its value in the lazily allocated attribute array
+     */
+    private void createLazyAttributeImpl(AstBaseTypeDefinition c, AttributeDef attr, int slot, StringBuilder sb) {
+        String boxed = JavaTypes.boxedType(attr.returns);
+        String call = attr.implementedBy + "((" + c.getName(typePrefix) + ")this)";
+        sb.append("    /** ").append(attr.comment).append("*/\n");
+        sb.append("    public ").append(attr.returns).append(" ").append(attr.attr).append("() {\n");
+        if (prog.isInvalidationTracked()) {
+            sb.append("        AttributeDependencies.read(this, ").append(attributeSlots.get(attr.attr)).append(");\n");
+        }
+        if (attr.circular == null) {
+            // Entry: null = uncached, IN_EVALUATION = computing (cycle), otherwise the cached value
+            sb.append("        Object v = zzload(").append(slot).append(");\n");
+            sb.append("        if (v != null) {\n");
+            sb.append("            if (v == AttributeStorage.IN_EVALUATION) throw new CyclicDependencyError(this, \"").append(attr.attr).append("\");\n");
+            if (JavaTypes.primitiveTypes.contains(attr.returns)) {
+                sb.append("            return (").append(boxed).append(") v;\n");
+            } else {
+                sb.append("            return v == AttributeStorage.NULL ? null : (").append(boxed).append(") v;\n");
             }
-        }
-        for (ConstructorDef c : prog.constructorDefs) {
-            if (c.getName().equals(typ)) {
-                return true;
+            sb.append("        }\n");
+            sb.append("        zzstore(").append(slot).append(", AttributeStorage.IN_EVALUATION);\n");
+            if (prog.isInvalidationTracked()) {
+                sb.append("        ").append(attr.returns).append(" r;\n");
+                sb.append("        AttributeDependencies.enter(this, ").append(attributeSlots.get(attr.attr)).append(");\n");
+                sb.append("        try {\n");
+                sb.append("            r = ").append(call).append(";\n");
+                sb.append("        } finally {\n");
+                sb.append("            AttributeDependencies.exit();\n");
+                sb.append("        }\n");
+            } else {
+                sb.append("        ").append(attr.returns).append(" r = ").append(call).append(";\n");
             }
-        }
-        for (ListDef c : prog.listDefs) {
-            if (c.getName().equals(typ)) {
-                return true;
+            if (JavaTypes.primitiveTypes.contains(attr.returns)) {
+                sb.append("        zzstore(").append(slot).append(", r);\n");
+            } else {
+                sb.append("        zzstore(").append(slot).append(", r == null ? AttributeStorage.NULL : r);\n");
             }
+            sb.append("        return r;\n");
+        } else {
+            createCircularAttributeBody(c, attr, "(Object) zzload(" + slot + ")", "zzstore(" + slot + ", %s);",
+                    "(" + boxed + ") zzload(" + (slot + 1) + ")", "zzstore(" + (slot + 1) + ", %s);", sb);
         }
-        return false;
+        sb.append("    }\n");
     }
 
-    private void createGetSetParentMethods(StringBuilder sb) {
+    /**
+     * the state of a cached attribute, which is not evaluated yet
+     */
+    private String notEvaluatedState(AttributeDef attr) {
+        return attr.circular != null ? "null" : "0";
+    }
+
+    /**
+     * circular attribute, whose value is computed by CircularEvaluation
+     */
+    private void createCircularAttributeImpl(AstBaseTypeDefinition c, AttributeDef attr, Integer lazySlot, StringBuilder sb) {
+        String state = "zzattr_" + attr.attr + "_state";
+        String cache = "zzattr_" + attr.attr + "_cache";
+        // State: null = not evaluated, the CircularEvaluation.Instance during the evaluation, CircularEvaluation.FINAL when the value is final
+        sb.append("    private Object ").append(state).append(";\n");
+        sb.append("    private ").append(attr.returns).append(" ").append(cache).append(";\n");
+        sb.append("    /** ").append(attr.comment).append("*/\n");
+        sb.append("    public ").append(attr.returns).append(" ").append(attr.attr).append("() {\n");
+        createCircularAttributeBody(c, attr, state, state + " = %s;", cache, cache + " = %s;", sb);
+        sb.append("    }\n");
+    }
+
+    /**
+     * body of a circular attribute, using the given code to load and store its state and value
+     */
+    private void createCircularAttributeBody(AstBaseTypeDefinition c, AttributeDef attr, String loadState, String storeState,
+                                             String loadValue, String storeValue, StringBuilder sb) {
+        String boxed = JavaTypes.boxedType(attr.returns);
+        String self = c.getName(typePrefix) + "Impl.this";
+        if (prog.isInvalidationTracked()) {
+            sb.append("        AttributeDependencies.read(this, ").append(attributeSlots.get(attr.attr)).append(");\n");
+        }
+        sb.append("        Object s = ").append(loadState).append(";\n");
+        sb.append("        if (s == CircularEvaluation.FINAL) return ").append(loadValue).append(";\n");
+        sb.append("        if (s == null) {\n");
+        sb.append("            s = new CircularEvaluation.Instance(").append(attr.circular).append("()) {\n");
+        sb.append("                @Override Object compute() {\n");
+        String call = attr.implementedBy + "((" + c.getName(typePrefix) + ") " + self + ")";
+        if (prog.isInvalidationTracked()) {
+            sb.append("                    AttributeDependencies.enter(").append(self).append(", ").append(attributeSlots.get(attr.attr)).append(");\n");
+            sb.append("                    try {\n");
+            sb.append("                        return ").append(call).append(";\n");
+            sb.append("                    } finally {\n");
+            sb.append("                        AttributeDependencies.exit();\n");
+            sb.append("                    }\n");
+        } else {
+            sb.append("                    return ").append(call).append(";\n");
+        }
+        sb.append("                }\n");
+        sb.append("                @Override void finish(Object value) {\n");
+        sb.append("                    ").append(String.format(storeValue, "(" + boxed + ") value")).append("\n");
+        sb.append("                    ").append(String.format(storeState, "CircularEvaluation.FINAL")).append("\n");
+        sb.append("                }\n");
+        sb.append("                @Override void abort() {\n");
+        sb.append("                    ").append(String.format(storeState, "null")).append("\n");
+        sb.append("                }\n");
+        sb.append("            };\n");
+        sb.append("            ").append(String.format(storeState, "s")).append("\n");
+        sb.append("        }\n");
+        sb.append("        return (").append(boxed).append(") CircularEvaluation.read((CircularEvaluation.Instance) s);\n");
+    }
+
+    private void generateAttributeStorage() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/** markers in the lazily allocated attribute arrays */\n");
+        sb.append("final class AttributeStorage {\n");
+        sb.append("    private AttributeStorage() {}\n\n");
+        sb.append("    /** the attribute is currently evaluated, reading it again is a cyclic dependency */\n");
+        sb.append("    static final Object IN_EVALUATION = new Object();\n");
+        sb.append("    /** the attribute value is null */\n");
+        sb.append("    static final Object NULL = new Object();\n");
+        sb.append("}\n");
+        fileGenerator.createFile("AttributeStorage.java", sb);
+    }
+
+    /**
+     * cached attributes, which can be evaluated by several threads in parallel.
+     * Non-circular attributes are computed without locking and the first result is published with a CAS,
+     * cycles are detected with a per-thread set of attributes in evaluation.
+     * Circular attributes are evaluated by CircularEvaluation under a global lock.
+     */
+    private void createConcurrentAttributeImpl(AstBaseTypeDefinition c, AttributeDef attr, StringBuilder sb) {
+        String state = "zzattr_" + attr.attr + "_state";
+        String cache = "zzattr_" + attr.attr + "_cache";
+        String handle = "ZZATTR_" + attr.attr.toUpperCase() + "_STATE";
+        String impl = c.getName(typePrefix) + "Impl";
+        if (attr.circular == null) {
+            // State: 0 = uncached, 1 = publishing, 2 = cached
+            sb.append("    private volatile byte ").append(state).append(" = 0;\n");
+            sb.append("    private ").append(attr.returns).append(" ").append(cache).append(";\n");
+            sb.append("    private static final java.lang.invoke.VarHandle ").append(handle).append(";\n");
+            sb.append("    static {\n");
+            sb.append("        try {\n");
+            sb.append("            ").append(handle).append(" = java.lang.invoke.MethodHandles.lookup().findVarHandle(")
+                    .append(impl).append(".class, \"").append(state).append("\", byte.class);\n");
+            sb.append("        } catch (ReflectiveOperationException e) {\n");
+            sb.append("            throw new ExceptionInInitializerError(e);\n");
+            sb.append("        }\n");
+            sb.append("    }\n");
+            sb.append("    /** ").append(attr.comment).append("*/\n");
+            sb.append("    public ").append(attr.returns).append(" ").append(attr.attr).append("() {\n");
+            sb.append("        if (").append(state).append(" == 2) return ").append(cache).append(";\n");
+            sb.append("        java.util.Set<").append(getCommonSupertypeType()).append("> inEvaluation = AttributeGuard.")
+                    .append(attr.attr).append(".get();\n");
+            sb.append("        if (!inEvaluation.add(this)) throw new CyclicDependencyError(this, \"").append(attr.attr).append("\");\n");
+            sb.append("        ").append(attr.returns).append(" r;\n");
+            sb.append("        try {\n");
+            sb.append("            r = ").append(attr.implementedBy).append("((").append(c.getName(typePrefix)).append(")this);\n");
+            sb.append("        } finally {\n");
+            sb.append("            inEvaluation.remove(this);\n");
+            sb.append("        }\n");
+            sb.append("        if (").append(handle).append(".compareAndSet(this, (byte) 0, (byte) 1)) {\n");
+            sb.append("            ").append(cache).append(" = r;\n");
+            sb.append("            ").append(state).append(" = 2;\n");
+            sb.append("            return r;\n");
+            sb.append("        }\n");
+            sb.append("        // another thread was faster -> use its result, so that all threads see the same value\n");
+            sb.append("        byte s;\n");
+            sb.append("        while ((s = ").append(state).append(") == 1) {\n");
+            sb.append("            Thread.onSpinWait();\n");
+            sb.append("        }\n");
+            sb.append("        return s == 2 ? ").append(cache).append(" : r;\n");
+            sb.append("    }\n");
+        } else {
+            // State: null = not evaluated, the CircularEvaluation.Instance during the evaluation, CircularEvaluation.FINAL when the value is final
+            // The value is written before the state, so a thread seeing FINAL also sees the value.
+            sb.append("    private volatile Object ").append(state).append(";\n");
+            sb.append("    private ").append(attr.returns).append(" ").append(cache).append(";\n");
+            sb.append("    /** ").append(attr.comment).append("*/\n");
+            sb.append("    public ").append(attr.returns).append(" ").append(attr.attr).append("() {\n");
+            sb.append("        if (").append(state).append(" == CircularEvaluation.FINAL) return ").append(cache).append(";\n");
+            sb.append("        synchronized (AttributeGuard.CIRCULAR_LOCK) {\n");
+            StringBuilder body = new StringBuilder();
+            createCircularAttributeBody(c, attr, state, state + " = %s;", cache, cache + " = %s;", body);
+            sb.append(body.toString().replace("\n        ", "\n            ").replaceFirst("^        ", "            "));
+            sb.append("        }\n");
+            sb.append("    }\n");
+        }
+    }
+
+    /**
+     * assigns a slot to every cached attribute name, slot 0 is used for the structure of an element
+     */
+    private void calculateAttributeSlots() {
+        for (AttributeDef attr : prog.attrDefs) {
+            if (hasStoredValues(attr) && !attributeSlots.containsKey(attr.attr)) {
+                attributeSlots.put(attr.attr, attributeSlots.size() + 1);
+            }
+        }
+    }
+
+    private void generateAttributeDependencies() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateAttributeDependencies.writeTo(sb, getCommonSupertypeType(), attributeSlots.size() + 1);
+        fileGenerator.createFile("AttributeDependencies.java", sb);
+    }
+
+    /**
+     * code recording that the attribute value currently evaluated reads the structure of this element
+     */
+    private String recordRead() {
+        return prog.isInvalidationTracked() ? "AttributeDependencies.read(this, AttributeDependencies.STRUCTURE); " : "";
+    }
+
+    /**
+     * code resetting the attribute values which depend on the structure of this element
+     */
+    private String recordChange() {
+        return prog.isInvalidationTracked() ? "AttributeDependencies.changed(this, AttributeDependencies.STRUCTURE);" : "";
+    }
+
+    private void generateAttributeGuard() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/** per-thread state for evaluating attributes in parallel */\n");
+        sb.append("final class AttributeGuard {\n");
+        sb.append("    private AttributeGuard() {}\n\n");
+        sb.append("    /** lock for evaluating circular attributes */\n");
+        sb.append("    static final Object CIRCULAR_LOCK = new Object();\n\n");
+        Set<String> attrNames = new LinkedHashSet<>();
+        for (AttributeDef attr : prog.attrDefs) {
+            if (attr.parameters == null && attr.circular == null) {
+                attrNames.add(attr.attr);
+            }
+        }
+        for (String attrName : attrNames) {
+            sb.append("    /** elements for which attribute ").append(attrName).append(" is evaluated by the current thread */\n");
+            sb.append("    static final ThreadLocal<Set<").append(getCommonSupertypeType()).append(">> ").append(attrName)
+                    .append(" = ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));\n");
+        }
+        sb.append("}\n");
+        fileGenerator.createFile("AttributeGuard.java", sb);
+    }
+
+    private String printArgs(List<Parameter> parameters2) {
+        StringBuilder result = new StringBuilder();
+        for (Parameter p : parameters2) {
+            result.append(", ").append(p.name);
+        }
+        return result.toString();
+    }
+
+    private String printParams(List<Parameter> parameters2) {
+        if (parameters2 == null) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder();
+        boolean first = true;
+        for (Parameter p : parameters2) {
+            if (!first) {
+                result.append(", ");
+            }
+            result.append(printType(p.getTyp())).append(" ").append(p.name);
+            first = false;
+        }
+        return result.toString();
+    }
+
+    private void createConstructor(ConstructorDef c, StringBuilder sb) {
+        if (c.isInterned()) {
+            createInternTable(c, sb);
+        }
+        sb.append("    " + (c.isInterned() ? "private " : "") + c.getName(typePrefix) + "Impl(");
+        boolean first = true;
+        for (Parameter p : c.parameters) {
+            if (!first) {
+                sb.append(", ");
+            }
+            sb.append(printType(p.getTyp()) + " " + p.name);
+            first = false;
+        }
+        sb.append(") {\n");
+        for (Parameter p : c.parameters) {
+            if (!JavaTypes.primitiveTypes.contains(p.getTyp()) && !p.isRef) {
+                // add null checks for non primitive types:
+                sb.append("        if (" + p.name + " == null)\n");
+                sb.append("            throw new IllegalArgumentException(\"Element " + p.name + " must not be null.\");\n");
+            }
+        }
+        for (Parameter p : c.parameters) {
+            sb.append("        this." + p.name + " = " + p.name + ";\n");
+        }
+        for (Parameter p : c.parameters) {
+            if (!JavaTypes.primitiveTypes.contains(p.getTyp())) {
+                if (isGeneratedTyp(p.getTyp()) && !p.isRef) {
+                    // we have a generated type.
+                    // the new element has a new parent:
+                    sb.append("        " + p.name + ".setParent(this);\n");
+                    sb.append("        " + p.name + ".zzsetIndexInParent(" + childIndex(c, p) + ");\n");
+                }
+            }
+        }
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * the expression start for creating an element of type c, interned elements are taken from the intern table
+     */
+    private String newElement(ConstructorDef c) {
+        return c.isInterned() ? c.getName(typePrefix) + "Impl.of(" : "new " + c.getName(typePrefix) + "Impl(";
+    }
+
+    private void createInternTable(ConstructorDef c, StringBuilder sb) {
+        String name = c.getName(typePrefix);
+        List<String> args = new ArrayList<>();
+        for (Parameter p : c.parameters) {
+            args.add(p.name);
+        }
+        sb.append("    // interned: equal elements are created only once and shared between trees\n");
+        if (c.parameters.isEmpty()) {
+            sb.append("    private static final " + name + "Impl INSTANCE = new " + name + "Impl();\n\n");
+            sb.append("    static " + name + " of() {\n");
+            sb.append("        return INSTANCE;\n");
+            sb.append("    }\n\n");
+            return;
+        }
+        String key;
+        if (c.parameters.size() == 1 && JavaTypes.primitiveTypes.contains(c.parameters.get(0).getTyp())) {
+            key = c.parameters.get(0).name;
+        } else {
+            key = "java.util.Arrays.asList(" + join(args, ", ") + ")";
+        }
+        sb.append("    private static final InternTable<" + name + "Impl> INSTANCES = new InternTable<>();\n\n");
+        sb.append("    static " + name + " of(" + printParams(c.parameters) + ") {\n");
+        sb.append("        return INSTANCES.intern(" + key + ", () -> new " + name + "Impl(" + join(args, ", ") + "));\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * interned elements are shared between trees, so they have no parent
+     */
+    private void createInternedParentMethods(ConstructorDef c, StringBuilder sb) {
+        String T = getCommonSupertypeType();
+        sb.append("    // interned elements appear in many places, so they do not know their parent\n");
+        sb.append("    public " + getNullableAnnotation() + T + " getParent() { return null; }\n");
+        sb.append("    public void setParent(" + getNullableAnnotation() + T + " parent) {}\n");
+        if (prog.isJournaled()) {
+            sb.append("    public void zzsetParent(" + getNullableAnnotation() + T + " parent) {}\n");
+        }
+        if (prog.isInvalidationTracked()) {
+            sb.append("    private AttributeDependencies.Dependents zzdependents;\n");
+            sb.append("    public AttributeDependencies.Dependents zzgetDependents(boolean create) {\n");
+            sb.append("        if (zzdependents == null && create) zzdependents = new AttributeDependencies.Dependents();\n");
+            sb.append("        return zzdependents;\n");
+            sb.append("    }\n\n");
+        }
+        if (prog.isNumberingStored()) {
+            // interned elements are in many trees, so they are not numbered
+            sb.append("    public TreeNumbering zzgetNumbering() { return null; }\n");
+            sb.append("    public int zzgetPre() { return -1; }\n");
+            sb.append("    public int zzgetPost() { return -1; }\n");
+            sb.append("    public void zzsetNumbering(TreeNumbering numbering, int pre, int post) {}\n");
+        }
+        // interned elements never change, so their listeners would never be called
+        sb.append("    public TreeListener[] zzgetTreeListeners() { return null; }\n");
+        sb.append("    public void zzsetTreeListeners(TreeListener[] listeners) {}\n");
+        if (prog.isTypeIndexed()) {
+            sb.append("    public TypeIndex zzgetTypeIndex() { return null; }\n");
+            sb.append("    public void zzsetTypeIndex(TypeIndex index) {}\n");
+        }
+        sb.append("    public int zzgetIndexInParent() { return -1; }\n");
+        sb.append("    public void zzsetIndexInParent(int index) {}\n\n");
+        sb.append("    public void replaceBy(" + T + " other) {\n");
+        sb.append("        throw new UnsupportedOperationException(\"" + c.getName() + " is interned and has no parent, replace it with the set method of its parent.\");\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * the index of parameter p in the children of c (as used by get and set)
+     */
+    private int childIndex(ConstructorDef c, Parameter p) {
+        int childCount = 0;
+        for (Parameter p2 : c.parameters) {
+            if (p2 == p) {
+                return childCount;
+            }
+            if (prog.hasElement(p2.getTyp()) && !p2.isRef) {
+                childCount++;
+            }
+        }
+        throw new IllegalArgumentException("Parameter " + p + " not found in " + c);
+    }
+
+    private String printType(String typ) {
+        if (prog.hasElement(typ)) {
+            return prog.getElement(typ).getName(typePrefix);
+        }
+        return typ;
+    }
+
+
+    private boolean isGeneratedTyp(String typ) {
+        for (CaseDef c : prog.caseDefs) {
+            if (c.getName().equals(typ)) {
+                return true;
+            }
+        }
+        for (ConstructorDef c : prog.constructorDefs) {
+            if (c.getName().equals(typ)) {
+                return true;
+            }
+        }
+        for (ListDef c : prog.listDefs) {
+            if (c.getName().equals(typ)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the method setting the parent of a child, which is not recorded in the journal, as the change of the parent is recorded
+     */
+    private String setParentMethod() {
+        return prog.isJournaled() ? "zzsetParent" : "setParent";
+    }
+
+    private void createGetSetParentMethods(StringBuilder sb) {
         sb.append("    private " + getCommonSupertypeType() + " parent;\n");
-        sb.append("    public " + getNullableAnnotation() + getCommonSupertypeType() + " getParent() { return parent; }\n");
-        sb.append("    public void setParent(" + getNullableAnnotation() + getCommonSupertypeType() + " parent) {\n" +
+        sb.append("    public " + getNullableAnnotation() + getCommonSupertypeType() + " getParent() { " + recordRead() + "return parent; }\n");
+        if (prog.isJournaled()) {
+            // setters and lists use zzsetParent, only other calls are recorded as parent changes
+            sb.append("    public void setParent(" + getNullableAnnotation() + getCommonSupertypeType() + " parent) {\n");
+            sb.append("        " + getCommonSupertypeType() + " old = this.parent;\n");
+            sb.append("        zzsetParent(parent);\n");
+            sb.append("        if (Journal.recording && old != parent) Journal.parentChanged(this, old);\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("    public void " + setParentMethod() + "(" + getNullableAnnotation() + getCommonSupertypeType() + " parent) {\n" +
                 "        if (parent != null && this.parent != null) {\n" +
                 "            throw new Error(\"Cannot change parent of element \" + this.getClass().getSimpleName() + \", as it is already used in another tree. \"\n" +
                 "                + \"Use the copy method to create a new tree or remove the tree from its old parent or set the parent to null before moving the tree. \");\n" +
-                "        }\n" +
-                "        this.parent = parent;\n" +
+                "        }\n");
+        if (prog.isInvalidationTracked()) {
+            sb.append("        if (this.parent != parent) " + recordChange() + "\n");
+        }
+        if (prog.isTypeIndexed()) {
+            sb.append("        if (this.parent != parent) TypeIndex.parentChanged(this, this.parent, parent);\n");
+        }
+        if (prog.isNumberingStored()) {
+            sb.append("        if (zznumbering != null && this.parent != parent) zznumbering.invalidate();\n");
+        }
+        sb.append("        this.parent = parent;\n" +
                 "    }\n\n");
+        if (prog.isNumberingStored()) {
+            // position in the last numbering of the tree:
+            sb.append("    private TreeNumbering zznumbering;\n");
+            sb.append("    private int zzpre;\n");
+            sb.append("    private int zzpost;\n");
+            sb.append("    public TreeNumbering zzgetNumbering() { return zznumbering; }\n");
+            sb.append("    public int zzgetPre() { return zzpre; }\n");
+            sb.append("    public int zzgetPost() { return zzpost; }\n");
+            sb.append("    public void zzsetNumbering(TreeNumbering numbering, int pre, int post) {\n");
+            sb.append("        this.zznumbering = numbering;\n");
+            sb.append("        this.zzpre = pre;\n");
+            sb.append("        this.zzpost = post;\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("    // the tree listeners attached to this element, see TreeListeners\n");
+        sb.append("    private TreeListener[] zztreeListeners;\n");
+        sb.append("    public TreeListener[] zzgetTreeListeners() { return zztreeListeners; }\n");
+        sb.append("    public void zzsetTreeListeners(TreeListener[] listeners) { this.zztreeListeners = listeners; }\n\n");
+        if (prog.isTypeIndexed()) {
+            sb.append("    // the index of this tree, if this element is the root\n");
+            sb.append("    private TypeIndex zztypeIndex;\n");
+            sb.append("    public TypeIndex zzgetTypeIndex() { return zztypeIndex; }\n");
+            sb.append("    public void zzsetTypeIndex(TypeIndex index) { this.zztypeIndex = index; }\n\n");
+        }
+        if (prog.isInvalidationTracked()) {
+            sb.append("    private AttributeDependencies.Dependents zzdependents;\n");
+            sb.append("    public AttributeDependencies.Dependents zzgetDependents(boolean create) {\n");
+            sb.append("        if (zzdependents == null && create) zzdependents = new AttributeDependencies.Dependents();\n");
+            sb.append("        return zzdependents;\n");
+            sb.append("    }\n\n");
+        }
+        // position of this element in its parent, maintained by the parent:
+        sb.append("    private int zzindexInParent;\n");
+        sb.append("    public int zzgetIndexInParent() { return zzindexInParent; }\n");
+        sb.append("    public void zzsetIndexInParent(int index) { this.zzindexInParent = index; }\n\n");
     }
 
 
@@ -574,13 +1414,8 @@ public class Generator {
         sb.append("            }\n");
         sb.append("            return;\n");
         sb.append("        }\n");
-        sb.append("        // Fallback (should not happen): linear scan\n");
-        sb.append("        for (int i=0; i<parent.size(); i++) {\n");
-        sb.append("            if (parent.get(i) == this) {\n");
-        sb.append("                parent.set(i, other);\n");
-        sb.append("                return;\n");
-        sb.append("            }\n");
-        sb.append("        }\n");
+        sb.append("        // children of constructors always have an up-to-date index\n");
+        sb.append("        parent.set(zzindexInParent, other);\n");
         sb.append("    }\n\n");
     }
 
@@ -593,6 +1428,14 @@ public class Generator {
 
     private void createGetterAndSetterMethods(ConstructorDef c, StringBuilder sb) {
         for (Parameter p : c.parameters) {
+            if (c.isInterned()) {
+                sb.append("    private final " + printType(p.getTyp()) + " " + p.name + ";\n");
+                sb.append("    public void set" + toFirstUpper(p.name) + "(" + printType(p.getTyp()) + " " + p.name + ") {\n");
+                sb.append("        throw new UnsupportedOperationException(\"" + c.getName() + " is interned and cannot be changed.\");\n");
+                sb.append("    }\n");
+                sb.append("    public " + printType(p.getTyp()) + " get" + toFirstUpper(p.name) + "() { " + recordRead() + "return " + p.name + "; }\n\n");
+                continue;
+            }
             sb.append("    private " + printType(p.getTyp()) + " " + p.name + ";\n");
             // setter:
             sb.append("    public void set" + toFirstUpper(p.name) + "(" + printType(p.getTyp()) + " " + p.name + ") {\n");
@@ -601,20 +1444,44 @@ public class Generator {
                 sb.append("        if (" + p.name + " == null) throw new IllegalArgumentException();\n");
                 if (isGeneratedTyp(p.getTyp()) && !p.isRef) {
                     // we have a generated type.
+                    if (prog.isJournaled()) {
+                        sb.append("        if (Journal.recording) Journal.propertyChanged(this, " + c.parameters.indexOf(p) + ", this." + p.name + ");\n");
+                    }
                     // the removed type looses its parent:
-                    sb.append("        this." + p.name + ".setParent(null);\n");
+                    sb.append("        this." + p.name + "." + setParentMethod() + "(null);\n");
                     // the new element has a new parent:
-                    sb.append("        " + p.name + ".setParent(this);\n");
+                    sb.append("        " + p.name + "." + setParentMethod() + "(this);\n");
+                    sb.append("        " + p.name + ".zzsetIndexInParent(" + childIndex(c, p) + ");\n");
                 }
             }
-            sb.append("        this." + p.name + " = " + p.name + ";\n" + "    } \n");
+            if (prog.isJournaled() && !(isGeneratedTyp(p.getTyp()) && !p.isRef)) {
+                sb.append("        if (Journal.recording) Journal.propertyChanged(this, " + c.parameters.indexOf(p) + ", this." + p.name + ");\n");
+            }
+            sb.append("        " + printType(p.getTyp()) + " zzold = this." + p.name + ";\n");
+            sb.append("        this." + p.name + " = " + p.name + ";\n");
+            if (prog.isInvalidationTracked()) {
+                sb.append("        " + recordChange() + "\n");
+            }
+            if (prog.isHashCached() && !p.isIgnoreEquality()) {
+                sb.append("        zzhashChanged();\n");
+            }
+            // notify the listeners, after the change:
+            if (isGeneratedTyp(p.getTyp()) && !p.isRef) {
+                sb.append("        if (TreeListeners.attached != 0) TreeListeners.childReplaced(this, " + childIndex(c, p) + ", zzold, " + p.name + ");\n");
+            } else {
+                sb.append("        if (TreeListeners.attached != 0) TreeListeners.propertyChanged(this, \"" + p.name + "\", zzold, " + p.name + ");\n");
+            }
+            sb.append("    } \n");
             // getter
-            sb.append("    public " + printType(p.getTyp()) + " get" + toFirstUpper(p.name) + "() { return " + p.name + "; }\n\n");
+            sb.append("    public " + printType(p.getTyp()) + " get" + toFirstUpper(p.name) + "() { " + recordRead() + "return " + p.name + "; }\n\n");
         }
     }
 
     private int createGetMethod(ConstructorDef c, StringBuilder sb) {
         sb.append("    public " + getCommonSupertypeType() + " get(int i) {\n");
+        if (prog.isInvalidationTracked()) {
+            sb.append("        " + recordRead().trim() + "\n");
+        }
         sb.append("        switch (i) {\n");
         int childCount = 0;
         for (Parameter p : c.parameters) {
@@ -649,6 +1516,9 @@ public class Generator {
         sb.append("\n");
         sb.append("    @Override\n");
         sb.append("    public void forEachElement(java.util.function.Consumer<? super " + getCommonSupertypeType() + "> action) {\n");
+        if (prog.isInvalidationTracked()) {
+            sb.append("        " + recordRead().trim() + "\n");
+        }
         for (Parameter p : c.parameters) {
             if (prog.hasElement(p.getTyp()) && !p.isRef) {
                 sb.append("        action.accept(this." + p.name + ");\n");
@@ -664,16 +1534,31 @@ public class Generator {
     }
 
     private void createCopyMethod(ConstructorDef c, StringBuilder sb) {
+        createCopyMethod(c, sb, null, false);
+        // copy variant for copyWithRefs, which records the copies of the elements refs can point to:
+        createCopyMethod(c, sb, "zzcopyRefTargets", isRefTarget(c));
+    }
+
+    /**
+     * @param mapMethod the name of the copy variant with a map of copies, or null for copy()
+     * @param record whether the copy of this element is put into the map
+     */
+    private void createCopyMethod(ConstructorDef c, StringBuilder sb, String mapMethod, boolean record) {
         boolean first;
-        sb.append("    @Override public " + c.getName(typePrefix) + " copy() {\n");
-        sb.append("        " + c.getName(typePrefix) + " result = new " + c.getName(typePrefix) + "Impl(");
+        boolean withMap = mapMethod != null;
+        if (withMap) {
+            sb.append("    @Override public " + c.getName(typePrefix) + " " + mapMethod + "(" + getCopyMapType() + " copies) {\n");
+        } else {
+            sb.append("    @Override public " + c.getName(typePrefix) + " copy() {\n");
+        }
+        sb.append("        " + c.getName(typePrefix) + " result = " + newElement(c));
         first = true;
         for (Parameter p : c.parameters) {
             if (!first) {
                 sb.append(", ");
             }
             if (!p.isRef && prog.hasElement(p.getTyp())) {
-                sb.append("(" + printType(p.getTyp()) + ") " + "this." + p.name + ".copy()");
+                sb.append("(" + printType(p.getTyp()) + ") " + "this." + p.name + (withMap ? "." + mapMethod + "(copies)" : ".copy()"));
             } else {
                 sb.append(p.name);
             }
@@ -687,62 +1572,153 @@ public class Generator {
             sb.append("result.set" + toFirstUpper(field.getFieldName()) + "(get" + toFirstUpper(field.getFieldName()) + "());\n");
 
         }
+        if (withMap && record) {
+            sb.append("        copies.put(this, result);\n");
+        }
         sb.append("        return result;\n");
         sb.append("    }\n\n");
     }
 
-    private void createCopyWithRefsMethod(AstBaseTypeDefinition c, StringBuilder sb) {
-        sb.append("    @Override public " + c.getName(typePrefix) + " copyWithRefs() {\n");
-        // first do a normal copy
-        sb.append("        " + c.getName(typePrefix) + " res = copy();\n");
-        // then fix up all references using a visitor:
-        Collection<AstEntityDefinition> childTypesRaw = transientChildTypes.get(c);
-        List<AstEntityDefinition> childTypes = new ArrayList<>();
-        for (AstEntityDefinition x : childTypesRaw) if (x != null) childTypes.add(x);
-        List<ConstructorDef> childTypesWithRefs = new ArrayList<>();
-        for (AstEntityDefinition childType : childTypes) {
-            if (childType instanceof ConstructorDef) {
-                ConstructorDef constructorChild = (ConstructorDef) childType;
-                if (constructorChild.parameters.stream().anyMatch(p -> p.isRef
-                        && containsType(childTypes, p.getTyp()))) {
-                    childTypesWithRefs.add(constructorChild);
-                }
-            }
+    /**
+     * whether elements of type c can be the target of a ref, copyWithRefs only needs the copies of those
+     */
+    private boolean isRefTarget(AstEntityDefinition c) {
+        Set<String> names = new HashSet<>();
+        names.add(c.getName(""));
+        for (AstEntityDefinition supertype : transientSuperTypes.get(c)) {
+            if (supertype != null) names.add(supertype.getName(""));
         }
-        if (!childTypesWithRefs.isEmpty()) {
-            sb.append("        " + getCommonSupertypeType() + " self = this;\n");
-            sb.append("        res.accept(new " + getCommonSupertypeType() + ".DefaultVisitor() {\n");
-            for (ConstructorDef cc : childTypesWithRefs) {
-                sb.append("            @Override public void visit(" + cc.getName(typePrefix) + " e) {\n");
-                sb.append("                super.visit(e);\n");
-                for (Parameter param : cc.parameters) {
-                    if (param.isRef && containsType(childTypes, param.getTyp())) {
-                        sb.append("                // check reference " + param.name + "\n");
-                        sb.append("                {\n");
-                        sb.append("                    " + getCommonSupertypeType() + " elem = e.get" + toFirstUpper(param.name) + "();\n");
-                        sb.append("                    while (elem != self && elem != null) {\n");
-                        sb.append("                        elem = elem.getParent();\n");
-                        sb.append("                    }\n");
-                        sb.append("                    if (elem == self) {\n");
-                        sb.append("                        e.set" + toFirstUpper(param.name) + "((" + printType(param.getTyp()) + ") res.followPath(self.pathTo(e.get" + toFirstUpper(param.name) + "())));\n");
-                        sb.append("                    }\n");
-                        sb.append("                }\n");
-                    }
-                }
-                sb.append("            }\n");
+        for (ConstructorDef d : prog.constructorDefs) {
+            for (Parameter p : d.parameters) {
+                if (p.isRef && names.contains(p.getTyp())) return true;
             }
-            sb.append("        });\n");
         }
-        sb.append("        return res;\n");
-        sb.append("    }\n\n");
+        for (ListDef l : prog.listDefs) {
+            if (l.ref && names.contains(l.itemType)) return true;
+        }
+        return false;
     }
 
-    private boolean containsType(Collection<AstEntityDefinition> childTypes, String typeName) {
-        Preconditions.checkNotNull(typeName);
-        return childTypes.stream()
-                .anyMatch(ct -> {
-                    Preconditions.checkNotNull(ct);
-                    return ct.getName("").equals(typeName);
+    /**
+     * copy of a single element, used by the iterative copy.
+     * The children are already copied and given in the order of get(i).
+     */
+    private void createCopyWithChildrenMethod(ConstructorDef c, StringBuilder sb) {
+        sb.append("    @Override public " + c.getName(typePrefix) + " zzcopyWithChildren(" + getCommonSupertypeType() + "[] children, int offset) {\n");
+        sb.append("        " + c.getName(typePrefix) + " result = " + newElement(c));
+        boolean first = true;
+        int childIndex = 0;
+        for (Parameter p : c.parameters) {
+            if (!first) {
+                sb.append(", ");
+            }
+            if (!p.isRef && prog.hasElement(p.getTyp())) {
+                sb.append("(" + printType(p.getTyp()) + ") children[offset + " + childIndex + "]");
+                childIndex++;
+            } else {
+                sb.append(p.name);
+            }
+            first = false;
+        }
+        sb.append(");\n");
+        for (FieldDef field : prog.fieldDefs) {
+            if (!hasField(c, field)) {
+                continue;
+            }
+            sb.append("        result.set" + toFirstUpper(field.getFieldName()) + "(get" + toFirstUpper(field.getFieldName()) + "());\n");
+        }
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * copy, which recurses up to a maximum depth and then continues with an explicit stack
+     */
+    private void createBoundedCopyMethod(ConstructorDef c, StringBuilder sb) {
+        sb.append("    @Override public " + getCommonSupertypeType() + " zzcopyBounded(int depth) {\n");
+        sb.append("        if (depth >= IterativeTraversal.MAX_RECURSION) return IterativeTraversal.copyWithStack(this);\n");
+        sb.append("        " + c.getName(typePrefix) + " result = " + newElement(c));
+        boolean first = true;
+        for (Parameter p : c.parameters) {
+            if (!first) {
+                sb.append(", ");
+            }
+            if (!p.isRef && prog.hasElement(p.getTyp())) {
+                sb.append("(" + printType(p.getTyp()) + ") " + "this." + p.name + ".zzcopyBounded(depth + 1)");
+            } else {
+                sb.append(p.name);
+            }
+            first = false;
+        }
+        sb.append(");\n");
+        for (FieldDef field : prog.fieldDefs) {
+            if (!hasField(c, field)) {
+                continue;
+            }
+            sb.append("        result.set" + toFirstUpper(field.getFieldName()) + "(get" + toFirstUpper(field.getFieldName()) + "());\n");
+        }
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+    }
+
+    private String getCopyMapType() {
+        return "java.util.IdentityHashMap<" + getCommonSupertypeType() + ", " + getCommonSupertypeType() + ">";
+    }
+
+    private void createCopyWithRefsMethod(AstBaseTypeDefinition c, StringBuilder sb) {
+        sb.append("    @Override public " + c.getName(typePrefix) + " copyWithRefs() {\n");
+        // find child types with references which might have to be redirected:
+        Collection<AstEntityDefinition> childTypesRaw = transientChildTypes.get(c);
+        List<AstEntityDefinition> childTypes = new ArrayList<>();
+        for (AstEntityDefinition x : childTypesRaw) if (x != null) childTypes.add(x);
+        List<ConstructorDef> childTypesWithRefs = new ArrayList<>();
+        for (AstEntityDefinition childType : childTypes) {
+            if (childType instanceof ConstructorDef) {
+                ConstructorDef constructorChild = (ConstructorDef) childType;
+                if (constructorChild.parameters.stream().anyMatch(p -> p.isRef
+                        && containsType(childTypes, p.getTyp()))) {
+                    childTypesWithRefs.add(constructorChild);
+                }
+            }
+        }
+        if (childTypesWithRefs.isEmpty()) {
+            // nothing to fix up, so a normal copy is enough
+            sb.append("        " + c.getName(typePrefix) + " res = copy();\n");
+        } else {
+            // first do a copy, remembering the copy of each element a ref can point to
+            sb.append("        " + getCopyMapType() + " copies = new java.util.IdentityHashMap<>();\n");
+            sb.append("        " + c.getName(typePrefix) + " res = zzcopyRefTargets(copies);\n");
+            // references to elements inside the copied tree are redirected to their copies,
+            // references to elements outside the tree are kept
+            sb.append("        res.accept(new " + getCommonSupertypeType() + ".DefaultVisitor() {\n");
+            for (ConstructorDef cc : childTypesWithRefs) {
+                sb.append("            @Override public void visit(" + cc.getName(typePrefix) + " e) {\n");
+                sb.append("                super.visit(e);\n");
+                for (Parameter param : cc.parameters) {
+                    if (param.isRef && containsType(childTypes, param.getTyp())) {
+                        sb.append("                // check reference " + param.name + "\n");
+                        sb.append("                {\n");
+                        sb.append("                    " + getCommonSupertypeType() + " target = copies.get(e.get" + toFirstUpper(param.name) + "());\n");
+                        sb.append("                    if (target != null) {\n");
+                        sb.append("                        e.set" + toFirstUpper(param.name) + "((" + printType(param.getTyp()) + ") target);\n");
+                        sb.append("                    }\n");
+                        sb.append("                }\n");
+                    }
+                }
+                sb.append("            }\n");
+            }
+            sb.append("        });\n");
+        }
+        sb.append("        return res;\n");
+        sb.append("    }\n\n");
+    }
+
+    private boolean containsType(Collection<AstEntityDefinition> childTypes, String typeName) {
+        Preconditions.checkNotNull(typeName);
+        return childTypes.stream()
+                .anyMatch(ct -> {
+                    Preconditions.checkNotNull(ct);
+                    return ct.getName("").equals(typeName);
                 });
     }
 
@@ -761,55 +1737,104 @@ public class Generator {
 
         // local clear attributes:
         sb.append("    @Override public void clearAttributesLocal() {\n");
-        for (AttributeDef attr : prog.attrDefs) {
-            if (hasAttribute(c, attr)) {
-                if (attr.parameters == null) {
-                    sb.append("        zzattr_" + attr.attr + "_state = 0;\n");
+        if (prog.isStorageLazy()) {
+            if (!lazyAttributeSlots(c).isEmpty()) {
+                sb.append("        zzattrs = null;\n");
+            }
+        } else {
+            for (AttributeDef attr : prog.attrDefs) {
+                if (hasAttribute(c, attr)) {
+                    if (attr.parameters == null) {
+                        sb.append("        zzattr_" + attr.attr + "_state = " + notEvaluatedState(attr) + ";\n");
+                    } else if (attr.isMemoized()) {
+                        sb.append("        zzmemo_" + attr.attr + " = null;\n");
+                    }
                 }
             }
         }
 
         sb.append("    }\n");
+        createResetAttributeMethod(c, sb);
+    }
+
+    /**
+     * resets a single attribute, used when one of its dependencies changes
+     */
+    private void createResetAttributeMethod(AstBaseTypeDefinition c, StringBuilder sb) {
+        if (!prog.isInvalidationTracked()) {
+            return;
+        }
+        sb.append("    @Override public void zzresetAttribute(int slot) {\n");
+        sb.append("        switch (slot) {\n");
+        Set<String> done = new HashSet<>();
+        Map<String, Integer> lazySlots = lazyAttributeSlots(c);
+        for (AttributeDef attr : prog.attrDefs) {
+            if (hasAttribute(c, attr) && hasStoredValues(attr) && done.add(attr.attr)) {
+                if (prog.isStorageLazy()) {
+                    sb.append("            case " + attributeSlots.get(attr.attr) + ": if (zzattrs != null) zzattrs["
+                            + lazySlots.get(attr.attr) + "] = null; break;\n");
+                } else if (attr.isMemoized()) {
+                    sb.append("            case " + attributeSlots.get(attr.attr) + ": zzmemo_" + attr.attr + " = null; break;\n");
+                } else {
+                    sb.append("            case " + attributeSlots.get(attr.attr) + ": zzattr_" + attr.attr + "_state = " + notEvaluatedState(attr) + "; break;\n");
+                }
+            }
+        }
+        sb.append("        }\n");
+        sb.append("    }\n");
     }
 
     private void createClearMethod(ListDef c, StringBuilder sb) {
         // Recursive clear
         sb.append("    @Override public void clearAttributes() {\n");
-        sb.append("        for (" + printType(c.itemType) + " child : this) {\n");
-        sb.append("            child.clearAttributes();\n");
-        sb.append("        }\n");
+        if (!isPrimitiveList(c)) {
+            sb.append("        for (" + printType(c.itemType) + " child : this) {\n");
+            sb.append("            child.clearAttributes();\n");
+            sb.append("        }\n");
+        }
         sb.append("        clearAttributesLocal();\n");
         sb.append("    }\n");
         // local clear
         sb.append("    @Override public void clearAttributesLocal() {\n");
-        for (AttributeDef attr : prog.attrDefs) {
-            if (hasAttribute(c, attr)) {
-                if (attr.parameters == null) {
-                    sb.append("        zzattr_" + attr.attr + "_state = 0;\n");
+        if (prog.isStorageLazy()) {
+            if (!lazyAttributeSlots(c).isEmpty()) {
+                sb.append("        zzattrs = null;\n");
+            }
+        } else {
+            for (AttributeDef attr : prog.attrDefs) {
+                if (hasAttribute(c, attr)) {
+                    if (attr.parameters == null) {
+                        sb.append("        zzattr_" + attr.attr + "_state = " + notEvaluatedState(attr) + ";\n");
+                    } else if (attr.isMemoized()) {
+                        sb.append("        zzmemo_" + attr.attr + " = null;\n");
+                    }
                 }
             }
         }
         sb.append("    }\n");
+        createResetAttributeMethod(c, sb);
     }
 
     private boolean hasAttribute(AstEntityDefinition c, AttributeDef attr) {
-        boolean hasAttribute = attr.typ.equals(c.getName());
-        for (AstEntityDefinition sup : transientSuperTypes.get(c)) {
-            hasAttribute |= attr.typ.equals(sup.getName());
-        }
-        hasAttribute |= attr.typ.equals(getCommonSupertypeType());
-        hasAttribute |= attr.typ.equals("Element");
-        return hasAttribute;
+        return isSubtypeOrSame(c, attr.typ);
     }
 
     private boolean hasField(AstEntityDefinition c, FieldDef attr) {
-        boolean hasAttribute = attr.getTyp().equals(c.getName());
-        for (AstEntityDefinition sup : transientSuperTypes.get(c)) {
-            hasAttribute |= attr.getTyp().equals(sup.getName());
-        }
-        hasAttribute |= attr.getTyp().equals(getCommonSupertypeType());
-        hasAttribute |= attr.getTyp().equals("Element");
-        return hasAttribute;
+        return isSubtypeOrSame(c, attr.getTyp());
+    }
+
+    /**
+     * checks whether c is the type with the given name or one of its subtypes
+     */
+    private boolean isSubtypeOrSame(AstEntityDefinition c, String typeName) {
+        if (typeName.equals(c.getName())
+                || typeName.equals(getCommonSupertypeType())
+                || typeName.equals("Element")) {
+            return true;
+        }
+        int ci = typeTable.indexOf(c);
+        int ti = typeTable.indexOf(typeName);
+        return ci >= 0 && ti >= 0 && superTypeBits[ci].get(ti);
     }
 
     private void createAcceptMethods(ConstructorDef c, StringBuilder sb) {
@@ -873,8 +1898,14 @@ public class Generator {
         sb.append("    ").append(getNullableAnnotation()).append(getCommonSupertypeType()).append(" getParent();\n");
         sb.append("    ").append(c.getName(typePrefix)).append(" copy();\n");
         sb.append("    ").append(c.getName(typePrefix)).append(" copyWithRefs();\n");
+        if (prog.isFrozenGenerated()) {
+            sb.append("    @Override default ").append(frozenType(c.getName())).append(" freeze() {\n");
+            sb.append("        return (").append(frozenType(c.getName())).append(") FrozenTrees.freeze(this);\n");
+            sb.append("    }\n");
+        }
         sb.append("    void clearAttributes();\n");
         sb.append("    void clearAttributesLocal();\n");
+        createReadMethod(c, sb);
 
         createAttributeStubs(c, sb);
         createFieldStubs(c, sb);
@@ -917,7 +1948,7 @@ public class Generator {
                             sb.append("          " + toFirstLower(c.getName()) + ".get" + toFirstUpper(p.name) + "().accept(this);\n");
                         }
                     }
-                } else {
+                } else if (!isPrimitiveList((ListDef) contained)) {
                     ListDef l = ((ListDef) contained);
                     sb.append("          for (" + printType(l.itemType) + " i : " + toFirstLower(c.getName()) + " ) {\n");
                     sb.append("              i.accept(this);\n");
@@ -955,7 +1986,7 @@ public class Generator {
                 first = false;
             }
             sb.append(") {\n");
-            sb.append("        return new " + c.getName(typePrefix) + "Impl(");
+            sb.append("        return " + newElement(c));
             first = true;
             for (Parameter a : c.parameters) {
                 if (!first) {
@@ -971,6 +2002,14 @@ public class Generator {
 
 
         for (ListDef l : prog.listDefs) {
+            if (isPrimitiveList(l)) {
+                sb.append("    public static " + l.getName(typePrefix) + " " + l.getName() + "(" + l.itemType + " ... values ) {\n");
+                sb.append("        " + l.getName(typePrefix) + " l = new " + l.getName(typePrefix) + "Impl();\n");
+                sb.append("        l.addAll(values);\n");
+                sb.append("        return l;\n");
+                sb.append("    }\n");
+                continue;
+            }
             sb.append("    public static " + l.getName(typePrefix) + " " + l.getName() + "(" + printType(l.itemType) + " ... elements ) {\n");
             sb.append("        " + l.getName(typePrefix) + " l = new " + l.getName(typePrefix) + "Impl();\n");
             sb.append("        for (var e : elements) l.add(e);\n");
@@ -1044,6 +2083,10 @@ public class Generator {
         generateMatcher(c, sb);
         sb.append("    ").append(printType(c.getName())).append(" copy();\n");
         sb.append("    ").append(printType(c.getName())).append(" copyWithRefs();\n");
+        if (prog.isFrozenGenerated()) {
+            sb.append("    @Override ").append(frozenType(c.getName())).append(" freeze();\n");
+        }
+        createReadMethod(c, sb);
 
         createAttributeStubs(c, sb);
         createFieldStubs(c, sb);
@@ -1115,10 +2158,137 @@ public class Generator {
     }
 
     private void generateList(ListDef l) {
+        if (isPrimitiveList(l)) {
+            generatePrimitiveList_interface(l);
+            generatePrimitiveList_impl(l);
+            return;
+        }
         generateList_interface(l);
         generateList_impl(l);
     }
 
+    /**
+     * lists of primitive values are stored unboxed, see TemplatePrimitiveList
+     */
+    private boolean isPrimitiveList(ListDef l) {
+        return JavaTypes.primitiveTypes.contains(l.itemType);
+    }
+
+    private void generatePrimitiveList_impl(ListDef l) {
+        String name = l.getName(typePrefix);
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+
+        addSuppressWarningAnnotations(sb);
+        sb.append("final class ").append(name).append("Impl extends ").append(name).append(" {\n");
+
+        createGetSetParentMethods(sb);
+
+        createReplaceByMethod(sb);
+
+        sb.append("    protected void other_changed() {\n");
+        if (prog.isInvalidationTracked()) {
+            sb.append("        " + recordChange() + "\n");
+        }
+        if (prog.isHashCached()) {
+            sb.append("        zzhashChanged();\n");
+        }
+        sb.append("    }\n\n");
+
+        if (prog.isInvalidationTracked()) {
+            sb.append("    protected void other_recordRead() {\n");
+            sb.append("        " + recordRead().trim() + "\n");
+            sb.append("    }\n\n");
+        }
+
+        createMatchMethods(l, sb);
+
+        sb.append("    @Override public void accept(Visitor v) {\n");
+        sb.append("        v.visit(this);\n");
+        sb.append("    }\n");
+        createWriteMethod(l, sb);
+        createClearMethod(l, sb);
+        createAttributeImpl(l, sb);
+        createFieldsImpl(l, sb);
+        if (prog.isJournaled()) {
+            createUndoMethod(l, sb);
+        }
+
+        createToString(l, sb);
+
+        sb.append("}\n");
+        fileGenerator.createFile(name + "Impl.java", sb);
+    }
+
+    private void generatePrimitiveList_interface(ListDef l) {
+        if (l.ref) {
+            throw new Error("List " + l.getName() + " cannot contain refs to values of type " + l.itemType + ".");
+        }
+        String name = l.getName(typePrefix);
+        String E = getCommonSupertypeType();
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        addSuppressWarningAnnotations(sb);
+
+        sb.append("public non-sealed abstract class ").append(name)
+                .append(" extends ").append(TemplatePrimitiveList.className(l.itemType)).append(" implements ");
+        List<String> supertypes = new ArrayList<>();
+        for (AstEntityDefinition supertype : directSuperTypes.get(l)) {
+            supertypes.add(supertype.getName(typePrefix));
+        }
+        sb.append(join(supertypes, ", ")).append(" {\n");
+
+        sb.append("    public ").append(name).append(" copy() {\n");
+        sb.append("        ").append(name).append(" result = new ").append(name).append("Impl();\n");
+        sb.append("        result.addAll(to").append(toFirstUpper(l.itemType)).append("Array());\n");
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public ").append(name).append(" zzcopyRefTargets(").append(getCopyMapType()).append(" copies) {\n");
+        sb.append("        ").append(name).append(" result = copy();\n");
+        if (isRefTarget(l)) {
+            sb.append("        copies.put(this, result);\n");
+        }
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public ").append(name).append(" zzcopyWithChildren(").append(E).append("[] children, int offset) {\n");
+        sb.append("        return copy();\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public ").append(E).append(" zzcopyBounded(int depth) {\n");
+        sb.append("        return copy();\n");
+        sb.append("    }\n\n");
+
+        // like constructors, each list type checks its own type and hashes its name
+        sb.append("    public boolean structuralEquals(").append(E).append(" e) {\n");
+        sb.append("        return e instanceof ").append(name).append(" o && zzitemsEqual(o);\n");
+        sb.append("    }\n\n");
+
+        int typeHash = l.getName().hashCode();
+        createCachedHashField(sb);
+        sb.append("    public int zzstructuralHash(int depth) {\n");
+        if (prog.isHashCached()) {
+            sb.append("        if (zzhash != 0) return zzhash;\n");
+        }
+        sb.append("        int h = zzitemsHash(").append(typeHash).append(");\n");
+        createHashResult(sb);
+        sb.append("    }\n\n");
+
+        sb.append("    public int zzhashWithChildren(int[] hashes, int offset) {\n");
+        sb.append("        int h = zzitemsHash(").append(typeHash).append(");\n");
+        createHashResult(sb);
+        sb.append("    }\n\n");
+
+        createCopyWithRefsMethod(l, sb);
+        createReadMethod(l, sb);
+        createAttributeStubs(l, sb);
+        createFieldStubs(l, sb);
+
+        sb.append("}\n");
+        fileGenerator.createFile(name + ".java", sb);
+    }
+
     private void generateList_impl(ListDef l) {
         StringBuilder sb;
         sb = new StringBuilder();
@@ -1135,14 +2305,57 @@ public class Generator {
 
         sb.append("    protected void other_setParentToThis(" + printType(l.itemType) + " t) {\n");
         if (isGeneratedTyp(l.itemType) && !l.ref) {
-            sb.append("        t.setParent(this);\n");
+            sb.append("        t." + setParentMethod() + "(this);\n");
+        }
+        if (prog.isInvalidationTracked()) {
+            // every change of the list adds or removes an element
+            sb.append("        " + recordChange() + "\n");
+        }
+        if (prog.isHashCached()) {
+            sb.append("        zzhashChanged();\n");
         }
         sb.append("    }\n\n");
 
         sb.append("    protected void other_clearParent(" + printType(l.itemType) + " t) {\n");
         if (isGeneratedTyp(l.itemType) && !l.ref) {
-            sb.append("        t.setParent(null);\n");
+            sb.append("        t." + setParentMethod() + "(null);\n");
+        }
+        if (prog.isInvalidationTracked()) {
+            sb.append("        " + recordChange() + "\n");
+        }
+        if (prog.isHashCached()) {
+            sb.append("        zzhashChanged();\n");
+        }
+        sb.append("    }\n\n");
+
+        if (prog.isInvalidationTracked()) {
+            sb.append("    protected void other_recordRead() {\n");
+            sb.append("        " + recordRead().trim() + "\n");
+            sb.append("    }\n\n");
+        }
+
+        sb.append("    protected void other_setIndex(" + printType(l.itemType) + " t, int index) {\n");
+        if (isGeneratedTyp(l.itemType) && !l.ref) {
+            sb.append("        t.zzsetIndexInParent(index);\n");
+        }
+        sb.append("    }\n\n");
+
+        boolean owned = isGeneratedTyp(l.itemType) && !l.ref;
+        sb.append("    protected boolean other_ownsItems() {\n");
+        sb.append("        return ").append(owned).append(";\n");
+        sb.append("    }\n\n");
+
+        sb.append("    protected boolean other_hasParent(" + printType(l.itemType) + " t) {\n");
+        sb.append("        return ").append(owned ? "t.getParent() != null" : "false").append(";\n");
+        sb.append("    }\n\n");
+
+        sb.append("    protected int other_getIndex(Object o) {\n");
+        if (isGeneratedTyp(l.itemType) && !l.ref) {
+            sb.append("        if (o instanceof " + printType(l.itemType) + " t && t.getParent() == this) {\n");
+            sb.append("            return t.zzgetIndexInParent();\n");
+            sb.append("        }\n");
         }
+        sb.append("        return -1;\n");
         sb.append("    }\n\n");
 
         // set method:
@@ -1159,9 +2372,13 @@ public class Generator {
         sb.append("    @Override public void accept(Visitor v) {\n");
         sb.append("        v.visit(this);\n");
         sb.append("    }\n");
+        createWriteMethod(l, sb);
         createClearMethod(l, sb);
         createAttributeImpl(l, sb);
         createFieldsImpl(l, sb);
+        if (prog.isJournaled()) {
+            createUndoMethod(l, sb);
+        }
 
         // toString method
         createToString(l, sb);
@@ -1181,7 +2398,12 @@ public class Generator {
         sb.append("    @Override public String toString() {\n");
         sb.append("        StringBuilder result = new StringBuilder(\"" + l.getName() + "(\");\n");
         sb.append("        boolean first = true;\n");
-        sb.append("        for (" + printType(l.itemType) + " i : this ) {\n");
+        if (isPrimitiveList(l)) {
+            sb.append("        for (int j = 0; j < length(); j++) {\n");
+            sb.append("            " + l.itemType + " i = get" + toFirstUpper(l.itemType) + "(j);\n");
+        } else {
+            sb.append("        for (" + printType(l.itemType) + " i : this ) {\n");
+        }
         sb.append("            if (!first) { result.append(\", \"); }\n");
         sb.append("            if (result.length() > 1000) { result.append(\"...\"); break; }\n");
         sb.append("            result.append(i);\n");
@@ -1209,6 +2431,11 @@ public class Generator {
         }
         sb.append(" {\n");
 
+        if (prog.isFrozenGenerated()) {
+            sb.append("    public ").append(frozenType(l.getName())).append(" freeze() {\n");
+            sb.append("        return (").append(frozenType(l.getName())).append(") FrozenTrees.freeze(this);\n");
+            sb.append("    }\n\n");
+        }
         sb.append("    public ").append(l.getName(typePrefix)).append(" copy() {\n");
         sb.append("        ").append(l.getName(typePrefix)).append(" result = new ").append(l.getName(typePrefix)).append("Impl();\n");
         sb.append("        for (").append(printType(l.itemType)).append(" elem : this) {\n");
@@ -1217,7 +2444,68 @@ public class Generator {
         sb.append("        return result;\n");
         sb.append("    }\n\n");
 
+        sb.append("    public ").append(l.getName(typePrefix)).append(" zzcopyRefTargets(").append(getCopyMapType()).append(" copies) {\n");
+        sb.append("        ").append(l.getName(typePrefix)).append(" result = new ").append(l.getName(typePrefix)).append("Impl();\n");
+        sb.append("        for (").append(printType(l.itemType)).append(" elem : this) {\n");
+        sb.append("            result.add((").append(printType(l.itemType)).append(") elem.zzcopyRefTargets(copies));\n");
+        sb.append("        }\n");
+        if (isRefTarget(l)) {
+            sb.append("        copies.put(this, result);\n");
+        }
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public ").append(l.getName(typePrefix)).append(" zzcopyWithChildren(").append(getCommonSupertypeType()).append("[] children, int offset) {\n");
+        sb.append("        ").append(l.getName(typePrefix)).append(" result = new ").append(l.getName(typePrefix)).append("Impl();\n");
+        sb.append("        for (int i = offset; i < offset + size(); i++) {\n");
+        sb.append("            result.add((").append(printType(l.itemType)).append(") children[i]);\n");
+        sb.append("        }\n");
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public ").append(getCommonSupertypeType()).append(" zzcopyBounded(int depth) {\n");
+        sb.append("        if (depth >= IterativeTraversal.MAX_RECURSION) return IterativeTraversal.copyWithStack(this);\n");
+        sb.append("        ").append(l.getName(typePrefix)).append(" result = new ").append(l.getName(typePrefix)).append("Impl();\n");
+        sb.append("        for (").append(printType(l.itemType)).append(" elem : this) {\n");
+        sb.append("            result.add((").append(printType(l.itemType)).append(") elem.zzcopyBounded(depth + 1));\n");
+        sb.append("        }\n");
+        sb.append("        return result;\n");
+        sb.append("    }\n\n");
+
+        // structural hash, equal to the hash of a java.util.List of the element hashes
+        createCachedHashField(sb);
+        sb.append("    public int zzstructuralHash(int depth) {\n");
+        if (prog.isHashCached()) {
+            sb.append("        if (zzhash != 0) return zzhash;\n");
+        }
+        sb.append("        if (depth >= IterativeTraversal.MAX_RECURSION) return IterativeTraversal.structuralHashWithStack(this);\n");
+        if (l.ref) {
+            // structuralEquals compares the targets of the refs, which can change without notice,
+            // so only the size is part of the hash
+            sb.append("        int h = 31 + size();\n");
+        } else {
+            sb.append("        int h = 1;\n");
+            sb.append("        for (").append(printType(l.itemType)).append(" elem : this) {\n");
+            sb.append("            h = 31 * h + elem.zzstructuralHash(depth + 1);\n");
+            sb.append("        }\n");
+        }
+        createHashResult(sb);
+        sb.append("    }\n\n");
+
+        sb.append("    public int zzhashWithChildren(int[] hashes, int offset) {\n");
+        if (l.ref) {
+            sb.append("        int h = 31 + size();\n");
+        } else {
+            sb.append("        int h = 1;\n");
+            sb.append("        for (int i = offset; i < offset + size(); i++) {\n");
+            sb.append("            h = 31 * h + hashes[i];\n");
+            sb.append("        }\n");
+        }
+        createHashResult(sb);
+        sb.append("    }\n\n");
+
         createCopyWithRefsMethod(l, sb);
+        createReadMethod(l, sb);
         createAttributeStubs(l, sb);
         createFieldStubs(l, sb);
 
@@ -1260,6 +2548,8 @@ public class Generator {
         sb.append("    ").append(getNullableAnnotation()).append(getCommonSupertypeType()).append(" getParent();\n")
                 .append("    ").append(getCommonSupertypeType()).append(" copy();\n")
                 .append("    ").append(getCommonSupertypeType()).append(" copyWithRefs();\n")
+                .append("    /** internal: copies this element and records the copies of the elements, which refs can point to */\n")
+                .append("    ").append(getCommonSupertypeType()).append(" zzcopyRefTargets(").append(getCopyMapType()).append(" copies);\n")
                 .append("    int size();\n")
                 .append("    void clearAttributes();\n")
                 .append("    void clearAttributesLocal();\n")
@@ -1269,16 +2559,46 @@ public class Generator {
                 .append("    default void trimToSize() { forEachElement(").append(getCommonSupertypeType()).append("::trimToSize); }\n")
                 .append("    void setParent(").append(getNullableAnnotation()).append(getCommonSupertypeType()).append(" parent);\n")
                 .append("    void replaceBy(").append(getCommonSupertypeType()).append(" other);\n")
+                .append("    /** internal: the position of this element in its parent, might be outdated for elements of lists */\n")
+                .append("    int zzgetIndexInParent();\n")
+                .append("    /** internal: updates the position of this element in its parent */\n")
+                .append("    void zzsetIndexInParent(int index);\n");
+        if (prog.isJournaled()) {
+            sb.append("    /** internal: sets the parent without recording the change in the journal */\n")
+                    .append("    void zzsetParent(").append(getNullableAnnotation()).append(getCommonSupertypeType()).append(" parent);\n")
+                    .append("    /** internal: restores the property or field in the given slot to the old value from the journal */\n")
+                    .append("    void zzundo(int slot, Object old);\n");
+        }
+        if (prog.isFrozenGenerated()) {
+            sb.append("    /** creates an immutable copy of this subtree, refs to elements outside of the subtree are set to null */\n")
+                    .append("    ").append(getCommonSupertypeType()).append("Frozen freeze();\n");
+        }
+        if (prog.isInvalidationTracked()) {
+            sb.append("    /** internal: the attribute values depending on this element */\n")
+                    .append("    AttributeDependencies.Dependents zzgetDependents(boolean create);\n")
+                    .append("    /** internal: resets the attribute value in the given slot */\n")
+                    .append("    void zzresetAttribute(int slot);\n");
+        }
+        sb
+                .append("    /** returns the position i of this element in its parent, so that getParent().get(i) == this, or -1 if there is no parent */\n")
+                .append("    default int getIndexInParent() {\n")
+                .append("        ").append(getCommonSupertypeType()).append(" parent = getParent();\n")
+                .append("        if (parent == null) return -1;\n")
+                .append("        if (parent instanceof AsgList) return ((AsgList<?>) parent).indexOf(this);\n")
+                .append("        return zzgetIndexInParent();\n")
+                .append("    }\n")
                 .append("    boolean structuralEquals(").append(getCommonSupertypeType()).append(" elem);\n")
+                .append("    /** a hash code matching structuralEquals: structurally equal elements have the same structural hash.\n")
+                .append("     * Parameters marked with @ignoreForEquality are left out and refs are hashed by identity. */\n")
+                .append("    default int structuralHash() {\n")
+                .append("        return zzstructuralHash(0);\n")
+                .append("    }\n")
                 .append("    default java.util.List<Integer> pathTo(").append(getCommonSupertypeType()).append("  elem) {\n")
                 .append("        java.util.List<Integer> path = new java.util.ArrayList<>();\n")
                 .append("        while (elem != this) {\n")
                 .append("            if (elem == null) { throw new RuntimeException(\"Element \" + elem + \" is not a parent of \" + this); }\n")
-                .append("            ").append(getCommonSupertypeType()).append(" parent = elem.getParent();\n")
-                .append("            for (int i = 0; i < parent.size(); i++) {\n")
-                .append("                if (parent.get(i) == elem) { path.add(i); break; }\n")
-                .append("            }\n")
-                .append("            elem = parent;\n")
+                .append("            path.add(elem.getIndexInParent());\n")
+                .append("            elem = elem.getParent();\n")
                 .append("        }\n")
                 .append("        java.util.Collections.reverse(path);\n")
                 .append("        return path;\n")
@@ -1289,7 +2609,137 @@ public class Generator {
                 .append("        return elem;\n")
                 .append("    }\n");
 
-        // keep your existing matcher + visitor + attribute/field stubs
+        // iterative traversal:
+        String E = getCommonSupertypeType();
+        sb.append("    /** same as copy(), but also works on very deep trees, as it switches to an explicit stack instead of recursion for deep subtrees */\n")
+                .append("    default ").append(E).append(" copyIterative() {\n")
+                .append("        return IterativeTraversal.copy(this);\n")
+                .append("    }\n")
+                .append("    /** same as structuralEquals, but also works on very deep trees */\n")
+                .append("    default boolean structuralEqualsIterative(").append(E).append(" elem) {\n")
+                .append("        return IterativeTraversal.structuralEquals(this, elem);\n")
+                .append("    }\n")
+                .append("    /** same as clearAttributes(), but uses an explicit stack instead of recursion */\n")
+                .append("    default void clearAttributesIterative() {\n")
+                .append("        for (").append(E).append(" e : preOrder()) e.clearAttributesLocal();\n")
+                .append("    }\n")
+                .append("    /** all elements of this tree, parents before their children. The tree must not be changed during the iteration. */\n")
+                .append("    default Iterable<").append(E).append("> preOrder() {\n")
+                .append("        return () -> IterativeTraversal.preOrder(this);\n")
+                .append("    }\n")
+                .append("    /** all elements of this tree, children before their parents. The tree must not be changed during the iteration. */\n")
+                .append("    default Iterable<").append(E).append("> postOrder() {\n")
+                .append("        return () -> IterativeTraversal.postOrder(this);\n")
+                .append("    }\n")
+                .append("    /** internal: copies this element using the copies of its children, which start at the given offset */\n")
+                .append("    ").append(E).append(" zzcopyWithChildren(").append(E).append("[] children, int offset);\n")
+                .append("    /** internal: copies this tree, recursing at most to the maximum depth */\n")
+                .append("    ").append(E).append(" zzcopyBounded(int depth);\n")
+                .append("    /** internal: compares this tree with e, children below the maximum depth are added to pending */\n")
+                .append("    boolean zzstructuralEquals(").append(E).append(" e, int depth, IterativeTraversal.Pending pending);\n")
+                .append("    /** internal: the structural hash of this tree, recursing at most to the maximum depth */\n")
+                .append("    int zzstructuralHash(int depth);\n")
+                .append("    /** internal: the structural hash of this element using the hashes of its children, which start at the given offset */\n")
+                .append("    int zzhashWithChildren(int[] hashes, int offset);\n");
+        if (prog.isHashCached()) {
+            sb.append("    /** internal: the stored structural hash or 0, if it is not computed yet */\n")
+                    .append("    int zzgetCachedHash();\n")
+                    .append("    /** internal: forgets the stored structural hash, returns whether there was one */\n")
+                    .append("    boolean zzclearCachedHash();\n")
+                    .append("    /** internal: forgets the stored structural hashes of this element and its ancestors.\n")
+                    .append("     * An element only has a stored hash if all its descendants have one, so this can stop at the first element without a hash. */\n")
+                    .append("    default void zzhashChanged() {\n")
+                    .append("        for (").append(E).append(" e = this; e != null && e.zzclearCachedHash(); e = e.getParent()) {}\n")
+                    .append("    }\n");
+        }
+
+        sb.append("    /** reports all later changes of this subtree to the listener */\n")
+                .append("    default void addTreeListener(TreeListener listener) {\n")
+                .append("        TreeListeners.add(this, listener);\n")
+                .append("    }\n")
+                .append("    /** removes a listener added to this element, the element keeps the listener until it is removed */\n")
+                .append("    default void removeTreeListener(TreeListener listener) {\n")
+                .append("        TreeListeners.remove(this, listener);\n")
+                .append("    }\n")
+                .append("    /** internal: the listeners added to this element or null */\n")
+                .append("    TreeListener[] zzgetTreeListeners();\n")
+                .append("    void zzsetTreeListeners(TreeListener[] listeners);\n");
+        if (prog.isNumberingStored()) {
+            sb.append("    /** numbers the elements of this tree, so that isAncestorOf takes constant time for them\n")
+                    .append("     * until an element of the tree gets or loses a parent */\n")
+                    .append("    default void number() {\n")
+                    .append("        TreeNumbering.number(this);\n")
+                    .append("    }\n")
+                    .append("    /** whether this element is a proper ancestor of e. Takes constant time, if both elements are numbered by the\n")
+                    .append("     * same call of number() and the tree has not changed since then, otherwise it walks up the parents of e. */\n")
+                    .append("    default boolean isAncestorOf(").append(E).append(" e) {\n")
+                    .append("        return TreeNumbering.isAncestorOf(this, e);\n")
+                    .append("    }\n")
+                    .append("    /** internal: the numbering, which set the numbers of this element, or null */\n")
+                    .append("    TreeNumbering zzgetNumbering();\n")
+                    .append("    int zzgetPre();\n")
+                    .append("    int zzgetPost();\n")
+                    .append("    void zzsetNumbering(TreeNumbering numbering, int pre, int post);\n");
+        } else {
+            sb.append("    /** whether this element is a proper ancestor of e, walks up the parents of e */\n")
+                    .append("    default boolean isAncestorOf(").append(E).append(" e) {\n")
+                    .append("        for (").append(E).append(" p = e.getParent(); p != null; p = p.getParent()) {\n")
+                    .append("            if (p == this) return true;\n")
+                    .append("        }\n")
+                    .append("        return false;\n")
+                    .append("    }\n");
+        }
+        if (prog.isTypeIndexed()) {
+            sb.append("    /** all elements of the given type in this tree, in no particular order. Interned elements are not included.\n")
+                    .append("     * The first call on the root of a tree creates an index, which is updated when the tree changes,\n")
+                    .append("     * so that later calls only take time proportional to the result. */\n")
+                    .append("    default <T> List<T> allOfType(Class<T> type) {\n")
+                    .append("        return TypeIndex.allOfType(this, type);\n")
+                    .append("    }\n")
+                    .append("    /** internal: the index of this tree, if this element is the root and an index was created */\n")
+                    .append("    TypeIndex zzgetTypeIndex();\n")
+                    .append("    void zzsetTypeIndex(TypeIndex index);\n");
+        }
+
+        // binary serialization:
+        sb.append("    /** writes this tree in a compact binary format. Fields and attributes are not written.\n")
+                .append("     * Refs must point to elements of this tree. */\n")
+                .append("    default void write(java.io.DataOutput out) throws java.io.IOException {\n")
+                .append("        TreeSerializer.write(this, out);\n")
+                .append("    }\n")
+                .append("    /** reads a tree written by write */\n")
+                .append("    static ").append(E).append(" read(java.io.DataInput in) throws java.io.IOException {\n")
+                .append("        return TreeSerializer.read(in);\n")
+                .append("    }\n")
+                .append("    /** internal: writes the type and the properties of this element, but not its children */\n")
+                .append("    void zzwrite(TreeSerializer.Writer w) throws java.io.IOException;\n");
+
+        // parallel traversal:
+        sb.append("    /** applies the action to all elements of this tree in parallel.\n")
+                .append("     * The children of elements matching splitHere are processed as separate fork-join tasks,\n")
+                .append("     * all other subtrees are traversed sequentially. */\n")
+                .append("    default void parallelForEach(java.util.function.Predicate<? super ").append(E).append("> splitHere, ")
+                .append("java.util.function.Consumer<? super ").append(E).append("> action) {\n")
+                .append("        ParallelTraversal.forEach(this, splitHere, action);\n")
+                .append("    }\n")
+                .append("    /** applies the action to all elements of this tree in parallel, splitting work at lists */\n")
+                .append("    default void parallelForEach(java.util.function.Consumer<? super ").append(E).append("> action) {\n")
+                .append("        parallelForEach(e -> e instanceof AsgList, action);\n")
+                .append("    }\n")
+                .append("    /** maps all elements of this tree and combines the results in tree order (pre-order).\n")
+                .append("     * combine must be associative. Work is split at elements matching splitHere. */\n")
+                .append("    default <R> R parallelReduce(java.util.function.Predicate<? super ").append(E).append("> splitHere, ")
+                .append("java.util.function.Function<? super ").append(E).append(", ? extends R> mapper, ")
+                .append("java.util.function.BinaryOperator<R> combine) {\n")
+                .append("        return ParallelTraversal.reduce(this, splitHere, mapper, combine);\n")
+                .append("    }\n")
+                .append("    /** maps all elements of this tree and combines the results in tree order, splitting work at lists */\n")
+                .append("    default <R> R parallelReduce(java.util.function.Function<? super ").append(E).append(", ? extends R> mapper, ")
+                .append("java.util.function.BinaryOperator<R> combine) {\n")
+                .append("        return parallelReduce(e -> e instanceof AsgList, mapper, combine);\n")
+                .append("    }\n");
+
+        // keep your existing matcher + visitor + attribute/field stubs
         generateMatcher(commonSuperType, sb);
         generateVisitorInterface(commonSuperType, sb);
         createAttributeStubs(commonSuperType, sb);
@@ -1333,8 +2783,979 @@ public class Generator {
     private void generateStandardList() {
         StringBuilder sb = new StringBuilder();
         printProlog(sb);
-        TemplateAsgList.writeTo(sb, getCommonSupertypeType());
+        TemplateAsgList.writeTo(sb, getCommonSupertypeType(), prog.isInvalidationTracked(), prog.isJournaled());
         fileGenerator.createFile("AsgList.java", sb);
+
+        StringBuilder editor = new StringBuilder();
+        printProlog(editor);
+        TemplateAsgList.writeListEditorTo(editor);
+        fileGenerator.createFile("ListEditor.java", editor);
+
+        Set<String> primitiveItemTypes = new TreeSet<>();
+        for (ListDef l : prog.listDefs) {
+            if (isPrimitiveList(l)) {
+                primitiveItemTypes.add(l.itemType);
+            }
+        }
+        for (String p : primitiveItemTypes) {
+            sb = new StringBuilder();
+            printProlog(sb);
+            TemplatePrimitiveList.writeTo(sb, getCommonSupertypeType(), p, prog.isInvalidationTracked(), prog.isJournaled());
+            fileGenerator.createFile(TemplatePrimitiveList.className(p) + ".java", sb);
+        }
+    }
+
+    private void generateParallelTraversal() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateParallelTraversal.writeTo(sb, getCommonSupertypeType());
+        fileGenerator.createFile("ParallelTraversal.java", sb);
+    }
+
+    private void generateJournal() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateJournal.writeTo(sb, getCommonSupertypeType());
+        fileGenerator.createFile("Journal.java", sb);
+    }
+
+    private void generateTreeListeners() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateTreeListeners.writeListenerTo(sb, getCommonSupertypeType());
+        fileGenerator.createFile("TreeListener.java", sb);
+
+        sb = new StringBuilder();
+        printProlog(sb);
+        TemplateTreeListeners.writeTo(sb, getCommonSupertypeType());
+        fileGenerator.createFile("TreeListeners.java", sb);
+    }
+
+    private void generateRewriter() {
+        String E = getCommonSupertypeType();
+        List<AstBaseTypeDefinition> types = new ArrayList<>();
+        types.addAll(prog.constructorDefs);
+        types.addAll(prog.listDefs);
+
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("import java.util.function.Function;\n\n");
+        sb.append("/**\n");
+        sb.append(" * Rewrites trees bottom-up with rules for the element types.\n");
+        sb.append(" * A rule gets an element, whose children are already rewritten, and returns its replacement or the element itself.\n");
+        sb.append(" * Rules can also change the element in place, but it is not passed to its rule again then.\n");
+        sb.append(" */\n");
+        sb.append("public final class Rewriter {\n");
+        for (AstBaseTypeDefinition t : types) {
+            sb.append("    private Function<? super ").append(t.getName(typePrefix)).append(", ? extends ").append(E).append("> rule")
+                    .append(t.getName()).append(";\n");
+        }
+        sb.append("\n");
+        for (AstBaseTypeDefinition t : types) {
+            sb.append("    public Rewriter on").append(t.getName()).append("(Function<? super ").append(t.getName(typePrefix))
+                    .append(", ? extends ").append(E).append("> rule) {\n");
+            sb.append("        this.rule").append(t.getName()).append(" = rule;\n");
+            sb.append("        return this;\n");
+            sb.append("    }\n\n");
+        }
+
+        // dispatching to the rules:
+        sb.append("    private final class Rules implements ").append(E).append(".Matcher<").append(E).append("> {\n");
+        for (AstBaseTypeDefinition t : types) {
+            String param = toFirstLower(t.getName());
+            sb.append("        @Override public ").append(E).append(" case_").append(t.getName()).append("(")
+                    .append(t.getName(typePrefix)).append(" ").append(param).append(") {\n");
+            sb.append("            return rule").append(t.getName()).append(" == null ? ").append(param).append(" : rule")
+                    .append(t.getName()).append(".apply(").append(param).append(");\n");
+            sb.append("        }\n");
+        }
+        sb.append("    }\n\n");
+
+        sb.append("    /** refs in lists are not children */\n");
+        sb.append("    private static boolean isRefList(").append(E).append(" e) {\n");
+        sb.append("        return ").append(isRefListCondition()).append(";\n");
+        sb.append("    }\n\n");
+
+        TemplateRewriter.writeTo(sb, E);
+        sb.append("}\n");
+        fileGenerator.createFile("Rewriter.java", sb);
+    }
+
+    /**
+     * the condition, whether the element e is a list of refs, whose elements are not children of the list
+     */
+    private String isRefListCondition() {
+        List<String> refLists = new ArrayList<>();
+        for (ListDef l : prog.listDefs) {
+            if (l.ref) {
+                refLists.add("e instanceof " + l.getName(typePrefix));
+            }
+        }
+        return refLists.isEmpty() ? "false" : join(refLists, " || ");
+    }
+
+    private void generateTreeNumbering() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateTreeNumbering.writeTo(sb, getCommonSupertypeType(), isRefListCondition());
+        fileGenerator.createFile("TreeNumbering.java", sb);
+    }
+
+    private void generateIterativeTraversal() {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplateIterativeTraversal.writeTo(sb, getCommonSupertypeType(), prog.isHashCached());
+        fileGenerator.createFile("IterativeTraversal.java", sb);
+    }
+
+    /**
+     * generates the binary serialization of trees.
+     * Every constructor and list gets a type tag, children are written before their parents,
+     * strings are stored in a string table and refs as preorder numbers.
+     */
+    private void generateTreeSerializer() {
+        String E = getCommonSupertypeType();
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/** binary format for trees, see ").append(E).append(".write and ").append(E).append(".read */\n");
+        sb.append("@SuppressWarnings({\"cast\", \"unused\", \"rawtypes\", \"unchecked\"})\n");
+        sb.append("final class TreeSerializer {\n");
+        sb.append("    /** fingerprint of the specification, trees written with a different specification cannot be read */\n");
+        sb.append("    static final int SPEC_HASH = ").append(specHash()).append(";\n\n");
+        TemplateTreeSerializer.writeTo(sb, E);
+        sb.append("\n");
+
+        // reading a single element:
+        sb.append("    static ").append(E).append(" readNode(int tag, Reader r) throws java.io.IOException {\n");
+        sb.append("        switch (tag) {\n");
+        for (ConstructorDef c : prog.constructorDefs) {
+            String name = c.getName(typePrefix);
+            sb.append("            case ").append(typeTag(c)).append(": {\n");
+            if (!isSerializable(c)) {
+                sb.append("                throw new UnsupportedOperationException(\"Cannot read ").append(name).append(".\");\n");
+                sb.append("            }\n");
+                continue;
+            }
+            for (Parameter p : c.parameters) {
+                if (prog.hasElement(p.getTyp())) {
+                    if (p.isRef) {
+                        sb.append("                int p_").append(p.name).append(" = r.readVarInt();\n");
+                    }
+                } else {
+                    sb.append("                ").append(printType(p.getTyp())).append(" p_").append(p.name)
+                            .append(" = r.read").append(serializedType(p.getTyp())).append("();\n");
+                }
+            }
+            // children are on the stack, the last one on top
+            for (int i = c.parameters.size() - 1; i >= 0; i--) {
+                Parameter p = c.parameters.get(i);
+                if (prog.hasElement(p.getTyp()) && !p.isRef) {
+                    sb.append("                ").append(printType(p.getTyp())).append(" p_").append(p.name)
+                            .append(" = (").append(printType(p.getTyp())).append(") r.pop();\n");
+                }
+            }
+            List<String> args = new ArrayList<>();
+            for (Parameter p : c.parameters) {
+                args.add(p.isRef && prog.hasElement(p.getTyp()) ? "null" : "p_" + p.name);
+            }
+            sb.append("                final ").append(name).append(" result = ").append(newElement(c))
+                    .append(join(args, ", ")).append(");\n");
+            for (Parameter p : c.parameters) {
+                if (p.isRef && prog.hasElement(p.getTyp())) {
+                    sb.append("                r.resolveLater(p_").append(p.name).append(", t -> result.set").append(toFirstUpper(p.name))
+                            .append("((").append(printType(p.getTyp())).append(") t));\n");
+                }
+            }
+            sb.append("                return result;\n");
+            sb.append("            }\n");
+        }
+        for (ListDef l : prog.listDefs) {
+            String name = l.getName(typePrefix);
+            sb.append("            case ").append(typeTag(l)).append(": {\n");
+            if (isPrimitiveList(l)) {
+                sb.append("                final ").append(name).append(" result = new ").append(name).append("Impl();\n");
+                sb.append("                for (int i = r.readVarInt(); i > 0; i--) {\n");
+                sb.append("                    result.add(r.read").append(serializedType(l.itemType)).append("());\n");
+                sb.append("                }\n");
+                sb.append("                return result;\n");
+                sb.append("            }\n");
+                continue;
+            }
+            if (!prog.hasElement(l.itemType)) {
+                sb.append("                throw new UnsupportedOperationException(\"Cannot read ").append(name).append(".\");\n");
+                sb.append("            }\n");
+                continue;
+            }
+            sb.append("                final ").append(name).append(" result = new ").append(name).append("Impl();\n");
+            if (l.ref) {
+                sb.append("                int count = r.readVarInt();\n");
+                sb.append("                for (int i = 0; i < count; i++) {\n");
+                sb.append("                    r.resolveLater(r.readVarInt(), t -> result.add((").append(printType(l.itemType)).append(") t));\n");
+                sb.append("                }\n");
+            } else {
+                sb.append("                r.popInto(result, r.readVarInt());\n");
+            }
+            sb.append("                return result;\n");
+            sb.append("            }\n");
+        }
+        sb.append("            default:\n");
+        sb.append("                throw new java.io.IOException(\"Corrupted tree: unknown type tag \" + tag);\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        // children, which are written as part of the tree:
+        sb.append("    /** number of children, which are part of the tree (the elements of ref lists are not) */\n");
+        sb.append("    private static int childCount(").append(E).append(" e) {\n");
+        for (ListDef l : prog.listDefs) {
+            if (l.ref || !prog.hasElement(l.itemType)) {
+                sb.append("        if (e instanceof ").append(l.getName(typePrefix)).append(") return 0;\n");
+            }
+        }
+        sb.append("        return e.size();\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        fileGenerator.createFile("TreeSerializer.java", sb);
+    }
+
+    private void createReadMethod(AstEntityDefinition c, StringBuilder sb) {
+        sb.append("    /** reads a tree written by write, which must have a " + c.getName(typePrefix) + " at the root */\n");
+        sb.append("    static " + c.getName(typePrefix) + " read(java.io.DataInput in) throws java.io.IOException {\n");
+        sb.append("        return TreeSerializer.read(in, " + c.getName(typePrefix) + ".class);\n");
+        sb.append("    }\n");
+    }
+
+    /**
+     * generates read-only views on serialized trees, which decode the elements from a buffer when they are accessed
+     */
+    private void generateTreeView() {
+        String E = getCommonSupertypeType();
+        boolean hasRefs = false;
+        for (ConstructorDef c : prog.constructorDefs) {
+            for (Parameter p : c.parameters) {
+                hasRefs |= p.isRef && prog.hasElement(p.getTyp());
+            }
+        }
+        for (ListDef l : prog.listDefs) {
+            hasRefs |= l.ref;
+        }
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/**\n");
+        sb.append(" * Read-only view on a tree written by ").append(E).append(".write.\n");
+        sb.append(" * Only the structure of the tree is read when the view is opened,\n");
+        sb.append(" * properties are decoded when they are accessed and materialize() creates the mutable tree.\n");
+        sb.append(" */\n");
+        sb.append("public final class TreeView {\n");
+        TemplateTreeView.writeTo(sb, E, hasRefs);
+        sb.append("\n");
+
+        // reading the structure:
+        sb.append("    /** skips the properties of an element and returns the number of children */\n");
+        sb.append("    private int scanNode(int tag, Cursor c) throws java.io.IOException {\n");
+        sb.append("        switch (tag) {\n");
+        for (ConstructorDef c : prog.constructorDefs) {
+            if (!isSerializable(c)) {
+                continue;
+            }
+            sb.append("            case ").append(typeTag(c)).append(":\n");
+            int children = 0;
+            for (Parameter p : c.parameters) {
+                if (prog.hasElement(p.getTyp()) && !p.isRef) {
+                    children++;
+                } else if (p.getTyp().equals("String") || p.getTyp().equals("java.lang.String")) {
+                    sb.append("                c.scanString();\n");
+                } else {
+                    sb.append("                ").append(skipProperty(p)).append("\n");
+                }
+            }
+            sb.append("                return ").append(children).append(";\n");
+        }
+        for (ListDef l : prog.listDefs) {
+            if (isPrimitiveList(l)) {
+                sb.append("            case ").append(typeTag(l)).append(":\n");
+                sb.append("                for (int i = c.readVarInt(); i > 0; i--) {\n");
+                sb.append("                    c.read").append(serializedType(l.itemType)).append("();\n");
+                sb.append("                }\n");
+                sb.append("                return 0;\n");
+                continue;
+            }
+            if (!prog.hasElement(l.itemType)) {
+                continue;
+            }
+            sb.append("            case ").append(typeTag(l)).append(":\n");
+            if (l.ref) {
+                sb.append("                for (int i = c.readVarInt(); i > 0; i--) {\n");
+                sb.append("                    c.readVarInt();\n");
+                sb.append("                }\n");
+                sb.append("                return 0;\n");
+            } else {
+                sb.append("                return c.readVarInt();\n");
+            }
+        }
+        sb.append("            default:\n");
+        sb.append("                throw new java.io.IOException(\"Corrupted tree: unknown type tag \" + tag);\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        sb.append("    private ").append(E).append("View createView(int node) {\n");
+        sb.append("        switch (tag(node)) {\n");
+        for (ConstructorDef c : prog.constructorDefs) {
+            sb.append("            case ").append(typeTag(c)).append(": return new ").append(c.getName(typePrefix)).append("View(this, node);\n");
+        }
+        for (ListDef l : prog.listDefs) {
+            sb.append("            case ").append(typeTag(l)).append(": return new ").append(l.getName(typePrefix)).append("View(this, node);\n");
+        }
+        sb.append("            default: throw new IllegalStateException(\"Unknown type tag \" + tag(node));\n");
+        sb.append("        }\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        fileGenerator.createFile("TreeView.java", sb);
+
+        for (CaseDef c : prog.caseDefs) {
+            generateViewInterface(c);
+        }
+        for (ConstructorDef c : prog.constructorDefs) {
+            generateViewClass(c);
+        }
+        for (ListDef l : prog.listDefs) {
+            generateViewClass(l);
+        }
+    }
+
+    private void generateViewInterface(CaseDef c) {
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        if (c == commonSuperType) {
+            sb.append("/** read-only view on an element of a serialized tree, see TreeView.open */\n");
+            sb.append("public interface ").append(c.getName(typePrefix)).append("View {\n");
+            sb.append("    int size();\n");
+            sb.append("    ").append(c.getName(typePrefix)).append("View get(int i);\n");
+            sb.append("    ").append(getNullableAnnotation()).append(c.getName(typePrefix)).append("View getParent();\n");
+            sb.append("    /** creates the mutable version of this subtree, refs to elements outside of the subtree are set to null */\n");
+        } else {
+            sb.append("/** read-only view on a ").append(c.getName()).append(" of a serialized tree */\n");
+            sb.append("public interface ").append(c.getName(typePrefix)).append("View extends ");
+            List<String> supertypes = new ArrayList<>();
+            for (AstEntityDefinition supertype : directSuperTypes.get(c)) {
+                supertypes.add(supertype.getName(typePrefix) + "View");
+            }
+            sb.append(supertypes.isEmpty() ? getCommonSupertypeType() + "View" : join(supertypes, ", ")).append(" {\n");
+            for (Parameter p : calculateAttributes(c)) {
+                sb.append("    ").append(viewType(p.getTyp())).append(" get").append(toFirstUpper(p.name)).append("();\n");
+            }
+        }
+        sb.append("    ").append(c.getName(typePrefix)).append(" materialize();\n");
+        sb.append("}\n");
+        fileGenerator.createFile(c.getName(typePrefix) + "View.java", sb);
+    }
+
+    private void generateViewClass(AstBaseTypeDefinition c) {
+        String name = c.getName(typePrefix) + "View";
+        String E = getCommonSupertypeType();
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/** read-only view on a ").append(c.getName()).append(" of a serialized tree */\n");
+        sb.append("public final class ").append(name).append(" implements ");
+        List<String> supertypes = new ArrayList<>();
+        for (AstEntityDefinition supertype : directSuperTypes.get(c)) {
+            supertypes.add(supertype.getName(typePrefix) + "View");
+        }
+        sb.append(join(supertypes, ", "));
+        String itemType = null;
+        if (c instanceof ListDef l && !isPrimitiveList(l)) {
+            itemType = prog.hasElement(l.itemType) ? viewType(l.itemType) : E + "View";
+            sb.append(", Iterable<").append(itemType).append(">");
+        }
+        sb.append(" {\n");
+        sb.append("    private final TreeView tree;\n");
+        sb.append("    private final int node;\n\n");
+        sb.append("    ").append(name).append("(TreeView tree, int node) {\n");
+        sb.append("        this.tree = tree;\n");
+        sb.append("        this.node = node;\n");
+        sb.append("    }\n\n");
+
+        if (c instanceof ConstructorDef cd) {
+            int child = 0;
+            for (int i = 0; i < cd.parameters.size(); i++) {
+                Parameter p = cd.parameters.get(i);
+                sb.append("    public ").append(viewType(p.getTyp())).append(" get").append(toFirstUpper(p.name)).append("() {\n");
+                if (prog.hasElement(p.getTyp()) && !p.isRef) {
+                    sb.append("        return (").append(viewType(p.getTyp())).append(") tree.view(tree.child(node, ").append(child++).append("));\n");
+                } else if (!isSerializable(cd)) {
+                    sb.append("        throw new UnsupportedOperationException(\"Cannot read ").append(c.getName(typePrefix)).append(".\");\n");
+                } else {
+                    sb.append("        TreeView.Cursor c = tree.cursor(node);\n");
+                    for (Parameter q : cd.parameters.subList(0, i)) {
+                        if (!prog.hasElement(q.getTyp()) || q.isRef) {
+                            sb.append("        ").append(skipProperty(q)).append("\n");
+                        }
+                    }
+                    if (prog.hasElement(p.getTyp())) {
+                        sb.append("        return (").append(viewType(p.getTyp())).append(") c.readRef();\n");
+                    } else {
+                        sb.append("        return c.read").append(serializedType(p.getTyp())).append("();\n");
+                    }
+                }
+                sb.append("    }\n\n");
+            }
+            sb.append("    public int size() {\n");
+            sb.append("        return ").append(child).append(";\n");
+            sb.append("    }\n\n");
+            sb.append("    public ").append(E).append("View get(int i) {\n");
+            sb.append("        return tree.view(tree.child(node, i));\n");
+            sb.append("    }\n\n");
+        } else {
+            ListDef l = (ListDef) c;
+            if (isPrimitiveList(l)) {
+                String read = "c.read" + serializedType(l.itemType) + "()";
+                sb.append("    public int length() {\n");
+                sb.append("        return tree.cursor(node).readVarInt();\n");
+                sb.append("    }\n\n");
+                sb.append("    /** the values are not indexed, so this takes linear time, use to").append(toFirstUpper(l.itemType))
+                        .append("Array to read all values */\n");
+                sb.append("    public ").append(l.itemType).append(" get").append(toFirstUpper(l.itemType)).append("(int i) {\n");
+                sb.append("        TreeView.Cursor c = tree.cursor(node);\n");
+                sb.append("        Objects.checkIndex(i, c.readVarInt());\n");
+                sb.append("        for (int j = 0; j < i; j++) {\n");
+                sb.append("            ").append(read).append(";\n");
+                sb.append("        }\n");
+                sb.append("        return ").append(read).append(";\n");
+                sb.append("    }\n\n");
+                sb.append("    public ").append(l.itemType).append("[] to").append(toFirstUpper(l.itemType)).append("Array() {\n");
+                sb.append("        TreeView.Cursor c = tree.cursor(node);\n");
+                sb.append("        ").append(l.itemType).append("[] result = new ").append(l.itemType).append("[c.readVarInt()];\n");
+                sb.append("        for (int i = 0; i < result.length; i++) {\n");
+                sb.append("            result[i] = ").append(read).append(";\n");
+                sb.append("        }\n");
+                sb.append("        return result;\n");
+                sb.append("    }\n\n");
+                sb.append("    public int size() {\n");
+                sb.append("        return 0;\n");
+                sb.append("    }\n\n");
+                sb.append("    public ").append(E).append("View get(int i) {\n");
+                sb.append("        throw new IllegalArgumentException(\"Index out of range: \" + i);\n");
+                sb.append("    }\n\n");
+            } else if (!prog.hasElement(l.itemType)) {
+                sb.append("    public int size() {\n");
+                sb.append("        throw new UnsupportedOperationException(\"Cannot read ").append(c.getName(typePrefix)).append(".\");\n");
+                sb.append("    }\n\n");
+                sb.append("    public ").append(itemType).append(" get(int i) {\n");
+                sb.append("        throw new UnsupportedOperationException(\"Cannot read ").append(c.getName(typePrefix)).append(".\");\n");
+                sb.append("    }\n\n");
+                sb.append("    public Iterator<").append(itemType).append("> iterator() {\n");
+                sb.append("        throw new UnsupportedOperationException(\"Cannot read ").append(c.getName(typePrefix)).append(".\");\n");
+                sb.append("    }\n\n");
+            } else if (l.ref) {
+                sb.append("    public int size() {\n");
+                sb.append("        return tree.cursor(node).readVarInt();\n");
+                sb.append("    }\n\n");
+                sb.append("    /** refs are not indexed, so this takes linear time, use the iterator to visit all elements */\n");
+                sb.append("    public ").append(itemType).append(" get(int i) {\n");
+                sb.append("        TreeView.Cursor c = tree.cursor(node);\n");
+                sb.append("        int n = c.readVarInt();\n");
+                sb.append("        if (i < 0 || i >= n) {\n");
+                sb.append("            throw new IllegalArgumentException(\"Index out of range: \" + i);\n");
+                sb.append("        }\n");
+                sb.append("        for (int j = 0; j < i; j++) {\n");
+                sb.append("            c.readVarInt();\n");
+                sb.append("        }\n");
+                sb.append("        return (").append(itemType).append(") c.readRef();\n");
+                sb.append("    }\n\n");
+                sb.append("    public Iterator<").append(itemType).append("> iterator() {\n");
+                sb.append("        TreeView.Cursor c = tree.cursor(node);\n");
+                sb.append("        int n = c.readVarInt();\n");
+                sb.append("        return new Iterator<").append(itemType).append(">() {\n");
+                sb.append("            private int i = 0;\n\n");
+                sb.append("            @Override public boolean hasNext() {\n");
+                sb.append("                return i < n;\n");
+                sb.append("            }\n\n");
+                sb.append("            @Override public ").append(itemType).append(" next() {\n");
+                sb.append("                if (i >= n) throw new NoSuchElementException();\n");
+                sb.append("                i++;\n");
+                sb.append("                return (").append(itemType).append(") c.readRef();\n");
+                sb.append("            }\n");
+                sb.append("        };\n");
+                sb.append("    }\n\n");
+            } else {
+                sb.append("    public int size() {\n");
+                sb.append("        return tree.childCount(node);\n");
+                sb.append("    }\n\n");
+                sb.append("    public ").append(itemType).append(" get(int i) {\n");
+                sb.append("        return (").append(itemType).append(") tree.view(tree.child(node, i));\n");
+                sb.append("    }\n\n");
+                sb.append("    public Iterator<").append(itemType).append("> iterator() {\n");
+                sb.append("        return new Iterator<").append(itemType).append(">() {\n");
+                sb.append("            private int i = 0;\n\n");
+                sb.append("            @Override public boolean hasNext() {\n");
+                sb.append("                return i < size();\n");
+                sb.append("            }\n\n");
+                sb.append("            @Override public ").append(itemType).append(" next() {\n");
+                sb.append("                if (i >= size()) throw new NoSuchElementException();\n");
+                sb.append("                return get(i++);\n");
+                sb.append("            }\n");
+                sb.append("        };\n");
+                sb.append("    }\n\n");
+            }
+        }
+
+        sb.append("    public ").append(getNullableAnnotation()).append(E).append("View getParent() {\n");
+        sb.append("        return tree.view(tree.parent(node));\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(c.getName(typePrefix)).append(" materialize() {\n");
+        sb.append("        return (").append(c.getName(typePrefix)).append(") tree.materialize(node);\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override public boolean equals(Object o) {\n");
+        sb.append("        return o instanceof ").append(name).append(" v && v.tree == tree && v.node == node;\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override public int hashCode() {\n");
+        sb.append("        return System.identityHashCode(tree) * 31 + node;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        fileGenerator.createFile(name + ".java", sb);
+    }
+
+    private void generateFrozenTrees() {
+        String E = getCommonSupertypeType();
+        boolean hasRefs = false;
+        for (ConstructorDef c : prog.constructorDefs) {
+            for (Parameter p : c.parameters) {
+                hasRefs |= p.isRef && prog.hasElement(p.getTyp());
+            }
+        }
+        for (ListDef l : prog.listDefs) {
+            if (!prog.hasElement(l.itemType)) {
+                throw new Error("'frozen: nodes' needs lists of elements, but " + l.getName() + " contains " + l.itemType + ".");
+            }
+            hasRefs |= l.ref;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        TemplatePersistentList.writeTo(sb);
+        fileGenerator.createFile("PersistentList.java", sb);
+
+        sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/** converts between mutable trees and their immutable versions */\n");
+        sb.append("final class FrozenTrees {\n");
+        TemplateFrozenTrees.writeTo(sb, E, hasRefs);
+        sb.append("\n");
+
+        List<String> refLists = new ArrayList<>();
+        for (ListDef l : prog.listDefs) {
+            if (l.ref) {
+                refLists.add("e instanceof " + l.getName(typePrefix) + " || e instanceof " + frozenType(l.getName()));
+            }
+        }
+        sb.append("    /** refs in lists are not children */\n");
+        sb.append("    private static boolean isRefList(Object e) {\n");
+        sb.append("        return ").append(refLists.isEmpty() ? "false" : join(refLists, " || ")).append(";\n");
+        sb.append("    }\n\n");
+
+        // freezing a single element, its frozen children are on the stack:
+        sb.append("    @SuppressWarnings(\"unchecked\")\n");
+        sb.append("    private static ").append(E).append("Frozen freezeNode(").append(E).append(" e, Conversion c) {\n");
+        for (ConstructorDef c : prog.constructorDefs) {
+            String name = c.getName(typePrefix);
+            sb.append("        if (e instanceof ").append(name).append(" n) {\n");
+            popChildren(c, sb, true);
+            List<String> args = new ArrayList<>();
+            for (Parameter p : c.parameters) {
+                if (!prog.hasElement(p.getTyp())) {
+                    args.add("n.get" + toFirstUpper(p.name) + "()");
+                } else {
+                    args.add(p.isRef ? "null" : "p_" + p.name);
+                }
+            }
+            sb.append("            ").append(name).append("Frozen result = new ").append(name).append("Frozen(").append(join(args, ", ")).append(");\n");
+            for (Parameter p : c.parameters) {
+                if (p.isRef && prog.hasElement(p.getTyp())) {
+                    sb.append("            c.later(() -> result.").append(p.name).append(" = (").append(frozenType(p.getTyp()))
+                            .append(") c.converted(n.get").append(toFirstUpper(p.name)).append("()));\n");
+                }
+            }
+            sb.append("            return result;\n");
+            sb.append("        }\n");
+        }
+        for (ListDef l : prog.listDefs) {
+            String name = l.getName(typePrefix);
+            String item = frozenType(l.itemType);
+            sb.append("        if (e instanceof ").append(name).append(" n) {\n");
+            if (l.ref) {
+                sb.append("            ").append(name).append("Frozen result = new ").append(name).append("Frozen(PersistentList.empty());\n");
+                sb.append("            c.later(() -> {\n");
+                sb.append("                List<").append(item).append("> items = new ArrayList<>(n.size());\n");
+                sb.append("                for (").append(printType(l.itemType)).append(" t : n) items.add((").append(item).append(") c.converted(t));\n");
+                sb.append("                result.items = PersistentList.of(items);\n");
+                sb.append("            });\n");
+                sb.append("            return result;\n");
+            } else {
+                sb.append("            ").append(item).append("[] items = new ").append(item).append("[n.size()];\n");
+                sb.append("            for (int i = items.length - 1; i >= 0; i--) items[i] = (").append(item).append(") c.pop();\n");
+                sb.append("            return new ").append(name).append("Frozen(PersistentList.of(Arrays.asList(items)));\n");
+            }
+            sb.append("        }\n");
+        }
+        sb.append("        throw new IllegalStateException(\"Unknown element: \" + e.getClass());\n");
+        sb.append("    }\n\n");
+
+        // thawing a single element, its mutable children are on the stack:
+        sb.append("    @SuppressWarnings(\"unchecked\")\n");
+        sb.append("    private static ").append(E).append(" thawNode(").append(E).append("Frozen e, Conversion c) {\n");
+        for (ConstructorDef c : prog.constructorDefs) {
+            String name = c.getName(typePrefix);
+            sb.append("        if (e instanceof ").append(name).append("Frozen n) {\n");
+            popChildren(c, sb, false);
+            List<String> args = new ArrayList<>();
+            for (Parameter p : c.parameters) {
+                if (!prog.hasElement(p.getTyp())) {
+                    args.add("n.get" + toFirstUpper(p.name) + "()");
+                } else {
+                    args.add(p.isRef ? "null" : "p_" + p.name);
+                }
+            }
+            sb.append("            ").append(name).append(" result = ").append(newElement(c)).append(join(args, ", ")).append(");\n");
+            for (Parameter p : c.parameters) {
+                if (p.isRef && prog.hasElement(p.getTyp())) {
+                    sb.append("            c.later(() -> result.set").append(toFirstUpper(p.name)).append("((").append(printType(p.getTyp()))
+                            .append(") c.converted(n.get").append(toFirstUpper(p.name)).append("())));\n");
+                }
+            }
+            sb.append("            return result;\n");
+            sb.append("        }\n");
+        }
+        for (ListDef l : prog.listDefs) {
+            String name = l.getName(typePrefix);
+            String item = printType(l.itemType);
+            sb.append("        if (e instanceof ").append(name).append("Frozen n) {\n");
+            sb.append("            ").append(name).append(" result = new ").append(name).append("Impl();\n");
+            if (l.ref) {
+                sb.append("            c.later(() -> {\n");
+                sb.append("                for (").append(frozenType(l.itemType)).append(" t : n) result.add((").append(item).append(") c.converted(t));\n");
+                sb.append("            });\n");
+            } else {
+                sb.append("            ").append(item).append("[] items = new ").append(item).append("[n.size()];\n");
+                sb.append("            for (int i = items.length - 1; i >= 0; i--) items[i] = (").append(item).append(") c.pop();\n");
+                sb.append("            result.addAll(Arrays.asList(items));\n");
+            }
+            sb.append("            return result;\n");
+            sb.append("        }\n");
+        }
+        sb.append("        throw new IllegalStateException(\"Unknown element: \" + e.getClass());\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        fileGenerator.createFile("FrozenTrees.java", sb);
+
+        for (CaseDef c : prog.caseDefs) {
+            generateFrozenInterface(c);
+        }
+        for (ConstructorDef c : prog.constructorDefs) {
+            generateFrozenClass(c);
+        }
+        for (ListDef l : prog.listDefs) {
+            generateFrozenList(l);
+        }
+    }
+
+    /**
+     * pops the converted children of c from the conversion stack, the last child is on top
+     */
+    private void popChildren(ConstructorDef c, StringBuilder sb, boolean freezing) {
+        for (int i = c.parameters.size() - 1; i >= 0; i--) {
+            Parameter p = c.parameters.get(i);
+            if (prog.hasElement(p.getTyp()) && !p.isRef) {
+                String typ = freezing ? frozenType(p.getTyp()) : printType(p.getTyp());
+                sb.append("            ").append(typ).append(" p_").append(p.name).append(" = (").append(typ).append(") c.pop();\n");
+            }
+        }
+    }
+
+    private void generateFrozenInterface(CaseDef c) {
+        String E = getCommonSupertypeType();
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        if (c == commonSuperType) {
+            sb.append("/** immutable version of an element, which can be shared between trees, see ").append(E).append(".freeze */\n");
+            sb.append("public interface ").append(E).append("Frozen {\n");
+            sb.append("    int size();\n");
+            sb.append("    ").append(E).append("Frozen get(int i);\n");
+            sb.append("    /** creates a mutable copy of this subtree, refs to elements outside of the subtree are set to null */\n");
+        } else {
+            sb.append("/** immutable version of a ").append(c.getName()).append(" */\n");
+            sb.append("public interface ").append(c.getName(typePrefix)).append("Frozen extends ");
+            List<String> supertypes = new ArrayList<>();
+            for (AstEntityDefinition supertype : directSuperTypes.get(c)) {
+                supertypes.add(supertype.getName(typePrefix) + "Frozen");
+            }
+            sb.append(supertypes.isEmpty() ? E + "Frozen" : join(supertypes, ", ")).append(" {\n");
+            for (Parameter p : calculateAttributes(c)) {
+                sb.append("    ").append(frozenType(p.getTyp())).append(" get").append(toFirstUpper(p.name)).append("();\n");
+            }
+        }
+        sb.append("    ").append(c.getName(typePrefix)).append(" thaw();\n");
+        sb.append("}\n");
+        fileGenerator.createFile(c.getName(typePrefix) + "Frozen.java", sb);
+    }
+
+    private void generateFrozenClass(ConstructorDef c) {
+        String name = frozenType(c.getName());
+        String E = getCommonSupertypeType();
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/** immutable version of a ").append(c.getName()).append(", with* methods return changed copies */\n");
+        sb.append("public final class ").append(name).append(" implements ");
+        List<String> supertypes = new ArrayList<>();
+        for (AstEntityDefinition supertype : directSuperTypes.get(c)) {
+            supertypes.add(supertype.getName(typePrefix) + "Frozen");
+        }
+        sb.append(join(supertypes, ", ")).append(" {\n");
+
+        List<String> params = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        for (Parameter p : c.parameters) {
+            if (p.isRef && prog.hasElement(p.getTyp())) {
+                sb.append("    // refs are set after their target is frozen\n");
+                sb.append("    ").append(frozenType(p.getTyp())).append(" ").append(p.name).append(";\n");
+            } else {
+                sb.append("    private final ").append(frozenType(p.getTyp())).append(" ").append(p.name).append(";\n");
+            }
+            params.add(frozenType(p.getTyp()) + " " + p.name);
+            args.add(p.name);
+        }
+        sb.append("\n");
+        sb.append("    public ").append(name).append("(").append(join(params, ", ")).append(") {\n");
+        for (Parameter p : c.parameters) {
+            sb.append("        this.").append(p.name).append(" = ").append(p.name).append(";\n");
+        }
+        sb.append("    }\n\n");
+
+        for (Parameter p : c.parameters) {
+            String typ = frozenType(p.getTyp());
+            String upper = toFirstUpper(p.name);
+            sb.append("    public ").append(typ).append(" get").append(upper).append("() {\n");
+            sb.append("        return ").append(p.name).append(";\n");
+            sb.append("    }\n\n");
+            sb.append("    public ").append(name).append(" with").append(upper).append("(").append(typ).append(" ").append(p.name).append(") {\n");
+            List<String> newArgs = new ArrayList<>();
+            for (Parameter q : c.parameters) {
+                newArgs.add(q == p ? q.name : "this." + q.name);
+            }
+            sb.append("        return ").append(p.name).append(" == this.").append(p.name).append(" ? this : new ").append(name)
+                    .append("(").append(join(newArgs, ", ")).append(");\n");
+            sb.append("    }\n\n");
+        }
+
+        sb.append("    public int size() {\n");
+        int childCount = 0;
+        for (Parameter p : c.parameters) {
+            if (prog.hasElement(p.getTyp()) && !p.isRef) {
+                childCount++;
+            }
+        }
+        sb.append("        return ").append(childCount).append(";\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(E).append("Frozen get(int i) {\n");
+        sb.append("        switch (i) {\n");
+        childCount = 0;
+        for (Parameter p : c.parameters) {
+            if (prog.hasElement(p.getTyp()) && !p.isRef) {
+                sb.append("            case ").append(childCount++).append(": return ").append(p.name).append(";\n");
+            }
+        }
+        sb.append("            default: throw new IllegalArgumentException(\"Index out of range: \" + i);\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(c.getName(typePrefix)).append(" thaw() {\n");
+        sb.append("        return (").append(c.getName(typePrefix)).append(") FrozenTrees.thaw(this);\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        fileGenerator.createFile(name + ".java", sb);
+    }
+
+    private void generateFrozenList(ListDef l) {
+        String name = frozenType(l.getName());
+        String item = frozenType(l.itemType);
+        StringBuilder sb = new StringBuilder();
+        printProlog(sb);
+        sb.append("/** immutable version of a ").append(l.getName()).append(", changes return new lists sharing most of their structure */\n");
+        sb.append("public final class ").append(name).append(" implements ");
+        List<String> supertypes = new ArrayList<>();
+        for (AstEntityDefinition supertype : directSuperTypes.get(l)) {
+            supertypes.add(supertype.getName(typePrefix) + "Frozen");
+        }
+        sb.append(join(supertypes, ", ")).append(", Iterable<").append(item).append("> {\n");
+        if (l.ref) {
+            sb.append("    // set after the targets of the refs are frozen\n");
+            sb.append("    PersistentList<").append(item).append("> items;\n\n");
+        } else {
+            sb.append("    private final PersistentList<").append(item).append("> items;\n\n");
+        }
+        sb.append("    ").append(name).append("(PersistentList<").append(item).append("> items) {\n");
+        sb.append("        this.items = items;\n");
+        sb.append("    }\n\n");
+        sb.append("    public static ").append(name).append(" of(").append(item).append("... items) {\n");
+        sb.append("        return new ").append(name).append("(PersistentList.of(Arrays.asList(items)));\n");
+        sb.append("    }\n\n");
+        sb.append("    public static ").append(name).append(" copyOf(List<? extends ").append(item).append("> items) {\n");
+        sb.append("        return new ").append(name).append("(PersistentList.of(items));\n");
+        sb.append("    }\n\n");
+        sb.append("    public int size() {\n");
+        sb.append("        return items.size();\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(item).append(" get(int i) {\n");
+        sb.append("        return items.get(i);\n");
+        sb.append("    }\n\n");
+        sb.append("    /** the list with the element at position i replaced */\n");
+        sb.append("    public ").append(name).append(" with(int i, ").append(item).append(" item) {\n");
+        sb.append("        return items.get(i) == item ? this : new ").append(name).append("(items.set(i, item));\n");
+        sb.append("    }\n\n");
+        sb.append("    /** the list with item inserted before position i */\n");
+        sb.append("    public ").append(name).append(" withInserted(int i, ").append(item).append(" item) {\n");
+        sb.append("        return new ").append(name).append("(items.insert(i, item));\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(name).append(" withAdded(").append(item).append(" item) {\n");
+        sb.append("        return new ").append(name).append("(items.add(item));\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(name).append(" withRemoved(int i) {\n");
+        sb.append("        return new ").append(name).append("(items.remove(i));\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override public Iterator<").append(item).append("> iterator() {\n");
+        sb.append("        return items.iterator();\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(l.getName(typePrefix)).append(" thaw() {\n");
+        sb.append("        return (").append(l.getName(typePrefix)).append(") FrozenTrees.thaw(this);\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        fileGenerator.createFile(name + ".java", sb);
+    }
+
+    private String frozenType(String typ) {
+        if (prog.hasElement(typ)) {
+            return prog.getElement(typ).getName(typePrefix) + "Frozen";
+        }
+        return typ;
+    }
+
+    private String viewType(String typ) {
+        if (prog.hasElement(typ)) {
+            return prog.getElement(typ).getName(typePrefix) + "View";
+        }
+        return typ;
+    }
+
+    /**
+     * statement for skipping a property, which is not a child, in a TreeView.Cursor
+     */
+    private String skipProperty(Parameter p) {
+        if (prog.hasElement(p.getTyp())) {
+            return "c.readVarInt();";
+        }
+        if (serializedType(p.getTyp()).equals("String")) {
+            return "c.skipString();";
+        }
+        return "c.read" + serializedType(p.getTyp()) + "();";
+    }
+
+    private void createWriteMethod(ConstructorDef c, StringBuilder sb) {
+        sb.append("    @Override public void zzwrite(TreeSerializer.Writer w) throws java.io.IOException {\n");
+        if (!isSerializable(c)) {
+            for (Parameter p : c.parameters) {
+                if (!prog.hasElement(p.getTyp()) && serializedType(p.getTyp()) == null) {
+                    sb.append("        throw new UnsupportedOperationException(\"Cannot write property " + p.name + " of type " + p.getTyp() + ".\");\n");
+                    break;
+                }
+            }
+            sb.append("    }\n");
+            return;
+        }
+        sb.append("        w.writeVarInt(" + typeTag(c) + ");\n");
+        for (Parameter p : c.parameters) {
+            if (prog.hasElement(p.getTyp())) {
+                if (p.isRef) {
+                    sb.append("        w.writeRef(" + p.name + ");\n");
+                }
+            } else {
+                sb.append("        w.write" + serializedType(p.getTyp()) + "(" + p.name + ");\n");
+            }
+        }
+        sb.append("    }\n");
+    }
+
+    private void createWriteMethod(ListDef l, StringBuilder sb) {
+        sb.append("    @Override public void zzwrite(TreeSerializer.Writer w) throws java.io.IOException {\n");
+        if (isPrimitiveList(l)) {
+            sb.append("        w.writeVarInt(" + typeTag(l) + ");\n");
+            sb.append("        int n = length();\n");
+            sb.append("        w.writeVarInt(n);\n");
+            sb.append("        for (int i = 0; i < n; i++) {\n");
+            sb.append("            w.write" + serializedType(l.itemType) + "(get" + toFirstUpper(l.itemType) + "(i));\n");
+            sb.append("        }\n");
+            sb.append("    }\n");
+            return;
+        }
+        if (!prog.hasElement(l.itemType)) {
+            sb.append("        throw new UnsupportedOperationException(\"Cannot write elements of type " + l.itemType + ".\");\n");
+            sb.append("    }\n");
+            return;
+        }
+        sb.append("        w.writeVarInt(" + typeTag(l) + ");\n");
+        sb.append("        w.writeVarInt(size());\n");
+        if (l.ref) {
+            sb.append("        for (" + printType(l.itemType) + " t : this) {\n");
+            sb.append("            w.writeRef(t);\n");
+            sb.append("        }\n");
+        }
+        sb.append("    }\n");
+    }
+
+    /**
+     * the tag identifying the type in the binary format
+     */
+    private int typeTag(AstBaseTypeDefinition c) {
+        if (c instanceof ConstructorDef) {
+            return prog.constructorDefs.indexOf(c);
+        }
+        return prog.constructorDefs.size() + prog.listDefs.indexOf(c);
+    }
+
+    /**
+     * the suffix of the Writer and Reader methods for a property type, or null if the type cannot be serialized
+     */
+    private String serializedType(String typ) {
+        if (JavaTypes.primitiveTypes.contains(typ)) {
+            return toFirstUpper(typ);
+        }
+        if (typ.equals("String") || typ.equals("java.lang.String")) {
+            return "String";
+        }
+        return null;
+    }
+
+    private boolean isSerializable(ConstructorDef c) {
+        for (Parameter p : c.parameters) {
+            if (!prog.hasElement(p.getTyp()) && serializedType(p.getTyp()) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * a hash of all types and their properties, which changes whenever the binary format changes
+     */
+    private int specHash() {
+        StringBuilder desc = new StringBuilder();
+        for (ConstructorDef c : prog.constructorDefs) {
+            desc.append(c.getName()).append("(");
+            for (Parameter p : c.parameters) {
+                desc.append(p.isRef ? "ref " : "").append(p.getTyp()).append(" ").append(p.name).append(",");
+            }
+            desc.append(")\n");
+        }
+        for (ListDef l : prog.listDefs) {
+            desc.append(l.getName()).append(" * ").append(l.ref ? "ref " : "").append(l.itemType).append("\n");
+        }
+        return Hashing.sha256().hashString(desc, StandardCharsets.UTF_8).asInt();
     }
 
     private void generateCyclicDependencyError() {
@@ -1363,33 +3784,4 @@ public class Generator {
         return Character.toUpperCase(name.charAt(0)) + name.substring(1);
     }
 
-    /**
-     * calculates the transient closure of a multimap
-     */
-    private <T> Multimap<T, T> transientClosure(Multimap<T, T> start) {
-        Multimap<T, T> result = HashMultimap.create();
-        for (Entry<T, T> e : start.entries()) {
-            if (e.getKey() != null && e.getValue() != null) {
-                result.put(e.getKey(), e.getValue());
-            }
-        }
-
-        boolean changed;
-        do {
-            Multimap<T, T> changes = HashMultimap.create();
-            for (Entry<T, T> e1 : result.entries()) {
-                T v = e1.getValue();
-                if (v == null) continue;
-                for (T t : result.get(v)) {
-                    if (e1.getKey() != null && t != null) {
-                        changes.put(e1.getKey(), t);
-                    }
-                }
-            }
-            changed = result.putAll(changes);
-        } while (changed);
-
-        return result;
-    }
-
 }
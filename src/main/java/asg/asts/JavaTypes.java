@@ -6,5 +6,14 @@ import com.google.common.collect.Sets;
 
 public class JavaTypes {
 	static Set<String> primitiveTypes = Sets.newHashSet("byte", "short", "int", "long", "float", "double", "char", "boolean");
-//	static Set<String> otherTypes = Sets.newHashSet("String", "Byte", "Short", "Integer", "Long", "Float", "Double", "Character", "Boolean");
+	static Set<String> otherTypes = Sets.newHashSet("String", "Byte", "Short", "Integer", "Long", "Float", "Double", "Character", "Boolean");
+
+	static String boxedType(String typ) {
+		switch (typ) {
+			case "int": return "Integer";
+			case "char": return "Character";
+			default:
+				return primitiveTypes.contains(typ) ? Character.toUpperCase(typ.charAt(0)) + typ.substring(1) : typ;
+		}
+	}
 }
@@ -2,23 +2,78 @@ package asg.asts;
 
 public class TemplateAsgList {
 
-	public static void writeTo(StringBuilder sb, String commonSupertypeName) {
+	/**
+	 * @param trackReads whether reads of the list are recorded by calling other_recordRead
+	 * @param journaled whether changes are recorded in the Journal
+	 */
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, boolean trackReads, boolean journaled) {
+		String read = trackReads ? "other_recordRead(); " : "";
+		// statement recording the old contents of the list before a change of many elements
+		String snapshot = "if (Journal.recording) Journal.contentsChanged(this, list.toArray());";
 		sb.append("import java.util.*;\n");
 		sb.append("\n");
 		sb.append("abstract class AsgList<T> implements List<T> {\n");
 		sb.append("    private ArrayList<T> list = new ArrayList<>();\n");
+		sb.append("    // elements at positions below this bound have a correct index stored in them\n");
+		sb.append("    private int validIndices = 0;\n");
 		sb.append("\n");
 		sb.append("    abstract protected void other_setParentToThis(T t);\n");
 		sb.append("    abstract protected void other_clearParent(T t);\n");
+		sb.append("    /** stores the position of t in t (if this list keeps track of positions) */\n");
+		sb.append("    abstract protected void other_setIndex(T t, int index);\n");
+		sb.append("    /** returns the position stored in o, or -1 if o is not a tracked child of this list */\n");
+		sb.append("    abstract protected int other_getIndex(Object o);\n");
+		sb.append("    /** whether the list sets the parent of its elements */\n");
+		sb.append("    abstract protected boolean other_ownsItems();\n");
+		sb.append("    /** whether t has a parent, only used if the list owns its elements */\n");
+		sb.append("    abstract protected boolean other_hasParent(T t);\n");
+		if (trackReads) {
+			sb.append("    /** records that the attribute value currently evaluated depends on the contents of this list */\n");
+			sb.append("    abstract protected void other_recordRead();\n");
+		}
+		sb.append("\n");
+		sb.append("    // -------- index bookkeeping ----------\n");
+		sb.append("    private void invalidateIndices(int from) {\n");
+		sb.append("        if (from < validIndices) validIndices = from;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private void updateIndices() {\n");
+		sb.append("        for (int i=validIndices, n=list.size(); i<n; i++) other_setIndex(list.get(i), i);\n");
+		sb.append("        validIndices = list.size();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** position of o (by identity) using the index stored in o, -1 if not available */\n");
+		sb.append("    private int storedIndexOf(Object o) {\n");
+		sb.append("        int i = other_getIndex(o);\n");
+		sb.append("        if (i < 0) return -1;\n");
+		sb.append("        if (i >= validIndices) {\n");
+		sb.append("            updateIndices();\n");
+		sb.append("            i = other_getIndex(o);\n");
+		sb.append("        }\n");
+		sb.append("        return i < list.size() && list.get(i) == o ? i : -1;\n");
+		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    // -------- core add/remove ----------\n");
 		sb.append("    @Override public boolean add(T t) {\n");
 		sb.append("        other_setParentToThis(t);\n");
-		sb.append("        return list.add(t);\n");
+		sb.append("        int i = list.size();\n");
+		sb.append("        list.add(t);\n");
+		sb.append("        if (validIndices == i) {\n");
+		sb.append("            other_setIndex(t, i);\n");
+		sb.append("            validIndices = i + 1;\n");
+		sb.append("        }\n");
+		if (journaled) {
+			sb.append("        if (Journal.recording) Journal.inserted(this, i);\n");
+		}
+		sb.append("        if (TreeListeners.attached != 0) TreeListeners.listInserted(this, i, t);\n");
+		sb.append("        return true;\n");
 		sb.append("    }\n");
 		sb.append("    public void addFront(T t) { add(0, t); }\n");
 		sb.append("\n");
 		sb.append("    public List<T> removeAll() {\n");
+		if (journaled) {
+			sb.append("        ").append(snapshot).append("\n");
+		}
 		sb.append("        List<T> result = list;\n");
 		sb.append("        // transfer ownership (no copy); create a fresh backing list\n");
 		sb.append("        for (int i=0, n=result.size(); i<n; i++) {\n");
@@ -26,66 +81,110 @@ public class TemplateAsgList {
 		sb.append("            other_clearParent(t);\n");
 		sb.append("        }\n");
 		sb.append("        list = new ArrayList<>(4);\n");
+		sb.append("        validIndices = 0;\n");
+		sb.append("        if (TreeListeners.attached != 0) TreeListeners.listContentsChanged(this, result);\n");
 		sb.append("        return result;\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @Override public void add(int index, T elem) {\n");
 		sb.append("        other_setParentToThis(elem);\n");
 		sb.append("        list.add(index, elem);\n");
+		sb.append("        invalidateIndices(index);\n");
+		if (journaled) {
+			sb.append("        if (Journal.recording) Journal.inserted(this, index);\n");
+		}
+		sb.append("        if (TreeListeners.attached != 0) TreeListeners.listInserted(this, index, elem);\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @Override public boolean addAll(Collection<? extends T> c) {\n");
 		sb.append("        if (c.isEmpty()) return false;\n");
 		sb.append("        if (c instanceof List<?>) list.ensureCapacity(list.size() + c.size());\n");
 		sb.append("        boolean changed = false;\n");
-		sb.append("        for (T t : c) { other_setParentToThis(t); changed |= list.add(t); }\n");
+		sb.append("        for (T t : c) { changed |= add(t); }\n");
 		sb.append("        return changed;\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @Override public boolean addAll(int pos, Collection<? extends T> c) {\n");
 		sb.append("        if (c.isEmpty()) return false;\n");
-		sb.append("        // Insert maintaining order, one pass, parent set once per element\n");
-		sb.append("        int i = 0;\n");
-		sb.append("        for (T t : c) { other_setParentToThis(t); list.add(pos + (i++), t); }\n");
+		sb.append("        // set the parents first, then shift the elements behind pos only once\n");
+		sb.append("        if (pos < 0 || pos > list.size()) throw new IndexOutOfBoundsException(\"Index: \" + pos + \", Size: \" + list.size());\n");
+		sb.append("        for (T t : c) other_setParentToThis(t);\n");
+		sb.append("        int before = list.size();\n");
+		sb.append("        list.addAll(pos, c);\n");
+		sb.append("        invalidateIndices(pos);\n");
+		if (journaled) {
+			sb.append("        if (Journal.recording) Journal.insertedRange(this, pos, list.size() - before);\n");
+		}
+		sb.append("        if (TreeListeners.attached != 0) {\n");
+		sb.append("            for (int i=pos, end=pos + list.size() - before; i<end; i++) TreeListeners.listInserted(this, i, list.get(i));\n");
+		sb.append("        }\n");
 		sb.append("        return true;\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @Override public void clear() {\n");
+		if (journaled) {
+			sb.append("        ").append(snapshot).append("\n");
+		}
+		sb.append("        List<T> old = TreeListeners.attached != 0 ? new ArrayList<>(list) : null;\n");
 		sb.append("        for (int i=0, n=list.size(); i<n; i++) other_clearParent(list.get(i));\n");
 		sb.append("        list.clear();\n");
+		sb.append("        validIndices = 0;\n");
+		sb.append("        if (old != null) TreeListeners.listContentsChanged(this, old);\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    // -------- queries ----------\n");
-		sb.append("    @Override public boolean contains(Object o) { return list.contains(o); }\n");
-		sb.append("    @Override public boolean containsAll(Collection<?> c) { return list.containsAll(c); }\n");
-		sb.append("    @Override public T get(int index) { return list.get(index); }\n");
-		sb.append("    @Override public int indexOf(Object o) { return list.indexOf(o); }\n");
-		sb.append("    @Override public boolean isEmpty() { return list.isEmpty(); }\n");
-		sb.append("    @Override public int lastIndexOf(Object o) { return list.lastIndexOf(o); }\n");
+		sb.append("    @Override public boolean contains(Object o) { return indexOf(o) >= 0; }\n");
+		sb.append("    @Override public boolean containsAll(Collection<?> c) { " + read + "return list.containsAll(c); }\n");
+		sb.append("    @Override public T get(int index) { " + read + "return list.get(index); }\n");
+		sb.append("    @Override public int indexOf(Object o) {\n");
+		if (trackReads) {
+			sb.append("        ").append(read.trim()).append("\n");
+		}
+		sb.append("        int i = storedIndexOf(o);\n");
+		sb.append("        return i >= 0 ? i : list.indexOf(o);\n");
+		sb.append("    }\n");
+		sb.append("    @Override public boolean isEmpty() { " + read + "return list.isEmpty(); }\n");
+		sb.append("    @Override public int lastIndexOf(Object o) { " + read + "return list.lastIndexOf(o); }\n");
 		sb.append("\n");
 		sb.append("    // -------- iterators (ensure remove() clears parent) ----------\n");
 		sb.append("    @Override public Iterator<T> iterator() {\n");
 		sb.append("        return listIterator();\n");
 		sb.append("    }\n");
 		sb.append("\n");
-		sb.append("    @Override public ListIterator<T> listIterator(int index) { return new AsgListIterator(list.listIterator(index)); }\n");
-		sb.append("    @Override public ListIterator<T> listIterator() { return new AsgListIterator(list.listIterator()); }\n");
+		sb.append("    @Override public ListIterator<T> listIterator(int index) { " + read + "return new AsgListIterator(list.listIterator(index)); }\n");
+		sb.append("    @Override public ListIterator<T> listIterator() { " + read + "return new AsgListIterator(list.listIterator()); }\n");
 		sb.append("\n");
 		sb.append("    class AsgListIterator implements ListIterator<T> {\n");
 		sb.append("        private final ListIterator<T> it;\n");
 		sb.append("        private T lastElement;\n");
+		sb.append("        private int lastIndex;\n");
 		sb.append("        AsgListIterator(ListIterator<T> it) { this.it = it; }\n");
-		sb.append("        @Override public void add(T e) { other_setParentToThis(e); it.add(e); lastElement = null; }\n");
+		sb.append("        @Override public void add(T e) {\n");
+		sb.append("            other_setParentToThis(e);\n");
+		sb.append("            int index = it.nextIndex();\n");
+		sb.append("            invalidateIndices(index);\n");
+		sb.append("            it.add(e);\n");
+		if (journaled) {
+			sb.append("            if (Journal.recording) Journal.inserted(AsgList.this, index);\n");
+		}
+		sb.append("            if (TreeListeners.attached != 0) TreeListeners.listInserted(AsgList.this, index, e);\n");
+		sb.append("            lastElement = null;\n");
+		sb.append("        }\n");
 		sb.append("        @Override public boolean hasNext() { return it.hasNext(); }\n");
 		sb.append("        @Override public boolean hasPrevious() { return it.hasPrevious(); }\n");
-		sb.append("        @Override public T next() { lastElement = it.next(); return lastElement; }\n");
+		sb.append("        @Override public T next() { lastIndex = it.nextIndex(); lastElement = it.next(); return lastElement; }\n");
 		sb.append("        @Override public int nextIndex() { return it.nextIndex(); }\n");
-		sb.append("        @Override public T previous() { lastElement = it.previous(); return lastElement; }\n");
+		sb.append("        @Override public T previous() { lastIndex = it.previousIndex(); lastElement = it.previous(); return lastElement; }\n");
 		sb.append("        @Override public int previousIndex() { return it.previousIndex(); }\n");
 		sb.append("        @Override public void remove() {\n");
 		sb.append("            if (lastElement == null) throw new IllegalStateException();\n");
 		sb.append("            other_clearParent(lastElement);\n");
 		sb.append("            it.remove();\n");
+		sb.append("            invalidateIndices(lastIndex);\n");
+		if (journaled) {
+			sb.append("            if (Journal.recording) Journal.removed(AsgList.this, lastIndex, lastElement);\n");
+		}
+		sb.append("            if (TreeListeners.attached != 0) TreeListeners.listRemoved(AsgList.this, lastIndex, lastElement);\n");
 		sb.append("            lastElement = null;\n");
 		sb.append("        }\n");
 		sb.append("        @Override public void set(T e) {\n");
@@ -93,39 +192,126 @@ public class TemplateAsgList {
 		sb.append("            other_clearParent(lastElement);\n");
 		sb.append("            other_setParentToThis(e);\n");
 		sb.append("            it.set(e);\n");
+		sb.append("            other_setIndex(e, lastIndex);\n");
+		if (journaled) {
+			sb.append("            if (Journal.recording) Journal.replaced(AsgList.this, lastIndex, lastElement);\n");
+		}
+		sb.append("            if (TreeListeners.attached != 0) TreeListeners.listReplaced(AsgList.this, lastIndex, lastElement, e);\n");
 		sb.append("            lastElement = e;\n");
 		sb.append("        }\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @SuppressWarnings(\"unchecked\")\n");
 		sb.append("    @Override public boolean remove(Object o) {\n");
-		sb.append("        int idx = list.indexOf(o);\n");
-		sb.append("        if (idx >= 0) { other_clearParent((T) list.remove(idx)); return true; }\n");
+		sb.append("        int idx = indexOf(o);\n");
+		sb.append("        if (idx >= 0) { remove(idx); return true; }\n");
 		sb.append("        return false;\n");
 		sb.append("    }\n");
-		sb.append("    @Override public T remove(int index) { T t = list.remove(index); other_clearParent(t); return t; }\n");
+		sb.append("    @Override public T remove(int index) {\n");
+		sb.append("        T t = list.remove(index);\n");
+		sb.append("        invalidateIndices(index);\n");
+		sb.append("        other_clearParent(t);\n");
+		if (journaled) {
+			sb.append("        if (Journal.recording) Journal.removed(this, index, t);\n");
+		}
+		sb.append("        if (TreeListeners.attached != 0) TreeListeners.listRemoved(this, index, t);\n");
+		sb.append("        return t;\n");
+		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @Override public boolean removeAll(Collection<?> c) {\n");
 		sb.append("        if (c.isEmpty()) return false;\n");
-		sb.append("        final Set<?> set = (c instanceof Set<?>) ? (Set<?>) c : new HashSet<>(c);\n");
-		sb.append("        boolean changed = false;\n");
-		sb.append("        ListIterator<T> it = list.listIterator();\n");
-		sb.append("        while (it.hasNext()) {\n");
-		sb.append("            T t = it.next();\n");
-		sb.append("            if (set.contains(t)) { other_clearParent(t); it.remove(); changed = true; }\n");
-		sb.append("        }\n");
-		sb.append("        return changed;\n");
+		sb.append("        return removeMatching(c, true);\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @Override public boolean retainAll(Collection<?> c) {\n");
+		sb.append("        return removeMatching(c, false);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** removes the elements, which are (or are not) contained in c, moving each kept element only once */\n");
+		sb.append("    private boolean removeMatching(Collection<?> c, boolean contained) {\n");
 		sb.append("        final Set<?> set = (c instanceof Set<?>) ? (Set<?>) c : new HashSet<>(c);\n");
-		sb.append("        boolean changed = false;\n");
-		sb.append("        ListIterator<T> it = list.listIterator();\n");
-		sb.append("        while (it.hasNext()) {\n");
-		sb.append("            T t = it.next();\n");
-		sb.append("            if (!set.contains(t)) { other_clearParent(t); it.remove(); changed = true; }\n");
+		if (journaled) {
+			sb.append("        Object[] old = Journal.recording ? list.toArray() : null;\n");
+		}
+		sb.append("        List<T> before = TreeListeners.attached != 0 ? new ArrayList<>(list) : null;\n");
+		sb.append("        int n = list.size();\n");
+		sb.append("        int kept = 0;\n");
+		sb.append("        int firstRemoved = -1;\n");
+		sb.append("        for (int i=0; i<n; i++) {\n");
+		sb.append("            T t = list.get(i);\n");
+		sb.append("            if (set.contains(t) == contained) {\n");
+		sb.append("                other_clearParent(t);\n");
+		sb.append("                if (firstRemoved < 0) firstRemoved = i;\n");
+		sb.append("            } else {\n");
+		sb.append("                if (kept != i) list.set(kept, t);\n");
+		sb.append("                kept++;\n");
+		sb.append("            }\n");
 		sb.append("        }\n");
-		sb.append("        return changed;\n");
+		sb.append("        if (kept == n) return false;\n");
+		sb.append("        list.subList(kept, n).clear();\n");
+		sb.append("        invalidateIndices(firstRemoved);\n");
+		if (journaled) {
+			sb.append("        if (old != null) Journal.contentsChanged(this, old);\n");
+		}
+		sb.append("        if (before != null) TreeListeners.listContentsChanged(this, before);\n");
+		sb.append("        return true;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /**\n");
+		sb.append("     * Changes the list with a batch of edits. The positions given to the editor refer to the list before the edit.\n");
+		sb.append("     * All edits are applied in one pass over the list after edits returns, so the time is linear in the size\n");
+		sb.append("     * of the list and the number of edits.\n");
+		sb.append("     */\n");
+		sb.append("    @SuppressWarnings(\"unchecked\")\n");
+		sb.append("    public void edit(java.util.function.Consumer<? super ListEditor<T>> edits) {\n");
+		sb.append("        ListEditor<T> editor = new ListEditor<>(Collections.unmodifiableList(list));\n");
+		sb.append("        edits.accept(editor);\n");
+		sb.append("        if (editor.first == Integer.MAX_VALUE) return;\n");
+		sb.append("        if (other_ownsItems()) checkNewElements(editor);\n");
+		if (journaled) {
+			sb.append("        ").append(snapshot).append("\n");
+		}
+		sb.append("        // removed and replaced elements lose their parent before the new elements get it,\n");
+		sb.append("        // so that an element can be moved inside the list\n");
+		sb.append("        if (editor.state != null) {\n");
+		sb.append("            for (int i=editor.first, n=list.size(); i<n; i++) {\n");
+		sb.append("                if (editor.state[i] != ListEditor.KEEP) other_clearParent(list.get(i));\n");
+		sb.append("            }\n");
+		sb.append("            if (editor.replacements != null) {\n");
+		sb.append("                for (int i=editor.first, n=list.size(); i<n; i++) {\n");
+		sb.append("                    if (editor.state[i] == ListEditor.REPLACE) other_setParentToThis((T) editor.replacements[i]);\n");
+		sb.append("                }\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("        for (int k=0; k<editor.insertCount; k++) other_setParentToThis((T) editor.inserted[k]);\n");
+		sb.append("        ArrayList<T> old = list;\n");
+		sb.append("        list = editor.apply();\n");
+		sb.append("        invalidateIndices(editor.first);\n");
+		sb.append("        if (TreeListeners.attached != 0) TreeListeners.listContentsChanged(this, old);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** throws the error of setParent before anything is changed, if an element added by the edit would get a second parent */\n");
+		sb.append("    @SuppressWarnings(\"unchecked\")\n");
+		sb.append("    private void checkNewElements(ListEditor<T> editor) {\n");
+		sb.append("        Set<Object> added = Collections.newSetFromMap(new IdentityHashMap<>());\n");
+		sb.append("        if (editor.replacements != null) {\n");
+		sb.append("            for (int i=editor.first, n=list.size(); i<n; i++) {\n");
+		sb.append("                if (editor.state[i] == ListEditor.REPLACE) checkNewElement((T) editor.replacements[i], editor, added);\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("        for (int k=0; k<editor.insertCount; k++) checkNewElement((T) editor.inserted[k], editor, added);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private void checkNewElement(T t, ListEditor<T> editor, Set<Object> added) {\n");
+		sb.append("        if (!added.add(t)) {\n");
+		sb.append("            throw new Error(\"Cannot add element \" + t.getClass().getSimpleName() + \" twice in one edit.\");\n");
+		sb.append("        }\n");
+		sb.append("        if (!other_hasParent(t)) return;\n");
+		sb.append("        // an element removed or replaced by the same edit loses its parent before it is added again\n");
+		sb.append("        int i = storedIndexOf(t);\n");
+		sb.append("        if (i >= 0 && editor.state != null && editor.state[i] != ListEditor.KEEP) return;\n");
+		sb.append("        throw new Error(\"Cannot change parent of element \" + t.getClass().getSimpleName() + \", as it is already used in another tree. \"\n");
+		sb.append("            + \"Use the copy method to create a new tree or remove the tree from its old parent or set the parent to null before moving the tree. \");\n");
 		sb.append("    }\n");
 		sb.append("\n");
 		sb.append("    @Override public T set(int index, T element) {\n");
@@ -133,31 +319,57 @@ public class TemplateAsgList {
 		sb.append("        if (old == element) return old;\n");
 		sb.append("        other_setParentToThis(element);\n");
 		sb.append("        list.set(index, element);\n");
+		sb.append("        other_setIndex(element, index);\n");
 		sb.append("        other_clearParent(old);\n");
+		if (journaled) {
+			sb.append("        if (Journal.recording) Journal.replaced(this, index, old);\n");
+		}
+		sb.append("        if (TreeListeners.attached != 0) TreeListeners.listReplaced(this, index, old, element);\n");
 		sb.append("        return old;\n");
 		sb.append("    }\n");
 		sb.append("\n");
-		sb.append("    @Override public int size() { return list.size(); }\n");
+		sb.append("    @Override public int size() { " + read + "return list.size(); }\n");
 		sb.append("\n");
 		sb.append("    // Ensure subList keeps parent bookkeeping\n");
 		sb.append("    @Override public List<T> subList(int fromIndex, int toIndex) {\n");
+		if (trackReads) {
+			sb.append("        ").append(read.trim()).append("\n");
+		}
 		sb.append("        final List<T> view = list.subList(fromIndex, toIndex);\n");
 		sb.append("        final AsgList<T> self = this;\n");
 		sb.append("        return new AbstractList<T>() {\n");
 		sb.append("            @Override public T get(int index) { return view.get(index); }\n");
 		sb.append("            @Override public int size() { return view.size(); }\n");
-		sb.append("            @Override public void add(int index, T element) { self.other_setParentToThis(element); view.add(index, element); }\n");
+		sb.append("            @Override public void add(int index, T element) {\n");
+		sb.append("                self.other_setParentToThis(element);\n");
+		sb.append("                view.add(index, element);\n");
+		sb.append("                self.invalidateIndices(fromIndex);\n");
+		if (journaled) {
+			sb.append("                if (Journal.recording) Journal.inserted(self, fromIndex + index);\n");
+		}
+		sb.append("                if (TreeListeners.attached != 0) TreeListeners.listInserted(self, fromIndex + index, element);\n");
+		sb.append("            }\n");
 		sb.append("            @Override public T set(int index, T element) {\n");
 		sb.append("                T old = view.get(index);\n");
 		sb.append("                if (old == element) return old;\n");
 		sb.append("                self.other_setParentToThis(element);\n");
 		sb.append("                T r = view.set(index, element);\n");
+		sb.append("                self.other_setIndex(element, fromIndex + index);\n");
 		sb.append("                self.other_clearParent(r);\n");
+		if (journaled) {
+			sb.append("                if (Journal.recording) Journal.replaced(self, fromIndex + index, r);\n");
+		}
+		sb.append("                if (TreeListeners.attached != 0) TreeListeners.listReplaced(self, fromIndex + index, r, element);\n");
 		sb.append("                return r;\n");
 		sb.append("            }\n");
 		sb.append("            @Override public T remove(int index) {\n");
 		sb.append("                T r = view.remove(index);\n");
+		sb.append("                self.invalidateIndices(fromIndex);\n");
 		sb.append("                self.other_clearParent(r);\n");
+		if (journaled) {
+			sb.append("                if (Journal.recording) Journal.removed(self, fromIndex + index, r);\n");
+		}
+		sb.append("                if (TreeListeners.attached != 0) TreeListeners.listRemoved(self, fromIndex + index, r);\n");
 		sb.append("                return r;\n");
 		sb.append("            }\n");
 		sb.append("            @Override public Iterator<T> iterator() { return listIterator(); }\n");
@@ -165,22 +377,46 @@ public class TemplateAsgList {
 		sb.append("                ListIterator<T> it = view.listIterator(index);\n");
 		sb.append("                return new ListIterator<T>() {\n");
 		sb.append("                    T last;\n");
+		sb.append("                    int lastIndex;\n");
 		sb.append("                    @Override public boolean hasNext() { return it.hasNext(); }\n");
-		sb.append("                    @Override public T next() { return last = it.next(); }\n");
+		sb.append("                    @Override public T next() { lastIndex = it.nextIndex(); return last = it.next(); }\n");
 		sb.append("                    @Override public boolean hasPrevious() { return it.hasPrevious(); }\n");
-		sb.append("                    @Override public T previous() { return last = it.previous(); }\n");
+		sb.append("                    @Override public T previous() { lastIndex = it.previousIndex(); return last = it.previous(); }\n");
 		sb.append("                    @Override public int nextIndex() { return it.nextIndex(); }\n");
 		sb.append("                    @Override public int previousIndex() { return it.previousIndex(); }\n");
-		sb.append("                    @Override public void remove() { if (last==null) throw new IllegalStateException(); self.other_clearParent(last); it.remove(); last = null; }\n");
-		sb.append("                    @Override public void set(T e) { if (last==null) throw new IllegalStateException(); self.other_clearParent(last); self.other_setParentToThis(e); it.set(e); last = e; }\n");
-		sb.append("                    @Override public void add(T e) { self.other_setParentToThis(e); it.add(e); last = null; }\n");
+		sb.append("                    @Override public void remove() {\n");
+		sb.append("                        if (last==null) throw new IllegalStateException();\n");
+		sb.append("                        self.other_clearParent(last); it.remove(); self.invalidateIndices(fromIndex);\n");
+		if (journaled) {
+			sb.append("                        if (Journal.recording) Journal.removed(self, fromIndex + lastIndex, last);\n");
+		}
+		sb.append("                        if (TreeListeners.attached != 0) TreeListeners.listRemoved(self, fromIndex + lastIndex, last);\n");
+		sb.append("                        last = null;\n");
+		sb.append("                    }\n");
+		sb.append("                    @Override public void set(T e) {\n");
+		sb.append("                        if (last==null) throw new IllegalStateException();\n");
+		sb.append("                        self.other_clearParent(last); self.other_setParentToThis(e); it.set(e); self.invalidateIndices(fromIndex);\n");
+		if (journaled) {
+			sb.append("                        if (Journal.recording) Journal.replaced(self, fromIndex + lastIndex, last);\n");
+		}
+		sb.append("                        if (TreeListeners.attached != 0) TreeListeners.listReplaced(self, fromIndex + lastIndex, last, e);\n");
+		sb.append("                        last = e;\n");
+		sb.append("                    }\n");
+		sb.append("                    @Override public void add(T e) {\n");
+		sb.append("                        self.other_setParentToThis(e); it.add(e); self.invalidateIndices(fromIndex);\n");
+		if (journaled) {
+			sb.append("                        if (Journal.recording) Journal.inserted(self, fromIndex + it.previousIndex());\n");
+		}
+		sb.append("                        if (TreeListeners.attached != 0) TreeListeners.listInserted(self, fromIndex + it.previousIndex(), e);\n");
+		sb.append("                        last = null;\n");
+		sb.append("                    }\n");
 		sb.append("                };\n");
 		sb.append("            }\n");
 		sb.append("        };\n");
 		sb.append("    }\n");
 		sb.append("\n");
-		sb.append("    @Override public Object[] toArray() { return list.toArray(); }\n");
-		sb.append("    @Override public <S> S[] toArray(S[] a) { return list.toArray(a); }\n");
+		sb.append("    @Override public Object[] toArray() { " + read + "return list.toArray(); }\n");
+		sb.append("    @Override public <S> S[] toArray(S[] a) { " + read + "return list.toArray(a); }\n");
 		sb.append("\n");
 		sb.append("    // ---------- tree utilities ----------\n");
 		sb.append("    public boolean structuralEquals(").append(commonSupertypeName).append(" e) {\n");
@@ -197,14 +433,47 @@ public class TemplateAsgList {
 		sb.append("        return false;\n");
 		sb.append("    }\n");
 		sb.append("\n");
+		sb.append("    public boolean zzstructuralEquals(").append(commonSupertypeName).append(" e, int depth, IterativeTraversal.Pending pending) {\n");
+		sb.append("        if (!(e instanceof AsgList)) return false;\n");
+		sb.append("        AsgList<?> o = (AsgList<?>) e;\n");
+		sb.append("        int n = size(); if (o.size() != n) return false;\n");
+		sb.append("        if (depth < IterativeTraversal.MAX_RECURSION) {\n");
+		sb.append("            for (int i=0; i<n; i++) {\n");
+		sb.append("                if (!((").append(commonSupertypeName).append(") get(i)).zzstructuralEquals((").append(commonSupertypeName).append(") o.get(i), depth + 1, pending)) return false;\n");
+		sb.append("            }\n");
+		sb.append("            return true;\n");
+		sb.append("        }\n");
+		sb.append("        for (int i=n-1; i>=0; i--) {\n");
+		sb.append("            pending.compareLater((").append(commonSupertypeName).append(") get(i), (").append(commonSupertypeName).append(") o.get(i));\n");
+		sb.append("        }\n");
+		sb.append("        return true;\n");
+		sb.append("    }\n");
+		sb.append("\n");
 		sb.append("    @SuppressWarnings({\"unchecked\",\"rawtypes\"})\n");
 		sb.append("    public void forEachElement(java.util.function.Consumer<? super ").append(commonSupertypeName).append("> action) {\n");
+		if (trackReads) {
+			sb.append("        ").append(read.trim()).append("\n");
+		}
 		sb.append("        list.forEach((java.util.function.Consumer) action);\n");
 		sb.append("    }\n");
 		sb.append("    public void trimToSize() { list.trimToSize(); }\n");
 		sb.append("\n");
 		sb.append("    /** replace first occurrence by identity (==) */\n");
 		sb.append("    public boolean replaceExact(Object oldElem, T newElem) {\n");
+		sb.append("        int i = storedIndexOf(oldElem);\n");
+		sb.append("        if (i >= 0) {\n");
+		sb.append("            T old = list.get(i);\n");
+		sb.append("            other_clearParent(old);\n");
+		sb.append("            other_setParentToThis(newElem);\n");
+		sb.append("            list.set(i, newElem);\n");
+		sb.append("            other_setIndex(newElem, i);\n");
+		if (journaled) {
+			sb.append("            if (Journal.recording) Journal.replaced(this, i, old);\n");
+		}
+		sb.append("            if (TreeListeners.attached != 0) TreeListeners.listReplaced(this, i, old, newElem);\n");
+		sb.append("            return true;\n");
+		sb.append("        }\n");
+		sb.append("        // no stored index available -> linear scan\n");
 		sb.append("        ListIterator<T> it = list.listIterator();\n");
 		sb.append("        while (it.hasNext()) {\n");
 		sb.append("            T curr = it.next();\n");
@@ -212,11 +481,147 @@ public class TemplateAsgList {
 		sb.append("                if (curr != null) other_clearParent(curr);\n");
 		sb.append("                other_setParentToThis(newElem);\n");
 		sb.append("                it.set(newElem);\n");
+		if (journaled) {
+			sb.append("                if (Journal.recording) Journal.replaced(this, it.previousIndex(), curr);\n");
+		}
+		sb.append("                if (TreeListeners.attached != 0) TreeListeners.listReplaced(this, it.previousIndex(), curr, newElem);\n");
 		sb.append("                return true;\n");
 		sb.append("            }\n");
 		sb.append("        }\n");
 		sb.append("        return false;\n");
 		sb.append("    }\n");
+		if (journaled) {
+			sb.append("\n");
+			sb.append("    // ---------- undoing changes ----------\n");
+			sb.append("    /** internal: removes the elements from position from (inclusive) to to (exclusive) */\n");
+			sb.append("    void zzremoveRange(int from, int to) {\n");
+			sb.append("        List<T> range = list.subList(from, to);\n");
+			sb.append("        Object[] removed = TreeListeners.attached != 0 ? range.toArray() : null;\n");
+			sb.append("        for (T t : range) other_clearParent(t);\n");
+			sb.append("        range.clear();\n");
+			sb.append("        invalidateIndices(from);\n");
+			sb.append("        if (removed != null) {\n");
+			sb.append("            for (int k=removed.length - 1; k>=0; k--) TreeListeners.listRemoved(this, from + k, removed[k]);\n");
+			sb.append("        }\n");
+			sb.append("    }\n");
+			sb.append("\n");
+			sb.append("    /** internal: replaces all elements by the given elements */\n");
+			sb.append("    @SuppressWarnings(\"unchecked\")\n");
+			sb.append("    void zzrestore(Object[] elements) {\n");
+			sb.append("        clear();\n");
+			sb.append("        list.ensureCapacity(elements.length);\n");
+			sb.append("        for (Object o : elements) add((T) o);\n");
+			sb.append("    }\n");
+		}
+		sb.append("}\n");
+	}
+
+	public static void writeListEditorTo(StringBuilder sb) {
+		sb.append("import java.util.*;\n");
+		sb.append("\n");
+		sb.append("/**\n");
+		sb.append(" * Collects insertions, removals and replacements for AsgList.edit.\n");
+		sb.append(" * Positions refer to the list before the edit. Several insertions at the same position keep their order\n");
+		sb.append(" * and come before the element at that position. Each position can be removed or replaced only once.\n");
+		sb.append(" */\n");
+		sb.append("public final class ListEditor<T> {\n");
+		sb.append("    static final byte KEEP = 0, REMOVE = 1, REPLACE = 2;\n");
+		sb.append("\n");
+		sb.append("    private final List<T> original;\n");
+		sb.append("    // what happens to the element at each position, created on the first removal or replacement\n");
+		sb.append("    byte[] state;\n");
+		sb.append("    Object[] replacements;\n");
+		sb.append("    int[] insertPositions = new int[0];\n");
+		sb.append("    Object[] inserted = new Object[0];\n");
+		sb.append("    int insertCount;\n");
+		sb.append("    int removeCount;\n");
+		sb.append("    // the smallest edited position, elements before it keep their place\n");
+		sb.append("    int first = Integer.MAX_VALUE;\n");
+		sb.append("\n");
+		sb.append("    ListEditor(List<T> original) {\n");
+		sb.append("        this.original = original;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the size of the list before the edit */\n");
+		sb.append("    public int size() {\n");
+		sb.append("        return original.size();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the element at the given position before the edit */\n");
+		sb.append("    public T get(int pos) {\n");
+		sb.append("        return original.get(pos);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** inserts elem before the element at pos, or at the end if pos is the size of the list */\n");
+		sb.append("    public ListEditor<T> insert(int pos, T elem) {\n");
+		sb.append("        Objects.checkIndex(pos, original.size() + 1);\n");
+		sb.append("        if (insertCount == inserted.length) {\n");
+		sb.append("            int capacity = Math.max(8, insertCount * 2);\n");
+		sb.append("            inserted = Arrays.copyOf(inserted, capacity);\n");
+		sb.append("            insertPositions = Arrays.copyOf(insertPositions, capacity);\n");
+		sb.append("        }\n");
+		sb.append("        inserted[insertCount] = elem;\n");
+		sb.append("        insertPositions[insertCount] = pos;\n");
+		sb.append("        insertCount++;\n");
+		sb.append("        first = Math.min(first, pos);\n");
+		sb.append("        return this;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** inserts all elements of c before the element at pos, or at the end if pos is the size of the list */\n");
+		sb.append("    public ListEditor<T> insertAll(int pos, Collection<? extends T> c) {\n");
+		sb.append("        for (T t : c) insert(pos, t);\n");
+		sb.append("        return this;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** removes the element at pos */\n");
+		sb.append("    public ListEditor<T> remove(int pos) {\n");
+		sb.append("        change(pos, REMOVE);\n");
+		sb.append("        removeCount++;\n");
+		sb.append("        return this;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** replaces the element at pos by elem */\n");
+		sb.append("    public ListEditor<T> replace(int pos, T elem) {\n");
+		sb.append("        change(pos, REPLACE);\n");
+		sb.append("        if (replacements == null) replacements = new Object[original.size()];\n");
+		sb.append("        replacements[pos] = elem;\n");
+		sb.append("        return this;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private void change(int pos, byte change) {\n");
+		sb.append("        Objects.checkIndex(pos, original.size());\n");
+		sb.append("        if (state == null) state = new byte[original.size()];\n");
+		sb.append("        if (state[pos] != KEEP) throw new IllegalStateException(\"The element at position \" + pos + \" was already removed or replaced.\");\n");
+		sb.append("        state[pos] = change;\n");
+		sb.append("        first = Math.min(first, pos);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** creates the edited list in one pass */\n");
+		sb.append("    @SuppressWarnings(\"unchecked\")\n");
+		sb.append("    ArrayList<T> apply() {\n");
+		sb.append("        int n = original.size();\n");
+		sb.append("        // sort the insertions by position, keeping the order of equal positions:\n");
+		sb.append("        // the insertions at position p end up in sorted[start[p] .. start[p+1])\n");
+		sb.append("        int[] start = new int[n + 2];\n");
+		sb.append("        for (int k=0; k<insertCount; k++) start[insertPositions[k] + 1]++;\n");
+		sb.append("        for (int p=0; p<=n; p++) start[p + 1] += start[p];\n");
+		sb.append("        int[] next = Arrays.copyOf(start, n + 1);\n");
+		sb.append("        Object[] sorted = new Object[insertCount];\n");
+		sb.append("        for (int k=0; k<insertCount; k++) sorted[next[insertPositions[k]]++] = inserted[k];\n");
+		sb.append("\n");
+		sb.append("        ArrayList<T> result = new ArrayList<>(n - removeCount + insertCount);\n");
+		sb.append("        for (int p=0; p<=n; p++) {\n");
+		sb.append("            for (int j=start[p]; j<start[p + 1]; j++) result.add((T) sorted[j]);\n");
+		sb.append("            if (p == n) break;\n");
+		sb.append("            byte s = state == null ? KEEP : state[p];\n");
+		sb.append("            if (s == KEEP) {\n");
+		sb.append("                result.add(original.get(p));\n");
+		sb.append("            } else if (s == REPLACE) {\n");
+		sb.append("                result.add((T) replacements[p]);\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("        return result;\n");
+		sb.append("    }\n");
 		sb.append("}\n");
 	}
 
@@ -0,0 +1,97 @@
+package asg.asts;
+
+public class TemplateAttributeDependencies {
+
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, int slotCount) {
+		String E = commonSupertypeName;
+		sb.append("/**\n");
+		sb.append(" * Records which cached attributes read which elements and attribute values,\n");
+		sb.append(" * so that a change of the tree only resets the attribute values depending on it.\n");
+		sb.append(" * Attributes must be evaluated by one thread at a time.\n");
+		sb.append(" */\n");
+		sb.append("final class AttributeDependencies {\n");
+		sb.append("    private AttributeDependencies() {}\n");
+		sb.append("\n");
+		sb.append("    /** slot for the properties, children and parent of an element, cached attributes use the slots from 1 */\n");
+		sb.append("    static final int STRUCTURE = 0;\n");
+		sb.append("    static final int SLOT_COUNT = ").append(slotCount).append(";\n");
+		sb.append("\n");
+		sb.append("    /** a slot of an element */\n");
+		sb.append("    static final class Dependent {\n");
+		sb.append("        final ").append(E).append(" element;\n");
+		sb.append("        final int slot;\n");
+		sb.append("\n");
+		sb.append("        Dependent(").append(E).append(" element, int slot) {\n");
+		sb.append("            this.element = element;\n");
+		sb.append("            this.slot = slot;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        @Override public boolean equals(Object o) {\n");
+		sb.append("            return o instanceof Dependent d && d.element == element && d.slot == slot;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        @Override public int hashCode() {\n");
+		sb.append("            return System.identityHashCode(element) * 31 + slot;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the attribute values depending on the slots of one element */\n");
+		sb.append("    static final class Dependents {\n");
+		sb.append("        @SuppressWarnings(\"unchecked\")\n");
+		sb.append("        private final HashSet<Dependent>[] bySlot = (HashSet<Dependent>[]) new HashSet<?>[SLOT_COUNT];\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // attribute values currently evaluated, innermost last\n");
+		sb.append("    private static Dependent[] evaluating = new Dependent[16];\n");
+		sb.append("    private static int depth = 0;\n");
+		sb.append("\n");
+		sb.append("    /** starts the evaluation of the attribute in the given slot */\n");
+		sb.append("    static void enter(").append(E).append(" e, int slot) {\n");
+		sb.append("        if (depth == evaluating.length) evaluating = Arrays.copyOf(evaluating, depth * 2);\n");
+		sb.append("        evaluating[depth++] = new Dependent(e, slot);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void exit() {\n");
+		sb.append("        evaluating[--depth] = null;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** records that the attribute value currently evaluated depends on the given slot */\n");
+		sb.append("    static void read(").append(E).append(" e, int slot) {\n");
+		sb.append("        if (depth == 0) return;\n");
+		sb.append("        Dependent current = evaluating[depth - 1];\n");
+		sb.append("        if (current.element == e && current.slot == slot) return;\n");
+		sb.append("        Dependents deps = e.zzgetDependents(true);\n");
+		sb.append("        HashSet<Dependent> set = deps.bySlot[slot];\n");
+		sb.append("        if (set == null) {\n");
+		sb.append("            set = new HashSet<>();\n");
+		sb.append("            deps.bySlot[slot] = set;\n");
+		sb.append("        }\n");
+		sb.append("        set.add(current);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** resets all cached attribute values which (transitively) depend on the given slot */\n");
+		sb.append("    static void changed(").append(E).append(" e, int slot) {\n");
+		sb.append("        Dependents deps = e.zzgetDependents(false);\n");
+		sb.append("        if (deps == null || deps.bySlot[slot] == null) return;\n");
+		sb.append("        ArrayDeque<Dependent> work = new ArrayDeque<>();\n");
+		sb.append("        take(deps, slot, work);\n");
+		sb.append("        while (!work.isEmpty()) {\n");
+		sb.append("            Dependent d = work.poll();\n");
+		sb.append("            d.element.zzresetAttribute(d.slot);\n");
+		sb.append("            Dependents dd = d.element.zzgetDependents(false);\n");
+		sb.append("            if (dd != null) take(dd, d.slot, work);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // the dependents are removed, as they record their dependencies again when they are recomputed\n");
+		sb.append("    private static void take(Dependents deps, int slot, ArrayDeque<Dependent> work) {\n");
+		sb.append("        HashSet<Dependent> set = deps.bySlot[slot];\n");
+		sb.append("        if (set != null) {\n");
+		sb.append("            deps.bySlot[slot] = null;\n");
+		sb.append("            work.addAll(set);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,93 @@
+package asg.asts;
+
+import java.util.Set;
+
+public class TemplateAttributeMemo {
+
+	/**
+	 * @param attrNames the names of the cached attributes with parameters
+	 * @param concurrent whether attributes can be evaluated by several threads in parallel
+	 */
+	public static void writeTo(StringBuilder sb, Set<String> attrNames, boolean concurrent) {
+		sb.append("/**\n");
+		sb.append(" * Memo tables of the cached attributes with parameters.\n");
+		sb.append(" * Every element remembers the results for the last SIZE argument lists of each attribute,\n");
+		sb.append(" * the oldest result is dropped when a new one is added.\n");
+		sb.append(" */\n");
+		sb.append("public final class AttributeMemo {\n");
+		sb.append("    private AttributeMemo() {}\n");
+		sb.append("\n");
+		sb.append("    /** the maximum number of results remembered per element and attribute */\n");
+		sb.append("    static final int SIZE = 8;\n");
+		sb.append("\n");
+		sb.append("    /** stands for null keys and values in the tables */\n");
+		sb.append("    static final Object NULL = new Object();\n");
+		sb.append("\n");
+		sb.append("    /** the key for a single argument */\n");
+		sb.append("    static Object key(Object arg) {\n");
+		sb.append("        return arg == null ? NULL : arg;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the result remembered for key or null, if there is none. The table stores keys and results alternately. */\n");
+		sb.append("    static Object get(Object[] table, Object key) {\n");
+		sb.append("        if (table == null) return null;\n");
+		sb.append("        for (int i = 0; i < table.length; i += 2) {\n");
+		sb.append("            Object k = table[i];\n");
+		sb.append("            if (k == key || k.equals(key)) return table[i + 1];\n");
+		sb.append("        }\n");
+		sb.append("        return null;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** a new table with the given result in front of the newest SIZE - 1 results of table.\n");
+		sb.append("     * Tables are not changed after they are created, so they can be read while another result is added. */\n");
+		sb.append("    static Object[] put(Object[] table, Object key, Object value) {\n");
+		sb.append("        int n = table == null ? 0 : Math.min(table.length, 2 * SIZE - 2);\n");
+		sb.append("        Object[] result = new Object[n + 2];\n");
+		sb.append("        result[0] = key;\n");
+		sb.append("        result[1] = value == null ? NULL : value;\n");
+		sb.append("        if (n > 0) System.arraycopy(table, 0, result, 2, n);\n");
+		sb.append("        return result;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** how often the results of an attribute were found in the memo tables (hits) or computed (misses) */\n");
+		sb.append("    public static final class Stats {\n");
+		sb.append("        private final String attribute;\n");
+		if (concurrent) {
+			sb.append("        private final java.util.concurrent.atomic.LongAdder hits = new java.util.concurrent.atomic.LongAdder();\n");
+			sb.append("        private final java.util.concurrent.atomic.LongAdder misses = new java.util.concurrent.atomic.LongAdder();\n");
+		} else {
+			sb.append("        private long hits;\n");
+			sb.append("        private long misses;\n");
+		}
+		sb.append("\n");
+		sb.append("        Stats(String attribute) {\n");
+		sb.append("            this.attribute = attribute;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		if (concurrent) {
+			sb.append("        void hit() { hits.increment(); }\n");
+			sb.append("        void miss() { misses.increment(); }\n");
+			sb.append("        public long hits() { return hits.sum(); }\n");
+			sb.append("        public long misses() { return misses.sum(); }\n");
+			sb.append("        public void reset() { hits.reset(); misses.reset(); }\n");
+		} else {
+			sb.append("        void hit() { hits++; }\n");
+			sb.append("        void miss() { misses++; }\n");
+			sb.append("        public long hits() { return hits; }\n");
+			sb.append("        public long misses() { return misses; }\n");
+			sb.append("        public void reset() { hits = 0; misses = 0; }\n");
+		}
+		sb.append("\n");
+		sb.append("        @Override public String toString() {\n");
+		sb.append("            return attribute + \": \" + hits() + \" hits, \" + misses() + \" misses\";\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		for (String attrName : attrNames) {
+			sb.append("\n");
+			sb.append("    /** counts for attribute ").append(attrName).append(" */\n");
+			sb.append("    public static final Stats ").append(attrName).append(" = new Stats(\"").append(attrName).append("\");\n");
+		}
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,169 @@
+package asg.asts;
+
+public class TemplateCircularEvaluation {
+
+	public static void writeTo(StringBuilder sb) {
+		sb.append("/**\n");
+		sb.append(" * Computes the values of circular attributes as a global fixpoint.\n");
+		sb.append(" * Every attribute value in evaluation is an instance, which records the instances that read it.\n");
+		sb.append(" * Instances are visited depth first like in Tarjan's algorithm, so that the strongly connected components\n");
+		sb.append(" * of instances reading each other are found. When a component is complete, only the instances which read\n");
+		sb.append(" * a changed value are evaluated again, until no value changes. Then all values of the component are final.\n");
+		sb.append(" * Each thread has its own evaluation state, so attributes of independent trees can be evaluated in parallel.\n");
+		sb.append(" * Attributes of the same tree are only evaluated in parallel with concurrency: safe,\n");
+		sb.append(" * which evaluates circular attributes under a global lock.\n");
+		sb.append(" */\n");
+		sb.append("final class CircularEvaluation {\n");
+		sb.append("    private CircularEvaluation() {}\n");
+		sb.append("\n");
+		sb.append("    /** the state of an attribute value which is final */\n");
+		sb.append("    static final Object FINAL = new Object();\n");
+		sb.append("\n");
+		sb.append("    /** an attribute value in evaluation */\n");
+		sb.append("    abstract static class Instance {\n");
+		sb.append("        /** the current approximation */\n");
+		sb.append("        private Object value;\n");
+		sb.append("        private int index = -1;\n");
+		sb.append("        private int lowlink;\n");
+		sb.append("        private boolean queued;\n");
+		sb.append("        /** instances which were evaluated using the value of this instance */\n");
+		sb.append("        private final ArrayList<Instance> readers = new ArrayList<>(2);\n");
+		sb.append("\n");
+		sb.append("        Instance(Object start) {\n");
+		sb.append("            this.value = start;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** computes a new value from the current approximations */\n");
+		sb.append("        abstract Object compute();\n");
+		sb.append("\n");
+		sb.append("        /** stores the final value in the element */\n");
+		sb.append("        abstract void finish(Object value);\n");
+		sb.append("\n");
+		sb.append("        /** forgets the instance after the evaluation failed */\n");
+		sb.append("        abstract void abort();\n");
+		sb.append("\n");
+		sb.append("        private void addReader(Instance reader) {\n");
+		sb.append("            // readers are usually added in a row, so checking the last one avoids most duplicates\n");
+		sb.append("            int n = readers.size();\n");
+		sb.append("            if (n == 0 || readers.get(n - 1) != reader) readers.add(reader);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the evaluation state of the current thread */\n");
+		sb.append("    private static final ThreadLocal<Context> CONTEXT = ThreadLocal.withInitial(Context::new);\n");
+		sb.append("\n");
+		sb.append("    /** the current value of instance i, evaluates i if it was not visited yet */\n");
+		sb.append("    static Object read(Instance i) {\n");
+		sb.append("        return CONTEXT.get().read(i);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** number of values computed by the current thread, to see how often circular attributes are evaluated */\n");
+		sb.append("    static long evaluations() {\n");
+		sb.append("        return CONTEXT.get().evaluations;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static final class Context {\n");
+		sb.append("        /** the instance whose value is computed right now */\n");
+		sb.append("        private Instance current;\n");
+		sb.append("        /** visited instances which are not final yet */\n");
+		sb.append("        private final ArrayList<Instance> stack = new ArrayList<>();\n");
+		sb.append("        /** instances which read a changed value */\n");
+		sb.append("        private final ArrayDeque<Instance> worklist = new ArrayDeque<>();\n");
+		sb.append("        private int nextIndex = 0;\n");
+		sb.append("        /** number of computed values, to see how often circular attributes are evaluated */\n");
+		sb.append("        private long evaluations = 0;\n");
+		sb.append("\n");
+		sb.append("        /** the current value of instance i, evaluates i if it was not visited yet */\n");
+		sb.append("        private Object read(Instance i) {\n");
+		sb.append("            Instance reader = current;\n");
+		sb.append("            if (reader == null) {\n");
+		sb.append("                // start of a new evaluation\n");
+		sb.append("                try {\n");
+		sb.append("                    visit(i);\n");
+		sb.append("                } catch (RuntimeException | Error e) {\n");
+		sb.append("                    abort();\n");
+		sb.append("                    throw e;\n");
+		sb.append("                }\n");
+		sb.append("                return i.value;\n");
+		sb.append("            }\n");
+		sb.append("            if (i.index < 0) {\n");
+		sb.append("                visit(i);\n");
+		sb.append("                if (i.index < 0) {\n");
+		sb.append("                    // i is final\n");
+		sb.append("                    return i.value;\n");
+		sb.append("                }\n");
+		sb.append("                reader.lowlink = Math.min(reader.lowlink, i.lowlink);\n");
+		sb.append("            } else {\n");
+		sb.append("                reader.lowlink = Math.min(reader.lowlink, i.index);\n");
+		sb.append("            }\n");
+		sb.append("            i.addReader(reader);\n");
+		sb.append("            return i.value;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        private void visit(Instance v) {\n");
+		sb.append("            v.index = nextIndex++;\n");
+		sb.append("            v.lowlink = v.index;\n");
+		sb.append("            int start = stack.size();\n");
+		sb.append("            stack.add(v);\n");
+		sb.append("            evaluate(v);\n");
+		sb.append("            if (v.lowlink != v.index) {\n");
+		sb.append("                // v is part of a component, which is completed by an instance visited earlier\n");
+		sb.append("                return;\n");
+		sb.append("            }\n");
+		sb.append("            // v and the instances above it on the stack form a component -> iterate until no value changes\n");
+		sb.append("            ArrayList<Instance> other = null;\n");
+		sb.append("            Instance w;\n");
+		sb.append("            while ((w = worklist.poll()) != null) {\n");
+		sb.append("                if (w.index < v.index) {\n");
+		sb.append("                    // belongs to an enclosing component\n");
+		sb.append("                    if (other == null) other = new ArrayList<>();\n");
+		sb.append("                    other.add(w);\n");
+		sb.append("                    continue;\n");
+		sb.append("                }\n");
+		sb.append("                w.queued = false;\n");
+		sb.append("                evaluate(w);\n");
+		sb.append("            }\n");
+		sb.append("            if (other != null) worklist.addAll(other);\n");
+		sb.append("            for (int i = stack.size() - 1; i >= start; i--) {\n");
+		sb.append("                Instance member = stack.remove(i);\n");
+		sb.append("                member.index = -1;\n");
+		sb.append("                member.queued = false;\n");
+		sb.append("                member.readers.clear();\n");
+		sb.append("                member.finish(member.value);\n");
+		sb.append("            }\n");
+		sb.append("            if (stack.isEmpty()) nextIndex = 0;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** computes a new value of w and schedules the readers of w, if the value changed */\n");
+		sb.append("        private void evaluate(Instance w) {\n");
+		sb.append("            Instance saved = current;\n");
+		sb.append("            current = w;\n");
+		sb.append("            Object r;\n");
+		sb.append("            try {\n");
+		sb.append("                r = w.compute();\n");
+		sb.append("            } finally {\n");
+		sb.append("                current = saved;\n");
+		sb.append("            }\n");
+		sb.append("            evaluations++;\n");
+		sb.append("            if (Objects.equals(r, w.value)) return;\n");
+		sb.append("            w.value = r;\n");
+		sb.append("            for (Instance reader : w.readers) {\n");
+		sb.append("                if (!reader.queued && reader.index >= 0) {\n");
+		sb.append("                    reader.queued = true;\n");
+		sb.append("                    worklist.add(reader);\n");
+		sb.append("                }\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** forgets all instances in evaluation after an exception */\n");
+		sb.append("        private void abort() {\n");
+		sb.append("            for (Instance i : stack) i.abort();\n");
+		sb.append("            stack.clear();\n");
+		sb.append("            worklist.clear();\n");
+		sb.append("            nextIndex = 0;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,103 @@
+package asg.asts;
+
+public class TemplateFrozenTrees {
+
+	/**
+	 * writes the traversal shared by freezing and thawing,
+	 * the generated code adds freezeNode, thawNode and isRefList
+	 *
+	 * @param hasRefs whether the converted elements are needed to resolve refs
+	 */
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, boolean hasRefs) {
+		String E = commonSupertypeName;
+		String F = commonSupertypeName + "Frozen";
+		sb.append("    private FrozenTrees() {}\n");
+		sb.append("\n");
+		sb.append("    /** state of a conversion: the converted children waiting for their parent and the refs to resolve */\n");
+		sb.append("    static final class Conversion {\n");
+		sb.append("        private Object[] results = new Object[16];\n");
+		sb.append("        private int top = 0;\n");
+		sb.append("        // the first version of every converted element, to resolve refs\n");
+		sb.append("        private final IdentityHashMap<Object, Object> converted = new IdentityHashMap<>();\n");
+		sb.append("        private final List<Runnable> later = new ArrayList<>();\n");
+		sb.append("\n");
+		sb.append("        void push(Object o) {\n");
+		sb.append("            if (top == results.length) results = Arrays.copyOf(results, top * 2);\n");
+		sb.append("            results[top++] = o;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        Object pop() {\n");
+		sb.append("            Object o = results[--top];\n");
+		sb.append("            results[top] = null;\n");
+		sb.append("            return o;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** runs r after all elements are converted */\n");
+		sb.append("        void later(Runnable r) {\n");
+		sb.append("            later.add(r);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** the converted version of e, or null if e is not part of the converted tree */\n");
+		sb.append("        Object converted(Object e) {\n");
+		sb.append("            return converted.get(e);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static ").append(F).append(" freeze(").append(E).append(" root) {\n");
+		sb.append("        return (").append(F).append(") convert(root, true);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static ").append(E).append(" thaw(").append(F).append(" root) {\n");
+		sb.append("        return (").append(E).append(") convert(root, false);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static int childCount(Object e) {\n");
+		sb.append("        if (e == null || isRefList(e)) return 0;\n");
+		sb.append("        return e instanceof ").append(E).append(" m ? m.size() : ((").append(F).append(") e).size();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static Object child(Object e, int i) {\n");
+		sb.append("        return e instanceof ").append(E).append(" m ? m.get(i) : ((").append(F).append(") e).get(i);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** converts the tree bottom-up in post-order, without recursion */\n");
+		sb.append("    private static Object convert(Object root, boolean freezing) {\n");
+		sb.append("        Conversion c = new Conversion();\n");
+		sb.append("        Object[] path = new Object[64];\n");
+		sb.append("        int[] nextChild = new int[64];\n");
+		sb.append("        int depth = 0;\n");
+		sb.append("        path[depth++] = root;\n");
+		sb.append("        while (depth > 0) {\n");
+		sb.append("            Object e = path[depth - 1];\n");
+		sb.append("            int i = nextChild[depth - 1];\n");
+		sb.append("            if (i < childCount(e)) {\n");
+		sb.append("                nextChild[depth - 1] = i + 1;\n");
+		sb.append("                if (depth == path.length) {\n");
+		sb.append("                    path = Arrays.copyOf(path, depth * 2);\n");
+		sb.append("                    nextChild = Arrays.copyOf(nextChild, depth * 2);\n");
+		sb.append("                }\n");
+		sb.append("                path[depth] = child(e, i);\n");
+		sb.append("                nextChild[depth] = 0;\n");
+		sb.append("                depth++;\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            depth--;\n");
+		sb.append("            path[depth] = null;\n");
+		sb.append("            if (e == null) {\n");
+		sb.append("                c.push(null);\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            Object result = freezing ? freezeNode((").append(E).append(") e, c) : thawNode((").append(F).append(") e, c);\n");
+		if (hasRefs) {
+			sb.append("            c.converted.putIfAbsent(e, result);\n");
+		}
+		sb.append("            c.push(result);\n");
+		sb.append("        }\n");
+		sb.append("        for (Runnable r : c.later) {\n");
+		sb.append("            r.run();\n");
+		sb.append("        }\n");
+		sb.append("        return c.pop();\n");
+		sb.append("    }\n");
+	}
+
+}
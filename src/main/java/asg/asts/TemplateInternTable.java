@@ -0,0 +1,54 @@
+package asg.asts;
+
+public class TemplateInternTable {
+
+	public static void writeTo(StringBuilder sb) {
+		sb.append("/**\n");
+		sb.append(" * The instances of an interned constructor by their parameters.\n");
+		sb.append(" * The instances are only weakly referenced, so an instance, which is no longer used, is collected\n");
+		sb.append(" * and its entry is removed by a later lookup. A new instance is only created when no equal instance is alive,\n");
+		sb.append(" * so equal interned elements stay identical.\n");
+		sb.append(" */\n");
+		sb.append("final class InternTable<V> {\n");
+		sb.append("    private final HashMap<Object, Entry<V>> entries = new HashMap<>();\n");
+		sb.append("    private final java.lang.ref.ReferenceQueue<V> collected = new java.lang.ref.ReferenceQueue<>();\n");
+		sb.append("\n");
+		sb.append("    private static final class Entry<V> extends java.lang.ref.WeakReference<V> {\n");
+		sb.append("        final Object key;\n");
+		sb.append("\n");
+		sb.append("        Entry(Object key, V value, java.lang.ref.ReferenceQueue<V> queue) {\n");
+		sb.append("            super(value, queue);\n");
+		sb.append("            this.key = key;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the instance for the key, which is created if no instance for an equal key is alive */\n");
+		sb.append("    synchronized V intern(Object key, java.util.function.Supplier<V> create) {\n");
+		sb.append("        removeCollected();\n");
+		sb.append("        Entry<V> entry = entries.get(key);\n");
+		sb.append("        V value = entry == null ? null : entry.get();\n");
+		sb.append("        if (value == null) {\n");
+		sb.append("            value = create.get();\n");
+		sb.append("            entries.put(key, new Entry<>(key, value, collected));\n");
+		sb.append("        }\n");
+		sb.append("        return value;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the number of entries, including those of collected instances, which are not removed yet */\n");
+		sb.append("    synchronized int size() {\n");
+		sb.append("        removeCollected();\n");
+		sb.append("        return entries.size();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    @SuppressWarnings(\"unchecked\")\n");
+		sb.append("    private void removeCollected() {\n");
+		sb.append("        for (Object r; (r = collected.poll()) != null; ) {\n");
+		sb.append("            Entry<V> entry = (Entry<V>) r;\n");
+		sb.append("            // the key may already belong to a newer instance\n");
+		sb.append("            if (entries.get(entry.key) == entry) entries.remove(entry.key);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
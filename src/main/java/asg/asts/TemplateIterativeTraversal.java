@@ -0,0 +1,200 @@
+package asg.asts;
+
+public class TemplateIterativeTraversal {
+
+	/**
+	 * @param hashCached whether elements store their structural hash, so that the hash computation can stop there
+	 */
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, boolean hashCached) {
+		String E = commonSupertypeName;
+		sb.append("/**\n");
+		sb.append(" * Tree operations which work on very deep trees.\n");
+		sb.append(" * They recurse up to MAX_RECURSION levels, which is as fast as the recursive operations,\n");
+		sb.append(" * and continue with an explicit stack below that depth.\n");
+		sb.append(" */\n");
+		sb.append("final class IterativeTraversal {\n");
+		sb.append("    private IterativeTraversal() {}\n");
+		sb.append("\n");
+		sb.append("    static final int MAX_RECURSION = 256;\n");
+		sb.append("\n");
+		sb.append("    // -------- copy ----------\n");
+		sb.append("    static ").append(E).append(" copy(").append(E).append(" root) {\n");
+		sb.append("        return root.zzcopyBounded(0);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** copies the tree without any recursion */\n");
+		sb.append("    static ").append(E).append(" copyWithStack(").append(E).append(" root) {\n");
+		sb.append("        // path to the current element and the index of the next child to copy on each level\n");
+		sb.append("        ").append(E).append("[] elements = new ").append(E).append("[64];\n");
+		sb.append("        int[] nextChild = new int[64];\n");
+		sb.append("        int depth = 0;\n");
+		sb.append("        // copies of the finished children of the elements on the path\n");
+		sb.append("        ").append(E).append("[] copies = new ").append(E).append("[64];\n");
+		sb.append("        int copyCount = 0;\n");
+		sb.append("        elements[depth++] = root;\n");
+		sb.append("        while (depth > 0) {\n");
+		sb.append("            ").append(E).append(" e = elements[depth - 1];\n");
+		sb.append("            int i = nextChild[depth - 1];\n");
+		sb.append("            int n = e.size();\n");
+		sb.append("            if (i < n) {\n");
+		sb.append("                nextChild[depth - 1] = i + 1;\n");
+		sb.append("                if (depth == elements.length) {\n");
+		sb.append("                    elements = Arrays.copyOf(elements, depth * 2);\n");
+		sb.append("                    nextChild = Arrays.copyOf(nextChild, depth * 2);\n");
+		sb.append("                }\n");
+		sb.append("                elements[depth] = e.get(i);\n");
+		sb.append("                nextChild[depth] = 0;\n");
+		sb.append("                depth++;\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            // all children copied -> copy the element itself\n");
+		sb.append("            elements[--depth] = null;\n");
+		sb.append("            copyCount -= n;\n");
+		sb.append("            ").append(E).append(" result = e.zzcopyWithChildren(copies, copyCount);\n");
+		sb.append("            Arrays.fill(copies, copyCount, copyCount + n, null);\n");
+		sb.append("            if (copyCount == copies.length) copies = Arrays.copyOf(copies, copyCount * 2);\n");
+		sb.append("            copies[copyCount++] = result;\n");
+		sb.append("        }\n");
+		sb.append("        return copies[0];\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // -------- structural equality ----------\n");
+		sb.append("    /** pairs of elements which still have to be compared */\n");
+		sb.append("    static final class Pending {\n");
+		sb.append("        private ").append(E).append("[] stack = new ").append(E).append("[64];\n");
+		sb.append("        private int size = 0;\n");
+		sb.append("\n");
+		sb.append("        /** schedules the comparison of a and b, used by zzstructuralEquals below MAX_RECURSION */\n");
+		sb.append("        void compareLater(").append(E).append(" a, ").append(E).append(" b) {\n");
+		sb.append("            if (size + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);\n");
+		sb.append("            stack[size++] = b;\n");
+		sb.append("            stack[size++] = a;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static boolean structuralEquals(").append(E).append(" a, ").append(E).append(" b) {\n");
+		sb.append("        if (b == null) return false;\n");
+		sb.append("        Pending pending = new Pending();\n");
+		sb.append("        pending.compareLater(a, b);\n");
+		sb.append("        while (pending.size > 0) {\n");
+		sb.append("            ").append(E).append(" x = pending.stack[--pending.size];\n");
+		sb.append("            ").append(E).append(" y = pending.stack[--pending.size];\n");
+		sb.append("            if (!x.zzstructuralEquals(y, 0, pending)) return false;\n");
+		sb.append("        }\n");
+		sb.append("        return true;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // -------- structural hash ----------\n");
+		sb.append("    /** computes the structural hash of the tree without any recursion */\n");
+		sb.append("    static int structuralHashWithStack(").append(E).append(" root) {\n");
+		sb.append("        // path to the current element and the index of the next child to hash on each level\n");
+		sb.append("        ").append(E).append("[] elements = new ").append(E).append("[64];\n");
+		sb.append("        int[] nextChild = new int[64];\n");
+		sb.append("        int depth = 0;\n");
+		sb.append("        // hashes of the finished children of the elements on the path\n");
+		sb.append("        int[] hashes = new int[64];\n");
+		sb.append("        int hashCount = 0;\n");
+		sb.append("        elements[depth++] = root;\n");
+		sb.append("        while (depth > 0) {\n");
+		sb.append("            ").append(E).append(" e = elements[depth - 1];\n");
+		sb.append("            int i = nextChild[depth - 1];\n");
+		sb.append("            int n = e.size();\n");
+		sb.append("            if (i < n) {\n");
+		sb.append("                nextChild[depth - 1] = i + 1;\n");
+		sb.append("                ").append(E).append(" child = e.get(i);\n");
+		if (hashCached) {
+			sb.append("                int cached = child.zzgetCachedHash();\n");
+			sb.append("                if (cached != 0) {\n");
+			sb.append("                    if (hashCount == hashes.length) hashes = Arrays.copyOf(hashes, hashCount * 2);\n");
+			sb.append("                    hashes[hashCount++] = cached;\n");
+			sb.append("                    continue;\n");
+			sb.append("                }\n");
+		}
+		sb.append("                if (depth == elements.length) {\n");
+		sb.append("                    elements = Arrays.copyOf(elements, depth * 2);\n");
+		sb.append("                    nextChild = Arrays.copyOf(nextChild, depth * 2);\n");
+		sb.append("                }\n");
+		sb.append("                elements[depth] = child;\n");
+		sb.append("                nextChild[depth] = 0;\n");
+		sb.append("                depth++;\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            // all children hashed -> hash the element itself\n");
+		sb.append("            elements[--depth] = null;\n");
+		sb.append("            hashCount -= n;\n");
+		sb.append("            int h = e.zzhashWithChildren(hashes, hashCount);\n");
+		sb.append("            if (hashCount == hashes.length) hashes = Arrays.copyOf(hashes, hashCount * 2);\n");
+		sb.append("            hashes[hashCount++] = h;\n");
+		sb.append("        }\n");
+		sb.append("        return hashes[0];\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // -------- iterators ----------\n");
+		sb.append("    static Iterator<").append(E).append("> preOrder(").append(E).append(" root) {\n");
+		sb.append("        return new Iterator<").append(E).append(">() {\n");
+		sb.append("            private final ArrayDeque<").append(E).append("> stack = new ArrayDeque<>(List.of(root));\n");
+		sb.append("\n");
+		sb.append("            @Override public boolean hasNext() {\n");
+		sb.append("                return !stack.isEmpty();\n");
+		sb.append("            }\n");
+		sb.append("\n");
+		sb.append("            @Override public ").append(E).append(" next() {\n");
+		sb.append("                ").append(E).append(" e = stack.pop();\n");
+		sb.append("                for (int i = e.size() - 1; i >= 0; i--) {\n");
+		sb.append("                    stack.push(e.get(i));\n");
+		sb.append("                }\n");
+		sb.append("                return e;\n");
+		sb.append("            }\n");
+		sb.append("        };\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static Iterator<").append(E).append("> postOrder(").append(E).append(" root) {\n");
+		sb.append("        return new Iterator<").append(E).append(">() {\n");
+		sb.append("            // path from the root to the next element and the index of the next child to visit on each level\n");
+		sb.append("            private ").append(E).append("[] elements = new ").append(E).append("[16];\n");
+		sb.append("            private int[] nextChild = new int[16];\n");
+		sb.append("            private int depth = 0;\n");
+		sb.append("\n");
+		sb.append("            {\n");
+		sb.append("                descend(root);\n");
+		sb.append("            }\n");
+		sb.append("\n");
+		sb.append("            /** goes down to the first leaf below e */\n");
+		sb.append("            private void descend(").append(E).append(" e) {\n");
+		sb.append("                while (true) {\n");
+		sb.append("                    if (depth == elements.length) {\n");
+		sb.append("                        elements = Arrays.copyOf(elements, depth * 2);\n");
+		sb.append("                        nextChild = Arrays.copyOf(nextChild, depth * 2);\n");
+		sb.append("                    }\n");
+		sb.append("                    elements[depth] = e;\n");
+		sb.append("                    nextChild[depth] = 1;\n");
+		sb.append("                    depth++;\n");
+		sb.append("                    if (e.size() == 0) return;\n");
+		sb.append("                    e = e.get(0);\n");
+		sb.append("                }\n");
+		sb.append("            }\n");
+		sb.append("\n");
+		sb.append("            @Override public boolean hasNext() {\n");
+		sb.append("                return depth > 0;\n");
+		sb.append("            }\n");
+		sb.append("\n");
+		sb.append("            @Override public ").append(E).append(" next() {\n");
+		sb.append("                if (depth == 0) throw new NoSuchElementException();\n");
+		sb.append("                ").append(E).append(" e = elements[--depth];\n");
+		sb.append("                elements[depth] = null;\n");
+		sb.append("                if (depth > 0) {\n");
+		sb.append("                    ").append(E).append(" parent = elements[depth - 1];\n");
+		sb.append("                    int i = nextChild[depth - 1];\n");
+		sb.append("                    if (i < parent.size()) {\n");
+		sb.append("                        nextChild[depth - 1] = i + 1;\n");
+		sb.append("                        descend(parent.get(i));\n");
+		sb.append("                    }\n");
+		sb.append("                }\n");
+		sb.append("                return e;\n");
+		sb.append("            }\n");
+		sb.append("        };\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,146 @@
+package asg.asts;
+
+public class TemplateJournal {
+
+	public static void writeTo(StringBuilder sb, String commonSupertypeName) {
+		String E = commonSupertypeName;
+		sb.append("/**\n");
+		sb.append(" * Records changes of all trees while a checkpoint is open, so that they can be undone.\n");
+		sb.append(" * Each change is stored as the changed object, the old value and an int combining the kind of change and a position.\n");
+		sb.append(" * Rolling back undoes the changes newest first, so it takes time proportional to the number of changes.\n");
+		sb.append(" * The journal is shared by all trees and not thread-safe.\n");
+		sb.append(" */\n");
+		sb.append("public final class Journal {\n");
+		sb.append("    // kinds of changes, stored in the lowest bits of the operation\n");
+		sb.append("    private static final int PROPERTY = 0, PARENT = 1, LIST_INSERT = 2, LIST_INSERT_RANGE = 3, LIST_REMOVE = 4, LIST_REPLACE = 5, LIST_CONTENTS = 6;\n");
+		sb.append("    private static final int KIND_BITS = 3;\n");
+		sb.append("\n");
+		sb.append("    /** whether changes are recorded, true while a checkpoint is open */\n");
+		sb.append("    static boolean recording = false;\n");
+		sb.append("\n");
+		sb.append("    private static Object[] targets = new Object[64];\n");
+		sb.append("    private static Object[] oldValues = new Object[64];\n");
+		sb.append("    private static int[] operations = new int[64];\n");
+		sb.append("    private static int size = 0;\n");
+		sb.append("    // the journal size at each open checkpoint\n");
+		sb.append("    private static int[] checkpoints = new int[8];\n");
+		sb.append("    private static int openCheckpoints = 0;\n");
+		sb.append("\n");
+		sb.append("    private Journal() {}\n");
+		sb.append("\n");
+		sb.append("    /** starts recording changes and returns a checkpoint for rollback or commit, checkpoints can be nested */\n");
+		sb.append("    public static int checkpoint() {\n");
+		sb.append("        if (openCheckpoints == checkpoints.length) checkpoints = Arrays.copyOf(checkpoints, openCheckpoints * 2);\n");
+		sb.append("        checkpoints[openCheckpoints] = size;\n");
+		sb.append("        recording = true;\n");
+		sb.append("        return openCheckpoints++;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** undoes all changes since the checkpoint and closes it and all checkpoints opened after it */\n");
+		sb.append("    @SuppressWarnings(\"unchecked\")\n");
+		sb.append("    public static void rollback(int checkpoint) {\n");
+		sb.append("        checkOpen(checkpoint);\n");
+		sb.append("        int start = checkpoints[checkpoint];\n");
+		sb.append("        recording = false;\n");
+		sb.append("        try {\n");
+		sb.append("            while (size > start) {\n");
+		sb.append("                size--;\n");
+		sb.append("                Object target = targets[size];\n");
+		sb.append("                Object old = oldValues[size];\n");
+		sb.append("                int op = operations[size];\n");
+		sb.append("                targets[size] = null;\n");
+		sb.append("                oldValues[size] = null;\n");
+		sb.append("                int pos = op >> KIND_BITS;\n");
+		sb.append("                switch (op & ((1 << KIND_BITS) - 1)) {\n");
+		sb.append("                    case PROPERTY -> ((").append(E).append(") target).zzundo(pos, old);\n");
+		sb.append("                    case PARENT -> {\n");
+		sb.append("                        ((").append(E).append(") target).zzsetParent(null);\n");
+		sb.append("                        ((").append(E).append(") target).zzsetParent((").append(E).append(") old);\n");
+		sb.append("                    }\n");
+		sb.append("                    case LIST_INSERT -> ((AsgList<Object>) target).remove(pos);\n");
+		sb.append("                    case LIST_INSERT_RANGE -> ((AsgList<Object>) target).zzremoveRange(pos, pos + (Integer) old);\n");
+		sb.append("                    case LIST_REMOVE -> ((AsgList<Object>) target).add(pos, old);\n");
+		sb.append("                    case LIST_REPLACE -> ((AsgList<Object>) target).set(pos, old);\n");
+		sb.append("                    case LIST_CONTENTS -> ((AsgList<Object>) target).zzrestore((Object[]) old);\n");
+		sb.append("                    default -> throw new IllegalStateException(\"Corrupted journal\");\n");
+		sb.append("                }\n");
+		sb.append("            }\n");
+		sb.append("        } finally {\n");
+		sb.append("            close(checkpoint);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** keeps the changes since the checkpoint and closes it and all checkpoints opened after it */\n");
+		sb.append("    public static void commit(int checkpoint) {\n");
+		sb.append("        checkOpen(checkpoint);\n");
+		sb.append("        close(checkpoint);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the number of recorded changes */\n");
+		sb.append("    public static int size() {\n");
+		sb.append("        return size;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static void checkOpen(int checkpoint) {\n");
+		sb.append("        if (checkpoint < 0 || checkpoint >= openCheckpoints) {\n");
+		sb.append("            throw new IllegalStateException(\"Checkpoint \" + checkpoint + \" is not open.\");\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static void close(int checkpoint) {\n");
+		sb.append("        openCheckpoints = checkpoint;\n");
+		sb.append("        recording = openCheckpoints > 0;\n");
+		sb.append("        if (!recording) {\n");
+		sb.append("            // nothing can be rolled back any more\n");
+		sb.append("            Arrays.fill(targets, 0, size, null);\n");
+		sb.append("            Arrays.fill(oldValues, 0, size, null);\n");
+		sb.append("            size = 0;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static void record(Object target, int kind, int pos, Object old) {\n");
+		sb.append("        if (size == targets.length) {\n");
+		sb.append("            targets = Arrays.copyOf(targets, size * 2);\n");
+		sb.append("            oldValues = Arrays.copyOf(oldValues, size * 2);\n");
+		sb.append("            operations = Arrays.copyOf(operations, size * 2);\n");
+		sb.append("        }\n");
+		sb.append("        targets[size] = target;\n");
+		sb.append("        oldValues[size] = old;\n");
+		sb.append("        operations[size] = (pos << KIND_BITS) | kind;\n");
+		sb.append("        size++;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** a property or field of e with the given slot is about to change */\n");
+		sb.append("    static void propertyChanged(").append(E).append(" e, int slot, Object old) {\n");
+		sb.append("        record(e, PROPERTY, slot, old);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** e was moved from the parent old to another parent by setParent */\n");
+		sb.append("    static void parentChanged(").append(E).append(" e, ").append(E).append(" old) {\n");
+		sb.append("        record(e, PARENT, 0, old);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void inserted(AsgList<?> list, int index) {\n");
+		sb.append("        record(list, LIST_INSERT, index, null);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void insertedRange(AsgList<?> list, int index, int count) {\n");
+		sb.append("        record(list, LIST_INSERT_RANGE, index, count);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void removed(AsgList<?> list, int index, Object old) {\n");
+		sb.append("        record(list, LIST_REMOVE, index, old);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void replaced(AsgList<?> list, int index, Object old) {\n");
+		sb.append("        record(list, LIST_REPLACE, index, old);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** many elements of the list are about to change, old are the elements before the change */\n");
+		sb.append("    static void contentsChanged(AsgList<?> list, Object[] old) {\n");
+		sb.append("        record(list, LIST_CONTENTS, 0, old);\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,108 @@
+package asg.asts;
+
+public class TemplateParallelTraversal {
+
+	public static void writeTo(StringBuilder sb, String commonSupertypeName) {
+		String E = commonSupertypeName;
+		sb.append("import java.util.concurrent.*;\n");
+		sb.append("import java.util.function.*;\n");
+		sb.append("\n");
+		sb.append("/** fork-join based traversal of trees, used by parallelForEach and parallelReduce */\n");
+		sb.append("final class ParallelTraversal {\n");
+		sb.append("    private ParallelTraversal() {}\n");
+		sb.append("\n");
+		sb.append("    static void forEach(" + E + " root, Predicate<? super " + E + "> splitHere, Consumer<? super " + E + "> action) {\n");
+		sb.append("        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> walk(root, splitHere, action)));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static <R> R reduce(" + E + " root, Predicate<? super " + E + "> splitHere,\n");
+		sb.append("            Function<? super " + E + ", ? extends R> mapper, BinaryOperator<R> combine) {\n");
+		sb.append("        return ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> reduceWalk(root, splitHere, mapper, combine)));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // -------- for each ----------\n");
+		sb.append("    private static void walk(" + E + " e, Predicate<? super " + E + "> splitHere, Consumer<? super " + E + "> action) {\n");
+		sb.append("        action.accept(e);\n");
+		sb.append("        int n = e.size();\n");
+		sb.append("        if (n > 1 && splitHere.test(e)) {\n");
+		sb.append("            new ForEachTask(e, 0, n, splitHere, action).invoke();\n");
+		sb.append("        } else {\n");
+		sb.append("            for (int i = 0; i < n; i++) walk(e.get(i), splitHere, action);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** processes the children from (inclusive) to to (exclusive) of parent */\n");
+		sb.append("    @SuppressWarnings(\"serial\") // tasks are never serialized\n");
+		sb.append("    private static final class ForEachTask extends RecursiveAction {\n");
+		sb.append("        private final " + E + " parent;\n");
+		sb.append("        private final int from;\n");
+		sb.append("        private final int to;\n");
+		sb.append("        private final Predicate<? super " + E + "> splitHere;\n");
+		sb.append("        private final Consumer<? super " + E + "> action;\n");
+		sb.append("\n");
+		sb.append("        ForEachTask(" + E + " parent, int from, int to, Predicate<? super " + E + "> splitHere, Consumer<? super " + E + "> action) {\n");
+		sb.append("            this.parent = parent;\n");
+		sb.append("            this.from = from;\n");
+		sb.append("            this.to = to;\n");
+		sb.append("            this.splitHere = splitHere;\n");
+		sb.append("            this.action = action;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        @Override protected void compute() {\n");
+		sb.append("            if (to - from > 1) {\n");
+		sb.append("                int mid = (from + to) >>> 1;\n");
+		sb.append("                invokeAll(new ForEachTask(parent, from, mid, splitHere, action),\n");
+		sb.append("                        new ForEachTask(parent, mid, to, splitHere, action));\n");
+		sb.append("            } else if (to > from) {\n");
+		sb.append("                walk(parent.get(from), splitHere, action);\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // -------- reduce ----------\n");
+		sb.append("    private static <R> R reduceWalk(" + E + " e, Predicate<? super " + E + "> splitHere,\n");
+		sb.append("            Function<? super " + E + ", ? extends R> mapper, BinaryOperator<R> combine) {\n");
+		sb.append("        R r = mapper.apply(e);\n");
+		sb.append("        int n = e.size();\n");
+		sb.append("        if (n > 1 && splitHere.test(e)) {\n");
+		sb.append("            return combine.apply(r, new ReduceTask<R>(e, 0, n, splitHere, mapper, combine).invoke());\n");
+		sb.append("        }\n");
+		sb.append("        for (int i = 0; i < n; i++) r = combine.apply(r, reduceWalk(e.get(i), splitHere, mapper, combine));\n");
+		sb.append("        return r;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** reduces the children from (inclusive) to to (exclusive, at least from + 1) of parent, in order */\n");
+		sb.append("    @SuppressWarnings(\"serial\") // tasks are never serialized\n");
+		sb.append("    private static final class ReduceTask<R> extends RecursiveTask<R> {\n");
+		sb.append("        private final " + E + " parent;\n");
+		sb.append("        private final int from;\n");
+		sb.append("        private final int to;\n");
+		sb.append("        private final Predicate<? super " + E + "> splitHere;\n");
+		sb.append("        private final Function<? super " + E + ", ? extends R> mapper;\n");
+		sb.append("        private final BinaryOperator<R> combine;\n");
+		sb.append("\n");
+		sb.append("        ReduceTask(" + E + " parent, int from, int to, Predicate<? super " + E + "> splitHere,\n");
+		sb.append("                Function<? super " + E + ", ? extends R> mapper, BinaryOperator<R> combine) {\n");
+		sb.append("            this.parent = parent;\n");
+		sb.append("            this.from = from;\n");
+		sb.append("            this.to = to;\n");
+		sb.append("            this.splitHere = splitHere;\n");
+		sb.append("            this.mapper = mapper;\n");
+		sb.append("            this.combine = combine;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        @Override protected R compute() {\n");
+		sb.append("            if (to - from > 1) {\n");
+		sb.append("                int mid = (from + to) >>> 1;\n");
+		sb.append("                ReduceTask<R> left = new ReduceTask<>(parent, from, mid, splitHere, mapper, combine);\n");
+		sb.append("                left.fork();\n");
+		sb.append("                R right = new ReduceTask<>(parent, mid, to, splitHere, mapper, combine).compute();\n");
+		sb.append("                return combine.apply(left.join(), right);\n");
+		sb.append("            }\n");
+		sb.append("            return reduceWalk(parent.get(from), splitHere, mapper, combine);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,192 @@
+package asg.asts;
+
+public class TemplatePersistentList {
+
+	public static void writeTo(StringBuilder sb) {
+		sb.append("/**\n");
+		sb.append(" * Immutable list stored in a balanced tree, indexed by position.\n");
+		sb.append(" * Changing an element, inserting or removing takes logarithmic time and shares everything but the\n");
+		sb.append(" * path to the changed position with the old list.\n");
+		sb.append(" */\n");
+		sb.append("public final class PersistentList<T> implements Iterable<T> {\n");
+		sb.append("    private static final PersistentList<?> EMPTY = new PersistentList<>(null);\n");
+		sb.append("\n");
+		sb.append("    private static final class Node<T> {\n");
+		sb.append("        final Node<T> left;\n");
+		sb.append("        final T value;\n");
+		sb.append("        final Node<T> right;\n");
+		sb.append("        final int size;\n");
+		sb.append("        final int height;\n");
+		sb.append("\n");
+		sb.append("        Node(Node<T> left, T value, Node<T> right) {\n");
+		sb.append("            this.left = left;\n");
+		sb.append("            this.value = value;\n");
+		sb.append("            this.right = right;\n");
+		sb.append("            this.size = size(left) + size(right) + 1;\n");
+		sb.append("            this.height = Math.max(height(left), height(right)) + 1;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private final Node<T> root;\n");
+		sb.append("\n");
+		sb.append("    private PersistentList(Node<T> root) {\n");
+		sb.append("        this.root = root;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    @SuppressWarnings(\"unchecked\")\n");
+		sb.append("    public static <T> PersistentList<T> empty() {\n");
+		sb.append("        return (PersistentList<T>) EMPTY;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** creates a list with the given elements in linear time */\n");
+		sb.append("    public static <T> PersistentList<T> of(List<? extends T> items) {\n");
+		sb.append("        return items.isEmpty() ? empty() : new PersistentList<>(build(items, 0, items.size()));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static <T> Node<T> build(List<? extends T> items, int from, int to) {\n");
+		sb.append("        if (from >= to) return null;\n");
+		sb.append("        int mid = (from + to) >>> 1;\n");
+		sb.append("        return new Node<>(build(items, from, mid), items.get(mid), build(items, mid + 1, to));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static int size(Node<?> n) {\n");
+		sb.append("        return n == null ? 0 : n.size;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static int height(Node<?> n) {\n");
+		sb.append("        return n == null ? 0 : n.height;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public int size() {\n");
+		sb.append("        return size(root);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public boolean isEmpty() {\n");
+		sb.append("        return root == null;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public T get(int i) {\n");
+		sb.append("        Objects.checkIndex(i, size());\n");
+		sb.append("        Node<T> n = root;\n");
+		sb.append("        while (true) {\n");
+		sb.append("            int leftSize = size(n.left);\n");
+		sb.append("            if (i < leftSize) {\n");
+		sb.append("                n = n.left;\n");
+		sb.append("            } else if (i == leftSize) {\n");
+		sb.append("                return n.value;\n");
+		sb.append("            } else {\n");
+		sb.append("                i -= leftSize + 1;\n");
+		sb.append("                n = n.right;\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the list with the element at position i replaced by value */\n");
+		sb.append("    public PersistentList<T> set(int i, T value) {\n");
+		sb.append("        Objects.checkIndex(i, size());\n");
+		sb.append("        return new PersistentList<>(set(root, i, value));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static <T> Node<T> set(Node<T> n, int i, T value) {\n");
+		sb.append("        int leftSize = size(n.left);\n");
+		sb.append("        if (i < leftSize) return new Node<>(set(n.left, i, value), n.value, n.right);\n");
+		sb.append("        if (i == leftSize) return new Node<>(n.left, value, n.right);\n");
+		sb.append("        return new Node<>(n.left, n.value, set(n.right, i - leftSize - 1, value));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the list with value inserted before position i */\n");
+		sb.append("    public PersistentList<T> insert(int i, T value) {\n");
+		sb.append("        Objects.checkIndex(i, size() + 1);\n");
+		sb.append("        return new PersistentList<>(insert(root, i, value));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public PersistentList<T> add(T value) {\n");
+		sb.append("        return insert(size(), value);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static <T> Node<T> insert(Node<T> n, int i, T value) {\n");
+		sb.append("        if (n == null) return new Node<>(null, value, null);\n");
+		sb.append("        int leftSize = size(n.left);\n");
+		sb.append("        if (i <= leftSize) return balance(insert(n.left, i, value), n.value, n.right);\n");
+		sb.append("        return balance(n.left, n.value, insert(n.right, i - leftSize - 1, value));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the list without the element at position i */\n");
+		sb.append("    public PersistentList<T> remove(int i) {\n");
+		sb.append("        Objects.checkIndex(i, size());\n");
+		sb.append("        return new PersistentList<>(remove(root, i));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static <T> Node<T> remove(Node<T> n, int i) {\n");
+		sb.append("        int leftSize = size(n.left);\n");
+		sb.append("        if (i < leftSize) return balance(remove(n.left, i), n.value, n.right);\n");
+		sb.append("        if (i > leftSize) return balance(n.left, n.value, remove(n.right, i - leftSize - 1));\n");
+		sb.append("        if (n.left == null) return n.right;\n");
+		sb.append("        if (n.right == null) return n.left;\n");
+		sb.append("        // replace the value by its successor\n");
+		sb.append("        Node<T> successor = n.right;\n");
+		sb.append("        while (successor.left != null) successor = successor.left;\n");
+		sb.append("        return balance(n.left, successor.value, remove(n.right, 0));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** creates a node from two subtrees, whose heights differ by at most two, with AVL rotations */\n");
+		sb.append("    private static <T> Node<T> balance(Node<T> left, T value, Node<T> right) {\n");
+		sb.append("        int hl = height(left);\n");
+		sb.append("        int hr = height(right);\n");
+		sb.append("        if (hl > hr + 1) {\n");
+		sb.append("            if (height(left.left) >= height(left.right)) {\n");
+		sb.append("                return new Node<>(left.left, left.value, new Node<>(left.right, value, right));\n");
+		sb.append("            }\n");
+		sb.append("            Node<T> lr = left.right;\n");
+		sb.append("            return new Node<>(new Node<>(left.left, left.value, lr.left), lr.value, new Node<>(lr.right, value, right));\n");
+		sb.append("        }\n");
+		sb.append("        if (hr > hl + 1) {\n");
+		sb.append("            if (height(right.right) >= height(right.left)) {\n");
+		sb.append("                return new Node<>(new Node<>(left, value, right.left), right.value, right.right);\n");
+		sb.append("            }\n");
+		sb.append("            Node<T> rl = right.left;\n");
+		sb.append("            return new Node<>(new Node<>(left, value, rl.left), rl.value, new Node<>(rl.right, right.value, right.right));\n");
+		sb.append("        }\n");
+		sb.append("        return new Node<>(left, value, right);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the elements in a new mutable list */\n");
+		sb.append("    public List<T> toList() {\n");
+		sb.append("        List<T> result = new ArrayList<>(size());\n");
+		sb.append("        for (T t : this) result.add(t);\n");
+		sb.append("        return result;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    @Override public Iterator<T> iterator() {\n");
+		sb.append("        return new Iterator<T>() {\n");
+		sb.append("            // the nodes whose value and right subtree are not visited yet, the next one on top\n");
+		sb.append("            private final ArrayDeque<Node<T>> path = new ArrayDeque<>();\n");
+		sb.append("\n");
+		sb.append("            {\n");
+		sb.append("                pushLeft(root);\n");
+		sb.append("            }\n");
+		sb.append("\n");
+		sb.append("            private void pushLeft(Node<T> n) {\n");
+		sb.append("                for (; n != null; n = n.left) path.push(n);\n");
+		sb.append("            }\n");
+		sb.append("\n");
+		sb.append("            @Override public boolean hasNext() {\n");
+		sb.append("                return !path.isEmpty();\n");
+		sb.append("            }\n");
+		sb.append("\n");
+		sb.append("            @Override public T next() {\n");
+		sb.append("                if (path.isEmpty()) throw new NoSuchElementException();\n");
+		sb.append("                Node<T> n = path.pop();\n");
+		sb.append("                pushLeft(n.right);\n");
+		sb.append("                return n.value;\n");
+		sb.append("            }\n");
+		sb.append("        };\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    @Override public String toString() {\n");
+		sb.append("        return toList().toString();\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,215 @@
+package asg.asts;
+
+public class TemplatePrimitiveList {
+
+	/**
+	 * the name of the base class for lists of the given primitive type, e.g. AsgIntList
+	 */
+	public static String className(String primitiveType) {
+		return "Asg" + Character.toUpperCase(primitiveType.charAt(0)) + primitiveType.substring(1) + "List";
+	}
+
+	/**
+	 * @param p the primitive item type
+	 * @param trackReads whether reads of the list are recorded by calling other_recordRead
+	 * @param journaled whether changes are recorded in the Journal
+	 */
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, String p, boolean trackReads, boolean journaled) {
+		String E = commonSupertypeName;
+		String P = Character.toUpperCase(p.charAt(0)) + p.substring(1);
+		String name = className(p);
+		String read = trackReads ? "other_recordRead(); " : "";
+		String readLine = trackReads ? "        other_recordRead();\n" : "";
+		String record = "        if (Journal.recording) Journal.propertyChanged((" + E + ") this, ";
+		sb.append("/**\n");
+		sb.append(" * A list of ").append(p).append(" values, which are stored unboxed in an array.\n");
+		sb.append(" * The values are not elements, so as an element the list has no children and length() is the number of values.\n");
+		sb.append(" * Every change is reported to tree listeners as valuesChanged, without the old values.\n");
+		sb.append(" */\n");
+		sb.append("abstract class ").append(name).append(" {\n");
+		sb.append("    private static final ").append(p).append("[] EMPTY = {};\n");
+		if (journaled) {
+			sb.append("    // slots of the changes in the Journal, properties and fields have slots >= 0\n");
+			sb.append("    // each change records only its position and the removed values, so undoing it does not copy the list\n");
+			sb.append("    static final int APPENDED = -1, REPLACED = -2, INSERTED = -3, REMOVED = -4, CLEARED = -5;\n");
+		}
+		sb.append("\n");
+		sb.append("    private ").append(p).append("[] items = EMPTY;\n");
+		sb.append("    private int length;\n");
+		sb.append("\n");
+		sb.append("    abstract protected void other_changed();\n");
+		if (trackReads) {
+			sb.append("    abstract protected void other_recordRead();\n");
+		}
+		sb.append("\n");
+		sb.append("    public int length() { ").append(read).append("return length; }\n");
+		sb.append("    public boolean isEmpty() { return length() == 0; }\n");
+		sb.append("\n");
+		sb.append("    public ").append(p).append(" get").append(P).append("(int index) {\n");
+		sb.append("        Objects.checkIndex(index, length);\n");
+		sb.append(readLine);
+		sb.append("        return items[index];\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** replaces the value at the given index and returns the old value */\n");
+		sb.append("    public ").append(p).append(" set").append(P).append("(int index, ").append(p).append(" value) {\n");
+		sb.append("        Objects.checkIndex(index, length);\n");
+		sb.append("        ").append(p).append(" old = items[index];\n");
+		if (journaled) {
+			sb.append(record).append("REPLACED, new Object[] {index, old});\n");
+		}
+		sb.append("        items[index] = value;\n");
+		sb.append("        changed(index, 1, 1);\n");
+		sb.append("        return old;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public void add(").append(p).append(" value) {\n");
+		if (journaled) {
+			sb.append(record).append("APPENDED, 1);\n");
+		}
+		sb.append("        if (length == items.length) grow(length + 1);\n");
+		sb.append("        items[length++] = value;\n");
+		sb.append("        changed(length - 1, 0, 1);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public void add(int index, ").append(p).append(" value) {\n");
+		sb.append("        Objects.checkIndex(index, length + 1);\n");
+		if (journaled) {
+			sb.append(record).append("INSERTED, index);\n");
+		}
+		sb.append("        if (length == items.length) grow(length + 1);\n");
+		sb.append("        System.arraycopy(items, index, items, index + 1, length - index);\n");
+		sb.append("        items[index] = value;\n");
+		sb.append("        length++;\n");
+		sb.append("        changed(index, 0, 1);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public void addAll(").append(p).append("... values) {\n");
+		sb.append("        if (values.length == 0) return;\n");
+		if (journaled) {
+			sb.append(record).append("APPENDED, values.length);\n");
+		}
+		sb.append("        if (length + values.length > items.length) grow(length + values.length);\n");
+		sb.append("        System.arraycopy(values, 0, items, length, values.length);\n");
+		sb.append("        length += values.length;\n");
+		sb.append("        changed(length - values.length, 0, values.length);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** removes the value at the given index and returns it */\n");
+		sb.append("    public ").append(p).append(" removeAt(int index) {\n");
+		sb.append("        Objects.checkIndex(index, length);\n");
+		sb.append("        ").append(p).append(" old = items[index];\n");
+		if (journaled) {
+			sb.append(record).append("REMOVED, new Object[] {index, old});\n");
+		}
+		sb.append("        System.arraycopy(items, index + 1, items, index, length - index - 1);\n");
+		sb.append("        length--;\n");
+		sb.append("        changed(index, 1, 0);\n");
+		sb.append("        return old;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public void clear() {\n");
+		sb.append("        if (length == 0) return;\n");
+		sb.append("        int removed = length;\n");
+		if (journaled) {
+			sb.append("        if (Journal.recording) {\n");
+			sb.append("            // the journal keeps the array, so that clearing does not copy the values\n");
+			sb.append("            Journal.propertyChanged((").append(E).append(") this, CLEARED, new Object[] {items, length});\n");
+			sb.append("            items = EMPTY;\n");
+			sb.append("        }\n");
+		}
+		sb.append("        length = 0;\n");
+		sb.append("        changed(0, removed, 0);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public int indexOf(").append(p).append(" value) {\n");
+		sb.append(readLine);
+		sb.append("        for (int i = 0; i < length; i++) {\n");
+		sb.append("            if (items[i] == value) return i;\n");
+		sb.append("        }\n");
+		sb.append("        return -1;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public boolean contains(").append(p).append(" value) { return indexOf(value) >= 0; }\n");
+		sb.append("\n");
+		sb.append("    public ").append(p).append("[] to").append(P).append("Array() {\n");
+		sb.append(readLine);
+		sb.append("        return Arrays.copyOf(items, length);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public void trimToSize() {\n");
+		sb.append("        if (items.length > length) items = length == 0 ? EMPTY : Arrays.copyOf(items, length);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private void grow(int minCapacity) {\n");
+		sb.append("        items = Arrays.copyOf(items, Math.max(minCapacity, Math.max(10, length + (length >> 1))));\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the removed values from index were replaced by the added values */\n");
+		sb.append("    private void changed(int index, int removed, int added) {\n");
+		sb.append("        other_changed();\n");
+		sb.append("        if (TreeListeners.attached != 0) TreeListeners.valuesChanged(this, index, removed, added);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		if (journaled) {
+			sb.append("    /** undoes a change recorded in the Journal */\n");
+			sb.append("    void zzundoItems(int slot, Object old) {\n");
+			sb.append("        switch (slot) {\n");
+			sb.append("            case APPENDED -> {\n");
+			sb.append("                int count = (int) old;\n");
+			sb.append("                length -= count;\n");
+			sb.append("                changed(length, count, 0);\n");
+			sb.append("            }\n");
+			sb.append("            case REPLACED -> set").append(P).append("((int) ((Object[]) old)[0], (").append(p).append(") ((Object[]) old)[1]);\n");
+			sb.append("            case INSERTED -> removeAt((int) old);\n");
+			sb.append("            case REMOVED -> add((int) ((Object[]) old)[0], (").append(p).append(") ((Object[]) old)[1]);\n");
+			sb.append("            case CLEARED -> {\n");
+			sb.append("                // later changes are undone already, so the list is empty\n");
+			sb.append("                items = (").append(p).append("[]) ((Object[]) old)[0];\n");
+			sb.append("                length = (int) ((Object[]) old)[1];\n");
+			sb.append("                changed(0, 0, length);\n");
+			sb.append("            }\n");
+			sb.append("            default -> throw new IllegalArgumentException(\"Unknown slot \" + slot);\n");
+			sb.append("        }\n");
+			sb.append("    }\n");
+			sb.append("\n");
+		}
+		sb.append("    // ---------- element methods, the values are not children ----------\n");
+		sb.append("    public int size() { return 0; }\n");
+		sb.append("\n");
+		sb.append("    public ").append(E).append(" get(int i) {\n");
+		sb.append("        throw new IllegalArgumentException(\"Index out of range: \" + i);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public ").append(E).append(" set(int i, ").append(E).append(" newElement) {\n");
+		sb.append("        throw new IllegalArgumentException(\"Index out of range: \" + i);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public void forEachElement(java.util.function.Consumer<? super ").append(E).append("> action) {\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** whether both lists contain the same values, the list types are compared by the subclasses */\n");
+		sb.append("    boolean zzitemsEqual(").append(name).append(" o) {\n");
+		sb.append(readLine);
+		sb.append("        return Arrays.equals(items, 0, length, o.items, 0, o.length);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    public abstract boolean structuralEquals(").append(E).append(" e);\n");
+		sb.append("\n");
+		sb.append("    public boolean zzstructuralEquals(").append(E).append(" e, int depth, IterativeTraversal.Pending pending) {\n");
+		sb.append("        return structuralEquals(e);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the hash of the values, starting with the hash of the list type */\n");
+		sb.append("    int zzitemsHash(int typeHash) {\n");
+		sb.append(readLine);
+		sb.append("        int h = typeHash;\n");
+		sb.append("        for (int i = 0; i < length; i++) {\n");
+		sb.append("            h = 31 * h + ").append(JavaTypes.boxedType(p)).append(".hashCode(items[i]);\n");
+		sb.append("        }\n");
+		sb.append("        return h;\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,222 @@
+package asg.asts;
+
+public class TemplateRewriter {
+
+	/**
+	 * writes the driver of the rewriter,
+	 * the generated code adds the rules, the Rules matcher and isRefList
+	 */
+	public static void writeTo(StringBuilder sb, String commonSupertypeName) {
+		String E = commonSupertypeName;
+		sb.append("    private final Rules rules = new Rules();\n");
+		sb.append("    private ").append(E).append(" root;\n");
+		sb.append("    // elements, which changed after their visit started and have to be visited again\n");
+		sb.append("    private Set<").append(E).append("> dirty;\n");
+		sb.append("    // elements, which were added to the tree by a change and are not visited yet\n");
+		sb.append("    private Set<").append(E).append("> fresh;\n");
+		sb.append("    private final ArrayDeque<").append(E).append("> worklist = new ArrayDeque<>();\n");
+		sb.append("    private long nodesVisited;\n");
+		sb.append("    private long rulesFired;\n");
+		sb.append("    // whether a child of an element, which is visited, is replaced by the rewriter\n");
+		sb.append("    private boolean replacingChild;\n");
+		sb.append("\n");
+		sb.append("    private final TreeListener listener = new TreeListener() {\n");
+		sb.append("        @Override public void childReplaced(").append(E).append(" parent, int index, ").append(E).append(" oldChild, ").append(E).append(" newChild) {\n");
+		sb.append("            if (replacingChild) return;\n");
+		sb.append("            fresh.add(newChild);\n");
+		sb.append("            changed(parent);\n");
+		sb.append("        }\n");
+		sb.append("        @Override public void propertyChanged(").append(E).append(" element, String property, Object oldValue, Object newValue) {\n");
+		sb.append("            changed(element);\n");
+		sb.append("        }\n");
+		sb.append("        @Override public void listInserted(").append(E).append(" list, int index, ").append(E).append(" element) {\n");
+		sb.append("            fresh.add(element);\n");
+		sb.append("            changed(list);\n");
+		sb.append("        }\n");
+		sb.append("        @Override public void listRemoved(").append(E).append(" list, int index, ").append(E).append(" element) {\n");
+		sb.append("            changed(list);\n");
+		sb.append("        }\n");
+		sb.append("        @Override public void listReplaced(").append(E).append(" list, int index, ").append(E).append(" oldElement, ").append(E).append(" newElement) {\n");
+		sb.append("            if (replacingChild) return;\n");
+		sb.append("            fresh.add(newElement);\n");
+		sb.append("            changed(list);\n");
+		sb.append("        }\n");
+		sb.append("        @Override public void listContentsChanged(").append(E).append(" list, List<?> oldElements) {\n");
+		sb.append("            Set<Object> old = Collections.newSetFromMap(new IdentityHashMap<>());\n");
+		sb.append("            old.addAll(oldElements);\n");
+		sb.append("            for (int i = 0; i < list.size(); i++) {\n");
+		sb.append("                if (!old.contains(list.get(i))) fresh.add(list.get(i));\n");
+		sb.append("            }\n");
+		sb.append("            changed(list);\n");
+		sb.append("        }\n");
+		sb.append("        @Override public void valuesChanged(").append(E).append(" list, int index, int removed, int added) {\n");
+		sb.append("            changed(list);\n");
+		sb.append("        }\n");
+		sb.append("    };\n");
+		sb.append("\n");
+		sb.append("    private void changed(").append(E).append(" e) {\n");
+		sb.append("        if (dirty.add(e)) worklist.push(e);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /**\n");
+		sb.append("     * Applies the rules bottom-up to all elements of the tree, until no rule changes the tree any more,\n");
+		sb.append("     * and returns the new root. Changes made by the rules are reported to the rewriter with a TreeListener, so that\n");
+		sb.append("     * only the changed elements, the added elements and the ancestors of replaced elements are visited again.\n");
+		sb.append("     */\n");
+		sb.append("    public ").append(E).append(" rewrite(").append(E).append(" root) {\n");
+		sb.append("        this.root = root;\n");
+		sb.append("        dirty = Collections.newSetFromMap(new IdentityHashMap<>());\n");
+		sb.append("        fresh = Collections.newSetFromMap(new IdentityHashMap<>());\n");
+		sb.append("        nodesVisited = 0;\n");
+		sb.append("        rulesFired = 0;\n");
+		sb.append("        root.addTreeListener(listener);\n");
+		sb.append("        try {\n");
+		sb.append("            visit(root, true);\n");
+		sb.append("            while (!worklist.isEmpty()) {\n");
+		sb.append("                ").append(E).append(" e = worklist.pop();\n");
+		sb.append("                // skip elements, which were visited again or removed from the tree\n");
+		sb.append("                if (!dirty.remove(e) || e != this.root && !this.root.isAncestorOf(e)) continue;\n");
+		sb.append("                visit(e, false);\n");
+		sb.append("            }\n");
+		sb.append("            return this.root;\n");
+		sb.append("        } finally {\n");
+		sb.append("            this.root.removeTreeListener(listener);\n");
+		sb.append("            worklist.clear();\n");
+		sb.append("            dirty = null;\n");
+		sb.append("            fresh = null;\n");
+		sb.append("            this.root = null;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the number of elements visited in the last call of rewrite, elements visited again after a change count again */\n");
+		sb.append("    public long getNodesVisited() {\n");
+		sb.append("        return nodesVisited;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the number of rule applications, which changed the tree, in the last call of rewrite */\n");
+		sb.append("    public long getRulesFired() {\n");
+		sb.append("        return rulesFired;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /**\n");
+		sb.append("     * rewrites the subtree of start in post-order, without recursion.\n");
+		sb.append("     * A complete visit goes to all children, otherwise only to the dirty and fresh children.\n");
+		sb.append("     */\n");
+		sb.append("    private void visit(").append(E).append(" start, boolean complete) {\n");
+		sb.append("        ").append(E).append("[] path = new ").append(E).append("[64];\n");
+		sb.append("        int[] nextChild = new int[64];\n");
+		sb.append("        int[] childCount = new int[64];\n");
+		sb.append("        boolean[] completely = new boolean[64];\n");
+		sb.append("        boolean[] applied = new boolean[64];\n");
+		sb.append("        int depth = 0;\n");
+		sb.append("        path[depth] = start;\n");
+		sb.append("        childCount[depth] = childCount(start);\n");
+		sb.append("        completely[depth] = complete;\n");
+		sb.append("        depth++;\n");
+		sb.append("        while (depth > 0) {\n");
+		sb.append("            ").append(E).append(" e = path[depth - 1];\n");
+		sb.append("            int i = nextChild[depth - 1];\n");
+		sb.append("            if (!dirty.isEmpty()) {\n");
+		sb.append("                // e might have changed\n");
+		sb.append("                childCount[depth - 1] = childCount(e);\n");
+		sb.append("            }\n");
+		sb.append("            if (i < childCount[depth - 1]) {\n");
+		sb.append("                nextChild[depth - 1] = i + 1;\n");
+		sb.append("                ").append(E).append(" child = e.get(i);\n");
+		sb.append("                if (child == null) continue;\n");
+		sb.append("                boolean childComplete = true;\n");
+		sb.append("                if (!completely[depth - 1]) {\n");
+		sb.append("                    if (fresh.remove(child)) {\n");
+		sb.append("                        childComplete = true;\n");
+		sb.append("                    } else if (dirty.remove(child)) {\n");
+		sb.append("                        childComplete = false;\n");
+		sb.append("                    } else {\n");
+		sb.append("                        continue;\n");
+		sb.append("                    }\n");
+		sb.append("                }\n");
+		sb.append("                if (depth == path.length) {\n");
+		sb.append("                    path = Arrays.copyOf(path, depth * 2);\n");
+		sb.append("                    nextChild = Arrays.copyOf(nextChild, depth * 2);\n");
+		sb.append("                    childCount = Arrays.copyOf(childCount, depth * 2);\n");
+		sb.append("                    completely = Arrays.copyOf(completely, depth * 2);\n");
+		sb.append("                    applied = Arrays.copyOf(applied, depth * 2);\n");
+		sb.append("                }\n");
+		sb.append("                path[depth] = child;\n");
+		sb.append("                nextChild[depth] = 0;\n");
+		sb.append("                childCount[depth] = childCount(child);\n");
+		sb.append("                completely[depth] = childComplete;\n");
+		sb.append("                applied[depth] = false;\n");
+		sb.append("                depth++;\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            if (!dirty.isEmpty() && dirty.remove(e)) {\n");
+		sb.append("                // e changed during its visit, look at the new children\n");
+		sb.append("                nextChild[depth - 1] = 0;\n");
+		sb.append("                childCount[depth - 1] = childCount(e);\n");
+		sb.append("                completely[depth - 1] = false;\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            if (!applied[depth - 1]) {\n");
+		sb.append("                applied[depth - 1] = true;\n");
+		sb.append("                nodesVisited++;\n");
+		sb.append("                ").append(E).append(" r = Objects.requireNonNull(e.match(rules), \"A rule returned null.\");\n");
+		sb.append("                if (r != e) {\n");
+		sb.append("                    rulesFired++;\n");
+		sb.append("                    replace(e, r, depth > 1 ? path[depth - 2] : null, depth > 1 ? nextChild[depth - 2] - 1 : -1);\n");
+		sb.append("                    // visit the replacement completely at the same place\n");
+		sb.append("                    path[depth - 1] = r;\n");
+		sb.append("                    nextChild[depth - 1] = 0;\n");
+		sb.append("                    childCount[depth - 1] = childCount(r);\n");
+		sb.append("                    completely[depth - 1] = true;\n");
+		sb.append("                    applied[depth - 1] = false;\n");
+		sb.append("                } else if (!dirty.isEmpty() && dirty.contains(e)) {\n");
+		sb.append("                    // the rule changed e in place, the rule is not applied to e again\n");
+		sb.append("                    rulesFired++;\n");
+		sb.append("                }\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            path[--depth] = null;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static int childCount(").append(E).append(" e) {\n");
+		sb.append("        return isRefList(e) ? 0 : e.size();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** replaces e by r in parent, where index is the position, at which e was found */\n");
+		sb.append("    private void replace(").append(E).append(" e, ").append(E).append(" r, ").append(E).append(" parent, int index) {\n");
+		sb.append("        if (parent == null) {\n");
+		sb.append("            parent = e.getParent();\n");
+		sb.append("            index = e.getIndexInParent();\n");
+		sb.append("            if (e == root) {\n");
+		sb.append("                root.removeTreeListener(listener);\n");
+		sb.append("                root = r;\n");
+		sb.append("                root.addTreeListener(listener);\n");
+		sb.append("                if (parent == null) return;\n");
+		sb.append("            }\n");
+		sb.append("            // the parent is not part of the visit and has to be visited again\n");
+		sb.append("            parent.set(index, r);\n");
+		sb.append("            fresh.remove(r);\n");
+		sb.append("            return;\n");
+		sb.append("        }\n");
+		sb.append("        if (index >= parent.size() || parent.get(index) != e) {\n");
+		sb.append("            // a rule moved the siblings of e\n");
+		sb.append("            index = -1;\n");
+		sb.append("            for (int i = 0; i < parent.size(); i++) {\n");
+		sb.append("                if (parent.get(i) == e) index = i;\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("        if (index < 0) {\n");
+		sb.append("            throw new IllegalStateException(\"The rule for \" + e + \" removed it from its parent.\");\n");
+		sb.append("        }\n");
+		sb.append("        // the parent is visited after the replacement, so the change is not reported\n");
+		sb.append("        replacingChild = true;\n");
+		sb.append("        try {\n");
+		sb.append("            parent.set(index, r);\n");
+		sb.append("        } finally {\n");
+		sb.append("            replacingChild = false;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+	}
+
+}
@@ -0,0 +1,142 @@
+package asg.asts;
+
+public class TemplateTreeListeners {
+
+	public static void writeListenerTo(StringBuilder sb, String commonSupertypeName) {
+		String E = commonSupertypeName;
+		sb.append("/**\n");
+		sb.append(" * Receives the changes of the subtree of every element it is attached to with ").append(E).append(".addTreeListener.\n");
+		sb.append(" * The methods are called after the change.\n");
+		sb.append(" */\n");
+		sb.append("public interface TreeListener {\n");
+		sb.append("    /** the child at the given position of parent was replaced by a setter */\n");
+		sb.append("    default void childReplaced(").append(E).append(" parent, int index, ").append(E).append(" oldChild, ").append(E).append(" newChild) {}\n");
+		sb.append("\n");
+		sb.append("    /** a property, which is not a child, or a field was changed by a setter */\n");
+		sb.append("    default void propertyChanged(").append(E).append(" element, String property, Object oldValue, Object newValue) {}\n");
+		sb.append("\n");
+		sb.append("    default void listInserted(").append(E).append(" list, int index, ").append(E).append(" element) {}\n");
+		sb.append("\n");
+		sb.append("    default void listRemoved(").append(E).append(" list, int index, ").append(E).append(" element) {}\n");
+		sb.append("\n");
+		sb.append("    default void listReplaced(").append(E).append(" list, int index, ").append(E).append(" oldElement, ").append(E).append(" newElement) {}\n");
+		sb.append("\n");
+		sb.append("    /** many elements of the list were changed, oldElements are the elements before the change */\n");
+		sb.append("    default void listContentsChanged(").append(E).append(" list, List<?> oldElements) {}\n");
+		sb.append("\n");
+		sb.append("    /** in a list of primitive values, the removed values from index were replaced by the added values */\n");
+		sb.append("    default void valuesChanged(").append(E).append(" list, int index, int removed, int added) {}\n");
+		sb.append("}\n");
+	}
+
+	public static void writeTo(StringBuilder sb, String commonSupertypeName) {
+		String E = commonSupertypeName;
+		sb.append("/**\n");
+		sb.append(" * Reports changes to the tree listeners. The listeners are stored in the element they are attached to,\n");
+		sb.append(" * so there is no shared registry: a tree, which is no longer used, is collected with its listeners.\n");
+		sb.append(" * Changes first check the number of elements with listeners, so they cost nothing else while no listener is attached.\n");
+		sb.append(" * Otherwise each change walks up to the root and reports it to the listeners of all ancestors.\n");
+		sb.append(" * Listeners can be added and removed by several threads, but like any change of a tree,\n");
+		sb.append(" * the changes of one tree must be made by one thread at a time.\n");
+		sb.append(" */\n");
+		sb.append("final class TreeListeners {\n");
+		sb.append("    /** the number of elements with listeners */\n");
+		sb.append("    static volatile int attached = 0;\n");
+		sb.append("\n");
+		sb.append("    private TreeListeners() {}\n");
+		sb.append("\n");
+		sb.append("    // the listeners of an element are replaced on every change, so that a change can be reported while listeners are added\n");
+		sb.append("    static synchronized void add(").append(E).append(" e, TreeListener listener) {\n");
+		sb.append("        TreeListener[] old = e.zzgetTreeListeners();\n");
+		sb.append("        if (old == null) {\n");
+		sb.append("            e.zzsetTreeListeners(new TreeListener[] {listener});\n");
+		sb.append("            attached++;\n");
+		sb.append("        } else {\n");
+		sb.append("            TreeListener[] listeners = Arrays.copyOf(old, old.length + 1);\n");
+		sb.append("            listeners[old.length] = listener;\n");
+		sb.append("            e.zzsetTreeListeners(listeners);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static synchronized void remove(").append(E).append(" e, TreeListener listener) {\n");
+		sb.append("        TreeListener[] old = e.zzgetTreeListeners();\n");
+		sb.append("        if (old == null) return;\n");
+		sb.append("        for (int i = 0; i < old.length; i++) {\n");
+		sb.append("            if (!old[i].equals(listener)) continue;\n");
+		sb.append("            if (old.length == 1) {\n");
+		sb.append("                e.zzsetTreeListeners(null);\n");
+		sb.append("                attached--;\n");
+		sb.append("            } else {\n");
+		sb.append("                TreeListener[] listeners = new TreeListener[old.length - 1];\n");
+		sb.append("                System.arraycopy(old, 0, listeners, 0, i);\n");
+		sb.append("                System.arraycopy(old, i + 1, listeners, i, old.length - i - 1);\n");
+		sb.append("                e.zzsetTreeListeners(listeners);\n");
+		sb.append("            }\n");
+		sb.append("            return;\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void childReplaced(").append(E).append(" parent, int index, ").append(E).append(" oldChild, ").append(E).append(" newChild) {\n");
+		sb.append("        for (").append(E).append(" e = parent; e != null; e = e.getParent()) {\n");
+		sb.append("            TreeListener[] listeners = e.zzgetTreeListeners();\n");
+		sb.append("            if (listeners == null) continue;\n");
+		sb.append("            for (TreeListener listener : listeners) listener.childReplaced(parent, index, oldChild, newChild);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void propertyChanged(").append(E).append(" element, String property, Object oldValue, Object newValue) {\n");
+		sb.append("        for (").append(E).append(" e = element; e != null; e = e.getParent()) {\n");
+		sb.append("            TreeListener[] listeners = e.zzgetTreeListeners();\n");
+		sb.append("            if (listeners == null) continue;\n");
+		sb.append("            for (TreeListener listener : listeners) listener.propertyChanged(element, property, oldValue, newValue);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void listInserted(Object list, int index, Object element) {\n");
+		sb.append("        ").append(E).append(" l = (").append(E).append(") list;\n");
+		sb.append("        for (").append(E).append(" e = l; e != null; e = e.getParent()) {\n");
+		sb.append("            TreeListener[] listeners = e.zzgetTreeListeners();\n");
+		sb.append("            if (listeners == null) continue;\n");
+		sb.append("            for (TreeListener listener : listeners) listener.listInserted(l, index, (").append(E).append(") element);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void listRemoved(Object list, int index, Object element) {\n");
+		sb.append("        ").append(E).append(" l = (").append(E).append(") list;\n");
+		sb.append("        for (").append(E).append(" e = l; e != null; e = e.getParent()) {\n");
+		sb.append("            TreeListener[] listeners = e.zzgetTreeListeners();\n");
+		sb.append("            if (listeners == null) continue;\n");
+		sb.append("            for (TreeListener listener : listeners) listener.listRemoved(l, index, (").append(E).append(") element);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void listReplaced(Object list, int index, Object oldElement, Object newElement) {\n");
+		sb.append("        ").append(E).append(" l = (").append(E).append(") list;\n");
+		sb.append("        for (").append(E).append(" e = l; e != null; e = e.getParent()) {\n");
+		sb.append("            TreeListener[] listeners = e.zzgetTreeListeners();\n");
+		sb.append("            if (listeners == null) continue;\n");
+		sb.append("            for (TreeListener listener : listeners) listener.listReplaced(l, index, (").append(E).append(") oldElement, (").append(E).append(") newElement);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void listContentsChanged(Object list, List<?> oldElements) {\n");
+		sb.append("        ").append(E).append(" l = (").append(E).append(") list;\n");
+		sb.append("        for (").append(E).append(" e = l; e != null; e = e.getParent()) {\n");
+		sb.append("            TreeListener[] listeners = e.zzgetTreeListeners();\n");
+		sb.append("            if (listeners == null) continue;\n");
+		sb.append("            for (TreeListener listener : listeners) listener.listContentsChanged(l, oldElements);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static void valuesChanged(Object list, int index, int removed, int added) {\n");
+		sb.append("        ").append(E).append(" l = (").append(E).append(") list;\n");
+		sb.append("        for (").append(E).append(" e = l; e != null; e = e.getParent()) {\n");
+		sb.append("            TreeListener[] listeners = e.zzgetTreeListeners();\n");
+		sb.append("            if (listeners == null) continue;\n");
+		sb.append("            for (TreeListener listener : listeners) listener.valuesChanged(l, index, removed, added);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,80 @@
+package asg.asts;
+
+public class TemplateTreeNumbering {
+
+	/**
+	 * @param isRefList the condition, whether the element e is a list of refs, whose elements are not numbered
+	 */
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, String isRefList) {
+		String E = commonSupertypeName;
+		sb.append("/**\n");
+		sb.append(" * Numbers the elements of a tree in pre-order and in post-order.\n");
+		sb.append(" * An element a is an ancestor of b, if a comes before b in pre-order and after b in post-order.\n");
+		sb.append(" * The numbers are only used while the numbering is valid: moving any numbered element to a new parent\n");
+		sb.append(" * invalidates the numbering of its tree.\n");
+		sb.append(" */\n");
+		sb.append("final class TreeNumbering {\n");
+		sb.append("    private boolean valid = true;\n");
+		sb.append("\n");
+		sb.append("    private TreeNumbering() {}\n");
+		sb.append("\n");
+		sb.append("    /** called when a numbered element gets or loses its parent */\n");
+		sb.append("    void invalidate() {\n");
+		sb.append("        valid = false;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** numbers all elements of the tree, without recursion */\n");
+		sb.append("    static void number(").append(E).append(" root) {\n");
+		sb.append("        TreeNumbering numbering = new TreeNumbering();\n");
+		sb.append("        // path to the current element, the index of the next child and the pre-order number on each level\n");
+		sb.append("        ").append(E).append("[] elements = new ").append(E).append("[64];\n");
+		sb.append("        int[] nextChild = new int[64];\n");
+		sb.append("        int[] pre = new int[64];\n");
+		sb.append("        int depth = 0;\n");
+		sb.append("        int preCount = 0;\n");
+		sb.append("        int postCount = 0;\n");
+		sb.append("        elements[depth] = root;\n");
+		sb.append("        pre[depth] = preCount++;\n");
+		sb.append("        depth++;\n");
+		sb.append("        while (depth > 0) {\n");
+		sb.append("            ").append(E).append(" e = elements[depth - 1];\n");
+		sb.append("            int i = nextChild[depth - 1];\n");
+		sb.append("            if (i < childCount(e)) {\n");
+		sb.append("                nextChild[depth - 1] = i + 1;\n");
+		sb.append("                if (depth == elements.length) {\n");
+		sb.append("                    elements = Arrays.copyOf(elements, depth * 2);\n");
+		sb.append("                    nextChild = Arrays.copyOf(nextChild, depth * 2);\n");
+		sb.append("                    pre = Arrays.copyOf(pre, depth * 2);\n");
+		sb.append("                }\n");
+		sb.append("                elements[depth] = e.get(i);\n");
+		sb.append("                nextChild[depth] = 0;\n");
+		sb.append("                pre[depth] = preCount++;\n");
+		sb.append("                depth++;\n");
+		sb.append("                continue;\n");
+		sb.append("            }\n");
+		sb.append("            depth--;\n");
+		sb.append("            elements[depth] = null;\n");
+		sb.append("            e.zzsetNumbering(numbering, pre[depth], postCount++);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** refs in lists are not children */\n");
+		sb.append("    private static int childCount(").append(E).append(" e) {\n");
+		sb.append("        return ").append(isRefList).append(" ? 0 : e.size();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** whether a is a proper ancestor of e */\n");
+		sb.append("    static boolean isAncestorOf(").append(E).append(" a, ").append(E).append(" e) {\n");
+		sb.append("        TreeNumbering numbering = a.zzgetNumbering();\n");
+		sb.append("        if (numbering != null && numbering.valid && e.zzgetNumbering() == numbering) {\n");
+		sb.append("            return a.zzgetPre() < e.zzgetPre() && e.zzgetPost() < a.zzgetPost();\n");
+		sb.append("        }\n");
+		sb.append("        for (").append(E).append(" p = e.getParent(); p != null; p = p.getParent()) {\n");
+		sb.append("            if (p == a) return true;\n");
+		sb.append("        }\n");
+		sb.append("        return false;\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
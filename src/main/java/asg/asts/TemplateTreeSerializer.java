@@ -0,0 +1,269 @@
+package asg.asts;
+
+/**
+ * The parts of the generated TreeSerializer, which do not depend on the specification.
+ * The generated class adds the methods readNode and childCount.
+ */
+public class TemplateTreeSerializer {
+
+	public static void writeTo(StringBuilder sb, String commonSupertypeName) {
+		String E = commonSupertypeName;
+		sb.append("    private TreeSerializer() {}\n");
+		sb.append("\n");
+		sb.append("    static final int MAGIC = 0x41534754;\n");
+		sb.append("\n");
+		sb.append("    // -------- writing ----------\n");
+		sb.append("    static void write(").append(E).append(" root, java.io.DataOutput out) throws java.io.IOException {\n");
+		sb.append("        // refs are written as preorder numbers, so all elements have to be numbered first\n");
+		sb.append("        IdentityHashMap<").append(E).append(", Integer> preorder = new IdentityHashMap<>();\n");
+		sb.append("        List<").append(E).append("> elements = preOrder(root);\n");
+		sb.append("        for (int i = 0; i < elements.size(); i++) {\n");
+		sb.append("            // interned elements can appear several times, refs point to the first occurrence\n");
+		sb.append("            preorder.putIfAbsent(elements.get(i), i);\n");
+		sb.append("        }\n");
+		sb.append("        Writer w = new Writer(out, preorder);\n");
+		sb.append("        out.writeInt(MAGIC);\n");
+		sb.append("        out.writeInt(SPEC_HASH);\n");
+		sb.append("        w.writeVarInt(elements.size());\n");
+		sb.append("        // children are written before their parents, so that the reader can create them first\n");
+		sb.append("        ").append(E).append("[] path = new ").append(E).append("[64];\n");
+		sb.append("        int[] nextChild = new int[64];\n");
+		sb.append("        int depth = 0;\n");
+		sb.append("        path[depth++] = root;\n");
+		sb.append("        while (depth > 0) {\n");
+		sb.append("            ").append(E).append(" e = path[depth - 1];\n");
+		sb.append("            int i = nextChild[depth - 1];\n");
+		sb.append("            if (i < childCount(e)) {\n");
+		sb.append("                nextChild[depth - 1] = i + 1;\n");
+		sb.append("                if (depth == path.length) {\n");
+		sb.append("                    path = Arrays.copyOf(path, depth * 2);\n");
+		sb.append("                    nextChild = Arrays.copyOf(nextChild, depth * 2);\n");
+		sb.append("                }\n");
+		sb.append("                path[depth] = e.get(i);\n");
+		sb.append("                nextChild[depth] = 0;\n");
+		sb.append("                depth++;\n");
+		sb.append("            } else {\n");
+		sb.append("                path[--depth] = null;\n");
+		sb.append("                e.zzwrite(w);\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the elements of the tree in preorder, without the targets of ref lists */\n");
+		sb.append("    private static List<").append(E).append("> preOrder(").append(E).append(" root) {\n");
+		sb.append("        List<").append(E).append("> result = new ArrayList<>();\n");
+		sb.append("        ArrayDeque<").append(E).append("> stack = new ArrayDeque<>();\n");
+		sb.append("        stack.push(root);\n");
+		sb.append("        while (!stack.isEmpty()) {\n");
+		sb.append("            ").append(E).append(" e = stack.pop();\n");
+		sb.append("            result.add(e);\n");
+		sb.append("            for (int i = childCount(e) - 1; i >= 0; i--) {\n");
+		sb.append("                stack.push(e.get(i));\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("        return result;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static final class Writer {\n");
+		sb.append("        private final java.io.DataOutput out;\n");
+		sb.append("        private final IdentityHashMap<").append(E).append(", Integer> preorder;\n");
+		sb.append("        private final HashMap<String, Integer> strings = new HashMap<>();\n");
+		sb.append("\n");
+		sb.append("        Writer(java.io.DataOutput out, IdentityHashMap<").append(E).append(", Integer> preorder) {\n");
+		sb.append("            this.out = out;\n");
+		sb.append("            this.preorder = preorder;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        void writeVarInt(int v) throws java.io.IOException {\n");
+		sb.append("            while ((v & ~0x7F) != 0) {\n");
+		sb.append("                out.writeByte((v & 0x7F) | 0x80);\n");
+		sb.append("                v >>>= 7;\n");
+		sb.append("            }\n");
+		sb.append("            out.writeByte(v);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        void writeVarLong(long v) throws java.io.IOException {\n");
+		sb.append("            while ((v & ~0x7FL) != 0) {\n");
+		sb.append("                out.writeByte((int) (v & 0x7F) | 0x80);\n");
+		sb.append("                v >>>= 7;\n");
+		sb.append("            }\n");
+		sb.append("            out.writeByte((int) v);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        // signed numbers are zigzag encoded, so that small negative numbers are short\n");
+		sb.append("        void writeInt(int v) throws java.io.IOException { writeVarInt((v << 1) ^ (v >> 31)); }\n");
+		sb.append("        void writeLong(long v) throws java.io.IOException { writeVarLong((v << 1) ^ (v >> 63)); }\n");
+		sb.append("        void writeShort(short v) throws java.io.IOException { writeInt(v); }\n");
+		sb.append("        void writeByte(byte v) throws java.io.IOException { out.writeByte(v); }\n");
+		sb.append("        void writeChar(char v) throws java.io.IOException { writeVarInt(v); }\n");
+		sb.append("        void writeBoolean(boolean v) throws java.io.IOException { out.writeBoolean(v); }\n");
+		sb.append("        void writeFloat(float v) throws java.io.IOException { out.writeFloat(v); }\n");
+		sb.append("        void writeDouble(double v) throws java.io.IOException { out.writeDouble(v); }\n");
+		sb.append("\n");
+		sb.append("        /** 0 for null, 1 followed by the string for a new string, otherwise 2 + the number of a string written before */\n");
+		sb.append("        void writeString(String s) throws java.io.IOException {\n");
+		sb.append("            if (s == null) {\n");
+		sb.append("                writeVarInt(0);\n");
+		sb.append("                return;\n");
+		sb.append("            }\n");
+		sb.append("            Integer id = strings.get(s);\n");
+		sb.append("            if (id != null) {\n");
+		sb.append("                writeVarInt(id + 2);\n");
+		sb.append("                return;\n");
+		sb.append("            }\n");
+		sb.append("            strings.put(s, strings.size());\n");
+		sb.append("            writeVarInt(1);\n");
+		sb.append("            byte[] bytes = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);\n");
+		sb.append("            writeVarInt(bytes.length);\n");
+		sb.append("            out.write(bytes);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** 0 for null, otherwise 1 + the preorder number of the target */\n");
+		sb.append("        void writeRef(").append(E).append(" target) throws java.io.IOException {\n");
+		sb.append("            if (target == null) {\n");
+		sb.append("                writeVarInt(0);\n");
+		sb.append("                return;\n");
+		sb.append("            }\n");
+		sb.append("            Integer i = preorder.get(target);\n");
+		sb.append("            if (i == null) {\n");
+		sb.append("                throw new IllegalStateException(\"Cannot write reference to \" + target.getClass().getSimpleName()\n");
+		sb.append("                    + \", which is not part of the written tree.\");\n");
+		sb.append("            }\n");
+		sb.append("            writeVarInt(i + 1);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // -------- reading ----------\n");
+		sb.append("    static ").append(E).append(" read(java.io.DataInput in) throws java.io.IOException {\n");
+		sb.append("        if (in.readInt() != MAGIC) {\n");
+		sb.append("            throw new java.io.IOException(\"Not a serialized tree.\");\n");
+		sb.append("        }\n");
+		sb.append("        if (in.readInt() != SPEC_HASH) {\n");
+		sb.append("            throw new java.io.IOException(\"The tree was written by code generated from a different specification.\");\n");
+		sb.append("        }\n");
+		sb.append("        Reader r = new Reader(in);\n");
+		sb.append("        int count = r.readVarInt();\n");
+		sb.append("        for (int i = 0; i < count; i++) {\n");
+		sb.append("            r.push(readNode(r.readVarInt(), r));\n");
+		sb.append("        }\n");
+		sb.append("        if (r.size != 1) {\n");
+		sb.append("            throw new java.io.IOException(\"Corrupted tree: \" + r.size + \" elements without parent.\");\n");
+		sb.append("        }\n");
+		sb.append("        ").append(E).append(" root = r.pop();\n");
+		sb.append("        if (!r.refs.isEmpty()) {\n");
+		sb.append("            List<").append(E).append("> elements = preOrder(root);\n");
+		sb.append("            for (int i = 0; i < r.refs.size(); i++) {\n");
+		sb.append("                int target = r.refTargets.get(i);\n");
+		sb.append("                if (target < 0 || target > elements.size()) {\n");
+		sb.append("                    throw new java.io.IOException(\"Corrupted tree: reference to element \" + target);\n");
+		sb.append("                }\n");
+		sb.append("                r.refs.get(i).accept(target == 0 ? null : elements.get(target - 1));\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("        return root;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static <T extends ").append(E).append("> T read(java.io.DataInput in, Class<T> type) throws java.io.IOException {\n");
+		sb.append("        ").append(E).append(" e = read(in);\n");
+		sb.append("        if (!type.isInstance(e)) {\n");
+		sb.append("            throw new java.io.IOException(\"Expected \" + type.getSimpleName() + \" but found \" + e.getClass().getSimpleName());\n");
+		sb.append("        }\n");
+		sb.append("        return type.cast(e);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    static class Reader {\n");
+		sb.append("        private final java.io.DataInput in;\n");
+		sb.append("        private final ArrayList<String> strings = new ArrayList<>();\n");
+		sb.append("        // elements, which do not have a parent yet\n");
+		sb.append("        private ").append(E).append("[] stack = new ").append(E).append("[64];\n");
+		sb.append("        private int size = 0;\n");
+		sb.append("        // refs are set when the whole tree is read\n");
+		sb.append("        final ArrayList<java.util.function.Consumer<").append(E).append(">> refs = new ArrayList<>();\n");
+		sb.append("        final ArrayList<Integer> refTargets = new ArrayList<>();\n");
+		sb.append("\n");
+		sb.append("        Reader(java.io.DataInput in) {\n");
+		sb.append("            this.in = in;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        void push(").append(E).append(" e) {\n");
+		sb.append("            if (size == stack.length) stack = Arrays.copyOf(stack, size * 2);\n");
+		sb.append("            stack[size++] = e;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        ").append(E).append(" pop() throws java.io.IOException {\n");
+		sb.append("            if (size == 0) throw new java.io.IOException(\"Corrupted tree: missing child element.\");\n");
+		sb.append("            ").append(E).append(" e = stack[--size];\n");
+		sb.append("            stack[size] = null;\n");
+		sb.append("            return e;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** removes the last n elements and adds them to the list in order */\n");
+		sb.append("        @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+		sb.append("        void popInto(List list, int n) throws java.io.IOException {\n");
+		sb.append("            if (n < 0 || n > size) throw new java.io.IOException(\"Corrupted tree: missing list element.\");\n");
+		sb.append("            for (int i = size - n; i < size; i++) {\n");
+		sb.append("                list.add(stack[i]);\n");
+		sb.append("                stack[i] = null;\n");
+		sb.append("            }\n");
+		sb.append("            size -= n;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** sets a reference, when the whole tree is read */\n");
+		sb.append("        void resolveLater(int target, java.util.function.Consumer<").append(E).append("> setter) {\n");
+		sb.append("            refTargets.add(target);\n");
+		sb.append("            refs.add(setter);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        int readVarInt() throws java.io.IOException {\n");
+		sb.append("            int result = 0;\n");
+		sb.append("            for (int shift = 0; shift < 35; shift += 7) {\n");
+		sb.append("                byte b = in.readByte();\n");
+		sb.append("                result |= (b & 0x7F) << shift;\n");
+		sb.append("                if (b >= 0) return result;\n");
+		sb.append("            }\n");
+		sb.append("            throw new java.io.IOException(\"Malformed varint.\");\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        long readVarLong() throws java.io.IOException {\n");
+		sb.append("            long result = 0;\n");
+		sb.append("            for (int shift = 0; shift < 70; shift += 7) {\n");
+		sb.append("                byte b = in.readByte();\n");
+		sb.append("                result |= (long) (b & 0x7F) << shift;\n");
+		sb.append("                if (b >= 0) return result;\n");
+		sb.append("            }\n");
+		sb.append("            throw new java.io.IOException(\"Malformed varint.\");\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        int readInt() throws java.io.IOException { int v = readVarInt(); return (v >>> 1) ^ -(v & 1); }\n");
+		sb.append("        long readLong() throws java.io.IOException { long v = readVarLong(); return (v >>> 1) ^ -(v & 1); }\n");
+		sb.append("        short readShort() throws java.io.IOException { return (short) readInt(); }\n");
+		sb.append("        byte readByte() throws java.io.IOException { return in.readByte(); }\n");
+		sb.append("        char readChar() throws java.io.IOException { return (char) readVarInt(); }\n");
+		sb.append("        boolean readBoolean() throws java.io.IOException { return in.readBoolean(); }\n");
+		sb.append("        float readFloat() throws java.io.IOException { return in.readFloat(); }\n");
+		sb.append("        double readDouble() throws java.io.IOException { return in.readDouble(); }\n");
+		sb.append("\n");
+		sb.append("        String readString() throws java.io.IOException {\n");
+		sb.append("            int id = readVarInt();\n");
+		sb.append("            if (id == 0) return null;\n");
+		sb.append("            if (id == 1) {\n");
+		sb.append("                int length = readVarInt();\n");
+		sb.append("                if (length < 0) throw new java.io.IOException(\"Corrupted tree: string of length \" + length);\n");
+		sb.append("                byte[] bytes = new byte[length];\n");
+		sb.append("                in.readFully(bytes);\n");
+		sb.append("                String s = new String(bytes, java.nio.charset.StandardCharsets.UTF_8);\n");
+		sb.append("                strings.add(s);\n");
+		sb.append("                return s;\n");
+		sb.append("            }\n");
+		sb.append("            return knownString(id - 2);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** the string with the given number, which was written before */\n");
+		sb.append("        String knownString(int id) throws java.io.IOException {\n");
+		sb.append("            if (id < 0 || id >= strings.size()) throw new java.io.IOException(\"Corrupted tree: unknown string \" + (id + 2));\n");
+		sb.append("            return strings.get(id);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+	}
+
+}
@@ -0,0 +1,271 @@
+package asg.asts;
+
+/**
+ * The parts of the generated TreeView, which do not depend on the specification.
+ * The generated class adds the methods scanNode and createView.
+ */
+public class TemplateTreeView {
+
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, boolean hasRefs) {
+		String E = commonSupertypeName;
+		String V = E + "View";
+		sb.append("    private final java.nio.ByteBuffer buffer;\n");
+		sb.append("    // elements are numbered in the order in which they were written (post-order)\n");
+		sb.append("    // position of the record of each element\n");
+		sb.append("    private final int[] offsets;\n");
+		sb.append("    private final int[] parents;\n");
+		sb.append("    // the children of element i are children[childStart[i]] .. children[childStart[i + 1] - 1]\n");
+		sb.append("    private final int[] childStart;\n");
+		sb.append("    private final int[] children;\n");
+		sb.append("    // position of each string in the string table\n");
+		sb.append("    private final int[] strings;\n");
+		sb.append("    // string table while the structure is read\n");
+		sb.append("    private int[] scannedStrings = new int[16];\n");
+		sb.append("    private int stringCount = 0;\n");
+		if (hasRefs) {
+			sb.append("    // element with the given preorder number, refs are written as preorder numbers\n");
+			sb.append("    private final int[] byPreorder;\n");
+		}
+		sb.append("\n");
+		sb.append("    /** maps the file into memory and reads the structure of the tree */\n");
+		sb.append("    public static TreeView open(java.nio.file.Path file) throws java.io.IOException {\n");
+		sb.append("        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file, java.nio.file.StandardOpenOption.READ)) {\n");
+		sb.append("            return new TreeView(channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size()));\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** reads the structure of the tree stored in the remaining bytes of the buffer */\n");
+		sb.append("    public static TreeView of(java.nio.ByteBuffer buffer) throws java.io.IOException {\n");
+		sb.append("        return new TreeView(buffer.slice());\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private TreeView(java.nio.ByteBuffer buffer) throws java.io.IOException {\n");
+		sb.append("        this.buffer = buffer;\n");
+		sb.append("        try {\n");
+		sb.append("            if (buffer.getInt(0) != TreeSerializer.MAGIC) {\n");
+		sb.append("                throw new java.io.IOException(\"Not a serialized tree.\");\n");
+		sb.append("            }\n");
+		sb.append("            if (buffer.getInt(4) != TreeSerializer.SPEC_HASH) {\n");
+		sb.append("                throw new java.io.IOException(\"The tree was written by code generated from a different specification.\");\n");
+		sb.append("            }\n");
+		sb.append("            Cursor c = new Cursor(8);\n");
+		sb.append("            int count = c.readVarInt();\n");
+		sb.append("            if (count <= 0) throw new java.io.IOException(\"Corrupted tree: \" + count + \" elements.\");\n");
+		sb.append("            offsets = new int[count];\n");
+		sb.append("            parents = new int[count];\n");
+		sb.append("            childStart = new int[count + 1];\n");
+		sb.append("            children = new int[count];\n");
+		sb.append("            // elements, which do not have a parent yet\n");
+		sb.append("            int[] stack = new int[64];\n");
+		sb.append("            int size = 0;\n");
+		sb.append("            int childCount = 0;\n");
+		sb.append("            for (int i = 0; i < count; i++) {\n");
+		sb.append("                offsets[i] = c.pos;\n");
+		sb.append("                int n = scanNode(c.readVarInt(), c);\n");
+		sb.append("                if (n > size) throw new java.io.IOException(\"Corrupted tree: missing child element.\");\n");
+		sb.append("                childStart[i] = childCount;\n");
+		sb.append("                for (int j = size - n; j < size; j++) {\n");
+		sb.append("                    children[childCount++] = stack[j];\n");
+		sb.append("                    parents[stack[j]] = i;\n");
+		sb.append("                }\n");
+		sb.append("                size -= n;\n");
+		sb.append("                if (size == stack.length) stack = Arrays.copyOf(stack, size * 2);\n");
+		sb.append("                stack[size++] = i;\n");
+		sb.append("            }\n");
+		sb.append("            childStart[count] = childCount;\n");
+		sb.append("            if (size != 1) {\n");
+		sb.append("                throw new java.io.IOException(\"Corrupted tree: \" + size + \" elements without parent.\");\n");
+		sb.append("            }\n");
+		sb.append("            parents[count - 1] = -1;\n");
+		sb.append("            strings = Arrays.copyOf(scannedStrings, stringCount);\n");
+		sb.append("            scannedStrings = null;\n");
+		sb.append("        } catch (IndexOutOfBoundsException e) {\n");
+		sb.append("            throw new java.io.IOException(\"Corrupted tree: unexpected end of input.\", e);\n");
+		sb.append("        }\n");
+		if (hasRefs) {
+			sb.append("        byPreorder = new int[offsets.length];\n");
+			sb.append("        int[] stack = new int[64];\n");
+			sb.append("        int size = 0;\n");
+			sb.append("        int n = 0;\n");
+			sb.append("        stack[size++] = offsets.length - 1;\n");
+			sb.append("        while (size > 0) {\n");
+			sb.append("            int e = stack[--size];\n");
+			sb.append("            byPreorder[n++] = e;\n");
+			sb.append("            for (int i = childStart[e + 1] - 1; i >= childStart[e]; i--) {\n");
+			sb.append("                if (size == stack.length) stack = Arrays.copyOf(stack, size * 2);\n");
+			sb.append("                stack[size++] = children[i];\n");
+			sb.append("            }\n");
+			sb.append("        }\n");
+		}
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the root of the tree */\n");
+		sb.append("    public ").append(V).append(" root() {\n");
+		sb.append("        return view(offsets.length - 1);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** number of elements in the tree */\n");
+		sb.append("    public int elementCount() {\n");
+		sb.append("        return offsets.length;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    // -------- used by the views ----------\n");
+		sb.append("    ").append(V).append(" view(int node) {\n");
+		sb.append("        return node < 0 ? null : createView(node);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    int tag(int node) {\n");
+		sb.append("        return new Cursor(offsets[node]).readVarInt();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** a cursor at the properties of the element */\n");
+		sb.append("    Cursor cursor(int node) {\n");
+		sb.append("        Cursor c = new Cursor(offsets[node]);\n");
+		sb.append("        c.readVarInt();\n");
+		sb.append("        return c;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    int parent(int node) {\n");
+		sb.append("        return parents[node];\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    int childCount(int node) {\n");
+		sb.append("        return childStart[node + 1] - childStart[node];\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    int child(int node, int i) {\n");
+		sb.append("        if (i < 0 || i >= childCount(node)) {\n");
+		sb.append("            throw new IllegalArgumentException(\"Index out of range: \" + i);\n");
+		sb.append("        }\n");
+		sb.append("        return children[childStart[node] + i];\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the element with the given ref number (0 for null, otherwise 1 + the preorder number) or -1 for null */\n");
+		sb.append("    int refTarget(int ref) {\n");
+		if (hasRefs) {
+			sb.append("        return ref == 0 ? -1 : byPreorder[ref - 1];\n");
+		} else {
+			sb.append("        return -1;\n");
+		}
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    String string(int id) {\n");
+		sb.append("        Cursor c = new Cursor(strings[id]);\n");
+		sb.append("        return c.readStringBytes();\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** creates the mutable version of the subtree below node */\n");
+		sb.append("    ").append(E).append(" materialize(int node) {\n");
+		sb.append("        // the elements of a subtree are stored one after another, starting with the leftmost leaf\n");
+		sb.append("        int first = node;\n");
+		sb.append("        while (childCount(first) > 0) {\n");
+		sb.append("            first = child(first, 0);\n");
+		sb.append("        }\n");
+		sb.append("        final int start = offsets[first];\n");
+		sb.append("        java.io.InputStream in = new java.io.InputStream() {\n");
+		sb.append("            private int pos = start;\n");
+		sb.append("\n");
+		sb.append("            @Override public int read() {\n");
+		sb.append("                return pos < buffer.limit() ? buffer.get(pos++) & 0xFF : -1;\n");
+		sb.append("            }\n");
+		sb.append("        };\n");
+		sb.append("        TreeSerializer.Reader r = new TreeSerializer.Reader(new java.io.DataInputStream(in)) {\n");
+		sb.append("            @Override String knownString(int id) {\n");
+		sb.append("                return string(id);\n");
+		sb.append("            }\n");
+		sb.append("        };\n");
+		sb.append("        ").append(E).append("[] created = new ").append(E).append("[node - first + 1];\n");
+		sb.append("        try {\n");
+		sb.append("            for (int i = first; i <= node; i++) {\n");
+		sb.append("                created[i - first] = TreeSerializer.readNode(r.readVarInt(), r);\n");
+		sb.append("                r.push(created[i - first]);\n");
+		sb.append("            }\n");
+		sb.append("            ").append(E).append(" root = r.pop();\n");
+		sb.append("            // refs to elements outside of the subtree are set to null\n");
+		sb.append("            for (int i = 0; i < r.refs.size(); i++) {\n");
+		sb.append("                int target = refTarget(r.refTargets.get(i));\n");
+		sb.append("                r.refs.get(i).accept(target >= first && target <= node ? created[target - first] : null);\n");
+		sb.append("            }\n");
+		sb.append("            return root;\n");
+		sb.append("        } catch (java.io.IOException e) {\n");
+		sb.append("            // the structure was checked when the view was opened\n");
+		sb.append("            throw new java.io.UncheckedIOException(e);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** decodes values from the buffer, starting at a given position */\n");
+		sb.append("    final class Cursor {\n");
+		sb.append("        int pos;\n");
+		sb.append("\n");
+		sb.append("        Cursor(int pos) {\n");
+		sb.append("            this.pos = pos;\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        int readVarInt() {\n");
+		sb.append("            int result = 0;\n");
+		sb.append("            for (int shift = 0; ; shift += 7) {\n");
+		sb.append("                byte b = buffer.get(pos++);\n");
+		sb.append("                result |= (b & 0x7F) << shift;\n");
+		sb.append("                if (b >= 0) return result;\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        long readVarLong() {\n");
+		sb.append("            long result = 0;\n");
+		sb.append("            for (int shift = 0; ; shift += 7) {\n");
+		sb.append("                byte b = buffer.get(pos++);\n");
+		sb.append("                result |= (long) (b & 0x7F) << shift;\n");
+		sb.append("                if (b >= 0) return result;\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        int readInt() { int v = readVarInt(); return (v >>> 1) ^ -(v & 1); }\n");
+		sb.append("        long readLong() { long v = readVarLong(); return (v >>> 1) ^ -(v & 1); }\n");
+		sb.append("        short readShort() { return (short) readInt(); }\n");
+		sb.append("        byte readByte() { return buffer.get(pos++); }\n");
+		sb.append("        char readChar() { return (char) readVarInt(); }\n");
+		sb.append("        boolean readBoolean() { return buffer.get(pos++) != 0; }\n");
+		sb.append("        float readFloat() { float v = buffer.getFloat(pos); pos += 4; return v; }\n");
+		sb.append("        double readDouble() { double v = buffer.getDouble(pos); pos += 8; return v; }\n");
+		sb.append("\n");
+		sb.append("        String readString() {\n");
+		sb.append("            int id = readVarInt();\n");
+		sb.append("            if (id == 0) return null;\n");
+		sb.append("            if (id == 1) return readStringBytes();\n");
+		sb.append("            return string(id - 2);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        String readStringBytes() {\n");
+		sb.append("            byte[] bytes = new byte[readVarInt()];\n");
+		sb.append("            buffer.get(pos, bytes);\n");
+		sb.append("            pos += bytes.length;\n");
+		sb.append("            return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        void skipString() {\n");
+		sb.append("            if (readVarInt() == 1) {\n");
+		sb.append("                int length = readVarInt();\n");
+		sb.append("                pos += length;\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        /** skips a string and adds it to the string table, if it is written for the first time */\n");
+		sb.append("        void scanString() throws java.io.IOException {\n");
+		sb.append("            int id = readVarInt();\n");
+		sb.append("            if (id == 1) {\n");
+		sb.append("                if (stringCount == scannedStrings.length) scannedStrings = Arrays.copyOf(scannedStrings, stringCount * 2);\n");
+		sb.append("                scannedStrings[stringCount++] = pos;\n");
+		sb.append("                int length = readVarInt();\n");
+		sb.append("                pos += length;\n");
+		sb.append("            } else if (id - 2 >= stringCount) {\n");
+		sb.append("                throw new java.io.IOException(\"Corrupted tree: unknown string \" + id);\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("\n");
+		sb.append("        ").append(V).append(" readRef() {\n");
+		sb.append("            return view(refTarget(readVarInt()));\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+	}
+
+}
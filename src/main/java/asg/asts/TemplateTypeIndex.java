@@ -0,0 +1,115 @@
+package asg.asts;
+
+import java.util.List;
+
+public class TemplateTypeIndex {
+
+	/**
+	 * @param internedTypes the interfaces of the interned constructors, which are not indexed
+	 * @param isRefList the condition, whether the element e is a list of refs, whose elements are not in the tree of the list
+	 */
+	public static void writeTo(StringBuilder sb, String commonSupertypeName, List<String> internedTypes, String isRefList) {
+		String E = commonSupertypeName;
+		sb.append("/**\n");
+		sb.append(" * The elements of a tree by their type, stored in the root of the tree.\n");
+		sb.append(" * The index is created by the first query and updated whenever an element gets or loses a parent.\n");
+		sb.append(" * Interned elements are shared between trees and therefore not indexed.\n");
+		sb.append(" */\n");
+		sb.append("final class TypeIndex {\n");
+		sb.append("    /** whether any index was created, parent changes only look for an index after that */\n");
+		sb.append("    private static boolean used = false;\n");
+		sb.append("\n");
+		sb.append("    /** elements by their implementation class, in the order they were added */\n");
+		sb.append("    private final Map<Class<?>, LinkedHashSet<").append(E).append(">> byClass = new HashMap<>();\n");
+		sb.append("\n");
+		sb.append("    private TypeIndex(").append(E).append(" root) {\n");
+		sb.append("        addTree(root);\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** all elements of the given type in the tree below e */\n");
+		sb.append("    static <T> List<T> allOfType(").append(E).append(" e, Class<T> type) {\n");
+		sb.append("        List<T> result = new ArrayList<>();\n");
+		sb.append("        if (e.getParent() != null) {\n");
+		sb.append("            // only roots have an index\n");
+		sb.append("            for (").append(E).append(" x : elementsOf(e)) {\n");
+		sb.append("                if (type.isInstance(x) && isIndexed(x)) result.add(type.cast(x));\n");
+		sb.append("            }\n");
+		sb.append("            return result;\n");
+		sb.append("        }\n");
+		sb.append("        TypeIndex index = e.zzgetTypeIndex();\n");
+		sb.append("        if (index == null) {\n");
+		sb.append("            used = true;\n");
+		sb.append("            index = new TypeIndex(e);\n");
+		sb.append("            e.zzsetTypeIndex(index);\n");
+		sb.append("        }\n");
+		sb.append("        for (Map.Entry<Class<?>, LinkedHashSet<").append(E).append(">> entry : index.byClass.entrySet()) {\n");
+		sb.append("            if (type.isAssignableFrom(entry.getKey())) {\n");
+		sb.append("                for (").append(E).append(" x : entry.getValue()) result.add(type.cast(x));\n");
+		sb.append("            }\n");
+		sb.append("        }\n");
+		sb.append("        return result;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** updates the index of the tree, when e is moved from oldParent to newParent */\n");
+		sb.append("    static void parentChanged(").append(E).append(" e, ").append(E).append(" oldParent, ").append(E).append(" newParent) {\n");
+		sb.append("        if (!used) return;\n");
+		sb.append("        if (oldParent != null) {\n");
+		sb.append("            TypeIndex index = root(oldParent).zzgetTypeIndex();\n");
+		sb.append("            if (index != null) index.removeTree(e);\n");
+		sb.append("        }\n");
+		sb.append("        if (newParent != null) {\n");
+		sb.append("            // e is no longer a root\n");
+		sb.append("            e.zzsetTypeIndex(null);\n");
+		sb.append("            TypeIndex index = root(newParent).zzgetTypeIndex();\n");
+		sb.append("            if (index != null) index.addTree(e);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static ").append(E).append(" root(").append(E).append(" e) {\n");
+		sb.append("        for (").append(E).append(" p = e.getParent(); p != null; p = p.getParent()) e = p;\n");
+		sb.append("        return e;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private static boolean isIndexed(").append(E).append(" e) {\n");
+		if (internedTypes.isEmpty()) {
+			sb.append("        return true;\n");
+		} else {
+			sb.append("        return !(");
+			for (int i = 0; i < internedTypes.size(); i++) {
+				if (i > 0) sb.append("\n            || ");
+				sb.append("e instanceof ").append(internedTypes.get(i));
+			}
+			sb.append(");\n");
+		}
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    /** the elements of the tree in pre-order, without the targets of ref lists */\n");
+		sb.append("    private static List<").append(E).append("> elementsOf(").append(E).append(" tree) {\n");
+		sb.append("        List<").append(E).append("> result = new ArrayList<>();\n");
+		sb.append("        ArrayDeque<").append(E).append("> stack = new ArrayDeque<>();\n");
+		sb.append("        stack.push(tree);\n");
+		sb.append("        while (!stack.isEmpty()) {\n");
+		sb.append("            ").append(E).append(" e = stack.pop();\n");
+		sb.append("            result.add(e);\n");
+		sb.append("            if (").append(isRefList).append(") continue;\n");
+		sb.append("            for (int i = e.size() - 1; i >= 0; i--) stack.push(e.get(i));\n");
+		sb.append("        }\n");
+		sb.append("        return result;\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private void addTree(").append(E).append(" tree) {\n");
+		sb.append("        for (").append(E).append(" e : elementsOf(tree)) {\n");
+		sb.append("            if (isIndexed(e)) byClass.computeIfAbsent(e.getClass(), c -> new LinkedHashSet<>()).add(e);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("\n");
+		sb.append("    private void removeTree(").append(E).append(" tree) {\n");
+		sb.append("        for (").append(E).append(" e : elementsOf(tree)) {\n");
+		sb.append("            Set<").append(E).append("> elements = byClass.get(e.getClass());\n");
+		sb.append("            if (elements != null) elements.remove(e);\n");
+		sb.append("        }\n");
+		sb.append("    }\n");
+		sb.append("}\n");
+	}
+
+}
@@ -0,0 +1,122 @@
+package asg.asts;
+
+import asg.asts.ast.AstEntityDefinition;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Assigns a dense integer index to every type, so that relations between types
+ * can be stored as one BitSet row per type.
+ */
+class TypeTable {
+    private final List<AstEntityDefinition> types = new ArrayList<>();
+    private final Map<AstEntityDefinition, Integer> indexes = new HashMap<>();
+    private final Map<String, Integer> nameIndexes = new HashMap<>();
+
+    public int add(AstEntityDefinition def) {
+        Integer i = indexes.get(def);
+        if (i != null) {
+            return i;
+        }
+        int index = types.size();
+        types.add(def);
+        indexes.put(def, index);
+        nameIndexes.putIfAbsent(def.getName(), index);
+        return index;
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    /**
+     * returns the index of the type or -1 if it is not in the table
+     */
+    public int indexOf(AstEntityDefinition def) {
+        Integer i = indexes.get(def);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * returns the index of the type with the given name or -1 if it is not in the table
+     */
+    public int indexOf(String name) {
+        Integer i = nameIndexes.get(name);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * creates an empty relation
+     */
+    public BitSet[] newRelation() {
+        BitSet[] rows = new BitSet[size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new BitSet(rows.length);
+        }
+        return rows;
+    }
+
+    /**
+     * converts a multimap to a relation. Entries with types not in the table are ignored.
+     */
+    public BitSet[] toRelation(Multimap<AstEntityDefinition, AstEntityDefinition> m) {
+        BitSet[] rows = newRelation();
+        for (Entry<AstEntityDefinition, AstEntityDefinition> e : m.entries()) {
+            int from = indexOf(e.getKey());
+            int to = indexOf(e.getValue());
+            if (from >= 0 && to >= 0) {
+                rows[from].set(to);
+            }
+        }
+        return rows;
+    }
+
+    public Multimap<AstEntityDefinition, AstEntityDefinition> toMultimap(BitSet[] rows) {
+        Multimap<AstEntityDefinition, AstEntityDefinition> result = LinkedHashMultimap.create();
+        for (int i = 0; i < rows.length; i++) {
+            AstEntityDefinition from = types.get(i);
+            for (int j = rows[i].nextSetBit(0); j >= 0; j = rows[i].nextSetBit(j + 1)) {
+                result.put(from, types.get(j));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * calculates the transitive closure in place (Warshall's algorithm on bit rows)
+     */
+    public static void transitiveClosure(BitSet[] rows) {
+        for (int k = 0; k < rows.length; k++) {
+            for (int i = 0; i < rows.length; i++) {
+                if (i != k && rows[i].get(k)) {
+                    rows[i].or(rows[k]);
+                }
+            }
+        }
+    }
+
+    public static BitSet[] transpose(BitSet[] rows) {
+        BitSet[] result = new BitSet[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            result[i] = new BitSet(rows.length);
+        }
+        for (int i = 0; i < rows.length; i++) {
+            for (int j = rows[i].nextSetBit(0); j >= 0; j = rows[i].nextSetBit(j + 1)) {
+                result[j].set(i);
+            }
+        }
+        return result;
+    }
+
+    public static BitSet[] union(BitSet[] a, BitSet[] b) {
+        BitSet[] result = new BitSet[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = (BitSet) a[i].clone();
+            result[i].or(b[i]);
+        }
+        return result;
+    }
+}
@@ -11,10 +11,12 @@ public class AttributeDef {
 	public final String implementedBy;
 	public final List<Parameter> parameters;
 	public final String circular;
+	/** whether the results of an attribute with parameters are remembered */
+	public final boolean cached;
 	
 
 	public AttributeDef(List<Parameter> parameters, String typ, String attr, String comment, String returns2,
-			String implementedBy2, String circular) {
+			String implementedBy2, String circular, boolean cached) {
 		this.typ = typ;
 		this.attr = attr;
 		this.comment = comment;
@@ -22,6 +24,14 @@ public class AttributeDef {
 		this.implementedBy = implementedBy2;
 		this.parameters = parameters;
 		this.circular = circular;
+		this.cached = cached;
+	}
+
+	/**
+	 * whether this attribute has parameters and remembers its results in a memo table
+	 */
+	public boolean isMemoized() {
+		return parameters != null && cached;
 	}
 
 }
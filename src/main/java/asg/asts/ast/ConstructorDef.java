@@ -8,6 +8,7 @@ public class ConstructorDef extends AstBaseTypeDefinition {
 
 	public final List<Parameter> parameters;
 	private final String name;
+	private boolean interned = false;
 
 	public ConstructorDef(String name, List<Parameter> parameters) {
 		this.name = name;
@@ -40,6 +41,17 @@ public class ConstructorDef extends AstBaseTypeDefinition {
 		return result.toString();
 	}
 
+	/**
+	 * interned constructors have no children, equal elements are shared between trees
+	 */
+	public boolean isInterned() {
+		return interned;
+	}
+
+	public void setInterned(boolean interned) {
+		this.interned = interned;
+	}
+
 	public void addParam(boolean ref, boolean ignoreEquality, String type, String name) {
 		parameters.add(new Parameter(ref, ignoreEquality, type, name));
 	}
@@ -13,6 +13,14 @@ public class Program {
 	public final Map<String, AstEntityDefinition> definitions = new HashMap<>();
 	private String packageName;
 	private String typePrefix = "";
+	private boolean concurrencySafe = false;
+	private boolean invalidationTracked = false;
+	private boolean storageLazy = false;
+	private boolean hashCached = false;
+	private boolean typeIndexed = false;
+	private boolean frozenGenerated = false;
+	private boolean journaled = false;
+	private boolean numberingStored = false;
 
 
 	public Program(String packageName) {
@@ -74,9 +82,9 @@ public class Program {
 		return packageName;
 	}
 	
-	public void addAttribute(List<Parameter> parameters, String typ, String attr, String returnType, String implementedBy, String doc, String circular) {
+	public void addAttribute(List<Parameter> parameters, String typ, String attr, String returnType, String implementedBy, String doc, String circular, boolean cached) {
 		String docStr = doc != null ? doc : "";
-		attrDefs.add(new AttributeDef(parameters, typ, attr, docStr, returnType, implementedBy, circular));
+		attrDefs.add(new AttributeDef(parameters, typ, attr, docStr, returnType, implementedBy, circular, cached));
 	}
 
 	public void addAttributeField(String fieldType, String typ, String fieldName, String doc) {
@@ -143,6 +151,148 @@ public class Program {
 		this.typePrefix = typePrefix;
 	}
 
+	/**
+	 * with concurrency 'safe', cached attributes can be evaluated by several threads at the same time
+	 */
+	public void setConcurrency(String concurrency) {
+		if (concurrency.equals("safe")) {
+			concurrencySafe = true;
+		} else if (concurrency.equals("unsafe")) {
+			concurrencySafe = false;
+		} else {
+			throw new Error("Unknown concurrency mode " + concurrency + ", expected 'safe' or 'unsafe'.");
+		}
+	}
+
+	public boolean isConcurrencySafe() {
+		return concurrencySafe;
+	}
+
+	/**
+	 * with invalidation 'tracked', cached attributes record what they read
+	 * and changes to the tree only reset the attribute values depending on the change
+	 */
+	public void setInvalidation(String invalidation) {
+		if (invalidation.equals("tracked")) {
+			invalidationTracked = true;
+		} else if (invalidation.equals("manual")) {
+			invalidationTracked = false;
+		} else {
+			throw new Error("Unknown invalidation mode " + invalidation + ", expected 'tracked' or 'manual'.");
+		}
+	}
+
+	public boolean isInvalidationTracked() {
+		return invalidationTracked;
+	}
+
+	/**
+	 * with storage 'lazy', cached attribute values are stored in an array, which is only allocated
+	 * when the first attribute of an element is evaluated
+	 */
+	public void setStorage(String storage) {
+		if (storage.equals("lazy")) {
+			storageLazy = true;
+		} else if (storage.equals("fields")) {
+			storageLazy = false;
+		} else {
+			throw new Error("Unknown storage mode " + storage + ", expected 'lazy' or 'fields'.");
+		}
+	}
+
+	public boolean isStorageLazy() {
+		return storageLazy;
+	}
+
+	/**
+	 * with hash 'cached', every element stores its structural hash,
+	 * which is reset when the element or one of its descendants is changed
+	 */
+	public void setHash(String hash) {
+		if (hash.equals("cached")) {
+			hashCached = true;
+		} else if (hash.equals("computed")) {
+			hashCached = false;
+		} else {
+			throw new Error("Unknown hash mode " + hash + ", expected 'cached' or 'computed'.");
+		}
+	}
+
+	public boolean isHashCached() {
+		return hashCached;
+	}
+
+	/**
+	 * with index 'types', the root of a tree can keep an index of its elements by type,
+	 * which is updated when elements get or lose their parent
+	 */
+	public void setIndex(String index) {
+		if (index.equals("types")) {
+			typeIndexed = true;
+		} else if (index.equals("none")) {
+			typeIndexed = false;
+		} else {
+			throw new Error("Unknown index " + index + ", expected 'types' or 'none'.");
+		}
+	}
+
+	public boolean isTypeIndexed() {
+		return typeIndexed;
+	}
+
+	/**
+	 * with frozen 'nodes', every element type gets an immutable version,
+	 * which shares unchanged subtrees between versions of a tree
+	 */
+	public void setFrozen(String frozen) {
+		if (frozen.equals("nodes")) {
+			frozenGenerated = true;
+		} else if (frozen.equals("none")) {
+			frozenGenerated = false;
+		} else {
+			throw new Error("Unknown frozen " + frozen + ", expected 'nodes' or 'none'.");
+		}
+	}
+
+	public boolean isFrozenGenerated() {
+		return frozenGenerated;
+	}
+
+	/**
+	 * with journal 'undo', changes of trees are recorded while a checkpoint is open and can be rolled back
+	 */
+	public void setJournal(String journal) {
+		if (journal.equals("undo")) {
+			journaled = true;
+		} else if (journal.equals("none")) {
+			journaled = false;
+		} else {
+			throw new Error("Unknown journal " + journal + ", expected 'undo' or 'none'.");
+		}
+	}
+
+	public boolean isJournaled() {
+		return journaled;
+	}
+
+	/**
+	 * with numbering 'stored', every element stores its position in the last numbering of its tree,
+	 * so that isAncestorOf takes constant time after number()
+	 */
+	public void setNumbering(String numbering) {
+		if (numbering.equals("stored")) {
+			numberingStored = true;
+		} else if (numbering.equals("none")) {
+			numberingStored = false;
+		} else {
+			throw new Error("Unknown numbering " + numbering + ", expected 'stored' or 'none'.");
+		}
+	}
+
+	public boolean isNumberingStored() {
+		return numberingStored;
+	}
+
 
 
 }
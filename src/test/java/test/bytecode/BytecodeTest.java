@@ -0,0 +1,165 @@
+package test.bytecode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.bytecode.TB.*;
+
+public class BytecodeTest {
+
+    private static TBMethod example() {
+        return Method("main",
+            Code(16, 42, 96, 177),
+            LineNumbers((short) 1, (short) 1, (short) 2, (short) 3),
+            Constants(0.5, -1.0),
+            Flags(true, false));
+    }
+
+    @Test
+    public void testUnboxedAccess() {
+        var code = Code();
+        assertTrue(code.isEmpty());
+        for (int i = 0; i < 100; i++) {
+            code.add(i * 2);
+        }
+        assertEquals(100, code.length());
+        assertEquals(42, code.getInt(21));
+        assertEquals(42, code.setInt(21, -1));
+        assertEquals(-1, code.getInt(21));
+        code.add(0, 7);
+        assertEquals(7, code.getInt(0));
+        assertEquals(0, code.getInt(1));
+        assertEquals(7, code.removeAt(0));
+        assertEquals(22, code.indexOf(44));
+        assertFalse(code.contains(42));
+        assertEquals(-1, code.indexOf(42));
+        code.addAll(1, 2, 3);
+        assertArrayEquals(new int[] {198, 1, 2, 3}, java.util.Arrays.copyOfRange(code.toIntArray(), 99, 103));
+        assertThrows(IndexOutOfBoundsException.class, () -> code.getInt(103));
+        assertThrows(IndexOutOfBoundsException.class, () -> code.add(104, 0));
+        code.clear();
+        assertEquals(0, code.length());
+
+        var flags = Flags(true);
+        flags.add(false);
+        assertFalse(flags.getBoolean(1));
+        assertEquals("Flags(true, false)", flags.toString());
+    }
+
+    @Test
+    public void testValuesAreNotChildren() {
+        var method = example();
+        var code = method.getCode();
+        assertSame(method, code.getParent());
+        assertEquals(0, code.getIndexInParent());
+        // as an element the list has no children, so traversals treat it as a leaf
+        assertEquals(0, code.size());
+        assertThrows(IllegalArgumentException.class, () -> code.get(0));
+        int count = 0;
+        for (TBElement e : Module(MethodList(method)).preOrder()) {
+            count++;
+        }
+        assertEquals(7, count);
+    }
+
+    @Test
+    public void testCopyAndEquality() {
+        var a = example();
+        var b = a.copy();
+        assertNotSame(a.getCode(), b.getCode());
+        assertTrue(a.structuralEquals(b));
+        assertEquals(a.structuralHash(), b.structuralHash());
+        // lists of different types with the same values are different
+        assertFalse(Code(16, 42).structuralEquals(Offsets(16, 42)));
+        assertFalse(Offsets(16, 42).structuralEquals(Code(16, 42)));
+        assertNotEquals(Code(16, 42).structuralHash(), Offsets(16, 42).structuralHash());
+        assertTrue(Offsets(16, 42).structuralEquals(Offsets(16, 42)));
+        assertEquals(Offsets(16, 42).structuralHash(), Offsets(16, 42).structuralHash());
+
+        b.getCode().setInt(1, 43);
+        assertFalse(a.structuralEquals(b));
+        assertEquals(42, a.getCode().getInt(1));
+        b.getCode().setInt(1, 42);
+        b.getFlags().add(true);
+        assertFalse(a.structuralEquals(b));
+        assertFalse(Code(1, 2).structuralEquals(Code(1)));
+    }
+
+    @Test
+    public void testWriteAndRead() throws java.io.IOException {
+        var module = Module(MethodList(example(), Method("empty", Code(), LineNumbers(), Constants(), Flags())));
+        module.getMethods().get(0).getCode().add(Integer.MIN_VALUE);
+        var bytes = new java.io.ByteArrayOutputStream();
+        module.write(new java.io.DataOutputStream(bytes));
+
+        var read = TBModule.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(module.structuralEquals(read));
+        assertEquals(Integer.MIN_VALUE, read.getMethods().get(0).getCode().getInt(4));
+
+        var view = TreeView.of(java.nio.ByteBuffer.wrap(bytes.toByteArray()));
+        var methods = ((TBModuleView) view.root()).getMethods();
+        assertEquals("empty", methods.get(1).getName());
+        var code = methods.get(0).getCode();
+        assertEquals(5, code.length());
+        assertEquals(96, code.getInt(2));
+        assertArrayEquals(new double[] {0.5, -1.0}, methods.get(0).getConstants().toDoubleArray());
+        assertEquals(0, methods.get(1).getFlags().length());
+        assertTrue(module.structuralEquals(view.root().materialize()));
+    }
+
+    @Test
+    public void testJournalRollback() {
+        var method = example();
+        var code = method.getCode();
+        code.setMaxStack(2);
+        var original = method.copy();
+
+        int cp = Journal.checkpoint();
+        code.add(0);
+        code.setInt(0, 17);
+        code.add(1, 5);
+        code.removeAt(2);
+        code.setMaxStack(3);
+        method.getLines().clear();
+        method.getConstants().addAll(1.5, 2.5);
+        method.getFlags().setBoolean(0, false);
+        code.clear();
+        code.addAll(7, 8, 9);
+        code.add(1, 6);
+        code.removeAt(0);
+        code.clear();
+        code.add(5);
+        Journal.rollback(cp);
+
+        assertTrue(original.structuralEquals(method));
+        assertEquals(2, code.getMaxStack());
+        assertArrayEquals(new int[] {16, 42, 96, 177}, code.toIntArray());
+    }
+
+    @Test
+    public void testTreeListener() {
+        var module = Module(MethodList(example()));
+        var code = module.getMethods().get(0).getCode();
+        var events = new java.util.ArrayList<String>();
+        module.addTreeListener(new TreeListener() {
+            @Override
+            public void valuesChanged(TBElement list, int index, int removed, int added) {
+                events.add(list + " " + index + " " + removed + " " + added);
+            }
+        });
+
+        code.add(3);
+        code.setInt(0, 1);
+        code.add(1, 7);
+        code.addAll(8, 9);
+        code.removeAt(2);
+        code.clear();
+        assertEquals(java.util.List.of(
+                "Code(16, 42, 96, 177, 3) 4 0 1",
+                "Code(1, 42, 96, 177, 3) 0 1 1",
+                "Code(1, 7, 42, 96, 177, 3) 1 0 1",
+                "Code(1, 7, 42, 96, 177, 3, 8, 9) 6 0 2",
+                "Code(1, 7, 96, 177, 3, 8, 9) 2 1 0",
+                "Code() 0 7 0"), events);
+    }
+}
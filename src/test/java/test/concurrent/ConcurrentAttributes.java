@@ -0,0 +1,45 @@
+package test.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentAttributes {
+
+    static final AtomicInteger evaluations = new AtomicInteger();
+
+    public static int value(TCExpr e) {
+        evaluations.incrementAndGet();
+        return e.match(new TCExpr.Matcher<Integer>() {
+            @Override
+            public Integer case_Add(TCAdd add) {
+                return add.getLeft().value() + add.getRight().value();
+            }
+
+            @Override
+            public Integer case_Num(TCNum num) {
+                return num.getValue();
+            }
+
+            @Override
+            public Integer case_Loop(TCLoop loop) {
+                // depends on itself
+                return loop.value();
+            }
+        });
+    }
+
+    public static int value(TCFunction f) {
+        return f.getBody().value();
+    }
+
+    public static Object identity(TCExpr e) {
+        return new Object();
+    }
+
+    public static Integer maxValue(TCExpr e) {
+        return Math.max(e.value(), e.maxValue());
+    }
+
+    public static Integer zero() {
+        return 0;
+    }
+}
@@ -0,0 +1,84 @@
+package test.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.concurrent.TC.*;
+
+public class ConcurrentTest {
+
+    private TCExpr sum(int from, int to) {
+        if (from == to) {
+            return Num(from);
+        }
+        int mid = (from + to) / 2;
+        return Add(sum(from, mid), sum(mid + 1, to));
+    }
+
+    @Test
+    public void testParallelEvaluation() {
+        var functions = FunctionList();
+        for (int i = 0; i < 200; i++) {
+            functions.add(Function("f" + i, sum(0, i)));
+        }
+
+        int[] results = functions.parallelStream().mapToInt(TCFunction::value).toArray();
+
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i * (i + 1) / 2, results[i]);
+        }
+    }
+
+    @Test
+    public void testSharedSubtreeSameResult() throws Exception {
+        var expr = sum(0, 100);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Object>> identities = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                identities.add(pool.submit(() -> {
+                    start.await();
+                    assertEquals(5050, expr.value());
+                    return expr.identity();
+                }));
+            }
+            start.countDown();
+            Object first = identities.get(0).get();
+            for (Future<Object> f : identities) {
+                // all threads see the same cached value
+                assertSame(first, f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        ConcurrentAttributes.evaluations.set(0);
+        expr.value();
+        assertEquals(0, ConcurrentAttributes.evaluations.get());
+    }
+
+    @Test
+    public void testCycleDetected() {
+        var loop = Loop();
+        var e = assertThrows(CyclicDependencyError.class, loop::value);
+        assertSame(loop, e.getElement());
+        // the failed evaluation does not leave the attribute in a broken state
+        assertThrows(CyclicDependencyError.class, loop::value);
+    }
+
+    @Test
+    public void testCircularAttribute() {
+        var expr = Add(Num(3), Num(4));
+        assertEquals(7, expr.maxValue());
+        expr.clearAttributes();
+        assertEquals(7, expr.maxValue());
+    }
+}
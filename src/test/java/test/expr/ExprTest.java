@@ -70,6 +70,174 @@ public class ExprTest {
         assertEquals(4, list.size());
     }
 
+    @Test
+    public void testIndexInParentAfterListMutations() {
+        var list = ExprList();
+        for (int i = 0; i < 100; i++) {
+            list.add(IntLiteral(i));
+        }
+        list.add(0, IntLiteral(-1));
+        list.remove(50);
+        list.addAll(10, java.util.List.of(IntLiteral(1000), IntLiteral(1001)));
+        list.removeIf(e -> ((TEIntLiteral) e).getIvalue() % 7 == 0);
+        var it = list.listIterator(20);
+        it.next();
+        it.remove();
+        it.add(IntLiteral(2000));
+
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(i, list.get(i).getIndexInParent());
+            assertEquals(i, list.indexOf(list.get(i)));
+        }
+        assertEquals(-1, list.indexOf(IntLiteral(5)));
+    }
+
+    @Test
+    public void testReplaceByAndPathTo() {
+        var list = ExprList();
+        for (int i = 0; i < 10; i++) {
+            list.add(BinaryExpr(IntLiteral(i), Plus(), VarRef("x" + i)));
+        }
+        var old = (TEBinaryExpr) list.get(7);
+        var right = old.getRight();
+        assertEquals(java.util.List.of(7, 2), list.pathTo(right));
+        assertSame(right, list.followPath(list.pathTo(right)));
+
+        list.remove(0);
+        assertEquals(java.util.List.of(6, 2), list.pathTo(right));
+
+        right.replaceBy(IntLiteral(42));
+        assertNull(right.getParent());
+        assertEquals(42, ((TEIntLiteral) old.getRight()).getIvalue());
+
+        var replacement = VarRef("y");
+        old.replaceBy(replacement);
+        assertNull(old.getParent());
+        assertSame(replacement, list.get(6));
+        assertEquals(6, replacement.getIndexInParent());
+        assertTrue(list.remove(replacement));
+        assertEquals(8, list.size());
+    }
+
+    @Test
+    public void testIterativeOperations() {
+        var list = ExprList(
+            BinaryExpr(VarRef("x"), Plus(), IntLiteral(1)),
+            UnaryExpr(Negate(), BoolLiteral(true)));
+
+        var copy = (TEExprList) list.copyIterative();
+        assertNotSame(list, copy);
+        assertTrue(copy.structuralEquals(list));
+        assertTrue(copy.structuralEqualsIterative(list));
+        assertSame(copy, copy.get(1).getParent());
+
+        ((TEIntLiteral) ((TEBinaryExpr) copy.get(0)).getRight()).setIvalue(2);
+        assertFalse(copy.structuralEqualsIterative(list));
+        assertFalse(list.structuralEqualsIterative(ExprList()));
+
+        StringBuilder pre = new StringBuilder();
+        for (TEElement e : list.preOrder()) pre.append(e.getClass().getSimpleName().charAt(2));
+        assertEquals("EBVPIUNB", pre.toString());
+        StringBuilder post = new StringBuilder();
+        for (TEElement e : list.postOrder()) post.append(e.getClass().getSimpleName().charAt(2));
+        assertEquals("VPIBNBUE", post.toString());
+    }
+
+    @Test
+    public void testDeepTree() {
+        int depth = 1_000_000;
+        TEExpr expr = IntLiteral(42);
+        for (int i = 0; i < depth; i++) {
+            expr = UnaryExpr(Negate(), expr);
+        }
+
+        TEExpr copy = (TEExpr) expr.copyIterative();
+        assertTrue(copy.structuralEqualsIterative(expr));
+        assertEquals(expr.structuralHash(), copy.structuralHash());
+        copy.clearAttributesIterative();
+
+        int count = 0;
+        TEElement last = null;
+        for (TEElement e : copy.postOrder()) {
+            count++;
+            last = e;
+        }
+        // the unary expressions, their operators and the literal
+        assertEquals(2 * depth + 1, count);
+        assertSame(copy, last);
+
+        // ancestor checks do not recurse either
+        TEElement literal = copy;
+        while (literal.size() > 0) {
+            literal = literal.get(literal.size() - 1);
+        }
+        assertTrue(copy.isAncestorOf(literal));
+        assertFalse(literal.isAncestorOf(copy));
+
+        // serialization does not recurse either
+        var bytes = new java.io.ByteArrayOutputStream();
+        try {
+            copy.write(new java.io.DataOutputStream(bytes));
+            TEExpr read = TEExpr.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())));
+            assertTrue(read.structuralEqualsIterative(expr));
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testTreeViewFromFile() throws java.io.IOException {
+        var list = ExprList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(BinaryExpr(IntLiteral(i), Plus(), VarRef("x" + (i % 10))));
+        }
+        var file = java.nio.file.Files.createTempFile("tree", ".bin");
+        try {
+            try (var out = new java.io.DataOutputStream(new java.io.BufferedOutputStream(java.nio.file.Files.newOutputStream(file)))) {
+                list.write(out);
+            }
+            var view = TreeView.open(file);
+            assertEquals(1 + 1000 * 4, view.elementCount());
+            var listView = (TEExprListView) view.root();
+            assertEquals(1000, listView.size());
+            int sum = 0;
+            for (TEExprView e : listView) {
+                var b = (TEBinaryExprView) e;
+                sum += ((TEIntLiteralView) b.getLeft()).getIvalue();
+                assertEquals(listView, b.getParent());
+            }
+            assertEquals(999 * 1000 / 2, sum);
+            var last = (TEBinaryExprView) listView.get(999);
+            assertEquals("x9", ((TEVarRefView) last.getRight()).getName());
+            assertTrue(last.materialize().structuralEquals(list.get(999)));
+            assertTrue(listView.materialize().structuralEquals(list));
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testParallelTraversal() {
+        var list = ExprList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(BinaryExpr(IntLiteral(i), Plus(), VarRef("x")));
+        }
+        // 1 list + 1000 * (binary expr + 3 children)
+        var count = new java.util.concurrent.atomic.AtomicInteger();
+        list.parallelForEach(e -> count.incrementAndGet());
+        assertEquals(4001, count.get());
+
+        int sum = list.parallelReduce(
+            e -> e instanceof TEIntLiteral ? ((TEIntLiteral) e).getIvalue() : 0,
+            Integer::sum);
+        assertEquals(999 * 1000 / 2, sum);
+
+        // results are combined in tree order
+        String order = ExprList(IntLiteral(1), IntLiteral(2), IntLiteral(3), IntLiteral(4))
+            .parallelReduce(e -> e instanceof TEIntLiteral ? "" + ((TEIntLiteral) e).getIvalue() : "", String::concat);
+        assertEquals("1234", order);
+    }
+
     @Test
     public void testMatcher() {
         var op = Plus();
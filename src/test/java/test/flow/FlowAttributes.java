@@ -0,0 +1,50 @@
+package test.flow;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Live variables of a control flow graph, a typical dataflow analysis with circular attributes.
+ */
+public class FlowAttributes {
+
+    public static List<TFBlock> successorBlocks(TFBlock block) {
+        TFBlockList blocks = (TFBlockList) block.getParent();
+        List<TFBlock> result = new ArrayList<>();
+        for (TFName succ : block.getSuccessors()) {
+            for (TFBlock b : blocks) {
+                if (b.getName().equals(succ.getName())) {
+                    result.add(b);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** variables used in the block or live after it and not defined in it */
+    public static Set<String> liveIn(TFBlock block) {
+        Set<String> result = new HashSet<>(block.liveOut());
+        for (TFName def : block.getDefs()) {
+            result.remove(def.getName());
+        }
+        for (TFName use : block.getUses()) {
+            result.add(use.getName());
+        }
+        return result;
+    }
+
+    /** variables live at the start of a successor */
+    public static Set<String> liveOut(TFBlock block) {
+        Set<String> result = new HashSet<>();
+        for (TFBlock succ : block.successorBlocks()) {
+            result.addAll(succ.liveIn());
+        }
+        return result;
+    }
+
+    public static Set<String> empty() {
+        return new HashSet<>();
+    }
+}
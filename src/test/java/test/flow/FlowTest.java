@@ -0,0 +1,135 @@
+package test.flow;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.flow.TF.*;
+
+public class FlowTest {
+
+    private static TFNameList names(String... names) {
+        TFNameList result = NameList();
+        for (String n : names) {
+            if (!n.isEmpty()) {
+                result.add(Name(n));
+            }
+        }
+        return result;
+    }
+
+    private static TFBlock block(String name, String successors, String uses, String defs) {
+        return Block(name, names(successors.split(" ")), names(uses.split(" ")), names(defs.split(" ")));
+    }
+
+    @Test
+    public void testNestedLoops() {
+        // entry: i = 0
+        // outer: if (i < n)            -> inner, exit
+        // inner: if (j < i)            -> body, latch
+        // body:  s = s + j; j = j + 1  -> inner
+        // latch: i = i + 1; j = 0      -> outer
+        // exit:  return s
+        var blocks = BlockList(
+            block("entry", "outer", "", "i"),
+            block("outer", "inner exit", "i n", ""),
+            block("inner", "body latch", "j i", ""),
+            block("body", "inner", "s j", "s j"),
+            block("latch", "outer", "i", "i j"),
+            block("exit", "", "s", ""));
+        Cfg(blocks);
+
+        assertEquals(Set.of("n", "s", "j"), blocks.get(0).liveIn());
+        assertEquals(Set.of("i", "n", "s", "j"), blocks.get(1).liveIn());
+        assertEquals(Set.of("i", "n", "s", "j"), blocks.get(2).liveIn());
+        assertEquals(Set.of("i", "n", "s", "j"), blocks.get(3).liveIn());
+        assertEquals(Set.of("i", "n", "s"), blocks.get(4).liveIn());
+        assertEquals(Set.of("s"), blocks.get(5).liveIn());
+        assertEquals(Set.of("i", "n", "s", "j"), blocks.get(3).liveOut());
+    }
+
+    @Test
+    public void testStraightLineCodeIsEvaluatedOnce() {
+        int n = 200;
+        var blocks = BlockList();
+        for (int i = 0; i < n; i++) {
+            blocks.add(block("b" + i, i + 1 < n ? "b" + (i + 1) : "", "v" + i, "v" + (i + 1)));
+        }
+        Cfg(blocks);
+        long before = CircularEvaluation.evaluations();
+        assertEquals(Set.of("v0"), blocks.get(0).liveIn());
+        // without cycles, every value is computed once
+        assertEquals(2 * n, CircularEvaluation.evaluations() - before);
+    }
+
+    @Test
+    public void testLoopOnlyRecomputesChangedValues() {
+        int n = 200;
+        // a single loop, where every block uses its own variable
+        var blocks = BlockList();
+        for (int i = 0; i < n; i++) {
+            blocks.add(block("b" + i, "b" + ((i + 1) % n), "v" + i, ""));
+        }
+        Cfg(blocks);
+        long before = CircularEvaluation.evaluations();
+        assertEquals(n, blocks.get(0).liveIn().size());
+        for (TFBlock b : blocks) {
+            assertEquals(n, b.liveOut().size());
+        }
+        // first pass plus one pass propagating the values around the loop
+        assertTrue(CircularEvaluation.evaluations() - before <= 4 * n, "evaluations: " + (CircularEvaluation.evaluations() - before));
+    }
+
+    @Test
+    public void testFailedEvaluationCanBeRepeated() {
+        var a = block("a", "b", "x", "");
+        var b = block("b", "a", "y", "");
+        // successorBlocks fails, because the block is not in a list yet
+        assertThrows(NullPointerException.class, a::liveIn);
+        Cfg(BlockList(a, b));
+        a.clearAttributes();
+        assertEquals(Set.of("x", "y"), a.liveIn());
+        assertEquals(Set.of("x", "y"), b.liveOut());
+    }
+
+    @Test
+    public void testIndependentTreesInParallel() throws Exception {
+        int threads = 4;
+        int n = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<TFBlockList>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    var blocks = BlockList();
+                    for (int i = 0; i < n; i++) {
+                        blocks.add(block("b" + i, "b" + ((i + 1) % n), "v" + i, ""));
+                    }
+                    Cfg(blocks);
+                    start.await();
+                    // every thread has its own evaluation state, so the trees do not disturb each other
+                    for (int i = n - 1; i >= 0; i--) {
+                        blocks.get(i).liveIn();
+                    }
+                    return blocks;
+                }));
+            }
+            start.countDown();
+            for (Future<TFBlockList> f : results) {
+                for (TFBlock b : f.get()) {
+                    assertEquals(n, b.liveIn().size());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
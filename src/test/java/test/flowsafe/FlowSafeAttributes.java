@@ -0,0 +1,50 @@
+package test.flowsafe;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Live variables of a control flow graph, evaluated with concurrency: safe.
+ */
+public class FlowSafeAttributes {
+
+    public static List<TFSBlock> successorBlocks(TFSBlock block) {
+        TFSBlockList blocks = (TFSBlockList) block.getParent();
+        List<TFSBlock> result = new ArrayList<>();
+        for (TFSName succ : block.getSuccessors()) {
+            for (TFSBlock b : blocks) {
+                if (b.getName().equals(succ.getName())) {
+                    result.add(b);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** variables used in the block or live after it and not defined in it */
+    public static Set<String> liveIn(TFSBlock block) {
+        Set<String> result = new HashSet<>(block.liveOut());
+        for (TFSName def : block.getDefs()) {
+            result.remove(def.getName());
+        }
+        for (TFSName use : block.getUses()) {
+            result.add(use.getName());
+        }
+        return result;
+    }
+
+    /** variables live at the start of a successor */
+    public static Set<String> liveOut(TFSBlock block) {
+        Set<String> result = new HashSet<>();
+        for (TFSBlock succ : block.successorBlocks()) {
+            result.addAll(succ.liveIn());
+        }
+        return result;
+    }
+
+    public static Set<String> empty() {
+        return new HashSet<>();
+    }
+}
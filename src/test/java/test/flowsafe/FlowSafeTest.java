@@ -0,0 +1,98 @@
+package test.flowsafe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.flowsafe.TFS.*;
+
+public class FlowSafeTest {
+
+    private static TFSNameList names(String... names) {
+        TFSNameList result = NameList();
+        for (String n : names) {
+            if (!n.isEmpty()) {
+                result.add(Name(n));
+            }
+        }
+        return result;
+    }
+
+    private static TFSBlock block(String name, String successors, String uses, String defs) {
+        return Block(name, names(successors.split(" ")), names(uses.split(" ")), names(defs.split(" ")));
+    }
+
+    /** a single loop of n blocks, where every block uses its own variable */
+    private static TFSBlockList loop(int n) {
+        var blocks = BlockList();
+        for (int i = 0; i < n; i++) {
+            blocks.add(block("b" + i, "b" + ((i + 1) % n), "v" + i, ""));
+        }
+        Cfg(blocks);
+        return blocks;
+    }
+
+    @Test
+    public void testNestedLoops() {
+        var blocks = BlockList(
+            block("entry", "outer", "", "i"),
+            block("outer", "inner exit", "i n", ""),
+            block("inner", "body latch", "j i", ""),
+            block("body", "inner", "s j", "s j"),
+            block("latch", "outer", "i", "i j"),
+            block("exit", "", "s", ""));
+        Cfg(blocks);
+
+        assertEquals(Set.of("n", "s", "j"), blocks.get(0).liveIn());
+        assertEquals(Set.of("i", "n", "s", "j"), blocks.get(2).liveIn());
+        assertEquals(Set.of("i", "n", "s"), blocks.get(4).liveIn());
+        assertEquals(Set.of("i", "n", "s", "j"), blocks.get(3).liveOut());
+    }
+
+    @Test
+    public void testLoop() {
+        int n = 200;
+        var blocks = loop(n);
+        assertEquals(n, blocks.get(0).liveIn().size());
+        // values read as approximations inside the loop are final only with the whole loop
+        assertEquals(n, blocks.get(n / 2).liveIn().size());
+        for (TFSBlock b : blocks) {
+            assertEquals(n, b.liveOut().size());
+        }
+    }
+
+    @Test
+    public void testSharedLoopInParallel() throws Exception {
+        int threads = 4;
+        int n = 200;
+        var blocks = loop(n);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Set<String>>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t * n / threads;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return blocks.get(first).liveIn();
+                }));
+            }
+            start.countDown();
+            for (Future<Set<String>> f : results) {
+                assertEquals(n, f.get().size());
+            }
+            for (TFSBlock b : blocks) {
+                assertEquals(n, b.liveIn().size());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package test.frozen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.frozen.TZ.*;
+
+public class FrozenTest {
+
+    @Test
+    public void testFrozenVariants() {
+        var f = FunctionDef("f", ParameterList(Parameter(SimpleType("int"), "x")), SimpleType("int"),
+                StatementList(ReturnStatement(VarRef("x"))));
+        var init = StatementList();
+        for (int i = 0; i < 100; i++) {
+            init.add(VarDecl(SimpleType("int"), "v" + i, FunctionCallExpr(f, ExprList(IntLiteral(i)))));
+        }
+        var program = Program(FunctionList(f), init);
+        TZProgramFrozen frozen = program.freeze();
+
+        // refs point to the frozen version of their target
+        var decl = (TZVarDeclFrozen) frozen.getInitBlock().get(7);
+        var call = (TZFunctionCallExprFrozen) decl.getInitializer();
+        assertSame(frozen.getFunctions().get(0), call.getFunc());
+        assertEquals(7, ((TZIntLiteralFrozen) call.getArgs().get(0)).getIntValue());
+
+        // a variant with one call inlined shares everything else with the original
+        var inlined = decl.withInitializer(new TZIntLiteralFrozen(7));
+        var variant = frozen.withInitBlock(frozen.getInitBlock().with(7, inlined));
+        assertNotSame(frozen, variant);
+        assertSame(frozen.getFunctions(), variant.getFunctions());
+        assertSame(frozen.getInitBlock().get(6), variant.getInitBlock().get(6));
+        assertSame(call, ((TZVarDeclFrozen) frozen.getInitBlock().get(7)).getInitializer());
+        assertSame(decl, decl.withName(decl.getName()));
+
+        // thawing creates a mutable tree with refs to the thawed function
+        TZProgram thawed = variant.thaw();
+        program.getInitBlock().get(7).replaceBy(VarDecl(SimpleType("int"), "v7", IntLiteral(7)));
+        assertEquals(program.toString(), thawed.toString());
+        var thawedCall = (TZFunctionCallExpr) ((TZVarDecl) thawed.getInitBlock().get(8)).getInitializer();
+        assertSame(thawed.getFunctions().get(0), thawedCall.getFunc());
+        assertSame(thawed.getInitBlock(), thawedCall.getParent().getParent());
+
+        // refs to elements outside of the frozen subtree are set to null
+        assertNull(((TZFunctionCallExprFrozen) program.getInitBlock().get(8).freeze().get(1)).getFunc());
+
+        // the same frozen subtree can be used twice, each use is thawed separately
+        var twice = frozen.withInitBlock(TZStatementListFrozen.of(decl, decl));
+        TZProgram thawedTwice = twice.thaw();
+        assertNotSame(thawedTwice.getInitBlock().get(0), thawedTwice.getInitBlock().get(1));
+        assertTrue(thawedTwice.getInitBlock().get(0).structuralEquals(thawedTwice.getInitBlock().get(1)));
+    }
+
+    @Test
+    public void testPersistentList() {
+        var random = new Random(42);
+        var expected = new ArrayList<Integer>();
+        var list = PersistentList.<Integer>empty();
+        var versions = new ArrayList<PersistentList<Integer>>();
+        for (int i = 0; i < 10_000; i++) {
+            int op = random.nextInt(4);
+            if (op == 0 && !expected.isEmpty()) {
+                int pos = random.nextInt(expected.size());
+                expected.remove(pos);
+                list = list.remove(pos);
+            } else if (op == 1 && !expected.isEmpty()) {
+                int pos = random.nextInt(expected.size());
+                expected.set(pos, i);
+                list = list.set(pos, i);
+            } else {
+                int pos = random.nextInt(expected.size() + 1);
+                expected.add(pos, i);
+                list = list.insert(pos, i);
+            }
+            if (i % 1000 == 0) versions.add(list);
+        }
+        assertEquals(expected, list.toList());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), list.get(i));
+        }
+        // old versions are not changed
+        assertEquals(1, versions.get(0).size());
+        assertEquals(PersistentList.of(expected).toList(), list.toList());
+    }
+}
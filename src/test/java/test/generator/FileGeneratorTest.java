@@ -0,0 +1,109 @@
+package test.generator;
+
+import asg.Main;
+import asg.asts.FileGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileGeneratorTest {
+
+    private static final String SPEC = "package test.gen\n\n"
+            + "abstract syntax:\n\n"
+            + "Expr = Num(int value) | Add(Expr left, Expr right)\n\n"
+            + "attributes:\n";
+
+    @TempDir
+    File dir;
+
+    private File spec;
+    private File out;
+
+    private void generate() throws IOException {
+        Main.main(new String[] {spec.getPath(), dir.getPath()});
+    }
+
+    private void setUp(String content) throws IOException {
+        spec = new File(dir, "gen.parseq");
+        Files.writeString(spec.toPath(), content, StandardCharsets.UTF_8);
+        out = new File(dir, "test/gen");
+    }
+
+    /** marks the manifest, so that it can be seen whether the next run rewrites it */
+    private File markManifest() {
+        File manifest = new File(out, FileGenerator.MANIFEST_NAME);
+        assertTrue(manifest.setLastModified(1000000L));
+        return manifest;
+    }
+
+    @Test
+    public void testUnchangedSpecIsSkipped() throws IOException {
+        setUp(SPEC);
+        generate();
+        assertTrue(new File(out, "Num.java").exists());
+        File manifest = markManifest();
+
+        generate();
+        assertEquals(1000000L, manifest.lastModified());
+    }
+
+    @Test
+    public void testChangedSpecIsGenerated() throws IOException {
+        setUp(SPEC);
+        generate();
+        File manifest = markManifest();
+
+        Files.writeString(spec.toPath(), SPEC.replace("| Add(", "| Neg(Expr expr) | Add("), StandardCharsets.UTF_8);
+        generate();
+        assertNotEquals(1000000L, manifest.lastModified());
+        assertTrue(new File(out, "Neg.java").exists());
+    }
+
+    @Test
+    public void testModifiedFileIsGeneratedAgain() throws IOException {
+        setUp(SPEC);
+        generate();
+        File num = new File(out, "Num.java");
+        String content = Files.readString(num.toPath());
+
+        Files.writeString(num.toPath(), "// changed by hand\n", StandardCharsets.UTF_8);
+        generate();
+        assertEquals(content, Files.readString(num.toPath()));
+    }
+
+    @Test
+    public void testHashInputs() throws IOException {
+        setUp(SPEC);
+        String hash = FileGenerator.hashInputs(spec, new File(dir, "missing.g"));
+        assertEquals(hash, FileGenerator.hashInputs(spec, new File(dir, "missing.g")));
+        Files.writeString(spec.toPath(), SPEC + "\n", StandardCharsets.UTF_8);
+        assertNotEquals(hash, FileGenerator.hashInputs(spec, new File(dir, "missing.g")));
+    }
+
+    @Test
+    public void testBatchReportsEveryFailure() throws Exception {
+        File good = new File(dir, "good.parseq");
+        Files.writeString(good.toPath(), SPEC, StandardCharsets.UTF_8);
+        File broken1 = new File(dir, "broken1.parseq");
+        Files.writeString(broken1.toPath(), "package test.broken1\n\nabstract syntax:\n\nExpr = (\n", StandardCharsets.UTF_8);
+        File broken2 = new File(dir, "broken2.parseq");
+        Files.writeString(broken2.toPath(), "package test.broken2\n\nabstract syntax:\n\nExpr = )\n", StandardCharsets.UTF_8);
+        // same package as good, so it may not be generated into the same folder:
+        File duplicate = new File(dir, "duplicate.parseq");
+        Files.writeString(duplicate.toPath(), SPEC, StandardCharsets.UTF_8);
+
+        var inputs = java.util.List.of(broken1.getPath(), good.getPath(), broken2.getPath(), duplicate.getPath());
+        var outputs = java.util.Collections.nCopies(inputs.size(), dir.getPath());
+        var failed = Main.compileBatch(inputs, outputs);
+
+        // a failure does not stop the remaining specifications
+        assertEquals(java.util.List.of(broken1.getPath(), broken2.getPath(), duplicate.getPath()), failed);
+        assertTrue(new File(dir, "test/gen/Num.java").exists());
+    }
+}
@@ -0,0 +1,125 @@
+package test.hash;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.hash.TH.*;
+
+public class HashTest {
+
+    private static THExpr example() {
+        return Add(Neg(Num(1, 10)), Add(Str("s"), Num(2, 11)));
+    }
+
+    @Test
+    public void testEqualTreesHaveEqualHashes() {
+        var a = example();
+        var b = example();
+        assertTrue(a.structuralEquals(b));
+        assertEquals(a.structuralHash(), b.structuralHash());
+        assertEquals(a.structuralHash(), a.copy().structuralHash());
+
+        assertNotEquals(Num(1, 0).structuralHash(), Num(2, 0).structuralHash());
+        assertNotEquals(Neg(Num(1, 0)).structuralHash(), Num(1, 0).structuralHash());
+        assertEquals(ExprList(Num(1, 0), Num(2, 0)).structuralHash(), ExprList(Num(1, 5), Num(2, 6)).structuralHash());
+    }
+
+    @Test
+    public void testIgnoredParameters() {
+        // the line is ignored by structuralEquals and therefore also by the hash
+        var a = Num(7, 1);
+        var b = Num(7, 2);
+        assertTrue(a.structuralEquals(b));
+        assertEquals(a.structuralHash(), b.structuralHash());
+
+        int h = a.structuralHash();
+        a.setLine(3);
+        assertEquals(h, a.structuralHash());
+    }
+
+    @Test
+    public void testRefsAreHashedByIdentity() {
+        var x = Decl("x", 1);
+        var otherX = Decl("x", 2);
+        var p = Program(DeclList(x, otherX), ExprList(Var(x), Var(x), Var(otherX)));
+        var body = p.getBody();
+        assertTrue(body.get(0).structuralEquals(body.get(1)));
+        assertEquals(body.get(0).structuralHash(), body.get(1).structuralHash());
+        assertFalse(body.get(0).structuralEquals(body.get(2)));
+        // the declarations themselves are structurally equal
+        assertEquals(x.structuralHash(), otherX.structuralHash());
+    }
+
+    @Test
+    public void testCachedHashIsResetOnChange() {
+        var num = Num(1, 0);
+        var p = Program(DeclList(), ExprList(Add(Neg(num), Num(2, 0))));
+        int before = p.structuralHash();
+
+        num.setValue(5);
+        int changed = p.structuralHash();
+        assertNotEquals(before, changed);
+        assertEquals(Program(DeclList(), ExprList(Add(Neg(Num(5, 0)), Num(2, 0)))).structuralHash(), changed);
+
+        num.setValue(1);
+        assertEquals(before, p.structuralHash());
+
+        // changes of lists
+        p.getBody().add(Str("x"));
+        assertNotEquals(before, p.structuralHash());
+        p.getBody().remove(1);
+        assertEquals(before, p.structuralHash());
+
+        // replacing a child
+        var add = (THAdd) p.getBody().get(0);
+        add.setRight(Num(3, 0));
+        assertEquals(Program(DeclList(), ExprList(Add(Neg(Num(1, 0)), Num(3, 0)))).structuralHash(), p.structuralHash());
+    }
+
+    @Test
+    public void testDeepTree() {
+        int depth = 100_000;
+        THNum leaf = Num(0, 0);
+        THExpr expr = leaf;
+        for (int i = 0; i < depth; i++) {
+            expr = Neg(expr);
+        }
+        THExpr copy = (THExpr) expr.copyIterative();
+        assertEquals(expr.structuralHash(), copy.structuralHash());
+
+        // resetting the hashes goes up through all the ancestors
+        leaf.setValue(1);
+        assertNotEquals(copy.structuralHash(), expr.structuralHash());
+        ((THNum) copy.followPath(expr.pathTo(leaf))).setValue(1);
+        assertEquals(expr.structuralHash(), copy.structuralHash());
+    }
+
+    @Test
+    public void testCommonSubexpressions() {
+        var body = ExprList(
+            Add(Num(1, 1), Num(2, 1)),
+            Neg(Add(Num(1, 2), Num(2, 2))),
+            Add(Num(2, 3), Num(1, 3)));
+        // groups structurally equal subtrees with a single pass over the tree
+        Map<Integer, List<THElement>> byHash = new HashMap<>();
+        List<List<THElement>> repeated = new ArrayList<>();
+        for (THElement e : body.preOrder()) {
+            if (!(e instanceof THAdd)) continue;
+            List<THElement> candidates = byHash.computeIfAbsent(e.structuralHash(), h -> new ArrayList<>());
+            for (THElement c : candidates) {
+                if (c.structuralEquals(e)) {
+                    repeated.add(List.of(c, e));
+                }
+            }
+            candidates.add(e);
+        }
+        assertEquals(1, repeated.size());
+        assertSame(body.get(0), repeated.get(0).get(0));
+        assertSame(((THNeg) body.get(1)).getExpr(), repeated.get(0).get(1));
+    }
+}
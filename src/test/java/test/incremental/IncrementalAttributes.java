@@ -0,0 +1,63 @@
+package test.incremental;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class IncrementalAttributes {
+
+    /** number of evaluations of Function.value by function name */
+    static final Map<String, Integer> evaluations = new HashMap<>();
+
+    public static int value(TIExpr e) {
+        return e.match(new TIExpr.Matcher<Integer>() {
+            @Override
+            public Integer case_Add(TIAdd add) {
+                return add.getLeft().value() + add.getRight().value();
+            }
+
+            @Override
+            public Integer case_Num(TINum num) {
+                return num.getValue();
+            }
+
+            @Override
+            public Integer case_Call(TICall call) {
+                TIFunction f = call.target();
+                return f == null ? 0 : f.value();
+            }
+        });
+    }
+
+    public static int value(TIFunction f) {
+        evaluations.merge(f.getName(), 1, Integer::sum);
+        return f.getBody().value();
+    }
+
+    public static int scaled(TIFunction f, int factor) {
+        return f.value() * factor;
+    }
+
+    public static TIFunction target(TICall call) {
+        TIElement e = call;
+        while (!(e instanceof TIFunctionList)) {
+            e = e.getParent();
+            if (e == null) {
+                return null;
+            }
+        }
+        for (TIFunction f : (TIFunctionList) e) {
+            if (f.getName().equals(call.getName())) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    public static Integer maxValue(TIExpr e) {
+        return Math.max(e.value(), e.maxValue());
+    }
+
+    public static Integer zero() {
+        return 0;
+    }
+}
@@ -0,0 +1,113 @@
+package test.incremental;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.incremental.TI.*;
+
+public class IncrementalTest {
+
+    private TIFunctionList functions;
+    private TIFunction a;
+    private TIFunction b;
+    private TIFunction c;
+
+    @BeforeEach
+    public void setUp() {
+        a = Function("a", Add(Num(1), Num(2)));
+        b = Function("b", Num(10));
+        c = Function("c", Add(Call("a"), Num(100)));
+        functions = FunctionList(a, b, c);
+        assertEquals(3, a.value());
+        assertEquals(10, b.value());
+        assertEquals(103, c.value());
+        IncrementalAttributes.evaluations.clear();
+    }
+
+    private int evaluations(String name) {
+        return IncrementalAttributes.evaluations.getOrDefault(name, 0);
+    }
+
+    @Test
+    public void testPropertyChangeInvalidatesDependents() {
+        ((TINum) ((TIAdd) a.getBody()).getLeft()).setValue(5);
+
+        assertEquals(7, a.value());
+        assertEquals(10, b.value());
+        assertEquals(107, c.value());
+        assertEquals(1, evaluations("a"));
+        assertEquals(0, evaluations("b"));
+        assertEquals(1, evaluations("c"));
+    }
+
+    @Test
+    public void testCachedAttributeWithParameters() {
+        AttributeMemo.scaled.reset();
+        assertEquals(206, c.scaled(2));
+        assertEquals(309, c.scaled(3));
+        assertEquals(206, c.scaled(2));
+        assertEquals(1, AttributeMemo.scaled.hits());
+
+        // the memo table depends on everything read while computing its results
+        ((TINum) ((TIAdd) a.getBody()).getLeft()).setValue(5);
+        assertEquals(214, c.scaled(2));
+        assertEquals(321, c.scaled(3));
+        assertEquals(30, b.scaled(3));
+    }
+
+    @Test
+    public void testUnrelatedChangeKeepsValues() {
+        ((TINum) b.getBody()).setValue(20);
+
+        assertEquals(3, a.value());
+        assertEquals(20, b.value());
+        assertEquals(103, c.value());
+        assertEquals(0, evaluations("a"));
+        assertEquals(1, evaluations("b"));
+        assertEquals(0, evaluations("c"));
+    }
+
+    @Test
+    public void testReplaceChild() {
+        b.getBody().replaceBy(Add(Num(1), Num(1)));
+
+        assertEquals(2, b.value());
+        assertEquals(103, c.value());
+        assertEquals(0, evaluations("c"));
+    }
+
+    @Test
+    public void testListChangesInvalidateLookups() {
+        TIFunction d = Function("d", Call("e"));
+        functions.add(d);
+        assertEquals(0, d.value());
+
+        functions.add(Function("e", Num(42)));
+        assertEquals(42, d.value());
+
+        // renaming changes the result of the lookup
+        a.setName("e");
+        assertEquals(100, c.value());
+        assertEquals(3, d.value());
+
+        functions.remove(a);
+        assertEquals(42, d.value());
+    }
+
+    @Test
+    public void testCircularAttribute() {
+        TINum num = (TINum) b.getBody();
+        assertEquals(10, num.maxValue());
+        num.setValue(20);
+        assertEquals(20, num.maxValue());
+    }
+
+    @Test
+    public void testClearAttributesStillWorks() {
+        functions.clearAttributes();
+        assertEquals(103, c.value());
+        assertEquals(1, evaluations("a"));
+        assertEquals(1, evaluations("c"));
+    }
+}
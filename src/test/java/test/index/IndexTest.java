@@ -0,0 +1,74 @@
+package test.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.index.TX.*;
+
+public class IndexTest {
+
+    @Test
+    public void testAllOfType() {
+        var x = VarDecl("x", Num(1));
+        var body = StatementList(
+            x,
+            Assignment(x, Add(VarAccess(x), Num(2))),
+            ReturnStmt(VarAccess(x)));
+        var f = Function("f", body);
+        var call = Call(f, ExprList(VarAccess(x)));
+        var module = Module(FunctionList(f, Function("g", StatementList(call))));
+
+        assertEquals(3, module.allOfType(TXVarAccess.class).size());
+        assertEquals(List.of(call), module.allOfType(TXCall.class));
+        // case types contain all their constructors
+        assertEquals(6, module.allOfType(TXExpr.class).size());
+        assertEquals(4, module.allOfType(TXStatement.class).size());
+
+        // the index is updated when the tree changes
+        body.add(ReturnStmt(VarAccess(x)));
+        assertEquals(4, module.allOfType(TXVarAccess.class).size());
+        var removed = body.remove(1);
+        assertEquals(3, module.allOfType(TXVarAccess.class).size());
+        assertEquals(4, module.allOfType(TXStatement.class).size());
+        call.setArgs(ExprList());
+        assertEquals(2, module.allOfType(TXVarAccess.class).size());
+        assertTrue(module.allOfType(TXCall.class).contains(call));
+
+        // elements below the root are answered without the index
+        assertEquals(2, body.allOfType(TXVarAccess.class).size());
+        assertEquals(List.of(), removed.allOfType(TXCall.class));
+
+        // moving a subtree with an index into another tree
+        var other = StatementList();
+        other.add(ReturnStmt(VarAccess(x)));
+        assertEquals(1, other.allOfType(TXVarAccess.class).size());
+        var stmt = other.remove(0);
+        body.add(stmt);
+        assertEquals(0, other.allOfType(TXVarAccess.class).size());
+        assertEquals(3, module.allOfType(TXVarAccess.class).size());
+    }
+
+    @Test
+    public void testTypeIndexWithRefList() {
+        var x = VarDecl("x", Num(1));
+        var y = VarDecl("y", Num(2));
+        var keep = KeepAlive(VarDeclRefs(x, y));
+        var f = Function("f", StatementList(x, y));
+        var g = Function("g", StatementList(keep));
+        var module = Module(FunctionList(f, g));
+
+        assertEquals(2, module.allOfType(TXVarDecl.class).size());
+        // targets of the ref list are not below g
+        assertEquals(0, g.allOfType(TXVarDecl.class).size());
+        assertEquals(2, f.allOfType(TXVarDecl.class).size());
+
+        // replacing or removing the ref list does not remove its targets from the index
+        keep.setVars(VarDeclRefs(x));
+        assertEquals(2, module.allOfType(TXVarDecl.class).size());
+        g.getBody().remove(keep);
+        assertEquals(2, module.allOfType(TXVarDecl.class).size());
+        assertEquals(List.of(x, y), module.allOfType(TXVarDecl.class));
+    }
+}
@@ -11,13 +11,28 @@ public class InlineAttributes {
         // Check recursively in binary expressions
         if (expr instanceof TIBinaryExpr) {
             var binaryExpr = (TIBinaryExpr) expr;
-            return hasFunction(binaryExpr.getLeft(), funcName) || 
-                   hasFunction(binaryExpr.getRight(), funcName);
+            return binaryExpr.getLeft().hasFunction(funcName) ||
+                   binaryExpr.getRight().hasFunction(funcName);
         }
         
         return false;
     }
     
+    public static int nodeCount(TIExpr expr) {
+        if (expr instanceof TIBinaryExpr) {
+            var binaryExpr = (TIBinaryExpr) expr;
+            return 2 + binaryExpr.getLeft().nodeCount() + binaryExpr.getRight().nodeCount();
+        }
+        if (expr instanceof TIFunctionCallExpr) {
+            int count = 2;
+            for (TIExpr arg : ((TIFunctionCallExpr) expr).getArgs()) {
+                count += arg.nodeCount();
+            }
+            return count;
+        }
+        return 1;
+    }
+
     public static boolean hasFunction(TIStatement stmt, String funcName) {
         // Implementation for statements would check all expressions within the statement
         return false; // Simplified for this example
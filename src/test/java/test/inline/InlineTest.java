@@ -817,6 +817,55 @@ public class InlineTest {
         // For other statement types, we don't need to simulate them for this test
     }
 
+    @Test
+    public void testCachedNodeCount() {
+        var expr = BinaryExpr(VarRef("x"), Plus(), FunctionCallExpr(null, ExprList(IntLiteral(1), IntLiteral(2))));
+        assertEquals(7, expr.nodeCount());
+        ((TIFunctionCallExpr) expr.getRight()).getArgs().add(IntLiteral(3));
+        // cached until cleared
+        assertEquals(7, expr.nodeCount());
+        expr.clearAttributes();
+        assertEquals(8, expr.nodeCount());
+    }
+
+    @Test
+    public void testCachedHasFunction() {
+        var f = FunctionDef("f", ParameterList(), SimpleType("int"), StatementList(ReturnStatement(IntLiteral(1))));
+        var g = FunctionDef("g", ParameterList(), SimpleType("int"), StatementList(ReturnStatement(IntLiteral(2))));
+        var call = FunctionCallExpr(f, ExprList());
+        var expr = BinaryExpr(BinaryExpr(VarRef("x"), Plus(), call), Plus(), IntLiteral(3));
+        var stats = AttributeMemo.hasFunction;
+        stats.reset();
+
+        assertTrue(expr.hasFunction("f"));
+        assertFalse(expr.hasFunction("g"));
+        long misses = stats.misses();
+        assertEquals(0, stats.hits());
+
+        // the second time, the results are taken from the memo table of expr
+        assertTrue(expr.hasFunction("f"));
+        assertFalse(expr.hasFunction("g"));
+        assertEquals(2, stats.hits());
+        assertEquals(misses, stats.misses());
+
+        // cached until cleared
+        call.setFunc(g);
+        assertFalse(expr.hasFunction("g"));
+        expr.clearAttributes();
+        assertTrue(expr.hasFunction("g"));
+        assertFalse(expr.hasFunction("f"));
+
+        // only the newest results are kept
+        stats.reset();
+        for (int i = 0; i < 20; i++) {
+            expr.hasFunction("h" + i);
+        }
+        expr.hasFunction("h19");
+        assertEquals(1, stats.hits());
+        expr.hasFunction("h0");
+        assertEquals(1, stats.hits());
+    }
+
     private int evaluateExpression(TIExpr expr, Map<String, Integer> state, TIProgram program) {
         if (expr instanceof TIIntLiteral) {
             return ((TIIntLiteral) expr).getIntValue();
@@ -0,0 +1,63 @@
+package test.intern;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.intern.TI.*;
+
+public class InternTest {
+
+    @Test
+    public void testInternedOperators() {
+        // operators are interned, so there is only one Plus
+        assertSame(Plus(), Plus());
+        assertNotSame(Plus(), Times());
+
+        var a = BinaryExpr(Lit(Num(1)), Plus(), Lit(Num(2)));
+        var b = BinaryExpr(Var(Name("x", 0)), Plus(), Var(Name("y", 0)));
+        assertSame(a.getOperator(), b.getOperator());
+        // shared elements do not have a single parent
+        assertNull(a.getOperator().getParent());
+        assertEquals(a, a.getLeft().getParent());
+
+        var copy = a.copy();
+        assertNotSame(a, copy);
+        assertSame(a.getOperator(), copy.getOperator());
+        assertTrue(copy.structuralEquals(a));
+
+        // replacing the operator goes through the parent
+        a.setOperator(Times());
+        assertSame(Times(), a.getOperator());
+        assertSame(Plus(), b.getOperator());
+        assertThrows(UnsupportedOperationException.class, () -> b.getOperator().replaceBy(Times()));
+    }
+
+    @Test
+    public void testInternedValues() {
+        assertSame(Num(7), Num(7));
+        assertNotSame(Num(7), Num(8));
+        assertSame(Name("x", 1), Name("x", 1));
+        assertNotSame(Name("x", 1), Name("x", 2));
+        assertNotSame(Name("x", 1), Name("y", 1));
+
+        var e = BinaryExpr(Lit(Num(3)), Times(), Lit(Num(3)));
+        assertSame(((TILit) e.getLeft()).getNum(), ((TILit) e.getRight()).getNum());
+    }
+
+    @Test
+    public void testUnusedInstancesAreCollected() throws InterruptedException {
+        var kept = Name("kept", 0);
+        var unused = new WeakReference<>(Num(123456));
+        for (int i = 0; i < 100 && unused.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // the intern table does not keep unused instances alive
+        assertNull(unused.get());
+        assertEquals(123456, Num(123456).getValue());
+        // but an instance in use stays the only one
+        assertSame(kept, Name("kept", 0));
+    }
+}
@@ -0,0 +1,132 @@
+package test.journal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.journal.TJ.*;
+
+public class JournalTest {
+
+    @Test
+    public void testJournalRollback() {
+        var x = Assignment("x", IntLiteral(5));
+        var loop = WhileLoop(BinaryExpr(VarRef("x"), Less(), IntLiteral(10)), StatementList(
+                Assignment("x", BinaryExpr(VarRef("x"), Plus(), IntLiteral(1)))));
+        var program = Program(StatementList(x, loop, ExprStatement(VarRef("x"))));
+        x.setLabel("init");
+        var original = program.copy();
+
+        int cp = Journal.checkpoint();
+        // properties, children and fields
+        x.setVarName("y");
+        x.setValue(IntLiteral(6));
+        x.setLabel("changed");
+        // moving a statement into the loop
+        var statements = program.getStatements();
+        var last = statements.remove(2);
+        loop.getBody().add(0, last);
+        // list operations
+        statements.add(Block(StatementList()));
+        statements.set(0, Assignment("z", IntLiteral(1)));
+        statements.addAll(1, List.of(ExprStatement(IntLiteral(1)), ExprStatement(IntLiteral(2))));
+        statements.edit(e -> e.remove(1).insert(0, ExprStatement(IntLiteral(3))));
+        loop.getBody().removeAll(List.of(last));
+        // a direct parent change
+        loop.getCondition().setParent(null);
+        // a committed inner checkpoint is rolled back with the outer one
+        int inner = Journal.checkpoint();
+        statements.clear();
+        Journal.commit(inner);
+        assertTrue(Journal.size() > 0);
+
+        Journal.rollback(cp);
+        assertEquals(0, Journal.size());
+        assertTrue(original.structuralEquals(program));
+        assertSame(statements, program.getStatements());
+        assertSame(x, statements.get(0));
+        assertSame(last, statements.get(2));
+        assertSame(statements, last.getParent());
+        assertSame(loop, loop.getCondition().getParent());
+        assertSame(x, x.getValue().getParent());
+        assertEquals("init", x.getLabel());
+        for (int i = 0; i < statements.size(); i++) {
+            assertEquals(i, statements.get(i).getIndexInParent());
+        }
+
+        // changes without an open checkpoint are not recorded
+        x.setVarName("y");
+        assertEquals(0, Journal.size());
+    }
+
+    @Test
+    public void testJournalSubListIterator() {
+        var a = Assignment("a", IntLiteral(1));
+        var b = Assignment("b", IntLiteral(2));
+        var c = Assignment("c", IntLiteral(3));
+        var statements = StatementList(a, b, c);
+        var original = statements.copy();
+
+        int cp = Journal.checkpoint();
+        // reading through the iterator records nothing
+        for (var s : statements.subList(0, 3)) {
+            assertNotNull(s);
+        }
+        assertEquals(0, Journal.size());
+
+        var it = statements.subList(1, 3).listIterator();
+        it.next();
+        it.remove();
+        it.next();
+        it.set(Assignment("d", IntLiteral(4)));
+        it.add(Assignment("e", IntLiteral(5)));
+
+        Journal.rollback(cp);
+        assertTrue(original.structuralEquals(statements));
+        assertSame(b, statements.get(1));
+        assertSame(statements, c.getParent());
+    }
+
+    @Test
+    public void testJournalNestedRollback() {
+        var statements = StatementList(Assignment("a", IntLiteral(1)));
+        int outer = Journal.checkpoint();
+        statements.add(Assignment("b", IntLiteral(2)));
+        int inner = Journal.checkpoint();
+        statements.add(Assignment("c", IntLiteral(3)));
+        // only the changes after the inner checkpoint are undone
+        Journal.rollback(inner);
+        assertEquals(2, statements.size());
+        assertThrows(IllegalStateException.class, () -> Journal.rollback(inner));
+        Journal.commit(outer);
+        assertEquals(2, statements.size());
+        assertEquals(0, Journal.size());
+    }
+
+    @Test
+    public void testRollbackIsReportedToTreeListeners() {
+        var x = Assignment("x", IntLiteral(5));
+        var loop = WhileLoop(BoolLiteral(true), StatementList());
+        var program = Program(StatementList(x, loop));
+        var events = new ArrayList<String>();
+        program.addTreeListener(new TreeListener() {
+            @Override
+            public void listInserted(TJElement list, int index, TJElement element) {
+                events.add("inserted " + index + " " + element);
+            }
+
+            @Override
+            public void listRemoved(TJElement list, int index, TJElement element) {
+                events.add("removed " + index + " " + element);
+            }
+        });
+
+        // a rollback is reported like other changes
+        int cp = Journal.checkpoint();
+        program.getStatements().remove(1);
+        Journal.rollback(cp);
+        assertEquals(List.of("removed 1 " + loop, "inserted 1 " + loop), events);
+    }
+}
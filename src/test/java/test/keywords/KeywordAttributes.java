@@ -0,0 +1,21 @@
+package test.keywords;
+
+public class KeywordAttributes {
+
+    public static boolean cached(TKEntry entry) {
+        return entry.getCached() != 0;
+    }
+
+    public static TKEntry find(TKTable table, String cached) {
+        for (TKEntry e : table.getEntries()) {
+            if (e.getName().equals(cached)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public static int entryCount(TKTable table) {
+        return table.getEntries().size();
+    }
+}
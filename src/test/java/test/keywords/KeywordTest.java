@@ -0,0 +1,25 @@
+package test.keywords;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.keywords.TK.*;
+
+public class KeywordTest {
+
+    @Test
+    public void testCachedAsName() {
+        var a = Entry(1, "a");
+        var b = Entry(0, "b");
+        var table = Table(EntryList(a, b));
+        // 'cached' is a parameter and an attribute name here
+        assertEquals(1, a.getCached());
+        assertTrue(a.cached());
+        assertFalse(b.cached());
+        // and the modifier of find
+        assertSame(b, table.find("b"));
+        assertSame(b, table.find("b"));
+        assertNull(table.find("c"));
+        assertEquals(2, table.entryCount());
+    }
+}
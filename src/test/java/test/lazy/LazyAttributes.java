@@ -0,0 +1,56 @@
+package test.lazy;
+
+public class LazyAttributes {
+
+    /** number of evaluations of Call.target */
+    static int targetEvaluations = 0;
+
+    public static int depth(TLElement e) {
+        return e.getParent() == null ? 0 : e.getParent().depth() + 1;
+    }
+
+    public static int value(TLExpr e) {
+        return e.match(new TLExpr.Matcher<Integer>() {
+            @Override
+            public Integer case_Add(TLAdd add) {
+                return add.getLeft().value() + add.getRight().value();
+            }
+
+            @Override
+            public Integer case_Num(TLNum num) {
+                return num.getValue();
+            }
+
+            @Override
+            public Integer case_Call(TLCall call) {
+                TLFunction f = call.target();
+                return f == null ? 0 : f.getBody().value();
+            }
+        });
+    }
+
+    public static TLFunction target(TLCall call) {
+        targetEvaluations++;
+        TLElement e = call;
+        while (!(e instanceof TLFunctionList)) {
+            e = e.getParent();
+            if (e == null) {
+                return null;
+            }
+        }
+        for (TLFunction f : (TLFunctionList) e) {
+            if (f.getName().equals(call.getName())) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    public static Integer maxValue(TLExpr e) {
+        return Math.max(e.value(), e.maxValue());
+    }
+
+    public static Integer zero() {
+        return 0;
+    }
+}
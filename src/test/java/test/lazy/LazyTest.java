@@ -0,0 +1,82 @@
+package test.lazy;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.lazy.TL.*;
+
+public class LazyTest {
+
+    @Test
+    public void testAttributeValues() {
+        var a = Function("a", Add(Num(1), Num(2)));
+        var c = Function("c", Add(Call("a"), Num(100)));
+        FunctionList(a, c);
+
+        assertEquals(3, a.getBody().value());
+        assertEquals(103, c.getBody().value());
+        assertEquals(103, c.getBody().maxValue());
+        assertEquals(3, ((TLAdd) c.getBody()).getLeft().depth());
+    }
+
+    @Test
+    public void testNullValueIsCached() {
+        var call = Call("missing");
+        FunctionList(Function("f", call));
+        LazyAttributes.targetEvaluations = 0;
+
+        assertNull(call.target());
+        assertNull(call.target());
+        assertEquals(1, LazyAttributes.targetEvaluations);
+
+        call.clearAttributes();
+        assertNull(call.target());
+        assertEquals(2, LazyAttributes.targetEvaluations);
+    }
+
+    @Test
+    public void testCyclicDependency() {
+        var f = Function("f", Add(Num(1), Call("f")));
+        FunctionList(f);
+        assertThrows(CyclicDependencyError.class, () -> f.getBody().value());
+    }
+
+    @Test
+    public void testClearAttributes() {
+        var num = Num(1);
+        var a = Function("a", Add(num, Num(2)));
+        FunctionList(a);
+        assertEquals(3, a.getBody().value());
+
+        num.setValue(5);
+        assertEquals(3, a.getBody().value());
+        a.clearAttributes();
+        assertEquals(7, a.getBody().value());
+    }
+
+    @Test
+    public void testStorageIsAllocatedLazily() throws ReflectiveOperationException {
+        // a single field for all cached attributes
+        List<String> fields = new ArrayList<>();
+        for (Field f : TLNumImpl.class.getDeclaredFields()) {
+            if (f.getName().startsWith("zzattr")) {
+                fields.add(f.getName());
+            }
+        }
+        assertEquals(List.of("zzattrs"), fields);
+
+        var num = Num(1);
+        var add = Add(num, Num(2));
+        Field attrs = TLNumImpl.class.getDeclaredField("zzattrs");
+        attrs.setAccessible(true);
+        assertNull(attrs.get(num));
+        assertEquals(3, add.value());
+        assertNotNull(attrs.get(num));
+        add.clearAttributes();
+        assertNull(attrs.get(num));
+    }
+}
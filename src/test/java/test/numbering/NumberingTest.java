@@ -0,0 +1,85 @@
+package test.numbering;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static test.numbering.TN.*;
+
+public class NumberingTest {
+
+    @Test
+    public void testIsAncestorOf() {
+        var x = VarDecl("x", Num(1));
+        var access = VarAccess(x);
+        var ret = ReturnStmt(access);
+        var body = StatementList(x, ret);
+        var f = Function("f", body);
+        var g = Function("g", StatementList());
+        var module = Module(FunctionList(f, g));
+
+        // the same answers with and without numbering
+        for (int i = 0; i < 2; i++) {
+            assertTrue(module.isAncestorOf(access));
+            assertTrue(f.isAncestorOf(access));
+            assertTrue(body.isAncestorOf(ret));
+            assertFalse(g.isAncestorOf(access));
+            assertFalse(access.isAncestorOf(f));
+            assertFalse(ret.isAncestorOf(ret));
+            assertFalse(x.isAncestorOf(access));
+            module.number();
+        }
+
+        // moving an element invalidates the numbering
+        body.remove(ret);
+        assertFalse(f.isAncestorOf(access));
+        assertTrue(ret.isAncestorOf(access));
+        g.getBody().add(ret);
+        assertTrue(g.isAncestorOf(access));
+        assertFalse(f.isAncestorOf(access));
+        assertTrue(module.isAncestorOf(access));
+
+        // a new element in a numbered tree
+        module.number();
+        var y = VarDecl("y", Num(2));
+        body.add(y);
+        assertTrue(f.isAncestorOf(y));
+        assertFalse(g.isAncestorOf(y));
+        assertTrue(g.isAncestorOf(access));
+    }
+
+    @Test
+    public void testIsAncestorOfWithRefList() {
+        var x = VarDecl("x", Num(1));
+        var keep = KeepAlive(VarDeclRefs(x));
+        var f = Function("f", StatementList(x));
+        var g = Function("g", StatementList(keep));
+        var module = Module(FunctionList(f, g));
+        var init = x.getInitializer();
+
+        // the same answers with and without numbering, targets of refs are not descendants of the ref list
+        for (int i = 0; i < 2; i++) {
+            assertTrue(f.isAncestorOf(x));
+            assertTrue(f.isAncestorOf(init));
+            assertFalse(g.isAncestorOf(x));
+            assertFalse(keep.isAncestorOf(init));
+            assertFalse(keep.getVars().isAncestorOf(x));
+            assertTrue(module.isAncestorOf(init));
+            module.number();
+        }
+    }
+
+    @Test
+    public void testDeepTree() {
+        int depth = 1_000_000;
+        TNExpr expr = Num(42);
+        TNExpr literal = expr;
+        for (int i = 0; i < depth; i++) {
+            expr = Neg(expr);
+        }
+
+        // numbering does not recurse
+        expr.number();
+        assertTrue(expr.isAncestorOf(literal));
+        assertFalse(literal.isAncestorOf(expr));
+    }
+}
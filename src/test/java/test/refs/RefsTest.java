@@ -122,6 +122,71 @@ public class RefsTest {
         assertNotSame(assignment, copiedAssignment);
     }
 
+    @Test
+    public void testCopyWithReferencesNestedAndOutside() {
+        var outside = VarDecl(SimpleType("int"), "g", IntLiteral(0));
+        var local = VarDecl(SimpleType("int"), "x", IntLiteral(5));
+        var innerAccess = VarAccess(local);
+        var outerAccess = VarAccess(outside);
+
+        var func = FunctionDef("f",
+            ParameterList(),
+            SimpleType("int"),
+            StatementList(
+                local,
+                Assignment(local, BinaryExpr(innerAccess, Plus(), outerAccess)),
+                ReturnStmt(VarAccess(local))
+            )
+        );
+
+        var copy = func.copyWithRefs();
+        var copiedLocal = (TRVarDecl) copy.getBody().get(0);
+        var copiedAssignment = (TRAssignment) copy.getBody().get(1);
+        var copiedBinary = (TRBinaryExpr) copiedAssignment.getValue();
+        var copiedReturn = (TRReturnStmt) copy.getBody().get(2);
+
+        // references into the copied tree point to the copies
+        assertNotSame(local, copiedLocal);
+        assertSame(copiedLocal, copiedAssignment.getTarget());
+        assertSame(copiedLocal, ((TRVarAccess) copiedBinary.getLeft()).getVariable());
+        assertSame(copiedLocal, ((TRVarAccess) copiedReturn.getValue()).getVariable());
+        // references to elements outside of the copied tree are kept
+        assertSame(outside, ((TRVarAccess) copiedBinary.getRight()).getVariable());
+        // the original is unchanged
+        assertSame(local, innerAccess.getVariable());
+    }
+
+    @Test
+    public void testCopyWithRefsInDeeplyNestedBlocks() {
+        int depth = 1000;
+        var top = StatementList();
+        var body = top;
+        TRVarDecl outer = null;
+        for (int i = 0; i < depth; i++) {
+            var local = VarDecl(SimpleType("int"), "x" + i, IntLiteral(i));
+            body.add(local);
+            if (outer != null) body.add(Assignment(outer, VarAccess(local)));
+            var inner = StatementList();
+            body.add(Block(inner));
+            body = inner;
+            outer = local;
+        }
+
+        var copy = top.copyWithRefs();
+        var copiedBody = copy;
+        TRVarDecl copiedOuter = null;
+        for (int i = 0; i < depth; i++) {
+            var copiedLocal = (TRVarDecl) copiedBody.get(0);
+            if (copiedOuter != null) {
+                var assignment = (TRAssignment) copiedBody.get(1);
+                assertSame(copiedOuter, assignment.getTarget());
+                assertSame(copiedLocal, ((TRVarAccess) assignment.getValue()).getVariable());
+            }
+            copiedBody = ((TRBlock) copiedBody.get(copiedBody.size() - 1)).getBody();
+            copiedOuter = copiedLocal;
+        }
+    }
+
     @Test
     public void testReferenceIntegrityAfterModification() {
         var varDecl = VarDecl(SimpleType("int"), "x", IntLiteral(5));
@@ -294,4 +359,154 @@ public class RefsTest {
         assertEquals(2, myClass.getFields().size());
         assertEquals(1, myClass.getMethods().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWriteAndReadWithReferences() throws java.io.IOException {
+        var local = VarDecl(SimpleType("int"), "x", IntLiteral(-5));
+        var func = FunctionDef("f",
+            ParameterList(Parameter(SimpleType("int"), "x")),
+            SimpleType("int"),
+            StatementList(
+                local,
+                Assignment(local, BinaryExpr(VarAccess(local), Plus(), BoolLiteral(true))),
+                ReturnStmt(VarAccess(local))
+            )
+        );
+        var module = Module(FunctionList(func), ClassDefList());
+        var call = FunctionCall(func, ExprList(IntLiteral(Integer.MIN_VALUE)));
+        func.getBody().add(call);
+
+        var bytes = new java.io.ByteArrayOutputStream();
+        module.write(new java.io.DataOutputStream(bytes));
+        var read = TRModule.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())));
+
+        var readFunc = read.getFunctions().get(0);
+        var readLocal = (TRVarDecl) readFunc.getBody().get(0);
+        var readAssignment = (TRAssignment) readFunc.getBody().get(1);
+        var readReturn = (TRReturnStmt) readFunc.getBody().get(2);
+        var readCall = (TRFunctionCall) readFunc.getBody().get(3);
+        // references point into the read tree
+        assertSame(readLocal, readAssignment.getTarget());
+        assertSame(readLocal, ((TRVarAccess) ((TRBinaryExpr) readAssignment.getValue()).getLeft()).getVariable());
+        assertSame(readLocal, ((TRVarAccess) readReturn.getValue()).getVariable());
+        assertSame(readFunc, readCall.getFunc());
+        assertEquals("f", readFunc.getName());
+        assertEquals("x", readFunc.getParams().get(0).getName());
+        assertEquals(-5, ((TRIntLiteral) readLocal.getInitializer()).getIntValue());
+        assertEquals(Integer.MIN_VALUE, ((TRIntLiteral) readCall.getArgs().get(0)).getIntValue());
+        assertTrue(((TRBoolLiteral) ((TRBinaryExpr) readAssignment.getValue()).getRight()).getBoolValue());
+        assertSame(read, readFunc.getParent().getParent());
+    }
+
+    @Test
+    public void testWriteSharesStrings() throws java.io.IOException {
+        String name = "aVeryLongVariableNameWhichShouldOnlyBeWrittenOnce";
+        var list = StatementList();
+        for (int i = 0; i < 100; i++) {
+            list.add(VarDecl(SimpleType("int"), name, IntLiteral(i)));
+        }
+        var bytes = new java.io.ByteArrayOutputStream();
+        list.write(new java.io.DataOutputStream(bytes));
+        assertTrue(bytes.size() < 100 * 8, "size = " + bytes.size());
+        var read = TRStatementList.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(list.structuralEquals(read));
+    }
+
+    @Test
+    public void testWriteReferenceOutsideOfTree() {
+        var outside = VarDecl(SimpleType("int"), "g", IntLiteral(0));
+        var access = VarAccess(outside);
+        assertThrows(IllegalStateException.class, () -> access.write(new java.io.DataOutputStream(new java.io.ByteArrayOutputStream())));
+    }
+
+    @Test
+    public void testReadInvalidInput() throws java.io.IOException {
+        assertThrows(java.io.IOException.class, () ->
+            TRElement.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}))));
+
+        var bytes = new java.io.ByteArrayOutputStream();
+        IntLiteral(42).write(new java.io.DataOutputStream(bytes));
+        assertThrows(java.io.IOException.class, () ->
+            TRModule.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray()))));
+        var literal = (TRIntLiteral) TRElement.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(42, literal.getIntValue());
+    }
+
+    /** replaces the first occurrence of part in bytes */
+    private static byte[] replace(byte[] bytes, byte[] part, byte[] replacement) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (java.util.Arrays.equals(bytes, i, i + part.length, part, 0, part.length)) {
+                var result = new java.io.ByteArrayOutputStream();
+                result.write(bytes, 0, i);
+                result.write(replacement, 0, replacement.length);
+                result.write(bytes, i + part.length, bytes.length - i - part.length);
+                return result.toByteArray();
+            }
+        }
+        throw new IllegalArgumentException("part not found");
+    }
+
+    @Test
+    public void testReadNegativeNumbers() throws java.io.IOException {
+        var x = VarDecl(SimpleType("int"), "x", IntLiteral(1));
+        var body = StatementList(x, ReturnStmt(VarAccess(x)));
+        var bytes = new java.io.ByteArrayOutputStream();
+        body.write(new java.io.DataOutputStream(bytes));
+        byte[] written = bytes.toByteArray();
+        // varint encoding of -1
+        byte[] minusOne = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+
+        // a new string "int" is written as 1, its length and its bytes
+        byte[] negativeLength = replace(written, new byte[] {1, 3, 'i', 'n', 't'}, new byte[] {1, minusOne[0], minusOne[1], minusOne[2], minusOne[3], minusOne[4]});
+        var e = assertThrows(java.io.IOException.class, () ->
+            TRStatementList.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(negativeLength))));
+        assertTrue(e.getMessage().startsWith("Corrupted tree"), e.getMessage());
+
+        byte[] negativeString = replace(written, new byte[] {1, 3, 'i', 'n', 't'}, minusOne);
+        e = assertThrows(java.io.IOException.class, () ->
+            TRStatementList.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(negativeString))));
+        assertTrue(e.getMessage().startsWith("Corrupted tree"), e.getMessage());
+    }
+
+    @Test
+    public void testTreeView() throws java.io.IOException {
+        var local = VarDecl(SimpleType("int"), "x", IntLiteral(-5));
+        var func = FunctionDef("f",
+            ParameterList(),
+            SimpleType("int"),
+            StatementList(
+                local,
+                Assignment(local, BinaryExpr(VarAccess(local), Plus(), IntLiteral(3))),
+                ReturnStmt(VarAccess(local))
+            )
+        );
+        var bytes = new java.io.ByteArrayOutputStream();
+        FunctionList(func).write(new java.io.DataOutputStream(bytes));
+
+        var view = TreeView.of(java.nio.ByteBuffer.wrap(bytes.toByteArray()));
+        var functions = (TRFunctionListView) view.root();
+        assertNull(functions.getParent());
+        var funcView = functions.get(0);
+        assertEquals("f", funcView.getName());
+        assertEquals(functions, funcView.getParent());
+        var localView = (TRVarDeclView) funcView.getBody().get(0);
+        assertEquals("x", localView.getName());
+        assertEquals("int", ((TRSimpleTypeView) localView.getVarType()).getTypeName());
+        assertEquals(-5, ((TRIntLiteralView) localView.getInitializer()).getIntValue());
+        var assignmentView = (TRAssignmentView) funcView.getBody().get(1);
+        assertEquals(localView, assignmentView.getTarget());
+        var binaryView = (TRBinaryExprView) assignmentView.getValue();
+        assertEquals(localView, ((TRVarAccessView) binaryView.getLeft()).getVariable());
+        assertEquals(3, binaryView.get(2) instanceof TRIntLiteralView l ? l.getIntValue() : 0);
+
+        // the whole tree keeps its refs
+        var materialized = funcView.materialize();
+        var materializedLocal = (TRVarDecl) materialized.getBody().get(0);
+        assertSame(materializedLocal, ((TRAssignment) materialized.getBody().get(1)).getTarget());
+        assertEquals(func.toString(), materialized.toString());
+        // refs leaving a subtree are set to null
+        var returnStmt = (TRReturnStmt) funcView.getBody().get(2).materialize();
+        assertNull(((TRVarAccess) returnStmt.getValue()).getVariable());
+        assertNull(returnStmt.getParent());
+    }
+}
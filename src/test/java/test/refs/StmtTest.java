@@ -225,6 +225,254 @@ public class StmtTest {
         assertEquals(4, varCounter.count); // a, b, c, d
     }
 
+    @Test
+    public void testEditStatementList() {
+        var a = Assignment("a", IntLiteral(1));
+        var b = Assignment("b", IntLiteral(2));
+        var c = Assignment("c", IntLiteral(3));
+        var d = Assignment("d", IntLiteral(4));
+        var list = StatementList(a, b, c, d);
+        var x = Assignment("x", IntLiteral(5));
+        var y = Assignment("y", IntLiteral(6));
+        var z = Assignment("z", IntLiteral(7));
+
+        // positions refer to the list before the edit, b moves to the end
+        list.edit(e -> e
+            .insert(0, x)
+            .remove(1)
+            .replace(2, y)
+            .insert(2, z)
+            .insert(4, b));
+        assertEquals(java.util.List.of(x, a, z, y, d, b), list);
+        assertSame(list, b.getParent());
+        assertSame(list, y.getParent());
+        assertNull(c.getParent());
+        assertEquals(5, list.indexOf(b));
+        assertEquals(3, list.indexOf(y));
+
+        // invalid edits
+        assertThrows(IllegalStateException.class, () -> list.edit(e -> e.remove(0).replace(0, c)));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.edit(e -> e.remove(6)));
+
+        // a failing edit leaves the list unchanged
+        var w = Assignment("w", IntLiteral(8));
+        var other = StatementList(w);
+        var before = java.util.List.copyOf(list);
+        var fresh = Assignment("f", IntLiteral(9));
+        assertThrows(Error.class, () -> list.edit(e -> e.remove(0).replace(1, fresh).insert(0, w)));
+        assertThrows(Error.class, () -> list.edit(e -> e.remove(0).insert(3, a)));
+        assertThrows(Error.class, () -> list.edit(e -> e.insert(0, fresh).insert(1, fresh)));
+        assertEquals(before, list);
+        for (var s : list) assertSame(list, s.getParent());
+        assertSame(other, w.getParent());
+        assertNull(fresh.getParent());
+
+        // bulk operations on a large list
+        var big = StatementList();
+        int n = 100_000;
+        for (int i = 0; i < n; i++) big.add(Assignment("v" + i, IntLiteral(i)));
+        big.edit(e -> {
+            for (int i = 0; i < e.size(); i += 2) {
+                e.insert(i, ExprStatement(VarRef("before" + i)));
+                e.remove(i + 1);
+            }
+        });
+        assertEquals(n, big.size());
+        assertInstanceOf(TSExprStatement.class, big.get(0));
+        assertEquals("v0", ((TSAssignment) big.get(1)).getVarName());
+        assertEquals("v2", ((TSAssignment) big.get(3)).getVarName());
+        for (int i = 0; i < n; i++) assertEquals(i, big.indexOf(big.get(i)));
+
+        var inserted = new java.util.ArrayList<TSStatement>();
+        for (int i = 0; i < n; i++) inserted.add(ExprStatement(IntLiteral(i)));
+        big.addAll(1, inserted);
+        assertEquals(2 * n, big.size());
+        assertSame(big, inserted.get(0).getParent());
+        assertSame(inserted.get(n - 1), big.get(n));
+        big.removeAll(new java.util.HashSet<>(inserted));
+        assertEquals(n, big.size());
+        assertNull(inserted.get(0).getParent());
+        assertEquals(n - 1, big.indexOf(big.get(n - 1)));
+    }
+
+    @Test
+    public void testTreeListener() {
+        var x = Assignment("x", IntLiteral(5));
+        var loop = WhileLoop(BoolLiteral(true), StatementList());
+        var program = Program(StatementList(x, loop));
+        var events = new java.util.ArrayList<String>();
+        test.stmt.TreeListener listener = new test.stmt.TreeListener() {
+            @Override
+            public void childReplaced(TSElement parent, int index, TSElement oldChild, TSElement newChild) {
+                events.add("replaced " + index + " " + oldChild + " " + newChild);
+            }
+
+            @Override
+            public void propertyChanged(TSElement element, String property, Object oldValue, Object newValue) {
+                events.add(property + " " + oldValue + " " + newValue);
+            }
+
+            @Override
+            public void listInserted(TSElement list, int index, TSElement element) {
+                events.add("inserted " + index + " " + element);
+            }
+
+            @Override
+            public void listRemoved(TSElement list, int index, TSElement element) {
+                events.add("removed " + index + " " + element);
+            }
+
+            @Override
+            public void listReplaced(TSElement list, int index, TSElement oldElement, TSElement newElement) {
+                events.add("set " + index + " " + oldElement + " " + newElement);
+            }
+
+            @Override
+            public void listContentsChanged(TSElement list, java.util.List<?> oldElements) {
+                events.add("contents " + oldElements.size() + " " + list.size());
+            }
+        };
+        program.addTreeListener(listener);
+
+        x.setVarName("y");
+        x.setValue(IntLiteral(6));
+        x.setLabel("l");
+        // changes deep in the tree are reported to the listener of the root
+        loop.getBody().add(ExprStatement(IntLiteral(1)));
+        loop.getBody().addAll(0, java.util.List.of(ExprStatement(IntLiteral(2))));
+        loop.getBody().set(1, ExprStatement(IntLiteral(3)));
+        loop.getBody().remove(0);
+        loop.getBody().clear();
+        assertEquals(java.util.List.of(
+                "varName x y",
+                "replaced 0 IntLiteral(5) IntLiteral(6)",
+                "label null l",
+                "inserted 0 ExprStatement(IntLiteral(1))",
+                "inserted 0 ExprStatement(IntLiteral(2))",
+                "set 1 ExprStatement(IntLiteral(1)) ExprStatement(IntLiteral(3))",
+                "removed 0 ExprStatement(IntLiteral(2))",
+                "contents 1 0"), events);
+
+        // changes outside of the subtree are not reported
+        events.clear();
+        var other = Assignment("a", IntLiteral(1));
+        other.setVarName("b");
+        // nor changes after removing the listener
+        program.removeTreeListener(listener);
+        x.setVarName("z");
+        assertEquals(java.util.List.of(), events);
+    }
+
+    @Test
+    public void testTreeListenersOfSeparateTrees() throws Exception {
+        int threads = 4;
+        var pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        try {
+            var start = new java.util.concurrent.CountDownLatch(1);
+            var counts = new java.util.ArrayList<java.util.concurrent.Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                counts.add(pool.submit(() -> {
+                    var statements = StatementList();
+                    var program = Program(statements);
+                    int[] count = {0};
+                    test.stmt.TreeListener listener = new test.stmt.TreeListener() {
+                        @Override
+                        public void listInserted(TSElement list, int index, TSElement element) {
+                            count[0]++;
+                        }
+                    };
+                    start.await();
+                    // every tree keeps its own listeners, so adding them from several threads is safe
+                    program.addTreeListener(listener);
+                    for (int i = 0; i < 1000; i++) {
+                        statements.add(ExprStatement(IntLiteral(i)));
+                    }
+                    program.removeTreeListener(listener);
+                    statements.add(ExprStatement(IntLiteral(-1)));
+                    return count[0];
+                }));
+            }
+            start.countDown();
+            for (var count : counts) {
+                assertEquals(1000, count.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTreeListenerDoesNotKeepTreeAlive() throws InterruptedException {
+        var program = Program(StatementList(Assignment("x", IntLiteral(1))));
+        program.addTreeListener(new test.stmt.TreeListener() {});
+        var ref = new java.lang.ref.WeakReference<>(program);
+        program = null;
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void testRewriter() {
+        var rewriter = new test.stmt.Rewriter()
+                .onBinaryExpr(b -> {
+                    if (b.getOperator() instanceof TSPlus
+                            && b.getLeft() instanceof TSIntLiteral l && b.getRight() instanceof TSIntLiteral r) {
+                        return IntLiteral(l.getIntValue() + r.getIntValue());
+                    }
+                    return b;
+                })
+                // creates new elements, which are rewritten in the same run
+                .onExprStatement(s -> {
+                    if (s.getExpression() instanceof TSIntLiteral i) {
+                        return Assignment("_", BinaryExpr(IntLiteral(i.getIntValue()), Plus(), IntLiteral(1)));
+                    }
+                    return s;
+                })
+                // changes the element in place
+                .onAssignment(a -> {
+                    if (a.getVarName().equals("_")) a.setVarName("tmp");
+                    return a;
+                });
+        var program = Program(StatementList(
+                Assignment("x", BinaryExpr(BinaryExpr(IntLiteral(1), Plus(), IntLiteral(2)), Plus(),
+                        BinaryExpr(IntLiteral(3), Plus(), IntLiteral(4)))),
+                ExprStatement(BinaryExpr(VarRef("y"), Plus(), BinaryExpr(IntLiteral(5), Plus(), IntLiteral(6)))),
+                ExprStatement(BinaryExpr(IntLiteral(7), Less(), IntLiteral(8))),
+                ExprStatement(BinaryExpr(IntLiteral(9), Plus(), IntLiteral(10)))));
+        int size = count(program);
+
+        assertSame(program, rewriter.rewrite(program));
+        var expected = Program(StatementList(
+                Assignment("x", IntLiteral(10)),
+                ExprStatement(BinaryExpr(VarRef("y"), Plus(), IntLiteral(11))),
+                ExprStatement(BinaryExpr(IntLiteral(7), Less(), IntLiteral(8))),
+                Assignment("tmp", IntLiteral(20))));
+        assertTrue(expected.structuralEquals(program), program.toString());
+        // 6 folds, 1 new statement and 1 renaming
+        assertEquals(8, rewriter.getRulesFired());
+        // the unchanged elements are visited only once
+        assertTrue(rewriter.getNodesVisited() < 2 * size);
+        for (int i = 0; i < program.getStatements().size(); i++) {
+            assertEquals(i, program.getStatements().get(i).getIndexInParent());
+        }
+
+        // the root can be replaced, too
+        var sum = rewriter.rewrite(BinaryExpr(IntLiteral(1), Plus(), IntLiteral(2)));
+        assertTrue(IntLiteral(3).structuralEquals(sum));
+        assertNull(sum.getParent());
+    }
+
+    private static int count(TSElement e) {
+        int n = 1;
+        for (int i = 0; i < e.size(); i++) {
+            n += count(e.get(i));
+        }
+        return n;
+    }
+
     // Helper methods for optimization tests
     private TSProgram eliminateDeadCode(TSProgram program) {
         var newStatements = StatementList();